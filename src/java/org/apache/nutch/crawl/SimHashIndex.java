@@ -0,0 +1,165 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.nutch.crawl;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Finds the SimHash fingerprints within a Hamming distance with a banded LSH
+ * index.
+ *
+ * The 64 bits are split into maxDistance + 1 bands, two fingerprints which
+ * differ by at most maxDistance bits are identical in at least one band, so
+ * every fingerprint within the distance shares a bucket with the queried one,
+ * and the candidates of the buckets are checked by their real distance. Nothing
+ * within the distance is missed, and nothing beyond it is returned.
+ *
+ * The index is bounded, fingerprints are not added once it's full. It's not
+ * thread safe.
+ */
+public class SimHashIndex<T> {
+
+  private final int maxDistance;
+  private final int maxSize;
+  private final int[] bandShifts;
+  private final long[] bandMasks;
+  /** The ids of the entries by the band value, one map for each band */
+  private final Map<Long, int[]>[] buckets;
+
+  private long[] fingerprints = new long[16];
+  private Object[] values = new Object[16];
+  private int size = 0;
+
+  /**
+   * @param maxDistance the max Hamming distance of near duplicates, 0 to 63
+   * @param maxSize the max number of fingerprints in the index
+   * */
+  @SuppressWarnings("unchecked")
+  public SimHashIndex(int maxDistance, int maxSize) {
+    if (maxDistance < 0 || maxDistance >= 64) {
+      throw new IllegalArgumentException("The max distance must be between 0 and 63, but is " + maxDistance);
+    }
+
+    this.maxDistance = maxDistance;
+    this.maxSize = maxSize;
+
+    int bands = maxDistance + 1;
+    bandShifts = new int[bands];
+    bandMasks = new long[bands];
+    buckets = new Map[bands];
+    int shift = 0;
+    for (int band = 0; band < bands; band++) {
+      // The first bands are one bit wider if 64 bits can not be split evenly
+      int width = 64 / bands + (band < 64 % bands ? 1 : 0);
+      bandShifts[band] = shift;
+      bandMasks[band] = width == 64 ? -1L : (1L << width) - 1;
+      buckets[band] = new HashMap<>();
+      shift += width;
+    }
+  }
+
+  public static int distance(long fingerprint1, long fingerprint2) {
+    return Long.bitCount(fingerprint1 ^ fingerprint2);
+  }
+
+  public int getMaxDistance() {
+    return maxDistance;
+  }
+
+  public int size() {
+    return size;
+  }
+
+  /** The number of bands, maxDistance + 1 */
+  public int getBands() {
+    return buckets.length;
+  }
+
+  /**
+   * The bits of the fingerprint in the band, fingerprints within the max distance share at least one band
+   * */
+  public long getBand(long fingerprint, int band) {
+    return (fingerprint >>> bandShifts[band]) & bandMasks[band];
+  }
+
+  /**
+   * @return false if the index is full
+   * */
+  public boolean add(long fingerprint, T value) {
+    if (size >= maxSize) {
+      return false;
+    }
+
+    if (size == fingerprints.length) {
+      fingerprints = Arrays.copyOf(fingerprints, size * 2);
+      values = Arrays.copyOf(values, size * 2);
+    }
+    int id = size++;
+    fingerprints[id] = fingerprint;
+    values[id] = value;
+
+    for (int band = 0; band < buckets.length; band++) {
+      Long key = getBand(fingerprint, band);
+      // ids[0] is the number of ids in the bucket
+      int[] ids = buckets[band].get(key);
+      if (ids == null || ids[0] + 1 == ids.length) {
+        ids = ids == null ? new int[4] : Arrays.copyOf(ids, ids.length * 2);
+        buckets[band].put(key, ids);
+      }
+      ids[++ids[0]] = id;
+    }
+
+    return true;
+  }
+
+  /**
+   * @return the value of the nearest fingerprint within the max distance, or null if there is none
+   * */
+  @SuppressWarnings("unchecked")
+  public T findNear(long fingerprint) {
+    int nearest = -1;
+    int nearestDistance = maxDistance + 1;
+
+    for (int band = 0; band < buckets.length && nearestDistance > 0; band++) {
+      int[] ids = buckets[band].get(getBand(fingerprint, band));
+      if (ids == null) {
+        continue;
+      }
+
+      for (int i = 1; i <= ids[0]; i++) {
+        int d = distance(fingerprint, fingerprints[ids[i]]);
+        if (d < nearestDistance || (d == nearestDistance && ids[i] < nearest)) {
+          nearest = ids[i];
+          nearestDistance = d;
+        }
+      }
+    }
+
+    return nearest < 0 ? null : (T) values[nearest];
+  }
+
+  public void clear() {
+    for (Map<Long, int[]> bucket : buckets) {
+      bucket.clear();
+    }
+    Arrays.fill(values, 0, size, null);
+    size = 0;
+  }
+}
@@ -0,0 +1,213 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.nutch.crawl;
+
+import java.nio.ByteBuffer;
+import java.util.Collection;
+import java.util.HashSet;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.nutch.storage.WebPage;
+
+/**
+ * <p>
+ * A page signature which is similar for similar pages. It calculates a 64 bits
+ * SimHash of the plain text of a page, so pages which differ only by a
+ * timestamp or an ad block have signatures within a small Hamming distance,
+ * see {@link SimHashIndex} to find them. In case there is no text, or no token
+ * in the text, it calculates a hash using the {@link MD5Signature}, which is 16
+ * bytes long, so such pages are never taken as near duplicates of each other.
+ * </p>
+ * <p>
+ * The text is split into tokens of consecutive letters and digits, brought to
+ * lower case, and tokens equal or shorter than MIN_TOKEN_LEN are discarded.
+ * Every CJK ideograph is a token by itself, since there are no spaces between
+ * words. Every SHINGLE consecutive tokens are hashed together, and every bit of
+ * the signature is set if it's set in the hashes of more than half of the
+ * shingles.
+ * </p>
+ * <p>
+ * The tokens are hashed while the text is scanned, nothing is allocated for a
+ * token.
+ * </p>
+ */
+public class SimHashSignature extends Signature {
+
+  /** The length of the signature in bytes */
+  public static final int SIZE = 8;
+
+  public static final String MIN_TOKEN_LEN = "db.signature.simhash.min_token_len";
+  public static final String SHINGLE = "db.signature.simhash.shingle";
+
+  private final static Collection<WebPage.Field> FIELDS = new HashSet<WebPage.Field>();
+
+  static {
+    FIELDS.add(WebPage.Field.CONTENT);
+    FIELDS.add(WebPage.Field.TEXT);
+  }
+
+  private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+  private static final long FNV_PRIME = 0x100000001b3L;
+  private static final long GOLDEN_GAMMA = 0x9e3779b97f4a7c15L;
+
+  private Signature fallback = new MD5Signature();
+  private int minTokenLen = 2;
+  private int shingle = 2;
+
+  @Override
+  public void setConf(Configuration conf) {
+    super.setConf(conf);
+    if (conf != null) {
+      minTokenLen = conf.getInt(MIN_TOKEN_LEN, 2);
+      shingle = Math.max(1, conf.getInt(SHINGLE, 2));
+    }
+  }
+
+  @Override
+  public byte[] calculate(WebPage page) {
+    CharSequence text = page.getText();
+    if (text == null || text.length() == 0) {
+      return fallback.calculate(page);
+    }
+
+    Shingler shingler = shingle(text, minTokenLen, shingle);
+    if (shingler.isEmpty()) {
+      // All pages without tokens would have the same fingerprint, 0
+      return fallback.calculate(page);
+    }
+
+    return ByteBuffer.allocate(SIZE).putLong(shingler.fingerprint()).array();
+  }
+
+  /**
+   * @return the signature as a long, or 0 if it's not a SimHash signature
+   * */
+  public static long toLong(ByteBuffer signature) {
+    if (signature == null || signature.remaining() != SIZE) {
+      return 0;
+    }
+    return signature.getLong(signature.position());
+  }
+
+  public static boolean isSimHash(ByteBuffer signature) {
+    return signature != null && signature.remaining() == SIZE;
+  }
+
+  /**
+   * The SimHash of the text, 0 if there is no token in the text
+   * */
+  public static long fingerprint(CharSequence text, int minTokenLen, int shingle) {
+    return shingle(text, minTokenLen, shingle).fingerprint();
+  }
+
+  private static Shingler shingle(CharSequence text, int minTokenLen, int shingle) {
+    Shingler shingler = new Shingler(shingle);
+
+    long hash = FNV_OFFSET;
+    int length = 0;
+    int end = text.length();
+    for (int i = 0; i <= end; i++) {
+      char c = i < end ? text.charAt(i) : ' ';
+      boolean ideograph = Character.isIdeographic(c);
+      if (!ideograph && Character.isLetterOrDigit(c)) {
+        hash = (hash ^ Character.toLowerCase(c)) * FNV_PRIME;
+        length++;
+        continue;
+      }
+
+      if (length > minTokenLen) {
+        shingler.add(hash);
+      }
+      hash = FNV_OFFSET;
+      length = 0;
+
+      if (ideograph) {
+        shingler.add((FNV_OFFSET ^ c) * FNV_PRIME);
+      }
+    }
+
+    return shingler;
+  }
+
+  /**
+   * Hashes every window of consecutive tokens, and counts the bits of the hashes
+   * */
+  private static class Shingler {
+    private final long[] window;
+    private final int[] weights = new int[64];
+    private int tokens = 0;
+
+    Shingler(int size) {
+      window = new long[size];
+    }
+
+    void add(long token) {
+      window[tokens % window.length] = token;
+      tokens++;
+      if (tokens >= window.length) {
+        addShingle(tokens - window.length, window.length);
+      }
+    }
+
+    boolean isEmpty() {
+      return tokens == 0;
+    }
+
+    long fingerprint() {
+      // A text shorter than a shingle is a shingle itself
+      if (tokens > 0 && tokens < window.length) {
+        addShingle(0, tokens);
+      }
+
+      long fingerprint = 0;
+      for (int bit = 0; bit < 64; bit++) {
+        if (weights[bit] > 0) {
+          fingerprint |= 1L << bit;
+        }
+      }
+      return fingerprint;
+    }
+
+    private void addShingle(int first, int count) {
+      long h = 0;
+      for (int i = 0; i < count; i++) {
+        h = h * GOLDEN_GAMMA + window[(first + i) % window.length];
+      }
+      h = mix(h);
+
+      for (int bit = 0; bit < 64; bit++) {
+        weights[bit] += ((h >>> bit) & 1) != 0 ? 1 : -1;
+      }
+    }
+
+    /** The finalizer of MurmurHash3, so every bit of the shingle hash depends on every bit of the tokens */
+    private static long mix(long h) {
+      h ^= h >>> 33;
+      h *= 0xff51afd7ed558ccdL;
+      h ^= h >>> 33;
+      h *= 0xc4ceb9fe1a85ec53L;
+      h ^= h >>> 33;
+      return h;
+    }
+  }
+
+  @Override
+  public Collection<WebPage.Field> getFields() {
+    return FIELDS;
+  }
+}
@@ -24,6 +24,7 @@ import org.apache.hadoop.mapreduce.Partitioner;
 import org.apache.nutch.mapreduce.GenerateJob;
 import org.apache.nutch.mapreduce.GenerateJob.SelectorEntry;
 import org.apache.nutch.fetch.data.FetchEntry;
+import org.apache.nutch.net.CachingHostResolver;
 import org.apache.nutch.net.URLNormalizers;
 import org.apache.nutch.storage.WebPage;
 import org.apache.nutch.util.TableUtil;
@@ -51,6 +52,7 @@ public class URLPartitioner implements Configurable {
 
   private int seed;
   private URLNormalizers normalizers;
+  private CachingHostResolver hostResolver;
   private URLUtil.HostGroupMode hostGroupMode = URLUtil.HostGroupMode.BY_HOST;
 
   @Override
@@ -64,6 +66,9 @@ public class URLPartitioner implements Configurable {
     seed = conf.getInt(PARTITION_URL_SEED, 0);
     hostGroupMode = conf.getEnum(PARTITION_MODE_KEY, URLUtil.HostGroupMode.BY_HOST);
     normalizers = new URLNormalizers(conf, URLNormalizers.SCOPE_PARTITION);
+    if (hostGroupMode == URLUtil.HostGroupMode.BY_IP) {
+      hostResolver = CachingHostResolver.getInstance(conf);
+    }
   }
 
   public int getPartition(String urlString, int numReduceTasks) {
@@ -90,7 +95,7 @@ public class URLPartitioner implements Configurable {
         hashCode = URLUtil.getDomainName(url).hashCode();
       } else { // MODE IP
         try {
-          InetAddress address = InetAddress.getByName(url.getHost());
+          InetAddress address = hostResolver.resolve(url.getHost());
           hashCode = address.getHostAddress().hashCode();
         } catch (UnknownHostException e) {
           GenerateJob.LOG.info("Couldn't find IP for host: " + url.getHost());
@@ -45,20 +45,25 @@ public class CrawlFilter extends Configured {
    * not accurate
    * TODO : configurable
    * */
-  public static Pattern[] INDEX_PAGE_URL_PATTERNS = {
+  public static final Pattern[] INDEX_PAGE_URL_PATTERNS = {
       Pattern.compile(".+tieba.baidu.com/.+search.+"),
       Pattern.compile(".+(index|list|tags|chanel).+"),
   };
 
-  public static Pattern SEARCH_PAGE_URL_PATTERN = Pattern.compile(".+(search|query|select).+");
+  public static final Pattern SEARCH_PAGE_URL_PATTERN = Pattern.compile(".+(search|query|select).+");
 
   // TODO : configurable, testable
-  public static Pattern[] DETAIL_PAGE_URL_PATTERNS = {
+  public static final Pattern[] DETAIL_PAGE_URL_PATTERNS = {
       Pattern.compile(".+tieba.baidu.com/p/(\\d+)"),
       Pattern.compile(".+(detail|item|article|book|good|product|thread|view|post|content|/20[012][0-9]/{0,1}[01][0-9]/|/20[012]-[0-9]{0,1}-[01][0-9]/|/\\d{2,}/\\d{5,}|\\d{7,}).+")
   };
 
-  public static Pattern MEDIA_PAGE_URL_PATTERN = Pattern.compile(".+(pic|picture|photo|avatar|photoshow|video).+");
+  public static final Pattern MEDIA_PAGE_URL_PATTERN = Pattern.compile(".+(pic|picture|photo|avatar|photoshow|video).+");
+
+  /**
+   * All the patterns above in one automaton, built on the first use
+   * */
+  private static volatile PageCategoryMatcher pageCategoryMatcher;
 
   public static CrawlFilter.PageCategory sniffPageCategory(String url, WebPage page) {
     CrawlFilter.PageCategory pageCategory = CrawlFilter.PageCategory.ANY;
@@ -120,6 +125,20 @@ public class CrawlFilter extends Configured {
   public static PageCategory sniffPageCategoryByUrlPattern(String urlString) {
     Objects.requireNonNull(urlString);
 
+    PageCategory pageCategory = getPageCategoryMatcher().match(urlString);
+    if (pageCategory != null) {
+      return pageCategory;
+    }
+
+    return sniffPageCategoryByUrlRegex(urlString);
+  }
+
+  /**
+   * The regex version of {@link #sniffPageCategoryByUrlPattern(String)}, every pattern is a scan of the url
+   * */
+  public static PageCategory sniffPageCategoryByUrlRegex(String urlString) {
+    Objects.requireNonNull(urlString);
+
     PageCategory pageCategory = PageCategory.ANY;
 
     final String url = urlString.toLowerCase();
@@ -148,6 +167,18 @@ public class CrawlFilter extends Configured {
     return pageCategory;
   }
 
+  private static PageCategoryMatcher getPageCategoryMatcher() {
+    if (pageCategoryMatcher == null) {
+      PageCategoryMatcher matcher = new PageCategoryMatcher(INDEX_PAGE_URL_PATTERNS, DETAIL_PAGE_URL_PATTERNS,
+          new Pattern[] {SEARCH_PAGE_URL_PATTERN}, new Pattern[] {MEDIA_PAGE_URL_PATTERN});
+      if (!matcher.isCompiled()) {
+        LOG.warn("Failed to compile page category url patterns, fall back to regex matching");
+      }
+      pageCategoryMatcher = matcher;
+    }
+    return pageCategoryMatcher;
+  }
+
   public enum PageCategory {
     INDEX, DETAIL, SEARCH, MEDIA, ANY
   }
@@ -34,6 +34,7 @@ import org.w3c.dom.Node;
 
 import java.nio.file.Files;
 import java.nio.file.Paths;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -47,9 +48,32 @@ public class CrawlFilters extends Configured {
 
   public static final String CRAWL_FILTER_RULES = "crawl.filter.rules";
 
+  /** The number of recent urls whose page categories are kept by each thread */
+  private static final int VERDICT_CACHE_SIZE = 128;
+
   @Expose
   private List<CrawlFilter> crawlFilters = Lists.newArrayList();
 
+  /**
+   * The page categories of the recent urls, as a bit set of (1 << category.ordinal()),
+   * a url is usually asked for several categories in a row
+   * */
+  private ThreadLocal<Map<String, Integer>> verdicts;
+
+  /** An LRU map which keeps the page categories of the last VERDICT_CACHE_SIZE urls */
+  private static class VerdictCache extends LinkedHashMap<String, Integer> {
+    private static final long serialVersionUID = 1L;
+
+    VerdictCache() {
+      super(VERDICT_CACHE_SIZE, 0.75f, true);
+    }
+
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<String, Integer> eldest) {
+      return size() > VERDICT_CACHE_SIZE;
+    }
+  }
+
   public static CrawlFilters create(Configuration conf) {
     String filterRules = conf.get(CRAWL_FILTER_RULES);
 //    Validate.isTrue(!filterRules.contains("\\uFFFF"));
@@ -91,6 +115,9 @@ public class CrawlFilters extends Configured {
     for (CrawlFilter crawlFilter : crawlFilters) {
       crawlFilter.setConf(conf);
     }
+
+    // Field initializers are not run if the instance is created by gson
+    verdicts = ThreadLocal.withInitial(VerdictCache::new);
   }
 
   public boolean testUrlSatisfied(String url) {
@@ -224,82 +251,59 @@ public class CrawlFilters extends Configured {
   }
 
   public boolean isDetailUrl(String url) {
-    if (url == null) {
-      return false;
-    }
-
-    PageCategory pageType = CrawlFilter.sniffPageCategoryByUrlPattern(url);
-
-    if (pageType == PageCategory.DETAIL) {
-      return true;
-    }
-
-    for (CrawlFilter filter : crawlFilters) {
-      if (filter.isDetailUrl(url)) {
-        return true;
-      }
-    }
-
-    return false;
+    return isCategory(url, PageCategory.DETAIL);
   }
 
   public boolean isIndexUrl(String url) {
-    if (url == null) return false;
-
-    PageCategory pageType = CrawlFilter.sniffPageCategoryByUrlPattern(url);
-
-    if (pageType == PageCategory.INDEX) {
-      return true;
-    }
-
-    for (CrawlFilter filter : crawlFilters) {
-      if (filter.isIndexUrl(url)) {
-        return true;
-      }
-    }
-
-    return false;
+    return isCategory(url, PageCategory.INDEX);
   }
 
   public boolean isMediaUrl(String url) {
-    if (url == null) return false;
-
-    PageCategory pageType = CrawlFilter.sniffPageCategoryByUrlPattern(url);
-
-    if (pageType == PageCategory.MEDIA) {
-      return true;
-    }
-
-    for (CrawlFilter filter : crawlFilters) {
-      if (filter.isMediaUrl(url)) {
-        return true;
-      }
-    }
-
-    return false;
+    return isCategory(url, PageCategory.MEDIA);
   }
 
   /**
    * Notice : index url is not a search url even if it contains "search"
    * */
   public boolean isSearchUrl(String url) {
+    return isCategory(url, PageCategory.SEARCH);
+  }
+
+  private boolean isCategory(String url, PageCategory pageCategory) {
     if (url == null) {
       return false;
     }
 
-    PageCategory pageType = CrawlFilter.sniffPageCategoryByUrlPattern(url);
+    return (getCategories(url) & (1 << pageCategory.ordinal())) != 0;
+  }
 
-    if (pageType == PageCategory.SEARCH) {
-      return true;
+  private int getCategories(String url) {
+    Map<String, Integer> recentVerdicts = verdicts == null ? null : verdicts.get();
+    Integer categories = recentVerdicts == null ? null : recentVerdicts.get(url);
+    if (categories == null) {
+      categories = computeCategories(url);
+      if (recentVerdicts != null) {
+        recentVerdicts.put(url, categories);
+      }
     }
 
+    return categories;
+  }
+
+  /**
+   * A url is in the category sniffed by the url patterns, and in the category of every crawl filter it satisfies
+   * */
+  private int computeCategories(String url) {
+    int categories = 1 << CrawlFilter.sniffPageCategoryByUrlPattern(url).ordinal();
+
     for (CrawlFilter filter : crawlFilters) {
-      if (filter.isSearchUrl(url)) {
-        return true;
+      int category = 1 << filter.getPageType().ordinal();
+      if ((categories & category) == 0 && filter.getPageType() != PageCategory.ANY && filter.testUrlSatisfied(url)) {
+        categories |= category;
       }
     }
 
-    return false;
+    return categories;
   }
 
   public List<CrawlFilter> getCrawlFilters() {
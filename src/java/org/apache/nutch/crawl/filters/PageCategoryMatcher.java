@@ -0,0 +1,130 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.apache.nutch.crawl.filters;
+
+import dk.brics.automaton.Automaton;
+import dk.brics.automaton.BasicAutomata;
+import dk.brics.automaton.BasicOperations;
+import dk.brics.automaton.RunAutomaton;
+import org.apache.nutch.crawl.filters.CrawlFilter.PageCategory;
+import org.apache.nutch.net.CompiledRegexRules;
+
+import java.util.regex.Pattern;
+
+/**
+ * Matches all the url patterns of {@link CrawlFilter#sniffPageCategoryByUrlPattern(String)} in one pass.
+ *
+ * The patterns of each category are compiled into an automaton followed by a marker char of the category,
+ * and all the categories are merged into one DFA. A url is lowercased and run through the DFA char by char,
+ * the slashes are counted in the same loop, and then the marker of each category is tested in the order
+ * the regexes were tested, so the first matching category wins just as before.
+ * */
+class PageCategoryMatcher {
+
+  /** The categories in the order they are tested, the marker of a category is (char) (index + 1) */
+  private static final PageCategory[] CATEGORIES = {
+      PageCategory.INDEX, PageCategory.DETAIL, PageCategory.SEARCH, PageCategory.MEDIA
+  };
+
+  private final RunAutomaton automaton;
+
+  /**
+   * @param patterns the patterns of each category in {@link #CATEGORIES}
+   * */
+  PageCategoryMatcher(Pattern[]... patterns) {
+    Automaton union = null;
+
+    for (int i = 0; i < CATEGORIES.length; ++i) {
+      for (Pattern pattern : patterns[i]) {
+        Automaton automaton = CompiledRegexRules.toAutomaton(pattern.pattern(), false);
+        if (automaton == null || pattern.flags() != 0) {
+          // Not expressible, all urls are matched by the regexes
+          this.automaton = null;
+          return;
+        }
+
+        automaton = automaton.concatenate(BasicAutomata.makeChar(getMarker(i)));
+        union = union == null ? automaton : BasicOperations.union(union, automaton);
+      }
+    }
+
+    if (union != null) {
+      union.minimize();
+    }
+    this.automaton = union == null ? null : new RunAutomaton(union);
+  }
+
+  /**
+   * @return false if every url must be matched by the regexes
+   * */
+  boolean isCompiled() {
+    return automaton != null;
+  }
+
+  /**
+   * @return the category of the url, or null if the url must be matched by the regexes,
+   * which happens only for urls with non ascii or control chars
+   * */
+  PageCategory match(String url) {
+    if (automaton == null) {
+      return null;
+    }
+
+    int state = automaton.getInitialState();
+    int slashes = 0;
+    char last = 0;
+    for (int i = 0; i < url.length(); ++i) {
+      char c = url.charAt(i);
+      if (c < 0x20 || c >= 0x7F) {
+        return null;
+      }
+
+      if (c >= 'A' && c <= 'Z') {
+        c += 'a' - 'A';
+      }
+      else if (c == '/') {
+        ++slashes;
+      }
+
+      if (state >= 0) {
+        state = automaton.step(state, c);
+      }
+      last = c;
+    }
+
+    // Notice : ***DO KEEP*** the same order with CrawlFilter.sniffPageCategoryByUrlPattern
+    if (last == '/' || slashes <= 3) {
+      return PageCategory.INDEX;
+    }
+
+    if (state >= 0) {
+      for (int i = 0; i < CATEGORIES.length; ++i) {
+        int s = automaton.step(state, getMarker(i));
+        if (s >= 0 && automaton.isAccept(s)) {
+          return CATEGORIES[i];
+        }
+      }
+    }
+
+    return PageCategory.ANY;
+  }
+
+  /** Control chars never appear in the urls the automaton runs, see {@link #match(String)} */
+  private static char getMarker(int categoryIndex) {
+    return (char) (categoryIndex + 1);
+  }
+}
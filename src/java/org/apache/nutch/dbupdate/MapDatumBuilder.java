@@ -8,8 +8,8 @@ import org.apache.nutch.crawl.filters.CrawlFilters;
 import org.apache.nutch.mapreduce.NutchCounter;
 import org.apache.nutch.mapreduce.WebPageWritable;
 import org.apache.nutch.metadata.Nutch;
+import org.apache.nutch.net.CachingURLFilters;
 import org.apache.nutch.net.URLFilterException;
-import org.apache.nutch.net.URLFilters;
 import org.apache.nutch.net.URLNormalizers;
 import org.apache.nutch.parse.Outlink;
 import org.apache.nutch.scoring.ScoreDatum;
@@ -28,6 +28,7 @@ import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.stream.Collectors;
 import java.util.stream.IntStream;
 import java.util.stream.Stream;
@@ -53,8 +54,7 @@ public class MapDatumBuilder {
   private final int maxDistance;
   private final boolean normalize;
   private final boolean filter;
-  private final URLNormalizers normalizers;
-  private final URLFilters urlFilters;
+  private final CachingURLFilters urlFilters;
   private final CrawlFilters crawlFilters;
   private ScoringFilters scoringFilters;
 
@@ -68,8 +68,7 @@ public class MapDatumBuilder {
     batchId = conf.get(PARAM_BATCH_ID, ALL_BATCH_ID_STR);
     normalize = conf.getBoolean(URL_NORMALIZING, true);
     filter = conf.getBoolean(URL_FILTERING, true);
-    normalizers = normalize ? new URLNormalizers(conf, URLNormalizers.SCOPE_OUTLINK) : null;
-    urlFilters = filter ? new URLFilters(conf) : null;
+    urlFilters = normalize || filter ? CachingURLFilters.get(conf) : null;
     crawlFilters = CrawlFilters.create(conf);
     scoringFilters = new ScoringFilters(conf);
 
@@ -91,7 +90,7 @@ public class MapDatumBuilder {
   public String filterUrl(WebPage mainPage, String url) {
     try {
       if (normalize) {
-        url = normalizers.normalize(url, URLNormalizers.SCOPE_OUTLINK);
+        url = urlFilters.normalize(url, URLNormalizers.SCOPE_OUTLINK);
       }
 
       if (filter) {
@@ -134,18 +133,24 @@ public class MapDatumBuilder {
   }
 
   /**
-   * Build map phrase datum
+   * Build map phrase datum for an outlink. The key is the outlink url, the value is a compact score datum
+   * pointing back to the source page, the source page itself is never shipped. The metadata of the datum,
+   * the seed mark for example, is kept
+   *
+   * @return null if the outlink url is malformed
    * */
-  public Pair<UrlWithScore, NutchWritable> createNewDatum(String url, float score, WebPage sourcePage) {
-    String reversedUrl = null;
+  public Pair<UrlWithScore, NutchWritable> createNewDatum(String sourceUrl, ScoreDatum scoreDatum) {
+    String reversedUrl;
     try {
-      reversedUrl = TableUtil.reverseUrl(url);
-    } catch (MalformedURLException ignored) {
+      reversedUrl = TableUtil.reverseUrl(scoreDatum.getUrl());
+    } catch (MalformedURLException e) {
+      return null;
     }
 
-    NutchWritable nutchWritable = new NutchWritable();
-    nutchWritable.set(new WebPageWritable(conf, sourcePage));
-    return Pair.of(new UrlWithScore(reversedUrl, score), nutchWritable);
+    // In the reduce phrase, the datum is an inlink of the outlink page
+    scoreDatum.setUrl(sourceUrl);
+
+    return Pair.of(new UrlWithScore(reversedUrl, scoreDatum.getScore()), new NutchWritable(scoreDatum));
   }
 
   public List<Outlink> getFilteredOutlinks(WebPage sourcePage, final int limit) {
@@ -201,7 +206,12 @@ public class MapDatumBuilder {
 
     counter.increase(NutchCounter.Counter.outlinks, scoreData.size());
 
-    return scoreData.stream().map(d -> createNewDatum(d.getUrl(), d.getScore(), sourcePage))
-        .collect(Collectors.toMap(Pair::getKey, Pair::getValue));
+    if (TableUtil.isSeed(sourcePage)) {
+      scoreData.forEach(TableUtil::markFromSeed);
+    }
+
+    return scoreData.stream().map(d -> createNewDatum(sourceUrl, d))
+        .filter(Objects::nonNull)
+        .collect(Collectors.toMap(Pair::getKey, Pair::getValue, (v1, v2) -> v1));
   }
 }
@@ -0,0 +1,131 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.nutch.dbupdate;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.hash.BloomFilter;
+import com.google.common.hash.Funnels;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.nutch.util.Params;
+
+import java.util.LinkedList;
+
+/**
+ * Remembers the rows known to exist recently, so that we need not to check the datastore
+ * for every outlink we discovered.
+ *
+ * Rows with a publish time are kept in a bounded LRU cache, because the publish time is required
+ * by the caller, all other rows are kept in a bloom filter. The bloom filter scales by adding a new
+ * filter each time the current one is full, the false positive rate of each new filter is half of
+ * the previous one, and the oldest filter is dropped if there are too many.
+ *
+ * A false positive means an outlink is taken as an existing row, and no new row is created for it.
+ * */
+public class RecentRowFilter {
+
+  public static final String FILTER_CAPACITY = "db.update.outlink.filter.capacity";
+  public static final String FILTER_FPP = "db.update.outlink.filter.fpp";
+  public static final String FILTER_MAX_FILTERS = "db.update.outlink.filter.max.filters";
+  public static final String CACHE_SIZE = "db.update.outlink.cache.size";
+
+  private final int capacity;
+  private final double fpp;
+  private final int maxFilters;
+
+  private final LinkedList<BloomFilter<CharSequence>> filters = new LinkedList<>();
+  private int insertions = 0;
+  private double currentFpp;
+
+  private final Cache<String, Long> publishTimes;
+
+  public RecentRowFilter(Configuration conf) {
+    this(conf.getInt(FILTER_CAPACITY, 1000000),
+        Double.parseDouble(conf.get(FILTER_FPP, "0.001")),
+        conf.getInt(FILTER_MAX_FILTERS, 8),
+        conf.getInt(CACHE_SIZE, 100000));
+  }
+
+  public RecentRowFilter(int capacity, double fpp, int maxFilters, int cacheSize) {
+    this.capacity = Math.max(1, capacity);
+    this.fpp = fpp;
+    this.maxFilters = Math.max(1, maxFilters);
+    this.currentFpp = fpp;
+    this.publishTimes = CacheBuilder.newBuilder().maximumSize(cacheSize).build();
+
+    filters.add(BloomFilter.create(Funnels.stringFunnel(), this.capacity, currentFpp));
+  }
+
+  public Params getParams() {
+    return Params.of(
+        "filterCapacity", capacity,
+        "filterFpp", fpp,
+        "maxFilters", maxFilters,
+        "cacheSize", publishTimes.size()
+    );
+  }
+
+  /**
+   * Record a row which exists in the datastore
+   * @param publishTime the publish time of the row, or a non-positive value if unknown
+   * */
+  public void put(String reversedUrl, long publishTime) {
+    if (publishTime > 0) {
+      publishTimes.put(reversedUrl, publishTime);
+      return;
+    }
+
+    synchronized (filters) {
+      if (insertions >= capacity) {
+        currentFpp /= 2;
+        filters.addLast(BloomFilter.create(Funnels.stringFunnel(), capacity, currentFpp));
+        insertions = 0;
+
+        if (filters.size() > maxFilters) {
+          filters.removeFirst();
+        }
+      }
+
+      if (filters.getLast().put(reversedUrl)) {
+        ++insertions;
+      }
+    }
+  }
+
+  /**
+   * @return the publish time of the row if it's cached, or null
+   * */
+  public Long getPublishTime(String reversedUrl) {
+    return publishTimes.getIfPresent(reversedUrl);
+  }
+
+  /**
+   * @return false if the row is not recorded, true if it probably is
+   * */
+  public boolean mightContain(String reversedUrl) {
+    synchronized (filters) {
+      for (BloomFilter<CharSequence> filter : filters) {
+        if (filter.mightContain(reversedUrl)) {
+          return true;
+        }
+      }
+    }
+
+    return false;
+  }
+}
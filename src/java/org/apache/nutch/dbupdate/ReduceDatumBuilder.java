@@ -73,7 +73,13 @@ public class ReduceDatumBuilder {
     return params;
   }
 
-  public void process(String url, WebPage page, WebPage oldPage, boolean additionsAllowed) {
+  /**
+   * @return the page to write, which is a new row if the url is known only by its inlinks,
+   * or null if new rows are not allowed
+   * */
+  public WebPage process(String url, WebPage page, WebPage oldPage, boolean additionsAllowed) {
+    boolean newRow = false;
+
     //check if page is already in the db
     if (page == null && oldPage != null) {
       // if we return here inlinks will not be updated
@@ -81,10 +87,11 @@ public class ReduceDatumBuilder {
     } else if (page == null) {
       // Here we got a new webpage from outlink
       if (!additionsAllowed) {
-        return;
+        return null;
       }
 
       page = createNewRow(url);
+      newRow = true;
 
       counter.increase(DbUpdateReducer.Counter.newRows);
     } else {
@@ -93,6 +100,13 @@ public class ReduceDatumBuilder {
     }
 
     updateRow(url, page);
+
+    // The seed mark is cleared by updateRow, a new row linked from a seed is marked after it
+    if (newRow && inlinkedScoreData.stream().anyMatch(TableUtil::isFromSeed)) {
+      TableUtil.markFromSeed(page);
+    }
+
+    return page;
   }
 
   /**
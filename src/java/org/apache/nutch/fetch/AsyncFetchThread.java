@@ -0,0 +1,423 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.nutch.fetch;
+
+import org.apache.avro.util.Utf8;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.nutch.fetch.data.FetchTask;
+import org.apache.nutch.metadata.HttpHeaders;
+import org.apache.nutch.metadata.Metadata;
+import org.apache.nutch.metadata.SpellCheckedMetadata;
+import org.apache.nutch.protocol.Content;
+import org.apache.nutch.protocol.ProtocolOutput;
+import org.apache.nutch.protocol.ProtocolStatusCodes;
+import org.apache.nutch.protocol.ProtocolStatusUtils;
+import org.apache.nutch.storage.ProtocolStatus;
+import org.apache.nutch.storage.WebPage;
+import org.apache.nutch.util.MimeUtil;
+import org.apache.nutch.util.Params;
+import org.mortbay.io.Buffer;
+import org.mortbay.jetty.client.Address;
+import org.mortbay.jetty.client.HttpClient;
+import org.mortbay.jetty.client.HttpExchange;
+import org.mortbay.thread.QueuedThreadPool;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.MalformedURLException;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+
+import static org.apache.nutch.metadata.Nutch.PARAM_FETCH_MAX_THREADS_PER_QUEUE;
+
+/**
+ * Fetch thread for the async fetch mode.
+ *
+ * A single thread keeps up to fetcher.async.max.inflight requests in flight through a non-blocking
+ * http client, the network io is multiplexed on a selector and a few worker threads handle the responses.
+ * Every response is converted into its own protocol output, the same way HttpBase does, so the
+ * completions share no mutable state and are handled in parallel.
+ *
+ * The requests do not go through the protocol plugins, so only a part of their features is supported:
+ * robots rules are checked the same way as the native mode, see {@link #checkRobotRules(FetchTask)};
+ * requests go through http.proxy.host if it is set, but http.proxy.exception.list and proxy authentication
+ * are ignored; the body is requested with Accept-Encoding: identity and is never decoded, a server which
+ * still sends a compressed body gets it stored as it is.
+ * */
+public class AsyncFetchThread extends FetchThread {
+
+  /** The time to wait before the next try if there is no task to schedule, in milliseconds */
+  private static final long IDLE_WAIT = 200;
+
+  /** The same metadata key as HttpBase uses for the response time */
+  private static final Utf8 RESPONSE_TIME = new Utf8("_rs_");
+
+  private static final byte[] EMPTY_CONTENT = new byte[0];
+
+  private final int maxInflight;
+  private final int workerThreads;
+  private final int timeout;
+  private final int maxContent;
+
+  private final String userAgent;
+  private final String accept;
+  private final String acceptLanguage;
+  private final boolean storeResponseTime;
+  private final MimeUtil mimeTypes;
+
+  /** Each request in flight holds a permit */
+  private final Semaphore inflight;
+
+  private final HttpClient httpClient;
+  private final ExecutorService completionExecutor;
+
+  public AsyncFetchThread(TaskScheduler taskScheduler, Configuration conf) {
+    super(taskScheduler, conf);
+
+    this.maxInflight = Math.max(1, conf.getInt("fetcher.async.max.inflight", 2000));
+    this.workerThreads = Math.max(2, conf.getInt("fetcher.async.threads", 8));
+    this.timeout = conf.getInt("http.timeout", 10000);
+    this.maxContent = conf.getInt("http.content.limit", 64 * 1024);
+
+    this.userAgent = conf.get("http.agent.name");
+    this.accept = conf.get("http.accept", "text/html,application/xhtml+xml,application/xml;q=0.9,*/*;q=0.8");
+    this.acceptLanguage = conf.get("http.accept.language", "en-us,en-gb,en;q=0.7,*;q=0.3");
+    this.storeResponseTime = conf.getBoolean("http.store.responsetime", true);
+    this.mimeTypes = new MimeUtil(conf);
+
+    this.inflight = new Semaphore(maxInflight);
+
+    QueuedThreadPool threadPool = new QueuedThreadPool(workerThreads);
+    threadPool.setName(getName() + "-io");
+    threadPool.setDaemon(true);
+
+    this.httpClient = new HttpClient();
+    httpClient.setConnectorType(HttpClient.CONNECTOR_SELECT_CHANNEL);
+    httpClient.setThreadPool(threadPool);
+    httpClient.setMaxConnectionsPerAddress(conf.getInt(PARAM_FETCH_MAX_THREADS_PER_QUEUE, 1));
+    httpClient.setTimeout(timeout);
+    httpClient.setSoTimeout(timeout);
+    httpClient.setIdleTimeout(conf.getInt("http.keep.alive.timeout", 15000));
+    httpClient.setMaxRetries(0);
+
+    String proxyHost = conf.get("http.proxy.host");
+    if (proxyHost != null && !proxyHost.isEmpty()) {
+      httpClient.setProxy(new Address(proxyHost, conf.getInt("http.proxy.port", 8080)));
+    }
+
+    this.completionExecutor = Executors.newFixedThreadPool(workerThreads, r -> {
+      Thread thread = new Thread(r);
+      thread.setDaemon(true);
+      return thread;
+    });
+
+    LOG.info(Params.format(
+        "className", getClass().getSimpleName(),
+        "maxInflight", maxInflight,
+        "workerThreads", workerThreads,
+        "timeout", timeout,
+        "maxContent", maxContent,
+        "proxyHost", proxyHost
+    ));
+  }
+
+  public int getInflightCount() {
+    return maxInflight - inflight.availablePermits();
+  }
+
+  @Override
+  public void run() {
+    taskScheduler.registerFetchThread(this);
+
+    try {
+      httpClient.start();
+
+      while (!taskScheduler.isMissionComplete() && !isHalted()) {
+        if (!inflight.tryAcquire(1, TimeUnit.SECONDS)) {
+          continue;
+        }
+
+        // null queue id means any queue
+        FetchTask task = taskScheduler.schedule((String)null);
+        if (task == null) {
+          inflight.release();
+          Thread.sleep(IDLE_WAIT);
+          continue;
+        }
+
+        if (checkRobotRules(task)) {
+          inflight.release();
+          continue;
+        }
+
+        send(task);
+      }
+
+      // Wait for the requests in flight
+      if (!inflight.tryAcquire(maxInflight, 2L * timeout, TimeUnit.MILLISECONDS)) {
+        LOG.warn("There are still {} requests in flight, exit anyway", getInflightCount());
+      }
+    } catch (final Throwable e) {
+      LOG.error("Unexpected throwable : " + e.toString());
+    } finally {
+      try {
+        httpClient.stop();
+      } catch (Exception e) {
+        LOG.error(e.toString());
+      }
+      completionExecutor.shutdown();
+
+      taskScheduler.unregisterFetchThread(this);
+
+      LOG.info("Thread #{} finished, {} active threads", getId(), taskScheduler.getActiveFetchThreadCount());
+    }
+  }
+
+  private void send(FetchTask task) {
+    reprUrl = task.getUrl();
+    servedHosts.add(task.getQueueID());
+    ++taskCount;
+
+    FetchExchange exchange = new FetchExchange(task, maxContent, timeout, this::onDone);
+    exchange.setMethod("GET");
+    exchange.setURL(task.getUrl());
+    if (userAgent != null) {
+      exchange.setRequestHeader("User-Agent", userAgent);
+    }
+    exchange.setRequestHeader("Accept", accept);
+    exchange.setRequestHeader("Accept-Language", acceptLanguage);
+    // The body is not decoded, so ask for it uncompressed
+    exchange.setRequestHeader("Accept-Encoding", "identity");
+
+    try {
+      httpClient.send(exchange);
+    } catch (Throwable e) {
+      exchange.fail(e);
+    }
+  }
+
+  /**
+   * Called once by an io thread of the http client when the exchange is done, either way
+   * */
+  private void onDone(FetchExchange exchange) {
+    try {
+      completionExecutor.execute(() -> complete(exchange));
+    } catch (RejectedExecutionException e) {
+      // The thread is exiting
+      taskScheduler.finishUnchecked(exchange.task);
+      inflight.release();
+    }
+  }
+
+  /**
+   * Build the protocol output and finish the task, runs in the completion executor
+   * */
+  private void complete(FetchExchange exchange) {
+    FetchTask task = exchange.task;
+
+    try {
+      ProtocolOutput output = getProtocolOutput(exchange, mimeTypes, storeResponseTime);
+      taskScheduler.finish(task.getQueueID(), task.getItemID(), output);
+    } catch (Throwable e) {
+      LOG.error("Unexpected error for " + task.getUrl(), e);
+      taskScheduler.finishUnchecked(task);
+    } finally {
+      inflight.release();
+    }
+  }
+
+  /**
+   * Convert a done exchange into a protocol output, the http codes are mapped the same way as HttpBase does.
+   * Only the page of the task is modified
+   * */
+  static ProtocolOutput getProtocolOutput(FetchExchange exchange, MimeUtil mimeTypes, boolean storeResponseTime) {
+    if (exchange.error != null) {
+      return new ProtocolOutput(null, getProtocolStatus(exchange.error));
+    }
+
+    String url = exchange.task.getUrl();
+    WebPage page = exchange.task.getPage();
+    Metadata headers = exchange.headers;
+    int elapsedTime = (int) (System.currentTimeMillis() - exchange.startTime);
+    headers.set(HttpHeaders.Q_RESPONSE_TIME, String.valueOf(elapsedTime));
+
+    if (page.getHeaders() != null) {
+      page.getHeaders().clear();
+    }
+    for (String name : headers.names()) {
+      page.getHeaders().put(new Utf8(name), new Utf8(headers.get(name)));
+    }
+    if (storeResponseTime) {
+      page.getMetadata().put(RESPONSE_TIME, ByteBuffer.wrap(Bytes.toBytes(elapsedTime)));
+    }
+
+    URL u;
+    try {
+      u = new URL(url);
+    } catch (MalformedURLException e) {
+      return new ProtocolOutput(null, ProtocolStatusUtils.makeStatus(ProtocolStatusCodes.EXCEPTION, e.toString()));
+    }
+
+    int code = exchange.code;
+    byte[] bytes = exchange.content.size() == 0 ? EMPTY_CONTENT : exchange.content.toByteArray();
+    Content content = new Content(url, url, bytes, headers.get("Content-Type"), headers, mimeTypes);
+
+    if (code == 200) {
+      return new ProtocolOutput(content);
+    } else if (code >= 300 && code < 400) {
+      String location = headers.get("Location");
+      URL target;
+      try {
+        target = new URL(u, location == null ? "" : location);
+      } catch (MalformedURLException e) {
+        target = u;
+      }
+
+      int protocolStatusCode;
+      switch (code) {
+        case 302: // found (temporarily moved)
+        case 303: // see other (redirect after POST)
+        case 307: // temporary redirect
+          protocolStatusCode = ProtocolStatusCodes.TEMP_MOVED;
+          break;
+        case 304: // not modified
+          protocolStatusCode = ProtocolStatusCodes.NOTMODIFIED;
+          break;
+        default:
+          protocolStatusCode = ProtocolStatusCodes.MOVED;
+      }
+      return new ProtocolOutput(content, ProtocolStatusUtils.makeStatus(protocolStatusCode, target));
+    } else if (code == 400 || code == 410) {
+      return new ProtocolOutput(content, ProtocolStatusUtils.makeStatus(ProtocolStatusCodes.GONE, "Http: " + code + " url=" + u));
+    } else if (code == 401) {
+      return new ProtocolOutput(content, ProtocolStatusUtils.makeStatus(ProtocolStatusCodes.ACCESS_DENIED, "Authentication required: " + url));
+    } else if (code == 404) {
+      return new ProtocolOutput(content, ProtocolStatusUtils.makeStatus(ProtocolStatusCodes.NOTFOUND, u));
+    } else {
+      return new ProtocolOutput(content, ProtocolStatusUtils.makeStatus(ProtocolStatusCodes.EXCEPTION, "Http code=" + code + ", url=" + u));
+    }
+  }
+
+  static ProtocolStatus getProtocolStatus(Throwable e) {
+    if (e instanceof ConnectException || e instanceof SocketTimeoutException) {
+      return ProtocolStatusUtils.makeStatus(ProtocolStatusCodes.CONNECTION_TIMED_OUT, e.toString());
+    } else if (e instanceof UnknownHostException) {
+      return ProtocolStatusUtils.makeStatus(ProtocolStatusCodes.UNKNOWN_HOST);
+    } else {
+      return ProtocolStatusUtils.makeStatus(ProtocolStatusCodes.EXCEPTION, e.toString());
+    }
+  }
+
+  /**
+   * Collects the response of a fetch task, the callbacks are invoked by the io threads of the http client.
+   * Every exchange has its own state, the done callback is invoked exactly once
+   * */
+  static class FetchExchange extends HttpExchange {
+
+    private final FetchTask task;
+    private final int maxContent;
+    private final int timeout;
+    private final Consumer<FetchExchange> onDone;
+    private final long startTime = System.currentTimeMillis();
+    private final AtomicBoolean done = new AtomicBoolean(false);
+
+    private int code = -1;
+    private final Metadata headers = new SpellCheckedMetadata();
+    private final ByteArrayOutputStream content = new ByteArrayOutputStream();
+    private Throwable error;
+
+    FetchExchange(FetchTask task, int maxContent, int timeout, Consumer<FetchExchange> onDone) {
+      this.task = task;
+      this.maxContent = maxContent;
+      this.timeout = timeout;
+      this.onDone = onDone;
+    }
+
+    FetchTask getTask() {
+      return task;
+    }
+
+    @Override
+    protected void onResponseStatus(Buffer version, int status, Buffer reason) throws IOException {
+      code = status;
+    }
+
+    @Override
+    protected void onResponseHeader(Buffer name, Buffer value) throws IOException {
+      headers.add(name.toString(), value.toString());
+    }
+
+    @Override
+    protected void onResponseContent(Buffer buffer) throws IOException {
+      // Content beyond the limit is dropped, just like the blocking protocols do
+      int length = buffer.length();
+      if (maxContent >= 0) {
+        length = Math.min(length, maxContent - content.size());
+      }
+
+      if (length > 0) {
+        content.write(buffer.asArray(), 0, length);
+      }
+    }
+
+    @Override
+    protected void onResponseComplete() throws IOException {
+      done();
+    }
+
+    @Override
+    protected void onConnectionFailed(Throwable e) {
+      fail(e);
+    }
+
+    @Override
+    protected void onException(Throwable e) {
+      fail(e);
+    }
+
+    @Override
+    protected void onExpire() {
+      fail(new SocketTimeoutException("Timeout after " + timeout + "ms"));
+    }
+
+    void fail(Throwable e) {
+      // Only the first outcome counts, a late failure does not change a done exchange
+      if (done.compareAndSet(false, true)) {
+        error = e;
+        onDone.accept(this);
+      }
+    }
+
+    private void done() {
+      if (done.compareAndSet(false, true)) {
+        onDone.accept(this);
+      }
+    }
+  }
+}
@@ -3,9 +3,16 @@ package org.apache.nutch.fetch;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.nutch.crawl.NutchContext;
 import org.apache.nutch.fetch.data.FetchEntry;
+import org.apache.nutch.metadata.Nutch;
+import org.apache.nutch.net.CachingHostResolver;
+import org.apache.nutch.protocol.Protocol;
+import org.apache.nutch.protocol.ProtocolFactory;
+import org.apache.nutch.protocol.ProtocolNotFound;
+import org.apache.nutch.protocol.RobotRulesCache;
 import org.apache.nutch.tools.NutchMetrics;
 import org.apache.nutch.util.Params;
 import org.apache.nutch.util.TableUtil;
+import org.apache.nutch.util.URLUtil;
 import org.slf4j.Logger;
 
 import java.io.IOException;
@@ -30,6 +37,11 @@ public class FeederThread extends Thread implements Comparable<FeederThread> {
   private final NutchContext context;
 
   private final TaskScheduler taskScheduler;
+  /** Resolve hosts in background as tasks are fed, only when the pages are fetched by this JVM */
+  private final CachingHostResolver hostResolver;
+  /** Fetch robots.txt in background as tasks are fed, only when robots rules are checked by the fetch threads */
+  private final RobotRulesCache robotRulesCache;
+  private final ProtocolFactory protocolFactory;
 
   private final int feedLimit;
   private final long timeLimitMillis;
@@ -49,6 +61,15 @@ public class FeederThread extends Thread implements Comparable<FeederThread> {
 
     this.feedLimit = taskScheduler.getFeedLimit();
 
+    FetchMode fetchMode = conf.getEnum(Nutch.PARAM_FETCH_MODE, FetchMode.NATIVE);
+    boolean prefetchDns = fetchMode == FetchMode.NATIVE && conf.getBoolean("dns.prefetch", true);
+    this.hostResolver = prefetchDns ? CachingHostResolver.getInstance(conf) : null;
+    boolean prefetchRobots = (fetchMode == FetchMode.NATIVE || fetchMode == FetchMode.ASYNC)
+        && conf.getBoolean(Protocol.CHECK_ROBOTS, false)
+        && conf.getBoolean("robots.prefetch", true);
+    this.robotRulesCache = prefetchRobots ? RobotRulesCache.getInstance(conf) : null;
+    this.protocolFactory = prefetchRobots ? new ProtocolFactory(conf) : null;
+
     this.setDaemon(true);
     this.setName(getClass().getSimpleName() + "-" + id);
 
@@ -59,7 +80,9 @@ public class FeederThread extends Thread implements Comparable<FeederThread> {
 
     LOG.info(Params.format(
         "className", getClass().getSimpleName(),
-        "id", id
+        "id", id,
+        "prefetchDns", prefetchDns,
+        "prefetchRobots", prefetchRobots
     ));
   }
 
@@ -126,6 +149,13 @@ public class FeederThread extends Thread implements Comparable<FeederThread> {
           FetchEntry entry = currentIter.next();
           final String url = TableUtil.unreverseUrl(entry.getKey());
           tasksMonitor.produce(context.getJobId(), url, entry.getWebPage());
+          taskScheduler.recordRecentRow(entry.getKey(), entry.getWebPage());
+          if (hostResolver != null) {
+            hostResolver.prefetch(URLUtil.getHostName(url));
+          }
+          if (robotRulesCache != null) {
+            prefetchRobotRules(url);
+          }
           feedCapacity--;
           feededCount++;
         }
@@ -159,6 +189,14 @@ public class FeederThread extends Thread implements Comparable<FeederThread> {
     taskScheduler.unregisterFeederThread(this);
   }
 
+  private void prefetchRobotRules(String url) {
+    try {
+      robotRulesCache.prefetch(protocolFactory.getProtocol(url), url);
+    } catch (ProtocolNotFound e) {
+      LOG.debug("No protocol for " + url);
+    }
+  }
+
   @Override
   public int compareTo(FeederThread feederThread) {
     return feederThread == null ? -1 : id - feederThread.id;
@@ -1,3 +1,3 @@
 package org.apache.nutch.fetch;
 
-public enum FetchMode { UNKNOWN, NATIVE, PROXY, CROWDSOURCING }
+public enum FetchMode { UNKNOWN, NATIVE, PROXY, CROWDSOURCING, ASYNC }
@@ -178,6 +178,9 @@ public class FetchMonitor {
     if (FetchMode.CROWDSOURCING.equals(fetchMode)) {
       startCrowdsourcingThreads();
     }
+    else if (FetchMode.ASYNC.equals(fetchMode)) {
+      startAsyncFetchThread();
+    }
     else {
       if (FetchMode.PROXY.equals(fetchMode)) {
         ProxyUpdateThread proxyUpdateThread = new ProxyUpdateThread(conf);
@@ -253,6 +256,15 @@ public class FetchMonitor {
     startFetchThreads(fetchThreadCount);
   }
 
+  /**
+   * Start the async fetch thread, one thread keeps all requests in flight
+   * Non-Blocking
+   * */
+  private void startAsyncFetchThread() {
+    AsyncFetchThread fetchThread = new AsyncFetchThread(taskScheduler, conf);
+    fetchThread.start();
+  }
+
   private void startFetchThreads(int threadCount) {
     for (int i = 0; i < threadCount; i++) {
       FetchThread fetchThread = new FetchThread(taskScheduler, conf);
@@ -9,6 +9,8 @@ import org.apache.nutch.protocol.Protocol;
 import org.apache.nutch.protocol.ProtocolFactory;
 import org.apache.nutch.protocol.ProtocolNotFound;
 import org.apache.nutch.protocol.ProtocolOutput;
+import org.apache.nutch.protocol.RobotRulesCache;
+import org.apache.nutch.storage.ProtocolStatus;
 import org.apache.nutch.tools.NutchMetrics;
 import org.apache.nutch.util.TableUtil;
 import org.slf4j.Logger;
@@ -42,28 +44,36 @@ public class FetchThread extends Thread implements Comparable<FetchThread> {
     FetchTask task;
   }
 
-  private final Logger LOG = FetchMonitor.LOG;
+  protected final Logger LOG = FetchMonitor.LOG;
   public static final Logger REPORT_LOG = NutchMetrics.REPORT_LOG;
 
   private static AtomicInteger instanceSequence = new AtomicInteger(0);
 
-  private final Configuration conf;
+  /** The max time to wait if there is no task to fetch, in milliseconds */
+  private static final long MAX_IDLE_WAIT = 2000;
+
+  protected final Configuration conf;
   private final int id;
 
-  private final ProtocolFactory protocolFactory;
-  private final TaskScheduler taskScheduler;
+  protected final ProtocolFactory protocolFactory;
+  protected final TaskScheduler taskScheduler;
   /**
    * Native, Crowdsourcing, Proxy
    * */
   private final FetchMode fetchMode;
+  /** Check robots rules before fetching, only when the pages are fetched by this JVM, natively or asynchronously */
+  private final RobotRulesCache robotRulesCache;
   private boolean debugContent = false;
-  private String reprUrl;
+  protected String reprUrl;
 
   /** Fix the thread to a specified queue as possible as we can */
   private String currQueueId;
   private AtomicBoolean halted = new AtomicBoolean(false);
-  private Set<String> servedHosts = new TreeSet<>();
-  private int taskCount = 0;
+  /** Woken up by a fetchable queue but no task is scheduled, e.g. other threads took it or bandwidth exhausted */
+  private boolean wokenUp = false;
+  private int missedWakeups = 0;
+  protected Set<String> servedHosts = new TreeSet<>();
+  protected int taskCount = 0;
 
   public FetchThread(TaskScheduler taskScheduler, Configuration conf) {
     this.conf = conf;
@@ -78,6 +88,9 @@ public class FetchThread extends Thread implements Comparable<FetchThread> {
     this.protocolFactory = new ProtocolFactory(conf);
     this.fetchMode = conf.getEnum("fetcher.fetch.mode", FetchMode.NATIVE);
     this.debugContent = conf.getBoolean("fetcher.fetch.thread.debug.content", false);
+    boolean checkRobots = (fetchMode == FetchMode.NATIVE || fetchMode == FetchMode.ASYNC)
+        && conf.getBoolean(Protocol.CHECK_ROBOTS, false);
+    this.robotRulesCache = checkRobots ? RobotRulesCache.getInstance(conf) : null;
   }
 
   public String reprUrl() { return reprUrl; }
@@ -106,9 +119,13 @@ public class FetchThread extends Thread implements Comparable<FetchThread> {
         fetchItem = schedule();
 
         if (fetchItem.task == null) {
+          if (wokenUp) {
+            ++missedWakeups;
+          }
           sleepAndRecord();
           continue;
         }
+        missedWakeups = 0;
 
         fetchOne(fetchItem);
 
@@ -145,8 +162,20 @@ public class FetchThread extends Thread implements Comparable<FetchThread> {
   private void sleepAndRecord() {
     taskScheduler.registerIdleThread(this);
 
+    wokenUp = false;
     try {
-      Thread.sleep(2000);
+      if (fetchMode.equals(FetchMode.CROWDSOURCING)) {
+        // Fetch results are reported by the crowd, not scheduled from the queues
+        Thread.sleep(MAX_IDLE_WAIT);
+      } else {
+        // Back off if we are woken up again and again but get nothing
+        if (missedWakeups > 0) {
+          Thread.sleep(Math.min(MAX_IDLE_WAIT, 100L * missedWakeups));
+        }
+
+        // Wait until the earliest queue becomes fetchable instead of sleeping a fixed time
+        wokenUp = taskScheduler.getTasksMonitor().awaitReadyQueue(MAX_IDLE_WAIT);
+      }
     } catch (final Exception ignored) {}
 
     taskScheduler.unregisterIdleThread(this);
@@ -198,6 +227,10 @@ public class FetchThread extends Thread implements Comparable<FetchThread> {
       return FetchStatus.Failed;
     }
 
+    if (checkRobotRules(protocol, task)) {
+      return FetchStatus.Failed;
+    }
+
     // Blocking until the target web page is loaded
     final ProtocolOutput output = protocol.getProtocolOutput(task.getUrl(), task.getPage());
     taskScheduler.finish(task.getQueueID(), task.getItemID(), output);
@@ -209,6 +242,43 @@ public class FetchThread extends Thread implements Comparable<FetchThread> {
     return FetchStatus.Success;
   }
 
+  /**
+   * Check the robots rules of a task which is not fetched by a protocol, the rules are fetched by the protocol
+   * of the url
+   * */
+  protected boolean checkRobotRules(FetchTask task) {
+    if (robotRulesCache == null) {
+      return false;
+    }
+
+    try {
+      return checkRobotRules(protocolFactory.getProtocol(task.getUrl()), task);
+    } catch (ProtocolNotFound e) {
+      LOG.debug("No protocol to fetch robots rules for " + task.getUrl());
+      return false;
+    }
+  }
+
+  /**
+   * Disallowed pages are finished as ROBOTS_DENIED, pages whose robots rules are not ready yet are
+   * put back to the queue as WOULDBLOCK and fetched later
+   *
+   * @return true if the task is finished by the robots rules, and is not to be fetched now
+   * */
+  protected boolean checkRobotRules(Protocol protocol, FetchTask task) {
+    if (robotRulesCache == null) {
+      return false;
+    }
+
+    ProtocolStatus status = robotRulesCache.check(protocol, task.getUrl());
+    if (status == null) {
+      return false;
+    }
+
+    taskScheduler.finish(task.getQueueID(), task.getItemID(), new ProtocolOutput(null, status));
+    return true;
+  }
+
   /**
    * Get network protocol, for example : http, ftp, sftp, and crowd protocol, etc
    *
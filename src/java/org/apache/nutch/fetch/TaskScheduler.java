@@ -8,24 +8,28 @@ import org.apache.gora.store.DataStore;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.conf.Configured;
 import org.apache.hadoop.hbase.util.Bytes;
-import org.apache.hadoop.io.Writable;
 import org.apache.nutch.crawl.*;
 import org.apache.nutch.crawl.filters.CrawlFilter;
 import org.apache.nutch.dbupdate.MapDatumBuilder;
+import org.apache.nutch.dbupdate.RecentRowFilter;
 import org.apache.nutch.dbupdate.ReduceDatumBuilder;
 import org.apache.nutch.fetch.data.FetchTask;
 import org.apache.nutch.fetch.indexer.JITIndexer;
 import org.apache.nutch.fetch.service.FetchResult;
 import org.apache.nutch.mapreduce.*;
 import org.apache.nutch.metadata.Nutch;
+import org.apache.nutch.net.CachingHostResolver;
+import org.apache.nutch.net.CachingURLFilters;
 import org.apache.nutch.net.URLFilterException;
-import org.apache.nutch.net.URLFilters;
 import org.apache.nutch.net.URLNormalizers;
 import org.apache.nutch.parse.ParseUtil;
 import org.apache.nutch.protocol.Content;
 import org.apache.nutch.protocol.ProtocolOutput;
 import org.apache.nutch.protocol.ProtocolStatusCodes;
 import org.apache.nutch.protocol.ProtocolStatusUtils;
+import org.apache.nutch.protocol.RobotRulesCache;
+import org.apache.nutch.scoring.ScoreDatum;
+import org.apache.nutch.storage.BatchedRowReader;
 import org.apache.nutch.storage.Mark;
 import org.apache.nutch.storage.ProtocolStatus;
 import org.apache.nutch.storage.StorageUtils;
@@ -73,7 +77,8 @@ public class TaskScheduler extends Configured {
     readyTasks, pendingTasks,
     pagesThou, mbThou,
     rowsRedirect,
-    rowsPeresist, rowsCreated, newRowsMaybeDetail, existOutlinkRows
+    rowsPeresist, rowsCreated, newRowsMaybeDetail, existOutlinkRows,
+    outlinkCacheHits, outlinkFilterHits, outlinkDbChecks
   }
 
   public static final int QUEUE_REMAINDER_LIMIT = 5;
@@ -97,8 +102,7 @@ public class TaskScheduler extends Configured {
   private final int bandwidth;
 
   // Handle redirect
-  private final URLFilters urlFilters;
-  private final URLNormalizers normalizers;
+  private final CachingURLFilters urlFilters;
   private final boolean ignoreExternalLinks;
 
   // Parser setting
@@ -116,11 +120,13 @@ public class TaskScheduler extends Configured {
    * Feeder threads
    */
   private final int maxFeedPerThread;
+  private final int feedLimit;
   private final Set<FeederThread> feederThreads = new ConcurrentSkipListSet<>();
 
   /**
    * Fetch threads
    */
+  private final FetchMode fetchMode;
   private final int initFetchThreadCount;
   private final int maxThreadsPerQueue;
 
@@ -145,6 +151,8 @@ public class TaskScheduler extends Configured {
    * Update
    */
   private final DataStore<String, WebPage> datastore;
+  private final BatchedRowReader<WebPage> outlinkRowReader;
+  private final RecentRowFilter recentRowFilter;
   private final MapDatumBuilder mapDatumBuilder;
   private final ReduceDatumBuilder reduceDatumBuilder;
 
@@ -192,9 +200,16 @@ public class TaskScheduler extends Configured {
     this.initFetchThreadCount = conf.getInt("fetcher.threads.fetch", 10);
     this.maxThreadsPerQueue = conf.getInt("fetcher.threads.per.queue", 1);
     this.maxFeedPerThread = conf.getInt("fetcher.queue.depth.multiplier", 100);
+    this.fetchMode = conf.getEnum(PARAM_FETCH_MODE, FetchMode.NATIVE);
+    if (fetchMode == FetchMode.ASYNC) {
+      // There is only one async fetch thread, keep enough tasks to fill the requests in flight
+      int maxInflight = conf.getInt("fetcher.async.max.inflight", 2000);
+      this.feedLimit = Math.max(initFetchThreadCount * maxFeedPerThread, 2 * maxInflight);
+    } else {
+      this.feedLimit = initFetchThreadCount * maxFeedPerThread;
+    }
 
-    this.urlFilters = new URLFilters(conf);
-    this.normalizers = new URLNormalizers(conf, URLNormalizers.SCOPE_FETCHER);
+    this.urlFilters = CachingURLFilters.get(conf);
 
     this.tasksMonitor = new TasksMonitor(conf);
     this.seedBuiler = new SeedBuilder(conf);
@@ -206,11 +221,20 @@ public class TaskScheduler extends Configured {
     this.jitIndexer = indexJIT ? new JITIndexer(conf) : null;
 
     boolean updateJIT = getConf().getBoolean(PARAM_DBUPDATE_JUST_IN_TIME, true);
-    try {
-      datastore = StorageUtils.createWebStore(conf, String.class, WebPage.class);
-    } catch (ClassNotFoundException e) {
-      throw new IOException(e);
+    if (updateJIT) {
+      try {
+        datastore = StorageUtils.createWebStore(conf, String.class, WebPage.class);
+      } catch (ClassNotFoundException e) {
+        throw new IOException(e);
+      }
+      // Only the publish time of an existing outlink row is read, the status tells an existing row without metadata
+      String[] fields = StorageUtils.toStringArray(Arrays.asList(WebPage.Field.STATUS, WebPage.Field.METADATA));
+      this.outlinkRowReader = new BatchedRowReader<>(datastore, conf.getInt(DbUpdateReducer.PREFETCH_BATCH_SIZE, 100), fields);
+    } else {
+      this.datastore = null;
+      this.outlinkRowReader = null;
     }
+    this.recentRowFilter = updateJIT ? new RecentRowFilter(conf) : null;
     this.mapDatumBuilder = updateJIT ? new MapDatumBuilder(counter, conf) : null;
     this.reduceDatumBuilder = updateJIT ? new ReduceDatumBuilder(counter, conf) : null;
 
@@ -235,6 +259,8 @@ public class TaskScheduler extends Configured {
         "initFetchThreadCount", initFetchThreadCount,
         "maxThreadsPerQueue", maxThreadsPerQueue,
         "maxFeedPerThread", maxFeedPerThread,
+        "feedLimit", feedLimit,
+        "fetchMode", fetchMode,
 
         "skipTruncated", skipTruncated,
         "parse", parse,
@@ -244,6 +270,7 @@ public class TaskScheduler extends Configured {
 
         "indexJIT", indexJIT(),
         "updateJIT", updateJIT(),
+        "recentRowFilter", recentRowFilter != null ? recentRowFilter.getParams().formatAsLine() : "",
         "outputDir", outputDir
     ));
   }
@@ -281,13 +308,22 @@ public class TaskScheduler extends Configured {
   }
 
   public int getFeedLimit() {
-    return initFetchThreadCount * maxFeedPerThread;
+    return feedLimit;
   }
 
   public boolean indexJIT() {
     return jitIndexer != null;
   }
 
+  /**
+   * Rows in the fetch list exist in the datastore, outlinks to them need no datastore check
+   * */
+  public void recordRecentRow(String reversedUrl, WebPage page) {
+    if (recentRowFilter != null) {
+      recentRowFilter.put(reversedUrl, TableUtil.getPublishTime(page));
+    }
+  }
+
   public boolean updateJIT() {
     return mapDatumBuilder != null && reduceDatumBuilder != null;
   }
@@ -477,12 +513,29 @@ public class TaskScheduler extends Configured {
     }
 
     tasksMonitor.report();
+
+    REPORT_LOG.info("Dns cache : " + CachingHostResolver.getInstance(getConf()).getParams().formatAsLine());
+    REPORT_LOG.info("Robots cache : " + RobotRulesCache.getInstance(getConf()).getParams().formatAsLine());
+    REPORT_LOG.info("Encoding memo : " + HostEncodingMemo.getInstance(getConf()).getParams().formatAsLine());
+    REPORT_LOG.info("Url filter cache : " + urlFilters.getParams().formatAsLine());
+
+    if (updateJIT()) {
+      REPORT_LOG.info(String.format("Outlink rows : %d hits, %d misses, %d rows prefetched in %d blocks",
+          outlinkRowReader.getHits(), outlinkRowReader.getMisses(),
+          outlinkRowReader.getRowsLoaded(), outlinkRowReader.getBlocks()));
+      REPORT_LOG.info(String.format("Outlink rows : %d cache hits, %d filter hits, %d datastore checks",
+          counter.get(Counter.outlinkCacheHits), counter.get(Counter.outlinkFilterHits), counter.get(Counter.outlinkDbChecks)));
+    }
+
     REPORT_LOG.info("[End Report]");
     REPORT_LOG.info(border);
 
     LOG.info("[Final] " + context.getStatus());
 
     tasksMonitor.cleanup();
+
+    // Reports are written in background, make sure they are on the disk when the task finishes
+    nutchMetrics.flush();
   }
 
   /**
@@ -553,6 +606,11 @@ public class TaskScheduler extends Configured {
   }
 
   public void adjustFetchResourceByTargetBandwidth() {
+    if (fetchMode == FetchMode.ASYNC) {
+      // The async fetch thread bounds the requests in flight by itself
+      return;
+    }
+
     Configuration conf = getConf();
 
     int targetBandwidth = conf.getInt("fetcher.bandwidth.target", -1) * 1000;
@@ -664,7 +722,6 @@ public class TaskScheduler extends Configured {
    */
   private void doFinishFetchTask(FetchTask fetchTask, ProtocolOutput output)
       throws IOException, InterruptedException, URLFilterException {
-    final String url = fetchTask.getUrl();
     final ProtocolStatus status = output.getStatus();
     final Content content = output.getContent();
 
@@ -679,7 +736,7 @@ public class TaskScheduler extends Configured {
 
       case ProtocolStatusCodes.SUCCESS:        // got a page
         handleResult(fetchTask, content, status, CrawlStatus.STATUS_FETCHED);
-        tasksMonitor.statHost(url, fetchTask.getPage());
+        tasksMonitor.statHost(fetchTask.getNutchUrl(), fetchTask.getPage());
         break;
 
       case ProtocolStatusCodes.MOVED:         // redirect
@@ -702,7 +759,7 @@ public class TaskScheduler extends Configured {
       case ProtocolStatusCodes.CONNECTION_TIMED_OUT:
       case ProtocolStatusCodes.UNKNOWN_HOST:
         handleResult(fetchTask, null, status, CrawlStatus.STATUS_GONE);
-        tasksMonitor.statUnreachableHost(url);
+        tasksMonitor.statUnreachableHost(fetchTask.getNutchUrl());
         break;
       case ProtocolStatusCodes.EXCEPTION:
         logFetchFailure(ProtocolStatusUtils.getMessage(status));
@@ -730,7 +787,7 @@ public class TaskScheduler extends Configured {
 
   private void handleRedirect(String url, String newUrl, boolean temp, String redirType, WebPage page)
       throws URLFilterException, IOException, InterruptedException {
-    newUrl = normalizers.normalize(newUrl, URLNormalizers.SCOPE_FETCHER);
+    newUrl = urlFilters.normalize(newUrl, URLNormalizers.SCOPE_FETCHER);
     newUrl = urlFilters.filter(newUrl);
     if (newUrl == null || newUrl.equals(url)) {
       return;
@@ -791,9 +848,7 @@ public class TaskScheduler extends Configured {
     // For news, the signature must be calculated via the extracted content
     if (parse && status == CrawlStatus.STATUS_FETCHED) {
       if (!skipTruncated || !ParserMapper.isTruncated(url, page)) {
-        synchronized (parseUtil) {
-          parseUtil.process(reversedUrl, page);
-        }
+        parseUtil.process(reversedUrl, page);
 
         Utf8 parseMark = Mark.PARSE_MARK.checkMark(page);
         // JIT Index
@@ -804,8 +859,8 @@ public class TaskScheduler extends Configured {
     }
 
     // Debug fetch time history
-    String fetchTimeHistory = TableUtil.getFetchTimeHistory(page, "");
-    if (fetchTimeHistory.contains(",")) {
+    if (TableUtil.getFetchTimes(page).length > 1) {
+      String fetchTimeHistory = TableUtil.getFetchTimeHistory(page, "");
       String report = String.format("%60s", fetchTask.getUrl())
 //          + "\turlCategory : " +
           + "\tfetchTimeHistory : " + fetchTimeHistory
@@ -844,19 +899,25 @@ public class TaskScheduler extends Configured {
 
     // so we need check if there are unexpected marks, metadata, etc
     Map<UrlWithScore, NutchWritable> outlinkRows = mapDatumBuilder.createRowsFromOutlink(url, page);
+
+    // Outlinks are mostly in the same site, visit them in key order so old rows are read in a few blocks,
+    // rows written since the last page are not in the blocks
+    outlinkRowReader.reset();
     outlinkRows.entrySet().stream()
             .limit(maxDbUpdateNewRows)
+            .sorted(Comparator.comparing(e -> e.getKey().getReversedUrl(), BatchedRowReader.KEY_COMPARATOR))
             .forEach(e -> outputOutlinkPage(url, page, e.getKey(), e.getValue(), isSeed));
 
     outputMainPage(url, reversedUrl, page, outlinkRows);
+    recentRowFilter.put(reversedUrl, TableUtil.getPublishTime(page));
   }
 
   @SuppressWarnings("unchecked")
   private void outputMainPage(String url, String reversedUrl, WebPage page, Map<UrlWithScore, NutchWritable> outlinkRows) {
     counter.increase(Counter.rowsPeresist);
 
-    // Calculate inlinked score data, and return the main web page
-    reduceDatumBuilder.calculateInlinks(url, outlinkRows.values());
+    // Inlinks are not known just in time, the outlink rows are not inlinks of the main page
+    reduceDatumBuilder.calculateInlinks(url, Collections.emptyList());
     // process the main page, update fetch schedule
     reduceDatumBuilder.updateFetchSchedule(url, page);
     reduceDatumBuilder.updateRow(url, page);
@@ -875,30 +936,43 @@ public class TaskScheduler extends Configured {
 
 //    LOG.debug("Output outlink page " + url);
 
-    WebPage page = null;
+    if (!(nutchWritable.get() instanceof ScoreDatum)) {
+      LOG.error("Failed to get score datum, invalid nutchWritable");
+      return;
+    }
 
-    Writable writable = nutchWritable.get();
-    if (writable instanceof WebPageWritable) {
-      page = ((WebPageWritable) writable).getWebPage();
+    // Check the recent rows first, most outlinks are navigation links we have seen many times
+    Long cachedPublishTime = recentRowFilter.getPublishTime(reversedUrl);
+    if (cachedPublishTime != null) {
+      updateReferredPublishTime(mainPage, cachedPublishTime);
+      counter.increase(Counter.existOutlinkRows);
+      counter.increase(Counter.outlinkCacheHits);
+      return;
     }
 
-    if (page == null) {
-      LOG.error("Failed to get web page, invalid nutchWritable");
+    // A false positive skips a new row, which is acceptable at the configured rate
+    if (recentRowFilter.mightContain(reversedUrl)) {
+      counter.increase(Counter.existOutlinkRows);
+      counter.increase(Counter.outlinkFilterHits);
       return;
     }
 
-    // TODO : maintain a in-memory recent outlink list
-    WebPage oldPage = datastore.get(reversedUrl);
+    WebPage oldPage;
+    try {
+      counter.increase(Counter.outlinkDbChecks);
+      oldPage = outlinkRowReader.get(reversedUrl);
+    } catch (IOException e) {
+      LOG.error("Failed to read " + url + ", " + e.toString());
+      return;
+    }
 
     // The page is already in the db, we just return here
     if (oldPage != null) {
       // In the original nutch-2.3.1, we write the page again to update inlinks
       // but in our version, there is no need to update inlinks
       long publishTime = TableUtil.getPublishTime(oldPage);
-      if (publishTime > 0) {
-        TableUtil.updateLatestReferredPublishTime(mainPage, publishTime);
-        TableUtil.increaseReferredPageCount(mainPage, 1);
-      }
+      recentRowFilter.put(reversedUrl, publishTime);
+      updateReferredPublishTime(mainPage, publishTime);
 
       counter.increase(Counter.existOutlinkRows);
 
@@ -912,13 +986,18 @@ public class TaskScheduler extends Configured {
      * TODO : we can do this using score/schedule mechanism
      * */
     if (fromSeed) {
-      TableUtil.markFromSeed(page);
       nutchMetrics.reportUrlsFromSeed(url, sourceUrl, reportSuffix);
     }
 
     int priority = fromSeed ? FETCH_PRIORITY_FROM_SEED : FETCH_PRIORITY_DEFAULT;
-    page = reduceDatumBuilder.createNewRow(url, priority, urlWithScore.getScore().get());
+    WebPage page = reduceDatumBuilder.createNewRow(url, priority, urlWithScore.getScore().get());
     reduceDatumBuilder.updateRow(url, page);
+    // The generator and the tasks monitor read the seed mark from the metadata, updateRow clears it
+    if (fromSeed) {
+      TableUtil.markFromSeed(page);
+    }
+
+    recentRowFilter.put(reversedUrl, 0);
 
     counter.increase(Counter.rowsCreated);
     if (CrawlFilter.sniffPageCategoryByUrlPattern(url) == CrawlFilter.PageCategory.DETAIL) {
@@ -932,6 +1011,13 @@ public class TaskScheduler extends Configured {
     }
   }
 
+  private void updateReferredPublishTime(WebPage mainPage, long publishTime) {
+    if (publishTime > 0) {
+      TableUtil.updateLatestReferredPublishTime(mainPage, publishTime);
+      TableUtil.increaseReferredPageCount(mainPage, 1);
+    }
+  }
+
   private void updateStatus(String url, WebPage page) throws IOException {
     int pageLength = 0;
     ByteBuffer content = page.getContent();
@@ -1,9 +1,10 @@
 package org.apache.nutch.fetch;
 
+import com.google.common.collect.ConcurrentHashMultiset;
 import com.google.common.collect.Multimap;
+import com.google.common.collect.Multimaps;
 import com.google.common.collect.Multiset;
 import com.google.common.collect.TreeMultimap;
-import com.google.common.collect.TreeMultiset;
 import org.apache.commons.collections4.SortedBidiMap;
 import org.apache.commons.collections4.bidimap.DualTreeBidiMap;
 import org.apache.commons.lang3.StringUtils;
@@ -25,6 +26,8 @@ import java.nio.file.Path;
 import java.nio.file.StandardOpenOption;
 import java.text.DecimalFormat;
 import java.util.*;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ConcurrentSkipListSet;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Collectors;
 
@@ -35,24 +38,24 @@ import static org.apache.nutch.util.URLUtil.DUMMY_HOST_NAME;
 /**
  * Keeps track of the all fetch items
  *
- * TODO : synchronize on workingQueues, not functions
+ * produce, consume and finish are called by the feeder and all fetch threads, they lock only the
+ * fetch queue they work on. Host statistics are classified outside of any lock. Maintenance operations
+ * such as retune, report and clear are rare, they are still synchronized on the monitor.
  */
 public class TasksMonitor {
   public static final Logger LOG = FetchMonitor.LOG;
   public static final Logger REPORT_LOG = NutchMetrics.REPORT_LOG;
 
-  private static final int THREAD_SEQUENCE_POS = "FetchThread-".length();
-
   private final FetchQueues workingQueues = new FetchQueues();
 
   /**
    * Tracking time cost of each queue
    */
   private final SortedBidiMap<String, Double> queueTimeCosts = new DualTreeBidiMap<>();
-  private final Multimap<String, String> queueServedThreads = TreeMultimap.create();
-  private final Map<String, HostStat> availableHosts = new TreeMap<>();
-  private final Set<String> unreachableHosts = new TreeSet<>();
-  private final Multiset<String> unreachableHostsTracker = TreeMultiset.create();
+  private final Multimap<String, String> queueServedThreads = Multimaps.synchronizedMultimap(TreeMultimap.create());
+  private final Map<String, HostStat> availableHosts = new ConcurrentSkipListMap<>();
+  private final Set<String> unreachableHosts = new ConcurrentSkipListSet<>();
+  private final Multiset<String> unreachableHostsTracker = ConcurrentHashMultiset.create();
   private final CrawlFilters crawlFilters;
   private final int maxUrlLength;
   private final boolean debugUrls;
@@ -119,11 +122,11 @@ public class TasksMonitor {
 
   public final URLUtil.HostGroupMode getHostGroupMode() { return hostGroupMode; }
 
-  public synchronized void produce(FetchTask item) {
+  public void produce(FetchTask item) {
     doProduce(item, FETCH_PRIORITY_DEFAULT);
   }
 
-  public synchronized void produce(int jobID, String url, WebPage page) {
+  public void produce(int jobID, String url, WebPage page) {
     final FetchTask it = FetchTask.create(jobID, url, page, hostGroupMode);
     if (it != null) {
       // int priority = Integer.getInteger(TableUtil.getMetadata(page, META_FETCH_PRIORITY));
@@ -134,15 +137,18 @@ public class TasksMonitor {
   private void doProduce(FetchTask item, int priority) {
     FetchQueue queue = getOrCreateFetchQueue(item.getQueueID(), priority);
     queue.produce(item);
+    workingQueues.index(queue);
     readyItemCount.incrementAndGet();
-    queueTimeCosts.put(queue.getId(), 0.0);
+    synchronized (queueTimeCosts) {
+      queueTimeCosts.put(queue.getId(), 0.0);
+    }
   }
 
   private int getPriority(WebPage page) {
     return TableUtil.getFetchPriority(page, FETCH_PRIORITY_DEFAULT);
   }
 
-  public synchronized FetchTask consume(String queueId) {
+  public FetchTask consume(String queueId) {
     FetchQueue queue = workingQueues.getOrPeek(queueId);
     return doConsume(queue);
   }
@@ -153,6 +159,8 @@ public class TasksMonitor {
     }
 
     FetchTask item = queue.consume(unreachableHosts);
+    // The queue might still be able to serve other threads
+    workingQueues.index(queue);
 
     if (item != null) {
       readyItemCount.decrementAndGet();
@@ -162,15 +170,15 @@ public class TasksMonitor {
     return item;
   }
 
-  public synchronized void finish(String queueId, int itemId, boolean asap) {
+  public void finish(String queueId, int itemId, boolean asap) {
     doFinish(queueId, itemId, asap);
   }
 
-  public synchronized void finish(FetchTask item) {
+  public void finish(FetchTask item) {
     doFinish(item.getQueueID(), item.getItemID(), false);
   }
 
-  public synchronized void finishAsap(FetchTask item) {
+  public void finishAsap(FetchTask item) {
     finish(item.getQueueID(), item.getItemID(), true);
   }
 
@@ -182,7 +190,8 @@ public class TasksMonitor {
       return;
     }
 
-    if (!queue.pendingTaskExist(itemId)) {
+    // Check and finish atomically, a task might be finished by more than one thread
+    if (!queue.finish(itemId, asap)) {
       // If the working queue is empty, the tasks might be abandoned by a plan
       if (!workingQueues.isEmpty() && isResourceUnreachable(queueId)) {
         LOG.warn("Attemp to finish unknown item: [{} - {}]", queueId, itemId);
@@ -191,12 +200,15 @@ public class TasksMonitor {
       return;
     }
 
-    queue.finish(itemId, asap);
+    workingQueues.index(queue);
     pendingItemCount.decrementAndGet();
     finishedItemCount.incrementAndGet();
 
-    queueTimeCosts.put(queueId, queue.averageTimeCost());
-    queueServedThreads.put(queueId, Thread.currentThread().getName().substring(THREAD_SEQUENCE_POS));
+    synchronized (queueTimeCosts) {
+      queueTimeCosts.put(queueId, queue.averageTimeCost());
+    }
+    // Thread names are like FetchThread-12, but tasks can also be finished by other threads
+    queueServedThreads.put(queueId, StringUtils.substringAfterLast(Thread.currentThread().getName(), "-"));
   }
 
   public synchronized void report() {
@@ -234,6 +246,7 @@ public class TasksMonitor {
       }
 
       queue.retune(force);
+      workingQueues.index(queue);
 
       readyCount += queue.readyCount();
       pendingCount += queue.pendingCount();
@@ -248,8 +261,16 @@ public class TasksMonitor {
     pendingItemCount.set(pendingCount);
   }
 
+  /**
+   * Wait until a fetch queue becomes fetchable, so the idle fetch threads need not poll
+   * @return true if there is a fetchable queue
+   * */
+  public boolean awaitReadyQueue(long maxWait) throws InterruptedException {
+    return workingQueues.awaitReady(maxWait);
+  }
+
   /** Get a pending task, the task can be in working queues or in detached queues */
-  public synchronized FetchTask getPendingTask(String queueId, int itemID) {
+  public FetchTask getPendingTask(String queueId, int itemID) {
     return workingQueues.getPendingTask(queueId, itemID);
   }
 
@@ -258,94 +279,89 @@ public class TasksMonitor {
   }
 
   /**
-   * Available hosts statistics
+   * Available hosts statistics, the url is classified before the host stat is locked
    * */
-  public synchronized void statHost(String url, WebPage page) {
+  public void statHost(String url, WebPage page) {
     if (url == null || url.isEmpty()) {
       return;
     }
 
-    String host = URLUtil.getHost(url, URLUtil.DUMMY_HOST_NAME, getHostGroupMode());
-    if (host == null || host.isEmpty()) {
-      return;
-    }
-
-    HostStat hostStat = availableHosts.get(host);
-    if (hostStat == null) {
-      hostStat = new HostStat(host);
-    }
-
-    ++hostStat.urls;
+    doStatHost(url, URLUtil.getHost(url, URLUtil.DUMMY_HOST_NAME, getHostGroupMode()), page);
+  }
 
-    if (crawlFilters.isIndexUrl(url)) {
-      ++hostStat.indexUrls;
-      if (debugUrls) {
-        nutchMetrics.debugIndexUrls(url, reportSuffix);
-      }
-    }
-    else if (crawlFilters.isSearchUrl(url)) {
-      ++hostStat.searchUrls;
-      if (debugUrls) {
-        nutchMetrics.debugSearchUrls(url, reportSuffix);
-      }
-    }
-    else if (crawlFilters.isDetailUrl(url)) {
-      ++hostStat.detailUrls;
-      if (debugUrls) {
-        nutchMetrics.debugDetailUrls(url, reportSuffix);
-      }
-    }
-    else if (crawlFilters.isMediaUrl(url)) {
-      ++hostStat.mediaUrls;
-      if (debugUrls) {
-        nutchMetrics.debugMediaUrls(url, reportSuffix);
-      }
-    }
-    else {
-      if (debugUrls) {
-        nutchMetrics.debugUnknownTypeUrls(url, reportSuffix);
-      }
+  /**
+   * The url is already parsed by the fetch task, the host is not computed again
+   * */
+  public void statHost(NutchUrl url, WebPage page) {
+    if (url == null) {
+      return;
     }
 
-    if (url.contains("blog")) {
-      ++hostStat.blogUrls;
-      if (debugUrls) {
-        nutchMetrics.debugBlogUrls(url, reportSuffix);
-      }
-    }
-    if (url.contains("tieba")) {
-      ++hostStat.tiebaUrls;
-      if (debugUrls) {
-        nutchMetrics.debugTiebaUrls(url, reportSuffix);
-      }
-    }
-    if (url.contains("bbs")) {
-      ++hostStat.bbsUrls;
-      if (debugUrls) {
-        nutchMetrics.debugBBSUrls(url, reportSuffix);
-      }
-    }
+    String host = URLUtil.getHost(url, getHostGroupMode());
+    doStatHost(url.getUrl(), host == null ? URLUtil.DUMMY_HOST_NAME : host, page);
+  }
 
-    if (TableUtil.isFromSeed(page)) {
-      ++hostStat.urlsFromSeed;
+  private void doStatHost(String url, String host, WebPage page) {
+    if (host == null || host.isEmpty()) {
+      return;
     }
 
-    if (url.length() > maxUrlLength) {
-      ++hostStat.urlsTooLong;
-      if (debugUrls) {
-        nutchMetrics.debugLongUrls(url, reportSuffix);
-      }
+    final boolean isIndexUrl = crawlFilters.isIndexUrl(url);
+    final boolean isSearchUrl = !isIndexUrl && crawlFilters.isSearchUrl(url);
+    final boolean isDetailUrl = !isIndexUrl && !isSearchUrl && crawlFilters.isDetailUrl(url);
+    final boolean isMediaUrl = !isIndexUrl && !isSearchUrl && !isDetailUrl && crawlFilters.isMediaUrl(url);
+    final boolean isBlogUrl = url.contains("blog");
+    final boolean isTiebaUrl = url.contains("tieba");
+    final boolean isBBSUrl = url.contains("bbs");
+    final boolean isFromSeed = TableUtil.isFromSeed(page);
+    final boolean isTooLong = url.length() > maxUrlLength;
+
+    HostStat hostStat = availableHosts.computeIfAbsent(host, HostStat::new);
+    synchronized (hostStat) {
+      ++hostStat.urls;
+      if (isIndexUrl) ++hostStat.indexUrls;
+      if (isSearchUrl) ++hostStat.searchUrls;
+      if (isDetailUrl) ++hostStat.detailUrls;
+      if (isMediaUrl) ++hostStat.mediaUrls;
+      if (isBlogUrl) ++hostStat.blogUrls;
+      if (isTiebaUrl) ++hostStat.tiebaUrls;
+      if (isBBSUrl) ++hostStat.bbsUrls;
+      if (isFromSeed) ++hostStat.urlsFromSeed;
+      if (isTooLong) ++hostStat.urlsTooLong;
+    }
+
+    if (debugUrls) {
+      if (isIndexUrl) nutchMetrics.debugIndexUrls(url, reportSuffix);
+      else if (isSearchUrl) nutchMetrics.debugSearchUrls(url, reportSuffix);
+      else if (isDetailUrl) nutchMetrics.debugDetailUrls(url, reportSuffix);
+      else if (isMediaUrl) nutchMetrics.debugMediaUrls(url, reportSuffix);
+      else nutchMetrics.debugUnknownTypeUrls(url, reportSuffix);
+
+      if (isBlogUrl) nutchMetrics.debugBlogUrls(url, reportSuffix);
+      if (isTiebaUrl) nutchMetrics.debugTiebaUrls(url, reportSuffix);
+      if (isBBSUrl) nutchMetrics.debugBBSUrls(url, reportSuffix);
+      if (isTooLong) nutchMetrics.debugLongUrls(url, reportSuffix);
+    }
+  }
+
+  public void statUnreachableHost(String url) {
+    if (url == null || url.isEmpty()) {
+      return;
     }
 
-    availableHosts.put(host, hostStat);
+    doStatUnreachableHost(URLUtil.getHost(url, URLUtil.DUMMY_HOST_NAME, getHostGroupMode()));
   }
 
-  public synchronized void statUnreachableHost(String url) {
-    if (url == null || url.isEmpty()) {
+  public void statUnreachableHost(NutchUrl url) {
+    if (url == null) {
       return;
     }
 
-    String host = URLUtil.getHost(url, URLUtil.DUMMY_HOST_NAME, getHostGroupMode());
+    String host = URLUtil.getHost(url, getHostGroupMode());
+    doStatUnreachableHost(host == null ? URLUtil.DUMMY_HOST_NAME : host);
+  }
+
+  private void doStatUnreachableHost(String host) {
     if (host == null || host.isEmpty()) {
       return;
     }
@@ -358,14 +374,13 @@ public class TasksMonitor {
 
     // Only the exception occurs for unknownHostEventCount, it's really add to the black list
     final int unknownHostEventCount = 3;
-    if (unreachableHostsTracker.count(host) > unknownHostEventCount) {
+    if (unreachableHostsTracker.count(host) > unknownHostEventCount && unreachableHosts.add(host)) {
       LOG.info("Host unknown: " + host);
-      unreachableHosts.add(host);
       retune(true);
     }
   }
 
-  public synchronized boolean isResourceUnreachable(String url) {
+  public boolean isResourceUnreachable(String url) {
     return url != null && unreachableHosts.contains(URLUtil.getHost(url, DUMMY_HOST_NAME, hostGroupMode));
   }
 
@@ -438,7 +453,7 @@ public class TasksMonitor {
     return deleted;
   }
 
-  public synchronized int getQueueCount() {
+  public int getQueueCount() {
     return workingQueues.size();
   }
 
@@ -451,12 +466,14 @@ public class TasksMonitor {
   private FetchQueue getSlowestQueue() {
     FetchQueue queue = null;
 
-    while (!workingQueues.isEmpty() && queue == null) {
-      double maxCost = queueTimeCosts.inverseBidiMap().lastKey();
-      String slowestQueueId = queueTimeCosts.inverseBidiMap().get(maxCost);
-      queueTimeCosts.remove(slowestQueueId);
+    synchronized (queueTimeCosts) {
+      while (!workingQueues.isEmpty() && !queueTimeCosts.isEmpty() && queue == null) {
+        double maxCost = queueTimeCosts.inverseBidiMap().lastKey();
+        String slowestQueueId = queueTimeCosts.inverseBidiMap().get(maxCost);
+        queueTimeCosts.remove(slowestQueueId);
 
-      queue = workingQueues.get(slowestQueueId);
+        queue = workingQueues.get(slowestQueueId);
+      }
     }
 
     return queue;
@@ -466,8 +483,8 @@ public class TasksMonitor {
     FetchQueue queue = workingQueues.get(queueId);
 
     if (queue == null) {
-      queue = createFetchQueue(queueId, priority);
-      workingQueues.add(queue);
+      // Host settings might be read from the host db, so the queue is created outside of any lock
+      queue = workingQueues.addIfAbsent(createFetchQueue(queueId, priority));
     }
 
     return queue;
@@ -505,13 +522,15 @@ public class TasksMonitor {
 
   private void reportServedThreads() {
     StringBuilder report = new StringBuilder();
-    queueServedThreads.keySet().stream()
-        .map(TableUtil::reverseHost).sorted().map(TableUtil::unreverseHost)
-        .forEach(queueId -> {
-      String threads = "#" + StringUtils.join(queueServedThreads.get(queueId), ", #");
-      String line = String.format("%1$40s -> %2$s\n", queueId, threads);
-      report.append(line);
-    });
+    synchronized (queueServedThreads) {
+      queueServedThreads.keySet().stream()
+          .map(TableUtil::reverseHost).sorted().map(TableUtil::unreverseHost)
+          .forEach(queueId -> {
+        String threads = "#" + StringUtils.join(queueServedThreads.get(queueId), ", #");
+        String line = String.format("%1$40s -> %2$s\n", queueId, threads);
+        report.append(line);
+      });
+    }
     REPORT_LOG.info("Served threads : \n" + report);
     nutchMetrics.writeReport("Served threads : \n" + report, "queue-served-threads-" + reportSuffix + ".txt", true);
   }
@@ -18,6 +18,9 @@ import java.util.*;
  * a proto/hostname or proto/IP pair).
  *
  * It also keeps track of requests in progress and elapsed time between requests.
+ *
+ * All tasks operations are synchronized on the queue itself, so threads working on different queues
+ * do not block each other.
  */
 public class FetchQueue implements Comparable<FetchQueue> {
 
@@ -56,7 +59,7 @@ public class FetchQueue implements Comparable<FetchQueue> {
    * Detached from the system, the queue does not accept any tasks, nor serve any requests,
    * but still hold pending tasks
    * */
-  private boolean detached = false;
+  private volatile boolean detached = false;
 
   public FetchQueue(String id, int priority, int maxThreads, long crawlDelay, long minCrawlDelay, long pendingTimeout) {
     this.id = id;
@@ -74,7 +77,7 @@ public class FetchQueue implements Comparable<FetchQueue> {
 
   public int getPriority() { return priority; }
 
-  public void produce(FetchTask item) {
+  public synchronized void produce(FetchTask item) {
     if (item == null || detached) {
       return;
     }
@@ -82,7 +85,7 @@ public class FetchQueue implements Comparable<FetchQueue> {
     readyTasks.add(item);
   }
 
-  public FetchTask consume(Set<String> exceptedHosts) {
+  public synchronized FetchTask consume(Set<String> exceptedHosts) {
     if (detached) {
       return null;
     }
@@ -107,10 +110,10 @@ public class FetchQueue implements Comparable<FetchQueue> {
       // Check whether it's unreachable
       if (exceptedHosts != null && !exceptedHosts.isEmpty()) {
         // if (queueMode.equals(byDomain))
-        String domain = URLUtil.getDomainName(fetchTask.getUrl());
+        String domain = fetchTask.getNutchUrl().getDomain();
         while (exceptedHosts.contains(domain) && !readyTasks.isEmpty()) {
           fetchTask = readyTasks.remove();
-          domain = URLUtil.getDomainName(fetchTask.getUrl());
+          domain = fetchTask.getNutchUrl().getDomain();
         }
       }
 
@@ -124,7 +127,7 @@ public class FetchQueue implements Comparable<FetchQueue> {
     return fetchTask;
   }
 
-  public FetchTask getPendingTask(int itemID) {
+  public synchronized FetchTask getPendingTask(int itemID) {
     return pendingTasks.get(itemID);
   }
 
@@ -139,7 +142,7 @@ public class FetchQueue implements Comparable<FetchQueue> {
    *
    * Note : We have set response time for each page, @see {HttpBase#getProtocolOutput}
    * */
-  public void finish(FetchTask item, boolean asap) {
+  public synchronized void finish(FetchTask item, boolean asap) {
     pendingTasks.remove(item.getItemID());
 
     long endTime = System.currentTimeMillis();
@@ -164,28 +167,43 @@ public class FetchQueue implements Comparable<FetchQueue> {
     }
   }
 
-  public void finish(int itemId, boolean asap) {
+  /**
+   * @return false if the task is not pending in this queue
+   * */
+  public synchronized boolean finish(int itemId, boolean asap) {
     FetchTask item = pendingTasks.get(itemId);
-    if (item != null) {
-      finish(item, asap);
+    if (item == null) {
+      return false;
     }
+
+    finish(item, asap);
+    return true;
+  }
+
+  public synchronized boolean hasTasks() { return !readyTasks.isEmpty(); }
+
+  /**
+   * A servable queue has ready tasks and a free thread slot, it might still have to wait for the next fetch time
+   * */
+  public synchronized boolean isServable() {
+    return !detached && !readyTasks.isEmpty() && pendingTasks.size() < maxThreads;
   }
 
-  public boolean hasTasks() { return !readyTasks.isEmpty(); }
+  public synchronized long getNextFetchTime() { return nextFetchTime; }
 
-  public boolean pendingTaskExist(int itemId) {
+  public synchronized boolean pendingTaskExist(int itemId) {
     return pendingTasks.containsKey(itemId);
   }
 
-  public int readyCount() { return readyTasks.size(); }
+  public synchronized int readyCount() { return readyTasks.size(); }
 
-  public int pendingCount() {
+  public synchronized int pendingCount() {
     return pendingTasks.size();
   }
 
-  public int getFinishedTaskCount() { return totalFinishedTasks; }
+  public synchronized int getFinishedTaskCount() { return totalFinishedTasks; }
 
-  public int getSlowTaskCount() { return costRecorder.size(); }
+  public synchronized int getSlowTaskCount() { return costRecorder.size(); }
 
   public boolean isSlow() { return isSlow(1); }
 
@@ -194,14 +212,14 @@ public class FetchQueue implements Comparable<FetchQueue> {
   /**
    * Avarage cost in seconds
    * */
-  public double averageTimeCost() {
+  public synchronized double averageTimeCost() {
     return totalFetchTime / 1000.0 / totalFinishedTasks;
   }
 
   /**
    * Throught rate in seconds
    * */
-  public double averageThroughputRate() {
+  public synchronized double averageThroughputRate() {
     return totalFinishedTasks / (totalFetchTime / 1000.0);
   }
 
@@ -209,7 +227,7 @@ public class FetchQueue implements Comparable<FetchQueue> {
 
   public boolean isDetached() { return this.detached; }
 
-  public void clearAndDetach() {
+  public synchronized void clearAndDetach() {
     clearReadyQueue();
     clearPendingQueue();
     detach();
@@ -223,7 +241,7 @@ public class FetchQueue implements Comparable<FetchQueue> {
    *
    * @param force If force is true, reload all pending fetch items immediately, otherwise, reload only exceeds pendingTimeout
    * */
-  public void retune(boolean force) {
+  public synchronized void retune(boolean force) {
     long now = System.currentTimeMillis();
 
     final List<FetchTask> readyList = Lists.newArrayList();
@@ -265,19 +283,19 @@ public class FetchQueue implements Comparable<FetchQueue> {
         id, averageTimeCost(), averageThroughputRate());
   }
 
-  public int clearReadyQueue() {
+  public synchronized int clearReadyQueue() {
     int count = readyTasks.size();
     readyTasks.clear();
     return count;
   }
 
-  public int clearPendingQueue() {
+  public synchronized int clearPendingQueue() {
     int count = pendingTasks.size();
     pendingTasks.clear();
     return count;
   }
 
-  public int clearPendingTasksIfFew(int threshold) {
+  public synchronized int clearPendingTasksIfFew(int threshold) {
     int count = pendingTasks.size();
 
     if (count > threshold) {
@@ -304,7 +322,7 @@ public class FetchQueue implements Comparable<FetchQueue> {
     return count;
   }
 
-  public void dump() {
+  public synchronized void dump() {
     final DecimalFormat df = new DecimalFormat("###0.##");
 
     LOG.info(Params.format(
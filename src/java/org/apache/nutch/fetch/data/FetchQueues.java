@@ -4,18 +4,34 @@ import org.apache.nutch.fetch.FetchMonitor;
 import org.slf4j.Logger;
 
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * Created by vincent on 16-9-22.
  * Copyright @ 2013-2016 Warpspeed Information. All rights reserved
+ *
+ * Queues are looked up without locking. Queues which are able to serve are indexed by their next fetch time,
+ * and then by priority, so the earliest fetchable queue is found without polling every queue, and threads
+ * can wait until it becomes fetchable. The index is guarded by the lock of this object.
+ *
+ * Queues must be re-indexed by {@link #index(FetchQueue)} each time their tasks change, an index entry is
+ * checked against the queue when it's polled, so stale entries are harmless.
  */
 public class FetchQueues {
 
   public final Logger LOG = FetchMonitor.LOG;
 
-  private final Map<String, FetchQueue> workingQueues = new HashMap<>();
-  private final Map<String, FetchQueue> detachedQueues = new HashMap<>();
-  private final PriorityQueue<FetchQueue> priorityWorkingQueues = new PriorityQueue<>();
+  private final Map<String, FetchQueue> workingQueues = new ConcurrentHashMap<>();
+  private final Map<String, FetchQueue> detachedQueues = new ConcurrentHashMap<>();
+  /** Queues able to serve, ordered by the next fetch time, and then by priority */
+  private final PriorityQueue<ReadyEntry> readyQueues = new PriorityQueue<>();
+  /** The index entry of each queue, a queue is indexed at most once */
+  private final Map<String, ReadyEntry> readyEntries = new HashMap<>();
+  private final ReentrantLock lock = new ReentrantLock();
+  private final Condition readyQueueChanged = lock.newCondition();
 
   private int nextQueuePosition = 0;
 
@@ -25,11 +41,91 @@ public class FetchQueues {
     }
 
     workingQueues.put(queue.getId(), queue);
-    priorityWorkingQueues.add(queue);
+    index(queue);
 
     return true;
   }
 
+  /**
+   * Add the queue if there is no working queue with the same id
+   * @return The working queue with the id of the given queue
+   * */
+  public FetchQueue addIfAbsent(FetchQueue queue) {
+    FetchQueue old = workingQueues.putIfAbsent(queue.getId(), queue);
+    if (old != null) {
+      return old;
+    }
+
+    index(queue);
+    return queue;
+  }
+
+  /**
+   * Index the queue if it's able to serve, must be called without holding the lock of the queue
+   * */
+  public void index(FetchQueue queue) {
+    if (!queue.isServable()) {
+      return;
+    }
+
+    long nextFetchTime = queue.getNextFetchTime();
+
+    lock.lock();
+    try {
+      ReadyEntry entry = readyEntries.get(queue.getId());
+      if (entry != null) {
+        if (entry.nextFetchTime <= nextFetchTime) {
+          return;
+        }
+
+        // The queue becomes fetchable earlier than indexed
+        readyQueues.remove(entry);
+      }
+
+      entry = new ReadyEntry(queue, nextFetchTime);
+      readyEntries.put(queue.getId(), entry);
+      readyQueues.add(entry);
+
+      if (readyQueues.peek() == entry) {
+        readyQueueChanged.signalAll();
+      }
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Wait until the earliest indexed queue becomes fetchable, or the max wait time elapsed
+   * @return true if there is a fetchable queue
+   * */
+  public boolean awaitReady(long maxWait) throws InterruptedException {
+    final long deadline = System.currentTimeMillis() + maxWait;
+
+    lock.lock();
+    try {
+      while (true) {
+        long now = System.currentTimeMillis();
+        ReadyEntry head = readyQueues.peek();
+        if (head != null && head.nextFetchTime <= now) {
+          return true;
+        }
+
+        long wait = deadline - now;
+        if (head != null) {
+          wait = Math.min(wait, head.nextFetchTime - now);
+        }
+
+        if (wait <= 0) {
+          return false;
+        }
+
+        readyQueueChanged.await(wait, TimeUnit.MILLISECONDS);
+      }
+    } finally {
+      lock.unlock();
+    }
+  }
+
   public FetchQueue get(String queueId) {
     return get(queueId, false);
   }
@@ -53,7 +149,13 @@ public class FetchQueues {
   }
 
   public FetchQueue peek() {
-    return priorityWorkingQueues.peek();
+    lock.lock();
+    try {
+      ReadyEntry head = readyQueues.peek();
+      return head == null ? null : head.queue;
+    } finally {
+      lock.unlock();
+    }
   }
 
   public FetchQueue getOrPeek(String queueId) {
@@ -83,8 +185,14 @@ public class FetchQueues {
   public boolean isEmpty() { return workingQueues.isEmpty(); }
 
   public void clear() {
-    workingQueues.clear();
-    priorityWorkingQueues.clear();
+    lock.lock();
+    try {
+      workingQueues.clear();
+      readyQueues.clear();
+      readyEntries.clear();
+    } finally {
+      lock.unlock();
+    }
   }
 
   /**
@@ -157,13 +265,42 @@ public class FetchQueues {
     }
   }
 
+  /**
+   * Take the earliest fetchable queue out of the index, the caller re-indexes it after consuming
+   * @return null if no queue is fetchable now
+   * */
   private FetchQueue allocateTopPriorityFetchQueue() {
-    if (priorityWorkingQueues.isEmpty()) {
-      workingQueues.values().stream().filter(FetchQueue::hasTasks).forEach(priorityWorkingQueues::add);
-    }
+    final long now = System.currentTimeMillis();
+
+    lock.lock();
+    try {
+      ReadyEntry head;
+      while ((head = readyQueues.peek()) != null && head.nextFetchTime <= now) {
+        readyQueues.poll();
+        readyEntries.remove(head.queue.getId());
+
+        FetchQueue queue = head.queue;
+        if (workingQueues.get(queue.getId()) != queue || !queue.isServable()) {
+          // Stale entry, the queue is indexed again once it's able to serve
+          continue;
+        }
 
-    FetchQueue queue = priorityWorkingQueues.poll();
-    return queue == null ? null : workingQueues.get(queue.getId());
+        long nextFetchTime = queue.getNextFetchTime();
+        if (nextFetchTime > now) {
+          // The queue is delayed by a task finished after it's indexed
+          ReadyEntry entry = new ReadyEntry(queue, nextFetchTime);
+          readyEntries.put(queue.getId(), entry);
+          readyQueues.add(entry);
+          continue;
+        }
+
+        return queue;
+      }
+
+      return null;
+    } finally {
+      lock.unlock();
+    }
   }
 
   private FetchQueue allocateNextFetchItemQueue() {
@@ -200,4 +337,20 @@ public class FetchQueues {
 
     return queue;
   }
+
+  private static class ReadyEntry implements Comparable<ReadyEntry> {
+    private final FetchQueue queue;
+    private final long nextFetchTime;
+
+    ReadyEntry(FetchQueue queue, long nextFetchTime) {
+      this.queue = queue;
+      this.nextFetchTime = nextFetchTime;
+    }
+
+    @Override
+    public int compareTo(ReadyEntry other) {
+      int c = Long.compare(nextFetchTime, other.nextFetchTime);
+      return c != 0 ? c : queue.compareTo(other.queue);
+    }
+  }
 }
@@ -2,6 +2,7 @@ package org.apache.nutch.fetch.data;
 
 import org.apache.nutch.fetch.FetchMonitor;
 import org.apache.nutch.storage.WebPage;
+import org.apache.nutch.util.NutchUrl;
 import org.apache.nutch.util.URLUtil;
 import org.slf4j.Logger;
 
@@ -43,12 +44,16 @@ public class FetchTask implements Comparable<FetchTask> {
 
   Key key;
   WebPage page;
-  URL u;
+  NutchUrl u;
   long pendingStartTime = -1;
 
   public FetchTask(int jobID, String url, WebPage page, URL u, String queueID) {
+    this(jobID, page, NutchUrl.of(url, u), queueID);
+  }
+
+  public FetchTask(int jobID, WebPage page, NutchUrl u, String queueID) {
     this.page = page;
-    this.key = new Key(jobID, queueID, url);
+    this.key = new Key(jobID, queueID, u.getUrl());
     this.u = u;
   }
 
@@ -73,6 +78,10 @@ public class FetchTask implements Comparable<FetchTask> {
   }
 
   public URL getU() {
+    return u.getURL();
+  }
+
+  public NutchUrl getNutchUrl() {
     return u;
   }
 
@@ -94,7 +103,7 @@ public class FetchTask implements Comparable<FetchTask> {
    * address pair or protocol+domain pair.
    */
   public static FetchTask create(int jobID, String url, WebPage page, URLUtil.HostGroupMode hostGroupMode) {
-    final URL u = URLUtil.getUrl(url);
+    final NutchUrl u = NutchUrl.of(url);
 
     if (u == null) {
       return null;
@@ -109,7 +118,7 @@ public class FetchTask implements Comparable<FetchTask> {
 
     final String queueID = proto.toLowerCase() + "://" + host.toLowerCase();
 
-    return new FetchTask(jobID, url, page, u, queueID);
+    return new FetchTask(jobID, page, u, queueID);
   }
 
   /**
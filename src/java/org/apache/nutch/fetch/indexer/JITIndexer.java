@@ -138,10 +138,11 @@ public class JITIndexer {
       IndexDocument doc = new IndexDocument.Builder(conf).build(reverseUrl, page);
       doc = filter(doc, page);
       if (doc != null) {
+        // Index writers such as SolrIndexWriter send documents in background, the lock is not held during round trips
         synchronized (indexWriters) {
           indexWriters.write(doc);
-          TableUtil.putIndexTimeHistory(page, System.currentTimeMillis());
         }
+        TableUtil.putIndexTimeHistory(page, System.currentTimeMillis());
       } // if
     }
     catch (Throwable e) {
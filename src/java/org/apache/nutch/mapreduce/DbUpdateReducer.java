@@ -18,18 +18,24 @@ package org.apache.nutch.mapreduce;
 
 import org.apache.gora.store.DataStore;
 import org.apache.nutch.crawl.NutchWritable;
+import org.apache.nutch.crawl.SimHashIndex;
+import org.apache.nutch.crawl.SimHashSignature;
 import org.apache.nutch.crawl.UrlWithScore;
 import org.apache.nutch.dbupdate.ReduceDatumBuilder;
 import org.apache.nutch.metadata.Nutch;
+import org.apache.nutch.storage.BatchedRowReader;
 import org.apache.nutch.storage.StorageUtils;
 import org.apache.nutch.storage.WebPage;
+import org.apache.nutch.util.PageMetadata;
 import org.apache.nutch.util.Params;
 import org.apache.nutch.util.StringUtil;
 import org.apache.nutch.util.TableUtil;
+import org.apache.nutch.util.URLUtil;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
 
 import static org.apache.nutch.mapreduce.NutchCounter.Counter.rows;
 
@@ -38,13 +44,21 @@ public class DbUpdateReducer extends NutchReducer<UrlWithScore, NutchWritable, S
   public static final Logger LOG = LoggerFactory.getLogger(DbUpdateReducer.class);
 
   public static final String CRAWLDB_ADDITIONS_ALLOWED = "db.update.additions.allowed";
+  public static final String PREFETCH_BATCH_SIZE = "db.update.prefetch.batch.size";
+  public static final String NEAR_DUPLICATE_DISTANCE = "db.update.near.duplicate.distance";
+  /** The max number of pages of a host kept to find near duplicates */
+  public static final String NEAR_DUPLICATE_MAX_PAGES = "db.update.near.duplicate.max.pages";
 
-  public enum Counter { newRows };
+  public enum Counter { newRows, oldRowsHit, oldRowsMissed, oldRowsPrefetched, prefetchBlocks, nearDuplicates };
 
   private ReduceDatumBuilder datumBuilder;
   private boolean additionsAllowed;
   private int maxLinks;
   public DataStore<String, WebPage> datastore;
+  private BatchedRowReader<WebPage> oldRowReader;
+  /** The SimHash signatures of the pages of the current host */
+  private SimHashIndex<NearDuplicateOriginal> nearDuplicateIndex;
+  private String nearDuplicateHost;
 
   @Override
   protected void setup(Context context) throws IOException, InterruptedException {
@@ -64,14 +78,38 @@ public class DbUpdateReducer extends NutchReducer<UrlWithScore, NutchWritable, S
       throw new IOException(e);
     }
 
+    // Reduce keys come in order, so old rows are prefetched in blocks instead of one get for each key
+    int prefetchBatchSize = conf.getInt(PREFETCH_BATCH_SIZE, 100);
+    oldRowReader = new BatchedRowReader<>(datastore, prefetchBatchSize, null);
+
+    // Only SimHash signatures tell near duplicates, the others are left as they are
+    int nearDuplicateDistance = conf.getInt(NEAR_DUPLICATE_DISTANCE, 3);
+    int nearDuplicateMaxPages = conf.getInt(NEAR_DUPLICATE_MAX_PAGES, 10000);
+    if (nearDuplicateDistance >= 0) {
+      nearDuplicateIndex = new SimHashIndex<>(nearDuplicateDistance, nearDuplicateMaxPages);
+    }
+
     Params.of(
         "className", this.getClass().getSimpleName(),
         "crawlId", crawlId,
         "additionsAllowed", additionsAllowed,
-        "maxLinks", maxLinks
+        "maxLinks", maxLinks,
+        "prefetchBatchSize", prefetchBatchSize,
+        "nearDuplicateDistance", nearDuplicateDistance,
+        "nearDuplicateMaxPages", nearDuplicateMaxPages
     ).merge(datumBuilder.getParams()).withLogger(LOG).info();
   }
 
+  @Override
+  protected void cleanup(Context context) {
+    getCounter().setValue(Counter.oldRowsHit, oldRowReader.getHits());
+    getCounter().setValue(Counter.oldRowsMissed, oldRowReader.getMisses());
+    getCounter().setValue(Counter.oldRowsPrefetched, oldRowReader.getRowsLoaded());
+    getCounter().setValue(Counter.prefetchBlocks, oldRowReader.getBlocks());
+
+    super.cleanup(context);
+  }
+
   @Override
   protected void reduce(UrlWithScore key, Iterable<NutchWritable> values, Context context) {
     try {
@@ -95,12 +133,83 @@ public class DbUpdateReducer extends NutchReducer<UrlWithScore, NutchWritable, S
 
     // Calculate inlinked score data, and return the main web page
     WebPage page = datumBuilder.calculateInlinks(url, values);
-    WebPage oldPage = datastore.get(reversedUrl);
+    WebPage oldPage = oldRowReader.get(reversedUrl);
+
+    page = datumBuilder.process(url, page, oldPage, additionsAllowed);
+    if (page == null) {
+      return;
+    }
 
-    datumBuilder.process(url, page, oldPage, additionsAllowed);
+    if (nearDuplicateIndex != null) {
+      checkNearDuplicate(url, page);
+    }
 
     getCounter().updateAffectedRows(url);
 
     context.write(reversedUrl, page);
   }
+
+  /**
+   * Reduce keys are reversed urls, so the pages of a host come one after another. A page whose signature
+   * is near one of a page of the same host seen before is marked as a near duplicate of it, and is not indexed.
+   * The mark is removed once the page is not a near duplicate any more
+   * */
+  private void checkNearDuplicate(String url, WebPage page) {
+    ByteBuffer signature = page.getSignature();
+    if (!SimHashSignature.isSimHash(signature)) {
+      return;
+    }
+
+    String host = URLUtil.getHostName(url);
+    if (host == null) {
+      return;
+    }
+    if (!host.equals(nearDuplicateHost)) {
+      nearDuplicateIndex.clear();
+      nearDuplicateHost = host;
+    }
+
+    if (markNearDuplicate(nearDuplicateIndex, url, page)) {
+      getCounter().increase(Counter.nearDuplicates);
+    }
+  }
+
+  /**
+   * The original is not always in the same input as its near duplicates, so a page keeps its mark as long as its
+   * own SimHash is within the distance of the original's, which is stored with the mark
+   *
+   * @return true if the page is marked as a near duplicate
+   * */
+  static boolean markNearDuplicate(SimHashIndex<NearDuplicateOriginal> index, String url, WebPage page) {
+    long fingerprint = SimHashSignature.toLong(page.getSignature());
+    NearDuplicateOriginal original = index.findNear(fingerprint);
+    if (original != null) {
+      PageMetadata.putString(page, PageMetadata.NEAR_DUPLICATE_OF, original.url);
+      PageMetadata.putLong(page, PageMetadata.NEAR_DUPLICATE_FINGERPRINT, original.fingerprint);
+      return true;
+    }
+
+    if (PageMetadata.has(page, PageMetadata.NEAR_DUPLICATE_OF)
+        && PageMetadata.has(page, PageMetadata.NEAR_DUPLICATE_FINGERPRINT)) {
+      long originalFingerprint = PageMetadata.getLong(page, PageMetadata.NEAR_DUPLICATE_FINGERPRINT, 0);
+      if (SimHashIndex.distance(fingerprint, originalFingerprint) <= index.getMaxDistance()) {
+        return true;
+      }
+    }
+
+    index.add(fingerprint, new NearDuplicateOriginal(url, fingerprint));
+    TableUtil.clearMetadata(page, PageMetadata.NEAR_DUPLICATE_OF);
+    TableUtil.clearMetadata(page, PageMetadata.NEAR_DUPLICATE_FINGERPRINT);
+    return false;
+  }
+
+  static class NearDuplicateOriginal {
+    final String url;
+    final long fingerprint;
+
+    NearDuplicateOriginal(String url, long fingerprint) {
+      this.url = url;
+      this.fingerprint = fingerprint;
+    }
+  }
 }
@@ -289,7 +289,7 @@ public class GenerateJob extends NutchJob implements Tool {
     System.out.println("Usage: GenerateJob [-crawlId <id>] [-batchId <id>] [-fetchMod <native|proxy|crowdsourcing>] " +
         "[-reGen] [-topN N] [-noFilter] [-noNorm] [-adddays numDays]");
     System.out.println("    -crawlId <id>     - the id to prefix the schemas to operate on, \n \t \t    (default: storage.crawl.id)\");");
-    System.out.println("    -fetchMode <mode> - the fetch mode, can be one of [native|proxy|crowdsourcing], \n \t \t    (default: fetcher.fetch.mode)\");");
+    System.out.println("    -fetchMode <mode> - the fetch mode, can be one of [native|proxy|crowdsourcing|async], \n \t \t    (default: fetcher.fetch.mode)\");");
     System.out.println("    -batchId <id>     - the batch id ");
     System.out.println("    -topN <N>         - number of top URLs to be selected, default is Long.MAX_VALUE ");
     System.out.println("    -noFilter         - do not activate the filter plugin to filter the url, default is true ");
@@ -22,8 +22,8 @@ import org.apache.nutch.crawl.SeedBuilder;
 import org.apache.nutch.crawl.filters.CrawlFilter;
 import org.apache.nutch.crawl.filters.CrawlFilters;
 import org.apache.nutch.mapreduce.GenerateJob.SelectorEntry;
+import org.apache.nutch.net.CachingURLFilters;
 import org.apache.nutch.net.URLFilterException;
-import org.apache.nutch.net.URLFilters;
 import org.apache.nutch.net.URLNormalizers;
 import org.apache.nutch.scoring.ScoringFilterException;
 import org.apache.nutch.scoring.ScoringFilters;
@@ -66,8 +66,7 @@ public class GenerateMapper extends NutchMapper<String, WebPage, SelectorEntry,
   private URLUtil.HostGroupMode hostGroupMode;
   private boolean filter;
   private boolean normalise;
-  private URLFilters urlFilters;
-  private URLNormalizers urlNormalizers;
+  private CachingURLFilters urlFilters;
   private ScoringFilters scoringFilters;
   private CrawlFilters crawlFilters;
   private FetchSchedule fetchSchedule;
@@ -100,9 +99,8 @@ public class GenerateMapper extends NutchMapper<String, WebPage, SelectorEntry,
     }
 
     filter = conf.getBoolean(PARAM_GENERATE_FILTER, true);
-    urlFilters = filter ? new URLFilters(conf) : null;
     normalise = conf.getBoolean(PARAM_GENERATE_NORMALISE, true);
-    urlNormalizers = normalise ? new URLNormalizers(conf, URLNormalizers.SCOPE_GENERATE_HOST_COUNT) : null;
+    urlFilters = filter || normalise ? CachingURLFilters.get(conf) : null;
 
     maxDistance = conf.getInt(PARAM_GENERATOR_MAX_DISTANCE, -1);
     pseudoCurrTime = conf.getLong(PARAM_GENERATOR_CUR_TIME, startTime);
@@ -317,7 +315,7 @@ public class GenerateMapper extends NutchMapper<String, WebPage, SelectorEntry,
     // If filtering is on don't generate URLs that don't pass URLFilters
     try {
       if (normalise) {
-        url = urlNormalizers.normalize(url, URLNormalizers.SCOPE_GENERATE_HOST_COUNT);
+        url = urlFilters.normalize(url, URLNormalizers.SCOPE_GENERATE_HOST_COUNT);
       }
 
       if (url == null) {
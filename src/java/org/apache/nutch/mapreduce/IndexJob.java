@@ -220,7 +220,7 @@ public class IndexJob extends NutchJob implements Tool {
         + "\n \t \t   [-solrUrl url] [-zkHostString zk] [-collection collection]\n"
         + "    <batchId>     - crawl identifier returned by Generator, or -all for all \n \t \t    generated batchId-s\n"
         + "    -crawlId <id> - the id to prefix the schemas to operate on, \n \t \t    (default: storage.crawl.id)\n"
-        + "    -fetchMode <mode> - the fetch mode, can be one of [native|proxy|crowdsourcing], \n \t \t    (default: fetcher.fetch.mode)\");"
+        + "    -fetchMode <mode> - the fetch mode, can be one of [native|proxy|crowdsourcing|async], \n \t \t    (default: fetcher.fetch.mode)\");"
         + "    -threads N    - number of fetching threads per task\n"
         + "    -limit        - limit\n"
         + "    -resume       - resume interrupted job\n"
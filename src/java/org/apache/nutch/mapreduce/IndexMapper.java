@@ -11,6 +11,7 @@ import org.apache.nutch.storage.Mark;
 import org.apache.nutch.storage.ParseStatus;
 import org.apache.nutch.storage.StorageUtils;
 import org.apache.nutch.storage.WebPage;
+import org.apache.nutch.util.PageMetadata;
 import org.apache.nutch.util.Params;
 import org.apache.nutch.util.TableUtil;
 
@@ -25,7 +26,7 @@ import static org.apache.nutch.metadata.Nutch.*;
  */
 public class IndexMapper extends NutchMapper<String, WebPage, String, IndexDocument> {
 
-  public enum Counter { unmatchStatus, notUpdated, alreadyIndexed, pageTruncated, parseFailed, indexFailed, shortContent, hasPublishTime, hasAuthor };
+  public enum Counter { unmatchStatus, notUpdated, alreadyIndexed, nearDuplicate, pageTruncated, parseFailed, indexFailed, shortContent, hasPublishTime, hasAuthor };
 
   private DataStore<String, WebPage> storage;
   private ParseUtil parseUtil;
@@ -117,6 +118,12 @@ public class IndexMapper extends NutchMapper<String, WebPage, String, IndexDocum
           // LOG.debug("Not db updated : " + TableUtil.unreverseUrl(key));
           return;
         }
+
+        // Marked by DbUpdateReducer, the page it's near is indexed instead
+        if (PageMetadata.has(page, PageMetadata.NEAR_DUPLICATE_OF)) {
+          getCounter().increase(Counter.nearDuplicate);
+          return;
+        }
       }
 
       if (reindex) {
@@ -28,6 +28,7 @@ import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.mapreduce.TaskInputOutputContext;
 import org.apache.nutch.crawl.filters.CrawlFilters;
 import org.apache.nutch.metadata.Nutch;
+import org.apache.nutch.net.CachingURLFilters;
 import org.apache.nutch.util.NetUtil;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -67,7 +68,10 @@ public class NutchCounter {
     stNotmodified,
     stRetry,
     stUnfetched,
-    stGone
+    stGone,
+
+    urlCacheHits,
+    urlCacheMisses
   }
 
   private static AtomicInteger counterSequence = new AtomicInteger(0);
@@ -234,6 +238,8 @@ public class NutchCounter {
   }
 
   public void accumulateGlobalCounters() {
+    updateUrlCacheCounters();
+
     for (int i = 0; i < countersCount.get(); ++i) {
       String name = counterNames.get(i);
       int value = globalCounters.get(i).getAndSet(0);
@@ -245,6 +251,19 @@ public class NutchCounter {
     }
   }
 
+  /**
+   * Catch up with the url filter cache shared in this JVM, see {@link CachingURLFilters}
+   * */
+  private void updateUrlCacheCounters() {
+    CachingURLFilters urlFilters = CachingURLFilters.getIfPresent(conf);
+    if (urlFilters == null || countersCount.get() == 0) {
+      return;
+    }
+
+    increase(Counter.urlCacheHits, (int) (urlFilters.getHits() - get(Counter.urlCacheHits)));
+    increase(Counter.urlCacheMisses, (int) (urlFilters.getMisses() - get(Counter.urlCacheMisses)));
+  }
+
   protected void increase(int index) {
     if (!validate(index)) {
       return;
@@ -10,14 +10,18 @@ import org.apache.commons.lang.ArrayUtils;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.io.Text;
 import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.WritableUtils;
 import org.apache.hadoop.mapreduce.*;
 import org.apache.hadoop.mapreduce.lib.output.NullOutputFormat;
 import org.apache.hadoop.util.Tool;
 import org.apache.hadoop.util.ToolRunner;
 import org.apache.http.client.HttpClient;
 import org.apache.http.impl.client.SystemDefaultHttpClient;
+import org.apache.nutch.crawl.SimHashIndex;
+import org.apache.nutch.crawl.SimHashSignature;
 import org.apache.nutch.metadata.Nutch;
 import org.apache.nutch.util.NutchConfiguration;
+import org.apache.nutch.util.URLUtil;
 import org.apache.solr.client.solrj.SolrClient;
 import org.apache.solr.client.solrj.SolrQuery;
 import org.apache.solr.client.solrj.SolrServerException;
@@ -27,6 +31,7 @@ import org.apache.solr.client.solrj.request.UpdateRequest;
 import org.apache.solr.client.solrj.response.QueryResponse;
 import org.apache.solr.common.SolrDocument;
 import org.apache.solr.common.SolrDocumentList;
+import org.apache.solr.common.params.CursorMarkParams;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -35,7 +40,6 @@ import java.io.DataOutput;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Date;
-import java.util.Iterator;
 import java.util.List;
 
 /**
@@ -45,26 +49,43 @@ import java.util.List;
  *
  * Preparation:
  * <ol>
- * <li>Query the solr server for the number of documents (say, N)</li>
- * <li>Partition N among M map tasks. For example, if we have two map tasks the
- * first map task will deal with solr documents from 0 - (N / 2 - 1) and the
- * second will deal with documents from (N / 2) to (N - 1).</li>
+ * <li>Partition the documents among M map tasks by the hash of the digest, using the
+ * solr hash filter <code>{!hash workers=M worker=i partitionKeys=digest}</code>, so all
+ * documents with the same digest are read by the same map task.</li>
+ * <li>Each map task streams its partition page by page with a cursor mark sorted by id,
+ * every page costs the same no matter how deep it is in the index, unlike start/rows paging
+ * which makes solr skip all the documents before the page.</li>
  * </ol>
  *
  * MapReduce:
  * <ul>
  * <li>Map: Identity map where keys are digests and values are
  * {@link SolrRecord} instances(which contain id, boost and timestamp)</li>
+ * <li>Combine: {@link SolrRecord}s with the same digest in a map task are merged into the
+ * one to keep, which carries the ids of the others, so only one record per digest is shuffled.</li>
  * <li>Reduce: After map, {@link SolrRecord}s with the same digest will be
  * grouped together. Now, of these documents with the same digests, delete all
  * of them except the one with the highest score (boost field). If two (or more)
  * documents have the same score, then the document with the latest timestamp is
- * kept. Again, every other is deleted from solr index.</li>
+ * kept, and then the one with the smallest id. Again, every other is deleted from solr index.</li>
  * </ul>
  *
  * Note that we assume that two documents in a solr index will never have the
  * same URL. So this class only deals with documents with <b>different</b> URLs
  * but the same digest.
+ *
+ * Near duplicates:
+ * If solr.dedup.max.distance is positive, documents whose digests are {@link SimHashSignature}s
+ * within the Hamming distance of a document of the same host are deleted too, like the near duplicates
+ * found by the update. The map emits these documents grouped by the host of their ids, in a group they are
+ * visited best first, and a document is deleted if a kept document is within the distance, see
+ * {@link SimHashIndex}. A document is never deleted for a document which is deleted itself, so if A is near
+ * B and B is near C, but A is not near C, only B is deleted. A group holds all the documents which could be
+ * near duplicates of each other, so the result does not depend on the order of the documents, as long as
+ * a host has no more than solr.dedup.max.near.records documents. The documents of a host beyond the limit
+ * are kept without being compared, they are counted by the nearRecordsSkipped counter.
+ * Documents of different hosts are never near duplicates, even with the same SimHash.
+ * Documents with other digests are deduplicated by the exact digest as before.
  */
 public class SolrDeleteDuplicates
     extends
@@ -125,35 +146,62 @@ public class SolrDeleteDuplicates
   
   public static final Logger LOG = LoggerFactory.getLogger(SolrDeleteDuplicates.class);
 
+  /** The number of partitions of the index, each partition is read by a map task */
+  public static final String SOLR_DEDUP_SPLITS = "solr.dedup.splits";
+
+  /** The number of documents in a page */
+  public static final String SOLR_DEDUP_ROWS = "solr.dedup.rows";
+
+  /** The max Hamming distance of SimHash digests of near duplicates, 0 to delete exact duplicates only */
+  public static final String SOLR_DEDUP_MAX_DISTANCE = "solr.dedup.max.distance";
+
+  /** The max number of documents of a host with SimHash digests which are compared with each other */
+  public static final String SOLR_DEDUP_MAX_NEAR_RECORDS = "solr.dedup.max.near.records";
+
+  /** The key prefix of the documents with SimHash digests, they are grouped by host */
+  private static final String NEAR_KEY_PREFIX = "simhash:";
+
+  public enum Counter { nearDuplicates, nearRecordsSkipped }
+
   private static final String SOLR_GET_ALL_QUERY = ID_FIELD + ":[* TO *]";
 
+  private static final String SOLR_HAS_DIGEST_QUERY = DIGEST_FIELD + ":[* TO *]";
+
   private static final int NUM_MAX_DELETE_REQUEST = 1000;
 
   private Configuration conf;
 
-  private String[] solrUrls = ArrayUtils.EMPTY_STRING_ARRAY;
-  private String[] zkHosts = ArrayUtils.EMPTY_STRING_ARRAY;
-  private String collection;
-
   private SolrClient solrClient;
 
   private int numDeletes = 0;
 
   private UpdateRequest updateRequest = new UpdateRequest();
 
+  private int maxDistance = 0;
+
+  private int maxNearRecords = 1000000;
+
   public static class SolrRecord implements Writable {
 
     private float boost;
     private long tstamp;
     private String id;
+    private String digest = "";
+    /** Ids of the documents with the same digest which are already known to be deleted */
+    private List<String> duplicateIds = new ArrayList<>();
 
     public SolrRecord() {
     }
 
     public SolrRecord(String id, float boost, long tstamp) {
+      this(id, boost, tstamp, "");
+    }
+
+    public SolrRecord(String id, float boost, long tstamp, String digest) {
       this.id = id;
       this.boost = boost;
       this.tstamp = tstamp;
+      this.digest = digest;
     }
 
     public String getId() {
@@ -168,12 +216,43 @@ public class SolrDeleteDuplicates
       return tstamp;
     }
 
+    public String getDigest() {
+      return digest;
+    }
+
+    public List<String> getDuplicateIds() {
+      return duplicateIds;
+    }
+
     public void readSolrDocument(SolrDocument doc) {
       id = (String) doc.getFieldValue(ID_FIELD);
       boost = (Float) doc.getFieldValue(BOOST_FIELD);
 
       Date buffer = (Date) doc.getFieldValue(TIMESTAMP_FIELD);
       tstamp = buffer.getTime();
+      digest = (String) doc.getFieldValue(DIGEST_FIELD);
+      duplicateIds.clear();
+    }
+
+    /**
+     * The record with the higher boost, the later timestamp, and then the smaller id is kept,
+     * the order is total so the same record is kept however the records are combined
+     * */
+    public boolean isBetterThan(SolrRecord other) {
+      if (boost != other.boost) {
+        return boost > other.boost;
+      }
+      if (tstamp != other.tstamp) {
+        return tstamp > other.tstamp;
+      }
+      return id.compareTo(other.id) < 0;
+    }
+
+    private void set(SolrRecord other) {
+      id = other.id;
+      boost = other.boost;
+      tstamp = other.tstamp;
+      digest = other.digest;
     }
 
     @Override
@@ -181,6 +260,13 @@ public class SolrDeleteDuplicates
       id = Text.readString(in);
       boost = in.readFloat();
       tstamp = in.readLong();
+      digest = Text.readString(in);
+
+      duplicateIds.clear();
+      int size = WritableUtils.readVInt(in);
+      for (int i = 0; i < size; ++i) {
+        duplicateIds.add(Text.readString(in));
+      }
     }
 
     @Override
@@ -188,24 +274,134 @@ public class SolrDeleteDuplicates
       Text.writeString(out, id);
       out.writeFloat(boost);
       out.writeLong(tstamp);
+      Text.writeString(out, digest);
+
+      WritableUtils.writeVInt(out, duplicateIds.size());
+      for (String duplicateId : duplicateIds) {
+        Text.writeString(out, duplicateId);
+      }
+    }
+  }
+
+  /**
+   * Merge the records with the same digest into the record to keep, the others go to its duplicate ids.
+   * The values are reused by hadoop, so the result is a new record
+   * */
+  public static SolrRecord merge(Iterable<SolrRecord> values) {
+    SolrRecord recordToKeep = null;
+
+    for (SolrRecord solrRecord : values) {
+      if (recordToKeep == null) {
+        recordToKeep = new SolrRecord();
+        recordToKeep.set(solrRecord);
+      } else if (solrRecord.isBetterThan(recordToKeep)) {
+        recordToKeep.duplicateIds.add(recordToKeep.id);
+        recordToKeep.set(solrRecord);
+      } else {
+        recordToKeep.duplicateIds.add(solrRecord.id);
+      }
+
+      recordToKeep.duplicateIds.addAll(solrRecord.duplicateIds);
+    }
+
+    return recordToKeep;
+  }
+
+  /**
+   * Reduces the records of a digest to one before the shuffle, nothing is deleted until the reduce
+   * */
+  public static class SolrDuplicatesCombiner extends Reducer<Text, SolrRecord, Text, SolrRecord> {
+    @Override
+    protected void reduce(Text key, Iterable<SolrRecord> values, Context context) throws IOException, InterruptedException {
+      context.write(key, merge(values));
+    }
+  }
+
+  /**
+   * @return the SimHash of the digest, or null if the digest is not a SimHash signature
+   * */
+  public static Long parseSimHash(String digest) {
+    if (digest == null || digest.length() != 2 * SimHashSignature.SIZE) {
+      return null;
+    }
+
+    try {
+      return Long.parseUnsignedLong(digest, 16);
+    } catch (NumberFormatException e) {
+      return null;
     }
   }
 
+  /**
+   * Emits the records with a SimHash digest by the host of the id, and other records by the digest
+   * */
+  public static class SolrSimHashMapper extends Mapper<Text, SolrRecord, Text, SolrRecord> {
+    private final Text nearKey = new Text();
+
+    @Override
+    protected void map(Text key, SolrRecord value, Context context) throws IOException, InterruptedException {
+      if (parseSimHash(key.toString()) == null) {
+        context.write(key, value);
+        return;
+      }
+
+      String host = URLUtil.getHostName(value.getId());
+      nearKey.set(NEAR_KEY_PREFIX + (host == null ? value.getId() : host));
+      context.write(nearKey, value);
+    }
+  }
+
+  /**
+   * Finds the records which have a kept record within the max distance, they are to be deleted.
+   * The records are visited best first, and a record is kept if no kept record is within the max distance,
+   * so the result does not depend on the order of the records
+   * */
+  public static List<SolrRecord> findNearDuplicates(List<SolrRecord> records, int maxDistance) {
+    // Best first, so a record is kept or deleted before all the worse ones
+    List<SolrRecord> sorted = new ArrayList<>(records);
+    sorted.sort((r1, r2) -> r1.isBetterThan(r2) ? -1 : (r2.isBetterThan(r1) ? 1 : 0));
+
+    List<SolrRecord> duplicates = new ArrayList<>();
+    // Only the kept records are indexed, a record is never deleted for a deleted one
+    SimHashIndex<SolrRecord> keptIndex = new SimHashIndex<>(maxDistance, sorted.size());
+    for (SolrRecord record : sorted) {
+      long simHash = parseSimHash(record.digest);
+      if (keptIndex.findNear(simHash) != null) {
+        duplicates.add(record);
+      } else {
+        keptIndex.add(simHash, record);
+      }
+    }
+
+    return duplicates;
+  }
+
   public static class SolrInputSplit extends InputSplit implements Writable {
 
-    private int docBegin;
-    private int numDocs;
+    private int worker;
+    private int workers;
+    private long numDocs;
 
     public SolrInputSplit() {
     }
 
-    public SolrInputSplit(int docBegin, int numDocs) {
-      this.docBegin = docBegin;
+    /**
+     * @param worker the partition of the index
+     * @param workers the number of partitions
+     * @param numDocs the estimated number of documents in the partition
+     * */
+    public SolrInputSplit(int worker, int workers, long numDocs) {
+      this.worker = worker;
+      this.workers = workers;
       this.numDocs = numDocs;
     }
 
-    public int getDocBegin() {
-      return docBegin;
+    public int getWorker() {
+      return worker;
+    }
+
+    public int getWorkers() {
+      return workers;
     }
 
     @Override
@@ -220,27 +416,38 @@ public class SolrDeleteDuplicates
 
     @Override
     public void readFields(DataInput in) throws IOException {
-      docBegin = in.readInt();
-      numDocs = in.readInt();
+      worker = in.readInt();
+      workers = in.readInt();
+      numDocs = in.readLong();
     }
 
     @Override
     public void write(DataOutput out) throws IOException {
-      out.writeInt(docBegin);
-      out.writeInt(numDocs);
+      out.writeInt(worker);
+      out.writeInt(workers);
+      out.writeLong(numDocs);
     }
   }
 
+  /**
+   * Streams the documents of a partition with a cursor mark, a page at a time
+   * */
   public static class SolrRecordReader extends RecordReader<Text, SolrRecord> {
 
-    private int currentDoc = 0;
-    private int numDocs;
+    private final SolrClient solrClient;
+    private final SolrQuery solrQuery;
+    private String cursorMark = CursorMarkParams.CURSOR_MARK_START;
+    private boolean lastPage = false;
+    private SolrDocumentList solrDocs;
+    private int pageDoc = 0;
+    private long currentDoc = 0;
+    private long numDocs;
     private Text text;
     private SolrRecord record;
-    private SolrDocumentList solrDocs;
 
-    public SolrRecordReader(SolrDocumentList solrDocs, int numDocs) {
-      this.solrDocs = solrDocs;
+    public SolrRecordReader(SolrClient solrClient, SolrQuery solrQuery, long numDocs) {
+      this.solrClient = solrClient;
+      this.solrQuery = solrQuery;
       this.numDocs = numDocs;
     }
 
@@ -253,11 +460,12 @@ public class SolrDeleteDuplicates
 
     @Override
     public void close() throws IOException {
+      solrClient.close();
     }
 
     @Override
     public float getProgress() throws IOException {
-      return currentDoc / (float) numDocs;
+      return numDocs == 0 ? 0 : Math.min(1.0f, currentDoc / (float) numDocs);
     }
 
     @Override
@@ -273,11 +481,14 @@ public class SolrDeleteDuplicates
 
     @Override
     public boolean nextKeyValue() throws IOException, InterruptedException {
-      if (currentDoc >= numDocs) {
-        return false;
+      while (solrDocs == null || pageDoc >= solrDocs.size()) {
+        if (lastPage) {
+          return false;
+        }
+        nextPage();
       }
 
-      SolrDocument doc = solrDocs.get(currentDoc);
+      SolrDocument doc = solrDocs.get(pageDoc++);
       String digest = (String) doc.getFieldValue(DIGEST_FIELD);
       text.set(digest);
       record.readSolrDocument(doc);
@@ -285,37 +496,54 @@ public class SolrDeleteDuplicates
       currentDoc++;
       return true;
     }
+
+    private void nextPage() throws IOException {
+      solrQuery.set(CursorMarkParams.CURSOR_MARK_PARAM, cursorMark);
+
+      QueryResponse response;
+      try {
+        response = solrClient.query(solrQuery);
+      } catch (final SolrServerException e) {
+        throw new IOException(e);
+      }
+
+      solrDocs = response.getResults();
+      pageDoc = 0;
+      numDocs = solrDocs.getNumFound();
+
+      // The cursor mark stays the same after the last document
+      String nextCursorMark = response.getNextCursorMark();
+      lastPage = cursorMark.equals(nextCursorMark);
+      cursorMark = nextCursorMark;
+    }
   }
 
-  public class SolrInputFormat extends InputFormat<Text, SolrRecord> {
+  public static class SolrInputFormat extends InputFormat<Text, SolrRecord> {
 
     @Override
     public List<InputSplit> getSplits(JobContext context) throws IOException,
         InterruptedException {
       Configuration conf = context.getConfiguration();
-      int numSplits = context.getNumReduceTasks();
-      solrClient  = getSolrClient(solrUrls, zkHosts, collection);
+      int numSplits = Math.max(1, conf.getInt(SOLR_DEDUP_SPLITS, 4));
 
       final SolrQuery solrQuery = new SolrQuery(SOLR_GET_ALL_QUERY);
-      solrQuery.setFields(ID_FIELD);
-      solrQuery.setRows(1);
+      solrQuery.addFilterQuery(SOLR_HAS_DIGEST_QUERY);
+      solrQuery.setRows(0);
 
       QueryResponse response;
-      try {
+      try (SolrClient solrClient = getSolrClient(conf)) {
         response = solrClient.query(solrQuery);
       } catch (final SolrServerException e) {
         throw new IOException(e);
       }
 
-      int numResults = (int) response.getResults().getNumFound();
-      int numDocsPerSplit = (numResults / numSplits);
-      int currentDoc = 0;
+      long numResults = response.getResults().getNumFound();
       List<InputSplit> splits = new ArrayList<>();
-      for (int i = 0; i < numSplits - 1; i++) {
-        splits.add(new SolrInputSplit(currentDoc, numDocsPerSplit));
-        currentDoc += numDocsPerSplit;
+      for (int i = 0; i < numSplits; i++) {
+        splits.add(new SolrInputSplit(i, numSplits, numResults / numSplits));
       }
-      splits.add(new SolrInputSplit(currentDoc, numResults - currentDoc));
+
+      LOG.info("Partition " + numResults + " documents into " + numSplits + " splits");
 
       return splits;
     }
@@ -325,23 +553,35 @@ public class SolrDeleteDuplicates
                                                              TaskAttemptContext context) throws IOException, InterruptedException {
       Configuration conf = context.getConfiguration();
       SolrInputSplit solrSplit = (SolrInputSplit) split;
-      final int numDocs = (int) solrSplit.getLength();
 
       SolrQuery solrQuery = new SolrQuery(SOLR_GET_ALL_QUERY);
+      solrQuery.addFilterQuery(SOLR_HAS_DIGEST_QUERY);
+      if (solrSplit.getWorkers() > 1) {
+        solrQuery.addFilterQuery("{!hash workers=" + solrSplit.getWorkers() + " worker=" + solrSplit.getWorker()
+            + " partitionKeys=" + DIGEST_FIELD + "}");
+      }
       solrQuery.setFields(ID_FIELD, BOOST_FIELD, TIMESTAMP_FIELD, DIGEST_FIELD);
-      solrQuery.setStart(solrSplit.getDocBegin());
-      solrQuery.setRows(numDocs);
+      // A cursor requires a sort on the unique key
+      solrQuery.setSort(ID_FIELD, SolrQuery.ORDER.asc);
+      solrQuery.setRows(conf.getInt(SOLR_DEDUP_ROWS, 1000));
 
-      QueryResponse response;
-      try {
-        response = solrClient.query(solrQuery);
-      } catch (final SolrServerException e) {
-        throw new IOException(e);
-      }
+      return new SolrRecordReader(getSolrClient(conf), solrQuery, solrSplit.getLength());
+    }
+  }
 
-      final SolrDocumentList solrDocs = response.getResults();
-      return new SolrRecordReader(solrDocs, numDocs);
+  public static SolrClient getSolrClient(Configuration conf) {
+    String[] solrUrls = conf.getStrings(Nutch.PARAM_SOLR_SERVER_URL, ArrayUtils.EMPTY_STRING_ARRAY);
+    String[] zkHosts = conf.getStrings(Nutch.PARAM_SOLR_ZK, ArrayUtils.EMPTY_STRING_ARRAY);
+    String collection = conf.get(Nutch.PARAM_SOLR_COLLECTION);
+
+    if (solrUrls.length == 0 && zkHosts.length == 0) {
+      String message = "Either SOLR URL or Zookeeper URL is required. " +
+          "Use -D " + Nutch.PARAM_SOLR_SERVER_URL + " or -D " + Nutch.PARAM_SOLR_ZK;
+      LOG.error(message);
+      throw new RuntimeException(message);
     }
+
+    return getSolrClient(solrUrls, zkHosts, collection);
   }
 
   @Override
@@ -357,21 +597,12 @@ public class SolrDeleteDuplicates
   @Override
   public void setup(Context job) throws IOException {
     conf = job.getConfiguration();
-
-    solrUrls = conf.getStrings(Nutch.PARAM_SOLR_SERVER_URL, ArrayUtils.EMPTY_STRING_ARRAY);
-    zkHosts = conf.getStrings(Nutch.PARAM_SOLR_ZK, ArrayUtils.EMPTY_STRING_ARRAY);
-    collection = conf.get(Nutch.PARAM_SOLR_COLLECTION);
+    maxDistance = conf.getInt(SOLR_DEDUP_MAX_DISTANCE, 0);
+    maxNearRecords = conf.getInt(SOLR_DEDUP_MAX_NEAR_RECORDS, 1000000);
 
     // dateFormat = DateFormat.getDateInstance(DateFormat.DEFAULT, Locale.ENGLISH);
 
-    if (solrUrls == null && zkHosts == null) {
-      String message = "Either SOLR URL or Zookeeper URL is required. " +
-          "Use -D " + Nutch.PARAM_SOLR_SERVER_URL + " or -D " + Nutch.PARAM_SOLR_ZK;
-      LOG.error(message);
-      throw new RuntimeException("Failed to init SolrIndexWriter");
-    }
-
-    solrClient  = getSolrClient(solrUrls, zkHosts, collection);
+    solrClient = getSolrClient(conf);
   }
 
   @Override
@@ -389,34 +620,57 @@ public class SolrDeleteDuplicates
 
   @Override
   public void reduce(Text key, Iterable<SolrRecord> values, Context context) throws IOException {
-    Iterator<SolrRecord> iterator = values.iterator();
-    SolrRecord recordToKeep = iterator.next();
-    while (iterator.hasNext()) {
-      SolrRecord solrRecord = iterator.next();
-      if (solrRecord.getBoost() > recordToKeep.getBoost()
-          || (solrRecord.getBoost() == recordToKeep.getBoost()
-          && solrRecord.getTstamp() > recordToKeep.getTstamp())) {
-        updateRequest.deleteById(recordToKeep.id);
-        recordToKeep = solrRecord;
-      } else {
-        updateRequest.deleteById(solrRecord.id);
+    if (maxDistance > 0 && key.toString().startsWith(NEAR_KEY_PREFIX)) {
+      // The values are reused by hadoop, so the records are copied
+      List<SolrRecord> records = new ArrayList<>();
+      long skipped = 0;
+      for (SolrRecord value : values) {
+        if (records.size() >= maxNearRecords) {
+          ++skipped;
+          continue;
+        }
+        SolrRecord record = new SolrRecord();
+        record.set(value);
+        records.add(record);
       }
 
-      numDeletes++;
-      if (numDeletes >= NUM_MAX_DELETE_REQUEST) {
-        try {
-          updateRequest.process(solrClient);
-        } catch (SolrServerException e) {
-          throw new IOException(e);
-        }
-        updateRequest = new UpdateRequest();
-        numDeletes = 0;
+      if (skipped > 0) {
+        LOG.warn("Too many documents with SimHash digests in " + key + ", " + skipped + " documents are not compared");
+        context.getCounter(Counter.nearRecordsSkipped).increment(skipped);
+      }
+
+      List<SolrRecord> duplicates = findNearDuplicates(records, maxDistance);
+      for (SolrRecord duplicate : duplicates) {
+        delete(duplicate.getId());
+      }
+      context.getCounter(Counter.nearDuplicates).increment(duplicates.size());
+      return;
+    }
+
+    SolrRecord recordToKeep = merge(values);
+    for (String duplicateId : recordToKeep.getDuplicateIds()) {
+      delete(duplicateId);
+    }
+  }
+
+  private void delete(String id) throws IOException {
+    updateRequest.deleteById(id);
+
+    numDeletes++;
+    if (numDeletes >= NUM_MAX_DELETE_REQUEST) {
+      try {
+        updateRequest.process(solrClient);
+      } catch (SolrServerException e) {
+        throw new IOException(e);
       }
+      updateRequest = new UpdateRequest();
+      numDeletes = 0;
     }
   }
 
   public boolean dedup(String solrUrl) throws IOException, InterruptedException, ClassNotFoundException {
     getConf().set(Nutch.ARG_SOLR_URL, solrUrl);
+    getConf().set(Nutch.PARAM_SOLR_SERVER_URL, solrUrl);
 
     Job job = Job.getInstance(getConf(), "solrdedup");
 
@@ -424,7 +678,13 @@ public class SolrDeleteDuplicates
     job.setOutputFormatClass(NullOutputFormat.class);
     job.setMapOutputKeyClass(Text.class);
     job.setMapOutputValueClass(SolrRecord.class);
-    job.setMapperClass(Mapper.class);
+    if (getConf().getInt(SOLR_DEDUP_MAX_DISTANCE, 0) > 0) {
+      // The records with SimHash digests are compared with each other in the reduce, they can not be combined
+      job.setMapperClass(SolrSimHashMapper.class);
+    } else {
+      job.setMapperClass(Mapper.class);
+      job.setCombinerClass(SolrDuplicatesCombiner.class);
+    }
     job.setReducerClass(SolrDeleteDuplicates.class);
 
     return job.waitForCompletion(true);
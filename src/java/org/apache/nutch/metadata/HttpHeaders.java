@@ -46,6 +46,8 @@ public interface HttpHeaders {
   
   String LOCATION = "Location";
 
+  String CONNECTION = "Connection";
+
   // For warps-satellite information
   String Q_VERSION = "Q-Version";
 
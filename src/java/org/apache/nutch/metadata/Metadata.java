@@ -49,6 +49,10 @@ public class Metadata implements Writable, CreativeCommons, DublinCore, HttpHead
   public static final String META_IS_SEED = "IS-SEED";
   public static final String META_FROM_SEED = "FROM-SEED";
   public static final String META_GENERATE_TIME = "generate.generate.time";
+  /** The url of the page which the page is a near duplicate of */
+  public static final String META_NEAR_DUPLICATE_OF = "NEAR-DUPLICATE-OF";
+  /** The SimHash of the page which the page is a near duplicate of */
+  public static final String META_NEAR_DUPLICATE_FINGERPRINT = "NEAR-DUPLICATE-FINGERPRINT";
 
   public static final String META_CASH_KEY = "_csh_";
 
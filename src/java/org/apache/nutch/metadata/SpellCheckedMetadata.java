@@ -23,6 +23,9 @@ import java.util.Map;
 
 import org.apache.commons.lang.StringUtils;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
 /**
  * A decorator to Metadata that adds spellchecking capabilities to property
  * names. Currently used spelling vocabulary contains just the httpheaders from
@@ -38,6 +41,11 @@ public class SpellCheckedMetadata extends Metadata {
    */
   private static final int TRESHOLD_DIVIDER = 3;
 
+  /**
+   * The max number of names which are not well-known names to remember.
+   */
+  private static final int MAX_SPELL_CHECKED_NAMES = 4096;
+
   /**
    * Normalized name to name mapping.
    */
@@ -48,6 +56,22 @@ public class SpellCheckedMetadata extends Metadata {
    */
   private static String[] normalized = null;
 
+  /**
+   * Open addressing table of the normalized names without collisions, indexed by
+   * the hash of a normalized name, so a well-known name is found without
+   * building the normalized string.
+   */
+  private static String[] normalizedTable;
+  private static String[] nameTable;
+  private static int tableMask;
+
+  /**
+   * Spell checked names, a name which is not a well-known name is mapped to
+   * itself.
+   */
+  private static final Cache<String, String> SPELL_CHECKED_NAMES = CacheBuilder
+      .newBuilder().maximumSize(MAX_SPELL_CHECKED_NAMES).build();
+
   static {
 
     // Uses following array to fill the metanames index and the
@@ -69,6 +93,39 @@ public class SpellCheckedMetadata extends Metadata {
       }
     }
     normalized = NAMES_IDX.keySet().toArray(new String[NAMES_IDX.size()]);
+
+    buildTable();
+  }
+
+  /**
+   * Grows the table until every normalized name has a slot of its own.
+   */
+  private static void buildTable() {
+    for (int size = Integer.highestOneBit(Math.max(normalized.length, 1)) << 1;; size <<= 1) {
+      String[] keys = new String[size];
+      String[] names = new String[size];
+      boolean collided = false;
+      for (String key : normalized) {
+        int slot = spread(key.hashCode()) & (size - 1);
+        if (keys[slot] != null) {
+          collided = true;
+          break;
+        }
+        keys[slot] = key;
+        names[slot] = NAMES_IDX.get(key);
+      }
+
+      if (!collided) {
+        normalizedTable = keys;
+        nameTable = names;
+        tableMask = size - 1;
+        return;
+      }
+    }
+  }
+
+  private static int spread(int h) {
+    return h ^ (h >>> 16);
   }
 
   /**
@@ -80,16 +137,58 @@ public class SpellCheckedMetadata extends Metadata {
    */
   private static String normalize(final String str) {
     char c;
-    StringBuffer buf = new StringBuffer();
+    StringBuilder buf = new StringBuilder(str.length());
     for (int i = 0; i < str.length(); i++) {
       c = str.charAt(i);
-      if (Character.isLetter(c)) {
-        buf.append(Character.toLowerCase(c));
+      if (isLetter(c)) {
+        buf.append(toLowerCase(c));
       }
     }
     return buf.toString();
   }
 
+  private static boolean isLetter(char c) {
+    return c < 128 ? (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') : Character.isLetter(c);
+  }
+
+  private static char toLowerCase(char c) {
+    return c < 128 ? (c >= 'A' && c <= 'Z' ? (char) (c + ('a' - 'A')) : c) : Character.toLowerCase(c);
+  }
+
+  /**
+   * Find the well-known name the normalized form of the name equals to, the
+   * normalized form is never built.
+   * 
+   * @return the well-known name, or null if there is no such name
+   */
+  private static String lookup(final String name) {
+    // The same hash as String.hashCode() of the normalized name
+    int h = 0;
+    for (int i = 0; i < name.length(); i++) {
+      char c = name.charAt(i);
+      if (isLetter(c)) {
+        h = 31 * h + toLowerCase(c);
+      }
+    }
+
+    int slot = spread(h) & tableMask;
+    String key = normalizedTable[slot];
+    if (key == null || key.hashCode() != h) {
+      return null;
+    }
+
+    int j = 0;
+    for (int i = 0; i < name.length(); i++) {
+      char c = name.charAt(i);
+      if (isLetter(c)) {
+        if (j >= key.length() || key.charAt(j++) != toLowerCase(c)) {
+          return null;
+        }
+      }
+    }
+    return j == key.length() ? nameTable[slot] : null;
+  }
+
   /**
    * Get the normalized name of metadata attribute name. This method tries to
    * find a well-known metadata name (one of the metadata names defined in this
@@ -108,6 +207,24 @@ public class SpellCheckedMetadata extends Metadata {
    * @return normalized name
    */
   public static String getNormalizedName(final String name) {
+    String value = lookup(name);
+    if (value != null) {
+      return value;
+    }
+
+    value = SPELL_CHECKED_NAMES.getIfPresent(name);
+    if (value == null) {
+      value = spellCheck(name);
+      SPELL_CHECKED_NAMES.put(name, value);
+    }
+    return value;
+  }
+
+  /**
+   * The uncached version of {@link #getNormalizedName(String)}, the name is
+   * compared with every well-known name if it's not a well-known name.
+   */
+  static String spellCheck(final String name) {
     String searched = normalize(name);
     String value = NAMES_IDX.get(searched);
 
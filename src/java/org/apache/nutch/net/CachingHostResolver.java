@@ -0,0 +1,195 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.nutch.net;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.util.ReflectionUtils;
+import org.apache.nutch.util.NutchConfiguration;
+import org.apache.nutch.util.Params;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Caches resolved addresses and unknown hosts for a configured time, the cache is shared
+ * by the partitioner, the fetcher and the protocols in the same JVM.
+ *
+ * Hosts can be prefetched in background, so the fetch threads do not wait for dns lookups.
+ * */
+public class CachingHostResolver implements HostResolver {
+
+  public static final Logger LOG = LoggerFactory.getLogger(CachingHostResolver.class);
+
+  public static final String RESOLVER_CLASS = "dns.resolver.class";
+  public static final String CACHE_TTL = "dns.cache.ttl";
+  public static final String CACHE_NEGATIVE_TTL = "dns.cache.negative.ttl";
+  public static final String CACHE_SIZE = "dns.cache.size";
+  public static final String PREFETCH_THREADS = "dns.prefetch.threads";
+
+  private static CachingHostResolver instance;
+
+  private final HostResolver resolver;
+  private final Cache<String, InetAddress> addresses;
+  private final Cache<String, Boolean> unknownHosts;
+
+  private final ThreadPoolExecutor prefetchExecutor;
+  private final Set<String> prefetchingHosts = ConcurrentHashMap.newKeySet();
+
+  private final AtomicLong hits = new AtomicLong(0);
+  private final AtomicLong negativeHits = new AtomicLong(0);
+  private final AtomicLong misses = new AtomicLong(0);
+  private final AtomicLong prefetches = new AtomicLong(0);
+
+  public static synchronized CachingHostResolver getInstance(Configuration conf) {
+    if (instance == null) {
+      instance = new CachingHostResolver(conf);
+    }
+
+    return instance;
+  }
+
+  /**
+   * The shared instance, created with the default configuration if no one is created yet
+   * */
+  public static CachingHostResolver getInstance() {
+    CachingHostResolver resolver = instance;
+    return resolver != null ? resolver : getInstance(NutchConfiguration.create());
+  }
+
+  public CachingHostResolver(Configuration conf) {
+    String resolverClass = conf.getTrimmed(RESOLVER_CLASS, "");
+    this.resolver = resolverClass.isEmpty() ? SYSTEM
+        : (HostResolver) ReflectionUtils.newInstance(conf.getClass(RESOLVER_CLASS, null), conf);
+
+    long ttl = conf.getLong(CACHE_TTL, 300);
+    long negativeTtl = conf.getLong(CACHE_NEGATIVE_TTL, 60);
+    int size = conf.getInt(CACHE_SIZE, 100000);
+    this.addresses = CacheBuilder.newBuilder().maximumSize(size).expireAfterWrite(ttl, TimeUnit.SECONDS).build();
+    this.unknownHosts = CacheBuilder.newBuilder().maximumSize(size).expireAfterWrite(negativeTtl, TimeUnit.SECONDS).build();
+
+    int prefetchThreads = conf.getInt(PREFETCH_THREADS, 4);
+    if (prefetchThreads > 0) {
+      final AtomicInteger threadSequence = new AtomicInteger(0);
+      // Hosts are dropped if the prefetchers can not keep up, they are resolved when they are used
+      this.prefetchExecutor = new ThreadPoolExecutor(prefetchThreads, prefetchThreads, 0L, TimeUnit.MILLISECONDS,
+          new ArrayBlockingQueue<>(10000), r -> {
+            Thread thread = new Thread(r, "DnsPrefetcher-" + threadSequence.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+          });
+    } else {
+      this.prefetchExecutor = null;
+    }
+
+    LOG.info(Params.formatAsLine(
+        "className", getClass().getSimpleName(),
+        "resolver", resolver == SYSTEM ? "system" : resolver.getClass().getName(),
+        "ttl(s)", ttl,
+        "negativeTtl(s)", negativeTtl,
+        "size", size,
+        "prefetchThreads", prefetchThreads
+    ));
+  }
+
+  /**
+   * @throws UnknownHostException if the host is unknown, or failed to be resolved recently
+   * */
+  @Override
+  public InetAddress resolve(String host) throws UnknownHostException {
+    InetAddress address = addresses.getIfPresent(host);
+    if (address != null) {
+      hits.incrementAndGet();
+      return address;
+    }
+
+    if (unknownHosts.getIfPresent(host) != null) {
+      negativeHits.incrementAndGet();
+      throw new UnknownHostException(host);
+    }
+
+    misses.incrementAndGet();
+    return doResolve(host);
+  }
+
+  /**
+   * Resolve the host in background if it's not cached
+   * */
+  public void prefetch(String host) {
+    if (prefetchExecutor == null || host == null || host.isEmpty()) {
+      return;
+    }
+
+    if (addresses.getIfPresent(host) != null || unknownHosts.getIfPresent(host) != null) {
+      return;
+    }
+
+    if (!prefetchingHosts.add(host)) {
+      return;
+    }
+
+    try {
+      prefetchExecutor.execute(() -> {
+        try {
+          doResolve(host);
+          prefetches.incrementAndGet();
+        } catch (UnknownHostException ignored) {
+        } finally {
+          prefetchingHosts.remove(host);
+        }
+      });
+    } catch (RejectedExecutionException e) {
+      prefetchingHosts.remove(host);
+    }
+  }
+
+  public Params getParams() {
+    long total = hits.get() + negativeHits.get() + misses.get();
+    return Params.of(
+        "hits", hits.get(),
+        "negativeHits", negativeHits.get(),
+        "misses", misses.get(),
+        "hitRate", total == 0 ? 0 : (hits.get() + negativeHits.get()) * 100 / total + "%",
+        "prefetches", prefetches.get(),
+        "addresses", addresses.size(),
+        "unknownHosts", unknownHosts.size()
+    );
+  }
+
+  private InetAddress doResolve(String host) throws UnknownHostException {
+    try {
+      InetAddress address = resolver.resolve(host);
+      addresses.put(host, address);
+      return address;
+    } catch (UnknownHostException e) {
+      unknownHosts.put(host, Boolean.TRUE);
+      throw e;
+    }
+  }
+}
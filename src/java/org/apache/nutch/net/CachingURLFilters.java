@@ -0,0 +1,260 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nutch.net;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.nutch.util.ObjectCache;
+import org.apache.nutch.util.Params;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Normalizes and filters urls by {@link URLNormalizers} and {@link URLFilters}, and remembers the results,
+ * the same urls are normalized and filtered again and again by the parser, the updater, the generator and the fetcher.
+ *
+ * The results are cached in a bounded LRU cache keyed by a 64 bit hash of (scope, url), the instance is shared
+ * by all components using the same configuration. The rule files are checked periodically, if any of them is changed,
+ * the filters and normalizers read their rules again and the cache is cleared.
+ * */
+public class CachingURLFilters {
+
+  public static final Logger LOG = LoggerFactory.getLogger(CachingURLFilters.class);
+
+  public static final String CACHE_SIZE = "urlfilter.cache.size";
+  public static final String CACHE_CHECK_INTERVAL = "urlfilter.cache.check.interval";
+
+  private static final String FILTER_SCOPE = "filter";
+  private static final String RULE_FILE_KEYS = "^url(filter|normalizer)\\..+\\.file$";
+
+  /** Cached for urls normalized or filtered to null */
+  private static final Object NULL_URL = new Object();
+  /** Cached for urls the normalizers reject as malformed */
+  private static final Object MALFORMED_URL = new Object();
+
+  private static final HashFunction HASH_FUNCTION = Hashing.murmur3_128();
+
+  private final Configuration conf;
+  private final URLFilters urlFilters;
+  private final Map<String, URLNormalizers> normalizers = new ConcurrentHashMap<>();
+  private final Cache<Long, Object> results;
+  private final long checkInterval;
+
+  private volatile long rulesFingerprint;
+  private final AtomicLong nextCheckTime = new AtomicLong();
+
+  private final AtomicLong hits = new AtomicLong(0);
+  private final AtomicLong misses = new AtomicLong(0);
+  private final AtomicLong reloads = new AtomicLong(0);
+
+  /**
+   * The instance shared by all components using the configuration
+   * */
+  public static CachingURLFilters get(Configuration conf) {
+    ObjectCache objectCache = ObjectCache.get(conf);
+    synchronized (objectCache) {
+      CachingURLFilters instance = (CachingURLFilters) objectCache.getObject(CachingURLFilters.class.getName());
+      if (instance == null) {
+        instance = new CachingURLFilters(conf);
+        objectCache.setObject(CachingURLFilters.class.getName(), instance);
+      }
+      return instance;
+    }
+  }
+
+  /**
+   * @return the shared instance, or null if no one is created for the configuration
+   * */
+  public static CachingURLFilters getIfPresent(Configuration conf) {
+    return (CachingURLFilters) ObjectCache.get(conf).getObject(CachingURLFilters.class.getName());
+  }
+
+  public CachingURLFilters(Configuration conf) {
+    this.conf = conf;
+    this.urlFilters = new URLFilters(conf);
+
+    int size = conf.getInt(CACHE_SIZE, 100000);
+    this.results = size > 0 ? CacheBuilder.newBuilder().maximumSize(size).<Long, Object>build() : null;
+    this.checkInterval = 1000L * conf.getInt(CACHE_CHECK_INTERVAL, 10);
+    this.rulesFingerprint = getRulesFingerprint();
+    this.nextCheckTime.set(System.currentTimeMillis() + checkInterval);
+
+    LOG.info(Params.formatAsLine(
+        "className", getClass().getSimpleName(),
+        "cacheSize", size,
+        "checkInterval(s)", checkInterval / 1000
+    ));
+  }
+
+  /**
+   * @see URLNormalizers#normalize(String, String)
+   * */
+  public String normalize(String url, String scope) throws MalformedURLException {
+    if (url == null) {
+      return null;
+    }
+
+    Long key = results == null ? null : getKey(scope, url);
+    Object result = key == null ? null : results.getIfPresent(key);
+    if (result != null) {
+      hits.incrementAndGet();
+    } else {
+      misses.incrementAndGet();
+      try {
+        result = toResult(getNormalizers(scope).normalize(url, scope));
+      } catch (MalformedURLException e) {
+        result = MALFORMED_URL;
+      }
+      if (key != null) {
+        results.put(key, result);
+      }
+    }
+
+    if (result == MALFORMED_URL) {
+      throw new MalformedURLException(url);
+    }
+    return result == NULL_URL ? null : (String) result;
+  }
+
+  /**
+   * @see URLFilters#filter(String)
+   * */
+  public String filter(String url) throws URLFilterException {
+    if (url == null) {
+      return null;
+    }
+
+    Long key = results == null ? null : getKey(FILTER_SCOPE, url);
+    Object result = key == null ? null : results.getIfPresent(key);
+    if (result != null) {
+      hits.incrementAndGet();
+    } else {
+      misses.incrementAndGet();
+      // Filter failures are not cached, they might be temporary
+      result = toResult(urlFilters.filter(url));
+      if (key != null) {
+        results.put(key, result);
+      }
+    }
+
+    return result == NULL_URL ? null : (String) result;
+  }
+
+  /**
+   * Normalize the url in the scope and then filter it
+   *
+   * @return the normalized url, or null if it's rejected, or failed to be normalized or filtered
+   * */
+  public String normalizeAndFilter(String url, String scope) {
+    try {
+      return filter(normalize(url, scope));
+    } catch (MalformedURLException | URLFilterException e) {
+      return null;
+    }
+  }
+
+  public long getHits() {
+    return hits.get();
+  }
+
+  public long getMisses() {
+    return misses.get();
+  }
+
+  public Params getParams() {
+    long total = hits.get() + misses.get();
+    return Params.of(
+        "hits", hits.get(),
+        "misses", misses.get(),
+        "hitRate", total == 0 ? 0 : hits.get() * 100 / total + "%",
+        "size", results == null ? 0 : results.size(),
+        "reloads", reloads.get()
+    );
+  }
+
+  private URLNormalizers getNormalizers(String scope) {
+    return normalizers.computeIfAbsent(scope, s -> new URLNormalizers(conf, s));
+  }
+
+  private Long getKey(String scope, String url) {
+    checkRules();
+
+    // Results computed with the old rules are never hit after the rules are reloaded
+    Hasher hasher = HASH_FUNCTION.newHasher().putLong(rulesFingerprint);
+    hasher.putString(scope).putChar('\n').putString(url);
+    return hasher.hash().asLong();
+  }
+
+  private Object toResult(String url) {
+    return url == null ? NULL_URL : url;
+  }
+
+  /**
+   * Reload the rules if any rule file is changed, only one thread checks the files in an interval
+   * */
+  private void checkRules() {
+    long now = System.currentTimeMillis();
+    long checkTime = nextCheckTime.get();
+    if (now < checkTime || !nextCheckTime.compareAndSet(checkTime, now + checkInterval)) {
+      return;
+    }
+
+    long fingerprint = getRulesFingerprint();
+    if (fingerprint == rulesFingerprint) {
+      return;
+    }
+
+    LOG.info("Url filter or normalizer rules are changed, reload rules");
+    synchronized (this) {
+      urlFilters.reload();
+      normalizers.values().forEach(URLNormalizers::reload);
+      results.invalidateAll();
+      rulesFingerprint = fingerprint;
+      reloads.incrementAndGet();
+    }
+  }
+
+  /**
+   * A hash of the rule file names and their modification times
+   * */
+  private long getRulesFingerprint() {
+    Hasher hasher = HASH_FUNCTION.newHasher();
+
+    for (Map.Entry<String, String> entry : new TreeMap<>(conf.getValByRegex(RULE_FILE_KEYS)).entrySet()) {
+      hasher.putString(entry.getKey()).putString(entry.getValue());
+
+      URL resource = conf.getResource(entry.getValue().trim());
+      if (resource != null && "file".equals(resource.getProtocol())) {
+        hasher.putLong(new File(resource.getPath()).lastModified());
+      }
+    }
+
+    return hasher.hash().asLong();
+  }
+}
@@ -0,0 +1,411 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nutch.net;
+
+import dk.brics.automaton.Automaton;
+import dk.brics.automaton.BasicOperations;
+import dk.brics.automaton.RegExp;
+import dk.brics.automaton.RunAutomaton;
+import org.apache.nutch.util.Params;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Compiles an ordered list of {@link RegexRule regex rules} into as few automata as possible.
+ *
+ * Consecutive rules with the same sign are merged into one DFA, so a url is scanned once per block
+ * instead of once per rule, and the first matching block decides the sign, which keeps the first match wins
+ * semantics of {@link RegexURLFilterBase}. Rules the automaton can not express, such as back references,
+ * look arounds and embedded flags, are kept as their own blocks and matched by the rule itself.
+ *
+ * The rules are matched like {@link java.util.regex.Matcher#find()}, a rule is wrapped with ".*"
+ * on the sides it is not anchored by ^ or $.
+ * */
+public class CompiledRegexRules {
+
+  /** Characters matched by java regex '.', everything but the line terminators */
+  private static final String ANY_CHAR = "[^\\\n\\\r\\\u0085\\\u2028\\\u2029]";
+
+  /** Java regex '$' matches before a final line terminator too */
+  private static final String FINAL_LINE_TERMINATOR = "(\\\n|\\\r\\\n|\\\r|\\\u0085|\\\u2028|\\\u2029)?";
+
+  private static final String DIGIT = "0-9";
+  private static final String WORD = "a-zA-Z_0-9";
+  private static final String SPACE = " \\\t\\\n\\\u000B\\\f\\\r";
+
+  private static class Block {
+    final boolean sign;
+    final RunAutomaton automaton;
+    final RegexRule rule;
+
+    Block(boolean sign, Automaton automaton) {
+      this.sign = sign;
+      this.automaton = new RunAutomaton(automaton);
+      this.rule = null;
+    }
+
+    Block(RegexRule rule) {
+      this.sign = rule.accept();
+      this.automaton = null;
+      this.rule = rule;
+    }
+
+    boolean match(String url) {
+      return automaton != null ? automaton.run(url) : rule.match(url);
+    }
+  }
+
+  private final List<Block> blocks = new ArrayList<>();
+  private int compiledRuleCount = 0;
+  private int fallbackRuleCount = 0;
+
+  /**
+   * @param maxStates a block is closed once its automaton exceeds the number of states,
+   *                  the following rules start a new block
+   * */
+  public CompiledRegexRules(List<RegexRule> rules, int maxStates) {
+    Automaton current = null;
+    boolean currentSign = false;
+
+    for (RegexRule rule : rules) {
+      Automaton automaton = toAutomaton(rule.getRegex());
+      if (automaton == null) {
+        if (current != null) {
+          blocks.add(new Block(currentSign, current));
+          current = null;
+        }
+        blocks.add(new Block(rule));
+        ++fallbackRuleCount;
+        continue;
+      }
+
+      ++compiledRuleCount;
+      if (current != null && currentSign == rule.accept()) {
+        Automaton union = BasicOperations.union(current, automaton);
+        union.minimize();
+        if (union.getNumberOfStates() <= maxStates) {
+          current = union;
+          continue;
+        }
+      }
+
+      if (current != null) {
+        blocks.add(new Block(currentSign, current));
+      }
+      automaton.minimize();
+      current = automaton;
+      currentSign = rule.accept();
+    }
+
+    if (current != null) {
+      blocks.add(new Block(currentSign, current));
+    }
+  }
+
+  /**
+   * @return the sign of the first matching rule, or null if no rule matches
+   * */
+  public Boolean match(String url) {
+    for (Block block : blocks) {
+      if (block.match(url)) {
+        return block.sign;
+      }
+    }
+
+    return null;
+  }
+
+  public Params getParams() {
+    return Params.of(
+        "blocks", blocks.size(),
+        "compiledRules", compiledRuleCount,
+        "fallbackRules", fallbackRuleCount
+    );
+  }
+
+  /**
+   * @return the automaton accepting the urls the java regex finds a match in,
+   * or null if the regex can not be expressed by an automaton
+   * */
+  static Automaton toAutomaton(String regex) {
+    return toAutomaton(regex, true);
+  }
+
+  /**
+   * @param find true to accept the strings the regex finds a match in, like {@link java.util.regex.Matcher#find()},
+   *             false to accept the strings the regex matches entirely, like {@link java.util.regex.Matcher#matches()}
+   * @return the automaton, or null if the regex can not be expressed by an automaton
+   * */
+  public static Automaton toAutomaton(String regex, boolean find) {
+    String translated = translate(regex, find);
+    if (translated == null) {
+      return null;
+    }
+
+    try {
+      return new RegExp(translated, RegExp.NONE).toAutomaton();
+    } catch (IllegalArgumentException e) {
+      return null;
+    }
+  }
+
+  /**
+   * Translate a java regex into the dk.brics.automaton syntax with find semantics
+   *
+   * @return the translated regex, or null if it's not supported
+   * */
+  static String translate(String regex) {
+    return translate(regex, true);
+  }
+
+  /**
+   * Translate a java regex into the dk.brics.automaton syntax, the leading ^ and the trailing $
+   * are no-ops if the whole string must be matched
+   *
+   * @return the translated regex, or null if it's not supported
+   * */
+  static String translate(String regex, boolean find) {
+    int start = 0;
+    int end = regex.length();
+
+    boolean anchoredStart = regex.startsWith("^");
+    if (anchoredStart) {
+      start = 1;
+    }
+    boolean anchoredEnd = end > start && regex.charAt(end - 1) == '$' && !isEscaped(regex, end - 1);
+    if (anchoredEnd) {
+      --end;
+    }
+
+    StringBuilder sb = new StringBuilder();
+    int depth = 0;
+    boolean topLevelAlternation = false;
+    int i = start;
+    while (i < end) {
+      char c = regex.charAt(i);
+      switch (c) {
+        case '\\':
+          if (i + 1 >= end) {
+            return null;
+          }
+          String escaped = translateEscape(regex.charAt(i + 1), false);
+          if (escaped == null) {
+            return null;
+          }
+          sb.append(escaped);
+          i += 2;
+          continue;
+        case '[':
+          i = translateClass(regex, i, end, sb);
+          if (i < 0) {
+            return null;
+          }
+          continue;
+        case '(':
+          if (i + 1 < end && regex.charAt(i + 1) == '?') {
+            // Only the non capturing group is supported, look arounds and flags are not
+            if (i + 2 < end && regex.charAt(i + 2) == ':') {
+              i += 2;
+            } else {
+              return null;
+            }
+          }
+          ++depth;
+          sb.append('(');
+          break;
+        case ')':
+          if (--depth < 0) {
+            return null;
+          }
+          sb.append(')');
+          break;
+        case '|':
+          if (depth == 0) {
+            topLevelAlternation = true;
+          }
+          sb.append('|');
+          break;
+        case '.':
+          sb.append(ANY_CHAR);
+          break;
+        case '*':
+        case '+':
+        case '?':
+          sb.append(c);
+          i = skipQuantifierMode(regex, i + 1, end);
+          if (i < 0) {
+            return null;
+          }
+          continue;
+        case '{':
+          int close = regex.indexOf('}', i);
+          if (close < 0 || close >= end || !regex.substring(i + 1, close).matches("\\d+(,\\d*)?")) {
+            return null;
+          }
+          sb.append(regex, i, close + 1);
+          i = skipQuantifierMode(regex, close + 1, end);
+          if (i < 0) {
+            return null;
+          }
+          continue;
+        case '^':
+        case '$':
+          // Anchors inside the regex
+          return null;
+        default:
+          appendLiteral(sb, c);
+          break;
+      }
+
+      ++i;
+    }
+
+    if (depth != 0) {
+      return null;
+    }
+    if (!find) {
+      return sb.toString();
+    }
+
+    // "^a|b" anchors only the first alternative
+    if (topLevelAlternation && (anchoredStart || anchoredEnd)) {
+      return null;
+    }
+
+    return (anchoredStart ? "" : ".*")
+        + "(" + sb + ")"
+        + (anchoredEnd ? FINAL_LINE_TERMINATOR : ".*");
+  }
+
+  /**
+   * Lazy quantifiers accept the same urls, possessive quantifiers do not
+   * */
+  private static int skipQuantifierMode(String regex, int i, int end) {
+    if (i < end && regex.charAt(i) == '?') {
+      return i + 1;
+    }
+    if (i < end && regex.charAt(i) == '+') {
+      return -1;
+    }
+    return i;
+  }
+
+  /**
+   * @return the position after the character class, or -1 if it's not supported
+   * */
+  private static int translateClass(String regex, int i, int end, StringBuilder sb) {
+    sb.append('[');
+    ++i;
+    if (i < end && regex.charAt(i) == '^') {
+      sb.append('^');
+      ++i;
+    }
+    if (i < end && regex.charAt(i) == ']') {
+      return -1;
+    }
+
+    int first = i;
+    // The last element is a single character, so it can start a range
+    boolean lastIsChar = false;
+    boolean inRange = false;
+    while (i < end && regex.charAt(i) != ']') {
+      char c = regex.charAt(i);
+      if (c == '[' || (c == '&' && i + 1 < end && regex.charAt(i + 1) == '&')) {
+        // Unions and intersections
+        return -1;
+      }
+
+      if (c == '\\') {
+        if (i + 1 >= end) {
+          return -1;
+        }
+        String escaped = translateEscape(regex.charAt(i + 1), true);
+        if (escaped == null) {
+          return -1;
+        }
+        sb.append(escaped);
+        lastIsChar = escaped.length() <= 2 && !inRange;
+        inRange = false;
+        i += 2;
+        continue;
+      }
+
+      if (c == '-' && i != first && i + 1 < end && regex.charAt(i + 1) != ']') {
+        if (!lastIsChar) {
+          return -1;
+        }
+        sb.append('-');
+        lastIsChar = false;
+        inRange = true;
+      } else {
+        appendLiteral(sb, c);
+        lastIsChar = !inRange;
+        inRange = false;
+      }
+      ++i;
+    }
+
+    if (i >= end) {
+      return -1;
+    }
+
+    sb.append(']');
+    return i + 1;
+  }
+
+  /**
+   * @return the translated escape sequence, or null if it's not supported
+   * */
+  private static String translateEscape(char c, boolean inClass) {
+    switch (c) {
+      case 'd': return inClass ? DIGIT : "[" + DIGIT + "]";
+      case 'w': return inClass ? WORD : "[" + WORD + "]";
+      case 's': return inClass ? SPACE : "[" + SPACE + "]";
+      case 'D': return inClass ? null : "[^" + DIGIT + "]";
+      case 'W': return inClass ? null : "[^" + WORD + "]";
+      case 'S': return inClass ? null : "[^" + SPACE + "]";
+      case 't': return "\\\t";
+      case 'n': return "\\\n";
+      case 'r': return "\\\r";
+      case 'f': return "\\\f";
+      case 'a': return "\\\u0007";
+      case 'e': return "\\\u001B";
+      default:
+        // Back references, boundaries, quotes, properties and code points
+        if (Character.isLetterOrDigit(c)) {
+          return null;
+        }
+        return "\\" + c;
+    }
+  }
+
+  private static void appendLiteral(StringBuilder sb, char c) {
+    if (!Character.isLetterOrDigit(c)) {
+      sb.append('\\');
+    }
+    sb.append(c);
+  }
+
+  private static boolean isEscaped(String regex, int pos) {
+    int backslashes = 0;
+    while (pos - backslashes - 1 >= 0 && regex.charAt(pos - backslashes - 1) == '\\') {
+      ++backslashes;
+    }
+    return backslashes % 2 == 1;
+  }
+}
@@ -25,6 +25,8 @@ public abstract class RegexRule {
 
   private final boolean sign;
 
+  private final String regex;
+
   /**
    * Constructs a new regular expression rule.
    * 
@@ -39,6 +41,7 @@ public abstract class RegexRule {
    */
   protected RegexRule(boolean sign, String regex) {
     this.sign = sign;
+    this.regex = regex;
   }
 
   /**
@@ -51,6 +54,13 @@ public abstract class RegexRule {
     return sign;
   }
 
+  /**
+   * Return the regular expression of this rule.
+   */
+  protected String getRegex() {
+    return regex;
+  }
+
   /**
    * Checks if a url matches this rule.
    * 
@@ -21,6 +21,7 @@ import java.io.File;
 import java.io.IOException;
 import java.io.Reader;
 import java.io.StringReader;
+import java.util.List;
 import java.util.regex.Pattern;
 
 import org.apache.hadoop.conf.Configuration;
@@ -34,6 +35,8 @@ public class RegexURLFilter extends RegexURLFilterBase {
 
   public static final String URLFILTER_REGEX_FILE = "urlfilter.regex.file";
   public static final String URLFILTER_REGEX_RULES = "urlfilter.regex.rules";
+  public static final String URLFILTER_REGEX_COMPILE = "urlfilter.regex.compile";
+  public static final String URLFILTER_REGEX_COMPILE_MAX_STATES = "urlfilter.regex.compile.max.states";
 
   public RegexURLFilter() {
     super();
@@ -74,6 +77,24 @@ public class RegexURLFilter extends RegexURLFilterBase {
     return conf.getConfResourceAsReader(fileRules);
   }
 
+  /**
+   * Rules are compiled by default, filters created from rules without a configuration too.
+   */
+  @Override
+  protected CompiledRegexRules compileRules(List<RegexRule> rules) {
+    Configuration conf = getConf();
+    if (conf != null && !conf.getBoolean(URLFILTER_REGEX_COMPILE, true)) {
+      return null;
+    }
+
+    int maxStates = conf == null ? 10000 : conf.getInt(URLFILTER_REGEX_COMPILE_MAX_STATES, 10000);
+    CompiledRegexRules compiledRules = new CompiledRegexRules(rules, maxStates);
+    if (LOG.isDebugEnabled()) {
+      LOG.debug("Compiled regex rules : " + compiledRules.getParams().formatAsLine());
+    }
+    return compiledRules;
+  }
+
   // Inherited Javadoc
   protected RegexRule createRule(boolean sign, String regex) {
     return new RegexRuleImpl(sign, regex);
@@ -61,6 +61,9 @@ public abstract class RegexURLFilterBase implements URLFilter {
   /** An array of applicable rules */
   private List<RegexRule> rules;
 
+  /** The rules compiled into automata, null if the rules are matched one by one */
+  private CompiledRegexRules compiledRules;
+
   /** The current configuration */
   private Configuration conf;
 
@@ -100,6 +103,7 @@ public abstract class RegexURLFilterBase implements URLFilter {
    */
   protected RegexURLFilterBase(Reader reader) throws IllegalArgumentException, IOException{
     rules = readRules(reader);
+    compiledRules = compileRules(rules);
   }
 
   /**
@@ -125,6 +129,16 @@ public abstract class RegexURLFilterBase implements URLFilter {
    */
   protected abstract Reader getRulesReader(Configuration conf) throws IOException;
 
+  /**
+   * Compiles the rules into automata, see {@link CompiledRegexRules}. Implementations whose rules
+   * are java regular expressions can enable it.
+   *
+   * @return the compiled rules, or null if the rules are matched one by one
+   */
+  protected CompiledRegexRules compileRules(List<RegexRule> rules) {
+    return null;
+  }
+
   /*
    * -------------------------- * <implementation:URLFilter> *
    * --------------------------
@@ -134,6 +148,11 @@ public abstract class RegexURLFilterBase implements URLFilter {
   public String filter(String url) {
     if (url == null) return null;
 
+    if (compiledRules != null) {
+      Boolean accept = compiledRules.match(url);
+      return accept != null && accept ? url : null;
+    }
+
     for (RegexRule rule : rules) {
       if (rule.match(url)) {
         return rule.accept() ? url : null;
@@ -167,6 +186,7 @@ public abstract class RegexURLFilterBase implements URLFilter {
 
     try {
       rules = readRules(reader);
+      compiledRules = compileRules(rules);
     }
     catch (IOException e) {
       if (LOG.isErrorEnabled()) {
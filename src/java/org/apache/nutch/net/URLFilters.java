@@ -36,9 +36,11 @@ public class URLFilters {
   public Logger LOG = URLFilter.LOG;
 
   public static final String URLFILTER_ORDER = "urlfilter.order";
+  private final Configuration conf;
   private URLFilter[] urlFilters;
 
   public URLFilters(Configuration conf) {
+    this.conf = conf;
     String order = conf.get(URLFILTER_ORDER);
     ObjectCache objectCache = ObjectCache.get(conf);
     this.urlFilters = (URLFilter[]) objectCache.getObject(URLFilter.class.getName());
@@ -102,6 +104,15 @@ public class URLFilters {
     return urlString;
   }
 
+  /**
+   * Configure the filters again, so they read their rules again
+   * */
+  public void reload() {
+    for (URLFilter urlFilter : urlFilters) {
+      urlFilter.setConf(conf);
+    }
+  }
+
   @Override
   public String toString() {
     StringBuilder sb = new StringBuilder();
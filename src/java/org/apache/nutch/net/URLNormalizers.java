@@ -302,4 +302,13 @@ public final class URLNormalizers {
     }
     return urlString;
   }
+
+  /**
+   * Configure the normalizers again, so they read their rules again
+   * */
+  public void reload() {
+    for (URLNormalizer normalizer : normalizers) {
+      normalizer.setConf(conf);
+    }
+  }
 }
@@ -27,8 +27,8 @@ import org.apache.nutch.crawl.Signature;
 import org.apache.nutch.crawl.SignatureFactory;
 import org.apache.nutch.mapreduce.FetchJob;
 import org.apache.nutch.metadata.Nutch;
+import org.apache.nutch.net.CachingURLFilters;
 import org.apache.nutch.net.URLFilterException;
-import org.apache.nutch.net.URLFilters;
 import org.apache.nutch.net.URLNormalizers;
 import org.apache.nutch.storage.Mark;
 import org.apache.nutch.storage.WebPage;
@@ -66,8 +66,7 @@ public class ParseUtil {
 
   private final Configuration conf;
   private final Signature sig;
-  private final URLFilters filters;
-  private final URLNormalizers normalizers;
+  private final CachingURLFilters urlFilters;
   private final int maxOutlinks;
   private final boolean ignoreExternalLinks;
   private final ParserFactory parserFactory;
@@ -85,8 +84,7 @@ public class ParseUtil {
     parserFactory = new ParserFactory(conf);
     maxParseTime = conf.getInt("parser.timeout", DEFAULT_MAX_PARSE_TIME);
     sig = SignatureFactory.getSignature(conf);
-    filters = new URLFilters(conf);
-    normalizers = new URLNormalizers(conf, URLNormalizers.SCOPE_OUTLINK);
+    urlFilters = CachingURLFilters.get(conf);
     int maxOutlinksPerPage = conf.getInt("db.max.outlinks.per.page", 100);
     maxOutlinks = (maxOutlinksPerPage < 0) ? Integer.MAX_VALUE : maxOutlinksPerPage;
     ignoreExternalLinks = conf.getBoolean("db.ignore.external.links", false);
@@ -222,15 +220,7 @@ public class ParseUtil {
 
     int validCount = 0;
     for (int i = 0; validCount < outlinksToStore && i < outlinks.length; i++) {
-      String toUrl = outlinks[i].getToUrl();
-      try {
-        toUrl = normalizers.normalize(toUrl, URLNormalizers.SCOPE_OUTLINK);
-        toUrl = filters.filter(toUrl);
-      } catch (MalformedURLException e2) {
-        continue;
-      } catch (URLFilterException e) {
-        continue;
-      }
+      String toUrl = urlFilters.normalizeAndFilter(outlinks[i].getToUrl(), URLNormalizers.SCOPE_OUTLINK);
 
       // TODO : use suffix-urlfilter intead, this is a quick dirty fix
       final String[] filterSuffixes = {"js", "css", "jpg", "png", "jpeg", "gif"};
@@ -284,14 +274,14 @@ public class ParseUtil {
     String newUrl = ParseStatusUtils.getMessage(pstatus);
     int refreshTime = StringUtil.tryParseInt(ParseStatusUtils.getArg(pstatus, 1), 0);
     try {
-      newUrl = normalizers.normalize(newUrl, URLNormalizers.SCOPE_FETCHER);
+      newUrl = urlFilters.normalize(newUrl, URLNormalizers.SCOPE_FETCHER);
       if (newUrl == null) {
         LOG.warn("Redirect normalized to null " + url);
         return;
       }
 
       try {
-        newUrl = filters.filter(newUrl);
+        newUrl = urlFilters.filter(newUrl);
       } catch (URLFilterException e) {
         return;
       }
@@ -26,6 +26,9 @@ import org.apache.nutch.storage.WebPage;
  * A parser for content generated by a
  * {@link org.apache.nutch.protocol.Protocol} implementation. This interface is
  * implemented by extensions. Nutch's core contains no page parsing code.
+ *
+ * Parser instances are cached by {@link ParserFactory} and shared by all parse threads,
+ * implementations must keep per-document state local to {@link #getParse(String, WebPage)}.
  */
 public interface Parser extends FieldPluggable, Configurable {
   /** The name of the extension point. */
@@ -121,9 +121,15 @@ public final class ParserFactory {
         // check to see if we've cached this parser instance yet
         p = (Parser) objectCache.getObject(ext.getId());
         if (p == null) {
-          // go ahead and instantiate it and then cache it
-          p = (Parser) ext.getExtensionInstance();
-          objectCache.setObject(ext.getId(), p);
+          // parsers are shared by all parse threads, make sure only one instance is created
+          synchronized (objectCache) {
+            p = (Parser) objectCache.getObject(ext.getId());
+            if (p == null) {
+              // go ahead and instantiate it and then cache it
+              p = (Parser) ext.getExtensionInstance();
+              objectCache.setObject(ext.getId(), p);
+            }
+          }
         }
         parsers.add(p);
       } catch (PluginRuntimeException e) {
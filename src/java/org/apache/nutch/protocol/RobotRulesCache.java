@@ -0,0 +1,272 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.nutch.protocol;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import crawlercommons.robots.BaseRobotRules;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.nutch.storage.ProtocolStatus;
+import org.apache.nutch.storage.WebPage;
+import org.apache.nutch.util.NutchConfiguration;
+import org.apache.nutch.util.Params;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.net.URL;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Caches robots rules by protocol, host and port, the cache is shared by all the protocols in the same JVM.
+ *
+ * The cache is bounded, and every entry expires after its own time to live, which is told by the
+ * robots.txt response or is the configured default. Failures, such as 4xx and 5xx responses, are cached for
+ * a shorter time. Rules can be fetched in background before they are used, so the fetch threads do not wait
+ * for robots.txt.
+ * */
+public class RobotRulesCache {
+
+  public static final Logger LOG = LoggerFactory.getLogger(RobotRulesCache.class);
+
+  public static final String CACHE_TTL = "robots.cache.ttl";
+  public static final String CACHE_NEGATIVE_TTL = "robots.cache.negative.ttl";
+  public static final String CACHE_SIZE = "robots.cache.size";
+  public static final String PREFETCH_THREADS = "robots.prefetch.threads";
+
+  /** The min time to live of the rules told by robots.txt, even if robots.txt is not cacheable */
+  public static final long MIN_TTL = TimeUnit.MINUTES.toMillis(1);
+
+  private static RobotRulesCache instance;
+
+  private static class Entry {
+    final BaseRobotRules rules;
+    final long expireTime;
+
+    Entry(BaseRobotRules rules, long expireTime) {
+      this.rules = rules;
+      this.expireTime = expireTime;
+    }
+  }
+
+  private final long ttl;
+  private final long negativeTtl;
+  private final Cache<String, Entry> rules;
+
+  private final ThreadPoolExecutor prefetchExecutor;
+  private final Set<String> prefetchingKeys = ConcurrentHashMap.newKeySet();
+
+  private final AtomicLong hits = new AtomicLong(0);
+  private final AtomicLong misses = new AtomicLong(0);
+  private final AtomicLong expired = new AtomicLong(0);
+  private final AtomicLong prefetches = new AtomicLong(0);
+
+  public static synchronized RobotRulesCache getInstance(Configuration conf) {
+    if (instance == null) {
+      instance = new RobotRulesCache(conf);
+    }
+
+    return instance;
+  }
+
+  /**
+   * The shared instance, created with the default configuration if no one is created yet
+   * */
+  public static RobotRulesCache getInstance() {
+    RobotRulesCache cache = instance;
+    return cache != null ? cache : getInstance(NutchConfiguration.create());
+  }
+
+  public RobotRulesCache(Configuration conf) {
+    this.ttl = TimeUnit.SECONDS.toMillis(conf.getLong(CACHE_TTL, 86400));
+    this.negativeTtl = TimeUnit.SECONDS.toMillis(conf.getLong(CACHE_NEGATIVE_TTL, 600));
+    int size = conf.getInt(CACHE_SIZE, 100000);
+    // Entries expire by their own time to live, which is never longer than the default one
+    this.rules = CacheBuilder.newBuilder().maximumSize(size)
+        .expireAfterWrite(Math.max(ttl, negativeTtl), TimeUnit.MILLISECONDS).build();
+
+    int prefetchThreads = conf.getInt(PREFETCH_THREADS, 4);
+    if (prefetchThreads > 0) {
+      final AtomicInteger threadSequence = new AtomicInteger(0);
+      // Hosts are dropped if the prefetchers can not keep up, their rules are fetched when they are used
+      this.prefetchExecutor = new ThreadPoolExecutor(prefetchThreads, prefetchThreads, 0L, TimeUnit.MILLISECONDS,
+          new ArrayBlockingQueue<>(10000), r -> {
+            Thread thread = new Thread(r, "RobotsPrefetcher-" + threadSequence.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+          });
+    } else {
+      this.prefetchExecutor = null;
+    }
+
+    LOG.info(Params.formatAsLine(
+        "className", getClass().getSimpleName(),
+        "ttl(s)", TimeUnit.MILLISECONDS.toSeconds(ttl),
+        "negativeTtl(s)", TimeUnit.MILLISECONDS.toSeconds(negativeTtl),
+        "size", size,
+        "prefetchThreads", prefetchThreads
+    ));
+  }
+
+  /**
+   * Robots rules apply only to the protocol, host, and port where robots.txt is hosted (cf. NUTCH-1752)
+   * */
+  public static String getCacheKey(URL url) {
+    String protocol = url.getProtocol().toLowerCase();
+    String host = url.getHost().toLowerCase();
+    int port = url.getPort();
+    if (port == -1) {
+      port = url.getDefaultPort();
+    }
+    return protocol + ":" + host + ":" + port;
+  }
+
+  /** The default time to live in milliseconds */
+  public long getTtl() {
+    return ttl;
+  }
+
+  /** The time to live in milliseconds of the failures */
+  public long getNegativeTtl() {
+    return negativeTtl;
+  }
+
+  /**
+   * @return the cached rules, or null if they are not cached or are expired
+   * */
+  public BaseRobotRules get(String key) {
+    Entry entry = rules.getIfPresent(key);
+    if (entry == null) {
+      misses.incrementAndGet();
+      return null;
+    }
+
+    if (entry.expireTime < System.currentTimeMillis()) {
+      rules.invalidate(key);
+      expired.incrementAndGet();
+      misses.incrementAndGet();
+      return null;
+    }
+
+    hits.incrementAndGet();
+    return entry.rules;
+  }
+
+  /**
+   * @param ttl the time to live in milliseconds, it can not be longer than the default time to live
+   * */
+  public void put(String key, BaseRobotRules robotRules, long ttl) {
+    long bounded = Math.max(0, Math.min(ttl, Math.max(this.ttl, negativeTtl)));
+    rules.put(key, new Entry(robotRules, System.currentTimeMillis() + bounded));
+  }
+
+  /**
+   * Check the url by the cached rules, the fetch thread never waits for robots.txt. If the rules are not
+   * cached, they are fetched in background and the fetch of the url is to be deferred. If they can not be
+   * fetched in background, they are fetched right now by the protocol
+   *
+   * @return null if the url is allowed, STATUS_ROBOTS_DENIED if it is disallowed,
+   * or STATUS_WOULDBLOCK if the rules are not ready yet
+   * */
+  public ProtocolStatus check(Protocol protocol, String url) {
+    final URL u;
+    try {
+      u = new URL(url);
+    } catch (Exception e) {
+      return null;
+    }
+
+    BaseRobotRules robotRules = get(getCacheKey(u));
+    if (robotRules == null) {
+      if (prefetch(protocol, url)) {
+        return ProtocolStatusUtils.STATUS_WOULDBLOCK;
+      }
+
+      robotRules = protocol.getRobotRules(url, WebPage.newBuilder().build());
+    }
+
+    return robotRules == null || robotRules.isAllowed(url) ? null : ProtocolStatusUtils.STATUS_ROBOTS_DENIED;
+  }
+
+  /**
+   * Fetch the rules of the url in background by the protocol, if they are not cached
+   *
+   * @return true if the rules are cached or are being fetched in background
+   * */
+  public boolean prefetch(Protocol protocol, String url) {
+    if (prefetchExecutor == null || url == null) {
+      return false;
+    }
+
+    final String key;
+    try {
+      key = getCacheKey(new URL(url));
+    } catch (Exception e) {
+      return false;
+    }
+
+    Entry entry = rules.getIfPresent(key);
+    if (entry != null && entry.expireTime >= System.currentTimeMillis()) {
+      return true;
+    }
+
+    if (!prefetchingKeys.add(key)) {
+      return true;
+    }
+
+    try {
+      prefetchExecutor.execute(() -> {
+        try {
+          BaseRobotRules robotRules = protocol.getRobotRules(url, WebPage.newBuilder().build());
+          // Some protocols, such as file and sftp, do not cache their rules, the tasks would be deferred forever
+          if (robotRules != null && rules.getIfPresent(key) == null) {
+            put(key, robotRules, ttl);
+          }
+          prefetches.incrementAndGet();
+        } catch (Throwable e) {
+          LOG.warn("Failed to prefetch robots rules for " + url + ", " + e.toString());
+        } finally {
+          prefetchingKeys.remove(key);
+        }
+      });
+    } catch (RejectedExecutionException e) {
+      prefetchingKeys.remove(key);
+      return false;
+    }
+
+    return true;
+  }
+
+  public Params getParams() {
+    long total = hits.get() + misses.get();
+    return Params.of(
+        "hits", hits.get(),
+        "misses", misses.get(),
+        "expired", expired.get(),
+        "hitRate", total == 0 ? 0 : hits.get() * 100 / total + "%",
+        "prefetches", prefetches.get(),
+        "rules", rules.size()
+    );
+  }
+}
@@ -22,7 +22,6 @@ import java.io.File;
 import java.io.FileReader;
 import java.io.LineNumberReader;
 import java.net.URL;
-import java.util.Hashtable;
 import java.util.StringTokenizer;
 
 import org.apache.hadoop.conf.Configurable;
@@ -49,7 +48,8 @@ public abstract class RobotRulesParser implements Configurable {
   public static final Logger LOG = LoggerFactory
       .getLogger(RobotRulesParser.class);
 
-  protected static final Hashtable<String, BaseRobotRules> CACHE = new Hashtable<String, BaseRobotRules>();
+  /** The rules cache shared by all the parsers in the same JVM */
+  protected RobotRulesCache cache;
 
   /**
    * A {@link BaseRobotRules} object appropriate for use when the
@@ -82,6 +82,7 @@ public abstract class RobotRulesParser implements Configurable {
    */
   public void setConf(Configuration conf) {
     this.conf = conf;
+    this.cache = RobotRulesCache.getInstance(conf);
 
     // Grab the agent names we advertise to robots files.
     String agentName = conf.get("http.agent.name");
@@ -0,0 +1,189 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.apache.nutch.storage;
+
+import org.apache.avro.specific.SpecificData;
+import org.apache.gora.hbase.store.HBaseStore;
+import org.apache.gora.persistency.Persistent;
+import org.apache.gora.query.Query;
+import org.apache.gora.query.Result;
+import org.apache.gora.store.DataStore;
+import org.apache.hadoop.hbase.util.Bytes;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Reads rows for keys which are requested in ascending order, for example, the keys of a reducer.
+ *
+ * Instead of one random read for each key, rows are prefetched in blocks by a range scan starting
+ * at the requested key. Any key inside the scanned range is answered from the block, no matter
+ * the row exists or not. The block size adapts to the density of the requested keys, it is halved
+ * if most of a block is not used and doubled if it is, but never exceeds the batch size.
+ *
+ * Keys requested out of order are still answered correctly, they just cause a new block to be loaded.
+ * The reader is not thread safe.
+ */
+public class BatchedRowReader<T extends Persistent> {
+
+  /** Keys are compared as HBase does, byte by byte in utf-8 */
+  public static final Comparator<String> KEY_COMPARATOR = (k1, k2) -> Bytes.compareTo(Bytes.toBytes(k1), Bytes.toBytes(k2));
+
+  private final DataStore<String, T> datastore;
+  private final int maxBatchSize;
+  private final String[] fields;
+
+  private int batchSize;
+
+  /** The current block, all rows from blockStartKey to the last key */
+  private final List<String> keys = new ArrayList<>();
+  private final List<T> rows = new ArrayList<>();
+  private String blockStartKey;
+  /** The scan reached the end of the table, so the block covers all keys after blockStartKey */
+  private boolean blockReachesEnd;
+  private int servedFromBlock;
+
+  /** Statistics */
+  private int hits;
+  private int misses;
+  private int blocks;
+  private int rowsLoaded;
+
+  /**
+   * @param batchSize The max number of rows of a block, if it's not greater than 1, every row is read by a single get
+   * @param fields The fields to load, null means all fields
+   * */
+  public BatchedRowReader(DataStore<String, T> datastore, int batchSize, String[] fields) {
+    this.datastore = datastore;
+    this.maxBatchSize = batchSize;
+    this.batchSize = batchSize;
+    this.fields = fields;
+  }
+
+  /**
+   * @return The row of the key, or null if it's not in the datastore
+   * */
+  public T get(String key) throws IOException {
+    T row;
+    if (maxBatchSize <= 1) {
+      row = datastore.get(key, fields);
+    } else {
+      if (!inBlock(key)) {
+        loadBlock(key);
+      }
+
+      ++servedFromBlock;
+      int pos = Collections.binarySearch(keys, key, KEY_COMPARATOR);
+      row = pos >= 0 ? rows.get(pos) : null;
+    }
+
+    if (row != null) {
+      ++hits;
+    } else {
+      ++misses;
+    }
+
+    return row;
+  }
+
+  /**
+   * Drop the current block, rows are read again from the datastore next time
+   * */
+  public void reset() {
+    keys.clear();
+    rows.clear();
+    blockStartKey = null;
+    blockReachesEnd = false;
+  }
+
+  public int getBatchSize() { return batchSize; }
+
+  public int getHits() { return hits; }
+
+  public int getMisses() { return misses; }
+
+  public int getBlocks() { return blocks; }
+
+  public int getRowsLoaded() { return rowsLoaded; }
+
+  private boolean inBlock(String key) {
+    if (blockStartKey == null || KEY_COMPARATOR.compare(key, blockStartKey) < 0) {
+      return false;
+    }
+
+    return blockReachesEnd || (!keys.isEmpty() && KEY_COMPARATOR.compare(key, keys.get(keys.size() - 1)) <= 0);
+  }
+
+  private void loadBlock(String startKey) throws IOException {
+    adjustBatchSize();
+    reset();
+
+    if (datastore instanceof HBaseStore) {
+      // Do not transfer more rows than required
+      ((HBaseStore<?, ?>) datastore).setScannerCaching(batchSize);
+    }
+
+    Query<String, T> query = datastore.newQuery();
+    query.setStartKey(startKey);
+    query.setLimit(batchSize);
+    if (fields != null) {
+      query.setFields(fields);
+    }
+
+    Result<String, T> result = query.execute();
+    try {
+      while (result.next()) {
+        keys.add(result.getKey());
+        // The result reuses its row object and clears it on the next call, so the buffered row is a copy
+        rows.add(copy(result.get()));
+      }
+    } catch (IOException e) {
+      throw e;
+    } catch (Exception e) {
+      throw new IOException(e);
+    } finally {
+      result.close();
+    }
+
+    blockStartKey = startKey;
+    blockReachesEnd = keys.size() < batchSize;
+    servedFromBlock = 0;
+
+    ++blocks;
+    rowsLoaded += keys.size();
+  }
+
+  @SuppressWarnings("unchecked")
+  private static <T extends Persistent> T copy(T row) {
+    return (T) SpecificData.get().deepCopy(row.getSchema(), row);
+  }
+
+  private void adjustBatchSize() {
+    if (blockStartKey == null || keys.isEmpty()) {
+      return;
+    }
+
+    if (2 * servedFromBlock < keys.size()) {
+      batchSize = Math.max(2, batchSize / 2);
+    } else if (servedFromBlock >= keys.size()) {
+      batchSize = Math.min(maxBatchSize, batchSize * 2);
+    }
+  }
+}
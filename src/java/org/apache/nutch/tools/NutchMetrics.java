@@ -17,7 +17,11 @@ import java.nio.file.Paths;
 import java.nio.file.StandardOpenOption;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.Queue;
 import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.stream.Collectors;
 
 import static org.apache.nutch.metadata.Nutch.*;
@@ -29,23 +33,39 @@ import static org.apache.nutch.metadata.Nutch.*;
 /**
  * Created by vincent on 16-10-12.
  * Copyright @ 2013-2016 Warpspeed Information. All rights reserved
+ *
+ * Reports are queued and written by a background thread, so the fetch threads never wait for the disk.
+ * The queue is bounded, reports are dropped and counted if it's full. Report files are flushed periodically,
+ * or when the write buffer is full, and rotated once they grow beyond nutch.report.max.file.size.
+ * Reports with the path printed are considered final, they are written immediately.
  */
 public class NutchMetrics implements AutoCloseable {
 
   public static final Logger LOG = LoggerFactory.getLogger(NutchMetrics.class);
   public static final Logger REPORT_LOG = NutchReporter.chooseLog(false);
 
+  public static final String PARAM_REPORT_BUFFER_CAPACITY = "nutch.report.buffer.capacity";
+  public static final String PARAM_REPORT_FLUSH_INTERVAL = "nutch.report.flush.interval";
+  public static final String PARAM_REPORT_MAX_FILE_SIZE = "nutch.report.max.file.size";
+
   private static NutchMetrics instance;
 
   private final Configuration conf;
   private Path reportDir;
   private Path unreachableHostsPath;
-  private Map<Path, BufferedWriter> writers = new HashMap<>();
-
-  /**
-   * TODO : check if there is a singleton bug
-   * */
-  public static NutchMetrics getInstance(Configuration conf) {
+  /** Guarded by itself */
+  private final Map<Path, ReportWriter> writers = new HashMap<>();
+
+  private final Queue<Report> pendingReports = new ConcurrentLinkedQueue<>();
+  private final AtomicInteger pendingReportCount = new AtomicInteger(0);
+  private final AtomicLong droppedReportCount = new AtomicLong(0);
+  private final int bufferCapacity;
+  private final long flushInterval;
+  private final long maxFileSize;
+  private final Thread writerThread;
+  private volatile boolean closed = false;
+
+  public static synchronized NutchMetrics getInstance(Configuration conf) {
     if(instance == null) {
       instance = new NutchMetrics(conf);
     }
@@ -54,8 +74,19 @@ public class NutchMetrics implements AutoCloseable {
   }
 
   private NutchMetrics(Configuration conf) {
+    this(conf, true);
+  }
+
+  /**
+   * @param startWriter If false, queued reports are written only by flush and close, for tests
+   * */
+  NutchMetrics(Configuration conf, boolean startWriter) {
     this.conf = conf;
 
+    this.bufferCapacity = conf.getInt(PARAM_REPORT_BUFFER_CAPACITY, 100000);
+    this.flushInterval = conf.getLong(PARAM_REPORT_FLUSH_INTERVAL, 1000);
+    this.maxFileSize = conf.getLong(PARAM_REPORT_MAX_FILE_SIZE, 256 * 1024 * 1024);
+
     try {
       reportDir = NutchConfiguration.getPath(conf, PARAM_NUTCH_REPORT_DIR, Paths.get(PATH_NUTCH_REPORT_DIR));
       reportDir = Paths.get(reportDir.toAbsolutePath().toString(), DateTimeUtil.format(System.currentTimeMillis(), "yyyyMMdd"));
@@ -70,20 +101,58 @@ public class NutchMetrics implements AutoCloseable {
     } catch (IOException e) {
       LOG.error(e.toString());
     }
+
+    if (startWriter) {
+      this.writerThread = new Thread(this::writeReports, "NutchMetricsWriter");
+      writerThread.setDaemon(true);
+      writerThread.start();
+
+      // Write the queued reports before the JVM exits
+      Runtime.getRuntime().addShutdownHook(new Thread(this::closeQuietly));
+    } else {
+      this.writerThread = null;
+    }
   }
 
   @Override
   public void close() throws Exception {
-    writers.values().forEach(writer -> {
-      try {
-        writer.flush();
-        writer.close();
-      } catch (IOException e) {
-        LOG.error(e.toString());
-      }
-    });
+    if (closed) {
+      return;
+    }
+
+    closed = true;
+    if (writerThread != null) {
+      writerThread.interrupt();
+      writerThread.join(flushInterval + 5000);
+    }
+
+    synchronized (writers) {
+      drain(Integer.MAX_VALUE);
+      writers.values().forEach(ReportWriter::close);
+      writers.clear();
+    }
+
+    if (droppedReportCount.get() > 0) {
+      LOG.warn("Total {} reports are dropped since the report buffer is full", droppedReportCount.get());
+    }
+  }
+
+  /**
+   * Write all queued reports and flush the report files
+   * */
+  public void flush() {
+    synchronized (writers) {
+      drain(Integer.MAX_VALUE);
+      writers.values().forEach(ReportWriter::flush);
+    }
   }
 
+  public long getDroppedReportCount() { return droppedReportCount.get(); }
+
+  public int getPendingReportCount() { return pendingReportCount.get(); }
+
+  public Path getReportDir() { return reportDir; }
+
   public Path getUnreachableHostsPath() { return unreachableHostsPath; }
 
   public void loadUnreachableHosts(Set<String> unreachableHosts) {
@@ -168,35 +237,172 @@ public class NutchMetrics implements AutoCloseable {
     writeReport(reportFile, report, printPath, true);
   }
 
+  /**
+   * @param buffered If true, the report is queued and written in background, unless the path is printed
+   * */
   public void writeReport(Path reportFile, String report, boolean printPath, boolean buffered) {
-    try {
-      if (!Files.exists(reportFile)) {
-        Files.createDirectories(reportFile.getParent());
-        Files.createFile(reportFile);
+    if (buffered && !printPath && !closed) {
+      if (pendingReportCount.incrementAndGet() > bufferCapacity) {
+        pendingReportCount.decrementAndGet();
+        long dropped = droppedReportCount.incrementAndGet();
+        if (dropped % 10000 == 1) {
+          LOG.warn("Report buffer is full, total {} reports dropped", dropped);
+        }
+        return;
+      }
+
+      pendingReports.add(new Report(reportFile, report));
+      return;
+    }
+
+    synchronized (writers) {
+      // Keep the order of the reports to the same file
+      drain(Integer.MAX_VALUE);
+      ReportWriter writer = write(reportFile, report);
+      if (writer != null) {
+        writer.flush();
+      }
+    }
+
+    if (printPath) {
+      LOG.info("Report written to " + reportFile.toAbsolutePath());
+    }
+  }
+
+  public void writeReport(String report, String fileSuffix, boolean printPath) {
+    Path reportFile = Paths.get(reportDir.toAbsolutePath().toString(), fileSuffix);
+    writeReport(reportFile, report, printPath);
+  }
+
+  /**
+   * The loop of the writer thread
+   * */
+  private void writeReports() {
+    long lastFlushTime = System.currentTimeMillis();
+
+    while (!closed) {
+      int count;
+      synchronized (writers) {
+        count = drain(1000);
+
+        long now = System.currentTimeMillis();
+        if (now - lastFlushTime >= flushInterval) {
+          writers.values().forEach(ReportWriter::flush);
+          lastFlushTime = now;
+        }
+      }
+
+      if (count == 0) {
+        try {
+          Thread.sleep(Math.min(100, flushInterval));
+        } catch (InterruptedException e) {
+          break;
+        }
       }
+    }
+  }
+
+  /**
+   * Write at most limit queued reports, must hold the lock of writers
+   * */
+  private int drain(int limit) {
+    int count = 0;
+
+    Report report;
+    while (count < limit && (report = pendingReports.poll()) != null) {
+      pendingReportCount.decrementAndGet();
+      write(report.path, report.content);
+      ++count;
+    }
 
-      BufferedWriter writer = writers.get(reportFile);
+    return count;
+  }
+
+  /**
+   * Must hold the lock of writers
+   * */
+  private ReportWriter write(Path reportFile, String report) {
+    try {
+      ReportWriter writer = writers.get(reportFile);
       if (writer == null) {
-        writer = Files.newBufferedWriter(reportFile, StandardCharsets.UTF_8, StandardOpenOption.APPEND);
+        writer = new ReportWriter(reportFile);
         writers.put(reportFile, writer);
       }
 
-      writer.write(report);
+      if (writer.size > 0 && writer.size + report.length() > maxFileSize) {
+        writer.close();
+        rotate(reportFile);
+        writer = new ReportWriter(reportFile);
+        writers.put(reportFile, writer);
+      }
 
-      // TODO : flush only when the buffer is full?
-      writer.flush();
+      writer.write(report);
+      return writer;
     } catch (IOException e) {
       LOG.error("Failed to write report : " + e.toString());
     }
 
-    if (printPath) {
-      LOG.info("Report written to " + reportFile.toAbsolutePath());
+    return null;
+  }
+
+  private void rotate(Path reportFile) throws IOException {
+    String suffix = DateTimeUtil.format(System.currentTimeMillis(), "yyyyMMddHHmmss");
+    Path rotated = reportFile.resolveSibling(reportFile.getFileName() + "." + suffix);
+    for (int i = 1; Files.exists(rotated); ++i) {
+      rotated = reportFile.resolveSibling(reportFile.getFileName() + "." + suffix + "-" + i);
     }
+    Files.move(reportFile, rotated);
+    LOG.info("Report rotated to " + rotated);
   }
 
-  public void writeReport(String report, String fileSuffix, boolean printPath) {
-    Path reportFile = Paths.get(reportDir.toAbsolutePath().toString(), fileSuffix);
-    writeReport(reportFile, report, printPath);
+  private void closeQuietly() {
+    try {
+      close();
+    } catch (Exception e) {
+      LOG.error(e.toString());
+    }
+  }
+
+  private static class Report {
+    private final Path path;
+    private final String content;
+
+    Report(Path path, String content) {
+      this.path = path;
+      this.content = content;
+    }
   }
 
+  private static class ReportWriter {
+    private final BufferedWriter writer;
+    /** Approximate size of the file, in chars */
+    private long size;
+
+    ReportWriter(Path path) throws IOException {
+      Files.createDirectories(path.getParent());
+      this.size = Files.exists(path) ? Files.size(path) : 0;
+      this.writer = Files.newBufferedWriter(path, StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+    }
+
+    void write(String report) throws IOException {
+      writer.write(report);
+      size += report.length();
+    }
+
+    void flush() {
+      try {
+        writer.flush();
+      } catch (IOException e) {
+        LOG.error(e.toString());
+      }
+    }
+
+    void close() {
+      try {
+        writer.close();
+      } catch (IOException e) {
+        LOG.error(e.toString());
+      }
+    }
+  }
 }
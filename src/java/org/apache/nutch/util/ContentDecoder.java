@@ -0,0 +1,443 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nutch.util;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Decodes a content encoded body while it is written, the bytes can be written as soon as they are read from
+ * the socket, so the encoded body is never held in memory as a whole.
+ *
+ * The decoded bytes are written into a buffer owned by the current thread, which is reused by the next
+ * decoder of the same thread, and {@link Inflater}s are pooled by all threads, so decoding a page allocates
+ * nothing but the returned copy once the buffers are warmed up. A decoder must be used and closed by
+ * a single thread.
+ *
+ * Decoding is best effort, the same as {@link GZIPUtils#unzipBestEffort(byte[], int)} : the decoded bytes
+ * are truncated to the size limit, and if the body is truncated or corrupted, the bytes decoded before are kept.
+ */
+public class ContentDecoder extends OutputStream {
+
+  private static final Logger LOG = LoggerFactory.getLogger(ContentDecoder.class);
+
+  public enum Encoding {
+    IDENTITY, GZIP, DEFLATE;
+
+    /**
+     * @param contentEncoding the value of the Content-Encoding header, can be null
+     * */
+    public static Encoding of(String contentEncoding) {
+      if (contentEncoding == null) {
+        return IDENTITY;
+      }
+
+      String encoding = contentEncoding.trim().toLowerCase();
+      if (encoding.equals("gzip") || encoding.equals("x-gzip")) {
+        return GZIP;
+      } else if (encoding.equals("deflate")) {
+        return DEFLATE;
+      }
+      return IDENTITY;
+    }
+  }
+
+  /** The max number of idle inflaters kept by each pool */
+  public static final int MAX_POOLED_INFLATERS = 64;
+  /** Larger buffers are dropped after use, so a single huge page does not pin the memory */
+  public static final int MAX_POOLED_BUFFER_SIZE = 1024 * 1024;
+  private static final int INITIAL_BUFFER_SIZE = 16 * 1024;
+
+  private static final InflaterPool RAW_INFLATERS = new InflaterPool(true);
+  private static final InflaterPool ZLIB_INFLATERS = new InflaterPool(false);
+  private static final ThreadLocal<byte[]> BUFFERS = new ThreadLocal<>();
+  private static final AtomicLong createdBuffers = new AtomicLong(0);
+
+  // gzip header flags, RFC 1952
+  private static final int FHCRC = 2;
+  private static final int FEXTRA = 4;
+  private static final int FNAME = 8;
+  private static final int FCOMMENT = 16;
+  private static final int GZIP_HEADER_SIZE = 10;
+  private static final int GZIP_TRAILER_SIZE = 8;
+
+  private enum State {
+    HEADER, BODY, TRAILER, NEXT_MEMBER, DONE, FAILED
+  }
+
+  private enum HeaderField {
+    FIXED, EXTRA_LENGTH, EXTRA, NAME, COMMENT, HCRC
+  }
+
+  private static class InflaterPool {
+    private final boolean nowrap;
+    private final Queue<Inflater> idle = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger idleCount = new AtomicInteger(0);
+    private final AtomicLong created = new AtomicLong(0);
+
+    InflaterPool(boolean nowrap) {
+      this.nowrap = nowrap;
+    }
+
+    Inflater borrow() {
+      Inflater inflater = idle.poll();
+      if (inflater == null) {
+        created.incrementAndGet();
+        return new Inflater(nowrap);
+      }
+      idleCount.decrementAndGet();
+      return inflater;
+    }
+
+    void release(Inflater inflater) {
+      inflater.reset();
+      if (idleCount.incrementAndGet() <= MAX_POOLED_INFLATERS) {
+        idle.offer(inflater);
+      } else {
+        idleCount.decrementAndGet();
+        inflater.end();
+      }
+    }
+  }
+
+  private final Encoding encoding;
+  private final int sizeLimit;
+
+  private byte[] buffer;
+  private int count = 0;
+  private long encodedLength = 0;
+  private boolean truncated = false;
+  private Exception failure;
+
+  private Inflater inflater;
+  private InflaterPool inflaterPool;
+  private State state;
+  private HeaderField headerField = HeaderField.FIXED;
+  private int headerPos = 0;
+  private int flags = 0;
+  private int extraLength = 0;
+  /** The first bytes of a deflate body, which tell if it's wrapped by zlib */
+  private final byte[] zlibHeader = new byte[2];
+
+  /**
+   * @param sizeLimit the max number of decoded bytes, negative for no limit
+   * */
+  public ContentDecoder(Encoding encoding, int sizeLimit) {
+    this.encoding = encoding;
+    this.sizeLimit = sizeLimit < 0 ? Integer.MAX_VALUE : sizeLimit;
+    this.state = encoding == Encoding.IDENTITY ? State.BODY : State.HEADER;
+
+    byte[] pooled = BUFFERS.get();
+    if (pooled != null) {
+      BUFFERS.set(null);
+      this.buffer = pooled;
+    } else {
+      createdBuffers.incrementAndGet();
+      this.buffer = new byte[INITIAL_BUFFER_SIZE];
+    }
+
+    if (encoding == Encoding.GZIP) {
+      useInflater(RAW_INFLATERS);
+    }
+  }
+
+  public Encoding getEncoding() {
+    return encoding;
+  }
+
+  /** The number of bytes written, before they are decoded */
+  public long getEncodedLength() {
+    return encodedLength;
+  }
+
+  /** The number of decoded bytes */
+  public int size() {
+    return count;
+  }
+
+  /** The decoded bytes are truncated to the size limit */
+  public boolean isTruncated() {
+    return truncated;
+  }
+
+  @Override
+  public void write(int b) {
+    write(new byte[] { (byte) b }, 0, 1);
+  }
+
+  @Override
+  public void write(byte[] b) {
+    write(b, 0, b.length);
+  }
+
+  @Override
+  public void write(byte[] b, int off, int len) {
+    if (buffer == null) {
+      throw new IllegalStateException("The decoder is closed");
+    }
+
+    encodedLength += len;
+    int end = off + len;
+    while (off < end) {
+      switch (state) {
+      case HEADER:
+        off = encoding == Encoding.GZIP ? readGzipHeader(b, off, end) : readZlibHeader(b, off, end);
+        break;
+      case BODY:
+        off = encoding == Encoding.IDENTITY ? copy(b, off, end) : inflate(b, off, end);
+        break;
+      case TRAILER:
+        // The checksum is not verified, a corrupted body is kept as a truncated one
+        int skip = Math.min(GZIP_TRAILER_SIZE - headerPos, end - off);
+        off += skip;
+        headerPos += skip;
+        if (headerPos == GZIP_TRAILER_SIZE) {
+          state = State.NEXT_MEMBER;
+        }
+        break;
+      case NEXT_MEMBER:
+        // Concatenated gzip members are decoded as one body, anything else after the trailer is ignored
+        if ((b[off] & 0xff) == 0x1f) {
+          inflater.reset();
+          state = State.HEADER;
+          headerField = HeaderField.FIXED;
+          headerPos = 0;
+        } else {
+          state = State.DONE;
+        }
+        break;
+      default:
+        off = end;
+        break;
+      }
+    }
+  }
+
+  /**
+   * A copy of the decoded bytes, must be called before the decoder is closed
+   *
+   * @return the decoded bytes, or null if nothing can be decoded because the body is not in the declared format
+   * */
+  public byte[] toByteArray() {
+    if (buffer == null) {
+      throw new IllegalStateException("The decoder is closed");
+    }
+
+    if (count == 0 && failure != null) {
+      return null;
+    }
+    return Arrays.copyOf(buffer, count);
+  }
+
+  /**
+   * Return the inflater and the buffer to the pools
+   * */
+  @Override
+  public void close() {
+    if (inflater != null) {
+      inflaterPool.release(inflater);
+      inflater = null;
+    }
+
+    if (buffer != null) {
+      if (buffer.length <= MAX_POOLED_BUFFER_SIZE) {
+        BUFFERS.set(buffer);
+      }
+      buffer = null;
+    }
+  }
+
+  public static Params getParams() {
+    return Params.of(
+        "createdBuffers", createdBuffers.get(),
+        "createdRawInflaters", RAW_INFLATERS.created.get(),
+        "createdZlibInflaters", ZLIB_INFLATERS.created.get(),
+        "idleInflaters", RAW_INFLATERS.idleCount.get() + ZLIB_INFLATERS.idleCount.get()
+    );
+  }
+
+  private void useInflater(InflaterPool pool) {
+    inflaterPool = pool;
+    inflater = pool.borrow();
+  }
+
+  private int copy(byte[] b, int off, int end) {
+    int len = Math.min(end - off, sizeLimit - count);
+    if (len > 0) {
+      ensureCapacity(count + len);
+      System.arraycopy(b, off, buffer, count, len);
+      count += len;
+    }
+
+    if (off + len < end) {
+      truncated = true;
+      state = State.DONE;
+    }
+    return end;
+  }
+
+  private int inflate(byte[] b, int off, int end) {
+    inflater.setInput(b, off, end - off);
+    try {
+      while (true) {
+        if (count >= sizeLimit) {
+          truncated = true;
+          state = State.DONE;
+          return end;
+        }
+
+        if (count == buffer.length) {
+          ensureCapacity(count + 1);
+        }
+        int n = inflater.inflate(buffer, count, Math.min(buffer.length, sizeLimit) - count);
+        count += n;
+
+        if (inflater.finished()) {
+          int remaining = inflater.getRemaining();
+          if (encoding == Encoding.GZIP) {
+            state = State.TRAILER;
+            headerPos = 0;
+          } else {
+            state = State.DONE;
+          }
+          return end - remaining;
+        }
+
+        if (n == 0) {
+          if (inflater.needsDictionary()) {
+            fail(new DataFormatException("A preset dictionary is required"));
+          }
+          // All the input is consumed
+          return end;
+        }
+      }
+    } catch (DataFormatException e) {
+      fail(e);
+      return end;
+    }
+  }
+
+  private int readGzipHeader(byte[] b, int off, int end) {
+    while (off < end && state == State.HEADER) {
+      int c = b[off++] & 0xff;
+      switch (headerField) {
+      case FIXED:
+        if ((headerPos == 0 && c != 0x1f) || (headerPos == 1 && c != 0x8b) || (headerPos == 2 && c != 8)) {
+          fail(new DataFormatException("Not in gzip format"));
+          return end;
+        }
+        if (headerPos == 3) {
+          flags = c;
+        }
+        if (++headerPos == GZIP_HEADER_SIZE) {
+          nextHeaderField();
+        }
+        break;
+      case EXTRA_LENGTH:
+        extraLength |= c << (8 * headerPos);
+        if (++headerPos == 2) {
+          if (extraLength == 0) {
+            nextHeaderField();
+          } else {
+            headerField = HeaderField.EXTRA;
+            headerPos = 0;
+          }
+        }
+        break;
+      case EXTRA:
+        if (++headerPos == extraLength) {
+          nextHeaderField();
+        }
+        break;
+      case NAME:
+      case COMMENT:
+        if (c == 0) {
+          nextHeaderField();
+        }
+        break;
+      case HCRC:
+        if (++headerPos == 2) {
+          nextHeaderField();
+        }
+        break;
+      }
+    }
+    return off;
+  }
+
+  private void nextHeaderField() {
+    headerPos = 0;
+    if ((flags & FEXTRA) != 0) {
+      flags &= ~FEXTRA;
+      extraLength = 0;
+      headerField = HeaderField.EXTRA_LENGTH;
+    } else if ((flags & FNAME) != 0) {
+      flags &= ~FNAME;
+      headerField = HeaderField.NAME;
+    } else if ((flags & FCOMMENT) != 0) {
+      flags &= ~FCOMMENT;
+      headerField = HeaderField.COMMENT;
+    } else if ((flags & FHCRC) != 0) {
+      flags &= ~FHCRC;
+      headerField = HeaderField.HCRC;
+    } else {
+      state = State.BODY;
+    }
+  }
+
+  /**
+   * "deflate" is meant to be zlib wrapped (RFC 2616), but some servers send raw deflate data, tell them apart
+   * by the zlib header
+   * */
+  private int readZlibHeader(byte[] b, int off, int end) {
+    while (off < end && headerPos < zlibHeader.length) {
+      zlibHeader[headerPos++] = b[off++];
+    }
+
+    if (headerPos == zlibHeader.length) {
+      int cmf = zlibHeader[0] & 0xff;
+      int flg = zlibHeader[1] & 0xff;
+      boolean zlib = (cmf & 0x0f) == 8 && ((cmf << 8) | flg) % 31 == 0;
+      useInflater(zlib ? ZLIB_INFLATERS : RAW_INFLATERS);
+      state = State.BODY;
+      inflate(zlibHeader, 0, zlibHeader.length);
+    }
+    return off;
+  }
+
+  private void ensureCapacity(int minCapacity) {
+    if (minCapacity > buffer.length) {
+      long capacity = Math.max((long) buffer.length << 1, minCapacity);
+      buffer = Arrays.copyOf(buffer, (int) Math.min(capacity, sizeLimit));
+    }
+  }
+
+  private void fail(Exception e) {
+    LOG.info("Caught Exception when decoding " + encoding + " content, " + e.toString());
+    failure = e;
+    state = State.FAILED;
+  }
+}
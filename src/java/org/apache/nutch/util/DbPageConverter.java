@@ -124,7 +124,8 @@ public class DbPageConverter {
     }
     Map<String, String> simpleMeta = Maps.newHashMap();
     for (CharSequence key : metadata.keySet()) {
-      simpleMeta.put(key.toString(), Bytes.toStringBinary(metadata.get(key)));
+      // Typed entries are binary, every entry is rendered by its registered type
+      simpleMeta.put(key.toString(), PageMetadata.format(key, metadata.get(key)));
     }
     return simpleMeta;
   }
@@ -20,7 +20,6 @@ import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.util.zip.DeflaterOutputStream;
-import java.util.zip.Inflater;
 import java.util.zip.InflaterInputStream;
 
 // Commons Logging imports
@@ -52,39 +51,12 @@ public class DeflateUtils {
    * possible. If no data can be extracted <code>null</code> is returned.
    */
   public static final byte[] inflateBestEffort(byte[] in, int sizeLimit) {
-    // decompress using InflaterInputStream
-    ByteArrayOutputStream outStream = new ByteArrayOutputStream(
-        EXPECTED_COMPRESSION_RATIO * in.length);
-
-    // "true" because HTTP does not provide zlib headers
-    Inflater inflater = new Inflater(true);
-    InflaterInputStream inStream = new InflaterInputStream(
-        new ByteArrayInputStream(in), inflater);
-
-    byte[] buf = new byte[BUF_SIZE];
-    int written = 0;
-    while (true) {
-      try {
-        int size = inStream.read(buf);
-        if (size <= 0)
-          break;
-        if ((written + size) > sizeLimit) {
-          outStream.write(buf, 0, sizeLimit - written);
-          break;
-        }
-        outStream.write(buf, 0, size);
-        written += size;
-      } catch (Exception e) {
-        LOG.info("Caught Exception in inflateBestEffort", e);
-        break;
-      }
+    // both zlib wrapped and raw deflate data are accepted, since HTTP servers
+    // send either of them
+    try (ContentDecoder decoder = new ContentDecoder(ContentDecoder.Encoding.DEFLATE, sizeLimit)) {
+      decoder.write(in);
+      return decoder.toByteArray();
     }
-    try {
-      outStream.close();
-    } catch (IOException e) {
-    }
-
-    return outStream.toByteArray();
   }
 
   /**
@@ -33,8 +33,6 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 /**
  * A simple class for detecting character encodings.
@@ -69,15 +67,8 @@ public class EncodingDetector {
   // (e.g. http://cn.promo.yahoo.com/customcare/music.html)
   private static final int CHUNK_SIZE = 2000;
 
-  // NUTCH-1006 Meta equiv with single quotes not accepted
-  private static Pattern metaPattern = Pattern.compile(
-      "<meta\\s+([^>]*http-equiv=(\"|')?content-type(\"|')?[^>]*)>",
-      Pattern.CASE_INSENSITIVE);
-  private static Pattern charsetPattern = Pattern.compile(
-      "charset=\\s*([a-z][_\\-0-9a-z]*)", Pattern.CASE_INSENSITIVE);
-  private static Pattern charsetPatternHTML5 = Pattern.compile(
-      "<meta\\s+charset\\s*=\\s*[\"']?([a-z][_\\-0-9a-z]*)[^>]*>",
-      Pattern.CASE_INSENSITIVE);
+  // The bytes scanned for the Unicode signature of a page which is told to be in a memorized encoding
+  private static final int MEMO_CHECK_SIZE = 4096;
 
   private class EncodingClue {
     private final String value;
@@ -176,22 +167,138 @@ public class EncodingDetector {
 
   private final List<EncodingClue> clues;
 
+  private final HostEncodingMemo memo;
+
   public EncodingDetector(Configuration conf) {
+    this(conf, conf.getInt(HostEncodingMemo.MEMO_SIZE, 10000) > 0 ? HostEncodingMemo.getInstance(conf) : null);
+  }
+
+  /**
+   * @param memo the encodings of the hosts, null to detect every page on its own
+   * */
+  EncodingDetector(Configuration conf, HostEncodingMemo memo) {
     minConfidence = conf.getInt(MIN_CONFIDENCE_KEY, -1);
     detector = new CharsetDetector();
     clues = new ArrayList<>();
+    this.memo = memo;
 
     this.defaultCharEncoding = conf.get("parser.character.encoding.default", "windows-1252");
   }
 
+  /**
+   * Find out the encoding of the page.
+   *
+   * If the HTTP header and the hints in the content agree, or there is only one of them, it's the encoding.
+   * If there is none, the encoding of the host is used, unless the content does not fit it. Only if the hints
+   * disagree, or nothing is known, all the clues are collected and the statistical detection is run.
+   * */
   public String sniffEncoding(WebPage page) {
+    ByteBuffer content = page.getContent();
+    String headerEncoding = resolveEncodingAlias(parseCharacterEncoding(page.getHeaders().get(CONTENT_TYPE_UTF8)));
+    String sniffedEncoding = content == null ? null : resolveEncodingAlias(sniffCharacterEncoding(
+        content.array(), content.arrayOffset() + content.position(), content.remaining()));
+    String host = memo == null ? null : URLUtil.getHostName(TableUtil.toString(page.getBaseUrl()));
+
+    if (headerEncoding != null && (sniffedEncoding == null || headerEncoding.equals(sniffedEncoding))) {
+      vote(host, headerEncoding, sniffedEncoding == null ? 1 : 2);
+      return headerEncoding.toLowerCase();
+    }
+
+    if (headerEncoding == null && sniffedEncoding != null) {
+      vote(host, sniffedEncoding, 1);
+      return sniffedEncoding.toLowerCase();
+    }
+
+    if (headerEncoding == null && host != null) {
+      String encoding = memo.get(host);
+      if (encoding != null) {
+        if (fits(encoding, content)) {
+          return encoding.toLowerCase();
+        }
+        memo.reject(host);
+      }
+    }
+
+    clearClues();
     autoDetectClues(page, true);
-    addClue(sniffCharacterEncoding(page.getContent().array()), "sniffed");
+    addClue(sniffedEncoding, "sniffed");
     String encoding = guessEncoding(page, defaultCharEncoding);
+    if (headerEncoding != null || !encoding.equalsIgnoreCase(defaultCharEncoding)) {
+      vote(host, resolveEncodingAlias(encoding), 1);
+    }
 
     return encoding;
   }
 
+  private void vote(String host, String encoding, int weight) {
+    if (host != null) {
+      memo.vote(host, encoding, weight);
+    }
+  }
+
+  /**
+   * A page fits UTF-8 if its bytes are valid UTF-8, and fits a legacy encoding if they are not
+   * non-ASCII UTF-8, which is hardly ever the case for a page in GBK, Shift_JIS or windows-1252
+   * */
+  private static boolean fits(String encoding, ByteBuffer content) {
+    if (content == null) {
+      return true;
+    }
+
+    int utf8 = scanUtf8(content.array(), content.arrayOffset() + content.position(),
+        Math.min(content.remaining(), MEMO_CHECK_SIZE));
+    if (encoding.equals("UTF-8")) {
+      return utf8 != UTF8_INVALID;
+    } else if (encoding.startsWith("UTF-")) {
+      return true;
+    }
+    return utf8 != UTF8_MULTIBYTE;
+  }
+
+  private static final int UTF8_INVALID = -1;
+  private static final int UTF8_ASCII = 0;
+  private static final int UTF8_MULTIBYTE = 1;
+
+  /**
+   * A sequence cut by the end of the range is taken as valid
+   * */
+  private static int scanUtf8(byte[] bytes, int offset, int length) {
+    boolean multibyte = false;
+    int end = offset + length;
+    int i = offset;
+    while (i < end) {
+      int c = bytes[i] & 0xff;
+      if (c < 0x80) {
+        ++i;
+        continue;
+      }
+
+      int n;
+      if (c >= 0xc2 && c <= 0xdf) {
+        n = 1;
+      } else if (c >= 0xe0 && c <= 0xef) {
+        n = 2;
+      } else if (c >= 0xf0 && c <= 0xf4) {
+        n = 3;
+      } else {
+        return UTF8_INVALID;
+      }
+
+      if (i + n >= end) {
+        break;
+      }
+      for (int k = 1; k <= n; ++k) {
+        if ((bytes[i + k] & 0xc0) != 0x80) {
+          return UTF8_INVALID;
+        }
+      }
+      multibyte = true;
+      i += n + 1;
+    }
+
+    return multibyte ? UTF8_MULTIBYTE : UTF8_ASCII;
+  }
+
   public void autoDetectClues(WebPage page, boolean filter) {
     autoDetectClues(page.getContent(), page.getContentType(),
         parseCharacterEncoding(page.getHeaders().get(CONTENT_TYPE_UTF8)),
@@ -200,11 +307,11 @@ public class EncodingDetector {
 
   /**
    * Given a <code>byte[]</code> representing an html file of an
-   * <em>unknown</em> encoding, read out 'charset' parameter in the meta tag
-   * from the first <code>CHUNK_SIZE</code> bytes. If there's no meta tag for
-   * Content-Type or no charset is specified, the content is checked for a
-   * Unicode Byte Order Mark (BOM). This will also cover non-byte oriented
-   * character encodings (UTF-16 only). If no character set can be determined,
+   * <em>unknown</em> encoding, read out the encoding told by the content. A
+   * Unicode Byte Order Mark (BOM) comes first, which also covers non-byte
+   * oriented character encodings (UTF-16 only), then the encoding in the XML
+   * declaration, then the 'charset' parameter in the meta tags from the first
+   * <code>CHUNK_SIZE</code> bytes. If no character set can be determined,
    * <code>null</code> is returned. <br />
    * See also
    * http://www.w3.org/International/questions/qa-html-encoding-declarations,
@@ -215,43 +322,145 @@ public class EncodingDetector {
    *          <code>byte[]</code> representation of an html file
    */
   public String sniffCharacterEncoding(byte[] content) {
-    int length = content.length < CHUNK_SIZE ? content.length : CHUNK_SIZE;
-
-    // We don't care about non-ASCII parts so that it's sufficient
-    // to just inflate each byte to a 16-bit value by padding.
-    // For instance, the sequence {0x41, 0x82, 0xb7} will be turned into
-    // {U+0041, U+0082, U+00B7}.
-    String str = new String(content, 0, length, StandardCharsets.US_ASCII);
-
-    Matcher metaMatcher = metaPattern.matcher(str);
-    String encoding = null;
-    if (metaMatcher.find()) {
-      Matcher charsetMatcher = charsetPattern.matcher(metaMatcher.group(1));
-      if (charsetMatcher.find())
-        encoding = charsetMatcher.group(1);
-    }
-    if (encoding == null) {
-      // check for HTML5 meta charset
-      metaMatcher = charsetPatternHTML5.matcher(str);
-      if (metaMatcher.find()) {
-        encoding = metaMatcher.group(1);
+    return sniffCharacterEncoding(content, 0, content.length);
+  }
+
+  /**
+   * The bytes are scanned in place, we don't care about non-ASCII parts, so
+   * nothing is decoded.
+   *
+   * @see #sniffCharacterEncoding(byte[])
+   * */
+  public static String sniffCharacterEncoding(byte[] content, int offset, int length) {
+    // check for BOM
+    if (length >= 3 && content[offset] == (byte) 0xEF
+        && content[offset + 1] == (byte) 0xBB && content[offset + 2] == (byte) 0xBF) {
+      return "UTF-8";
+    } else if (length >= 2) {
+      if (content[offset] == (byte) 0xFF && content[offset + 1] == (byte) 0xFE) {
+        return "UTF-16LE";
+      } else if (content[offset] == (byte) 0xFE && content[offset + 1] == (byte) 0xFF) {
+        return "UTF-16BE";
       }
     }
-    if (encoding == null) {
-      // check for BOM
-      if (content.length >= 3 && content[0] == (byte) 0xEF
-          && content[1] == (byte) 0xBB && content[2] == (byte) 0xBF) {
-        encoding = "UTF-8";
-      } else if (content.length >= 2) {
-        if (content[0] == (byte) 0xFF && content[1] == (byte) 0xFE) {
-          encoding = "UTF-16LE";
-        } else if (content[0] == (byte) 0xFE && content[1] == (byte) 0xFF) {
-          encoding = "UTF-16BE";
+
+    int end = offset + Math.min(length, CHUNK_SIZE);
+
+    // check for <?xml version="1.0" encoding="..."?>
+    if (startsWithIgnoreCase(content, offset, end, "<?xml")) {
+      int declarationEnd = indexOf(content, offset, end, "?>");
+      int pos = indexOfIgnoreCase(content, offset, declarationEnd, "encoding");
+      if (pos >= 0) {
+        String encoding = readAttributeValue(content, pos + "encoding".length(), declarationEnd);
+        if (encoding != null) {
+          return encoding;
         }
       }
     }
 
-    return encoding;
+    // check for <meta http-equiv="content-type" content="text/html; charset=...">,
+    // and the HTML5 <meta charset="...">
+    int pos = offset;
+    while ((pos = indexOfIgnoreCase(content, pos, end, "<meta")) >= 0) {
+      pos += "<meta".length();
+      int tagEnd = indexOf(content, pos, end, ">");
+      int charset = pos;
+      while ((charset = indexOfIgnoreCase(content, charset, tagEnd, "charset")) >= 0) {
+        charset += "charset".length();
+        String encoding = readAttributeValue(content, charset, tagEnd);
+        if (encoding != null) {
+          return encoding;
+        }
+      }
+      pos = tagEnd;
+    }
+
+    return null;
+  }
+
+  /**
+   * Read <code>\s*=\s*["']?([a-z][_\-0-9a-z]*)</code> from the position
+   * */
+  private static String readAttributeValue(byte[] content, int pos, int end) {
+    pos = skipSpaces(content, pos, end);
+    if (pos >= end || content[pos] != '=') {
+      return null;
+    }
+    pos = skipSpaces(content, pos + 1, end);
+    if (pos < end && (content[pos] == '"' || content[pos] == '\'')) {
+      ++pos;
+    }
+
+    int start = pos;
+    if (pos >= end || !isLetter(content[pos])) {
+      return null;
+    }
+    while (pos < end && (isLetter(content[pos]) || isDigit(content[pos])
+        || content[pos] == '_' || content[pos] == '-')) {
+      ++pos;
+    }
+
+    return new String(content, start, pos - start, StandardCharsets.US_ASCII);
+  }
+
+  private static int skipSpaces(byte[] content, int pos, int end) {
+    while (pos < end && (content[pos] == ' ' || content[pos] == '\t' || content[pos] == '\n'
+        || content[pos] == '\r' || content[pos] == '\f')) {
+      ++pos;
+    }
+    return pos;
+  }
+
+  private static boolean isLetter(byte b) {
+    return (b >= 'a' && b <= 'z') || (b >= 'A' && b <= 'Z');
+  }
+
+  private static boolean isDigit(byte b) {
+    return b >= '0' && b <= '9';
+  }
+
+  private static boolean startsWithIgnoreCase(byte[] content, int pos, int end, String prefix) {
+    if (end - pos < prefix.length()) {
+      return false;
+    }
+
+    for (int i = 0; i < prefix.length(); ++i) {
+      // The prefixes are lower case ASCII
+      byte b = content[pos + i];
+      char c = prefix.charAt(i);
+      if (b != c && !(c >= 'a' && c <= 'z' && (b | 0x20) == c)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * @return the position of the lower case ASCII word, or -1 if it's not found
+   * */
+  private static int indexOfIgnoreCase(byte[] content, int pos, int end, String word) {
+    for (int i = pos; i <= end - word.length(); ++i) {
+      if (startsWithIgnoreCase(content, i, end, word)) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * @return the position of the word, or end if it's not found
+   * */
+  private static int indexOf(byte[] content, int pos, int end, String word) {
+    for (int i = pos; i <= end - word.length(); ++i) {
+      boolean found = true;
+      for (int k = 0; k < word.length() && found; ++k) {
+        found = content[i + k] == word.charAt(k);
+      }
+      if (found) {
+        return i;
+      }
+    }
+    return end;
   }
 
   private void autoDetectClues(ByteBuffer dataBuffer, CharSequence typeUtf8, String encoding, boolean filter) {
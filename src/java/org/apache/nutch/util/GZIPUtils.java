@@ -52,40 +52,10 @@ public class GZIPUtils {
    * possible. If no data can be extracted <code>null</code> is returned.
    */
   public static final byte[] unzipBestEffort(byte[] in, int sizeLimit) {
-    try {
-      // decompress using GZIPInputStream
-      ByteArrayOutputStream outStream = new ByteArrayOutputStream(
-          EXPECTED_COMPRESSION_RATIO * in.length);
-
-      GZIPInputStream inStream = new GZIPInputStream(new ByteArrayInputStream(
-          in));
-
-      byte[] buf = new byte[BUF_SIZE];
-      int written = 0;
-      while (true) {
-        try {
-          int size = inStream.read(buf);
-          if (size <= 0)
-            break;
-          if ((written + size) > sizeLimit) {
-            outStream.write(buf, 0, sizeLimit - written);
-            break;
-          }
-          outStream.write(buf, 0, size);
-          written += size;
-        } catch (Exception e) {
-          break;
-        }
-      }
-      try {
-        outStream.close();
-      } catch (IOException e) {
-      }
-
-      return outStream.toByteArray();
-
-    } catch (IOException e) {
-      return null;
+    // inflate into the pooled buffer of the thread, with a pooled inflater
+    try (ContentDecoder decoder = new ContentDecoder(ContentDecoder.Encoding.GZIP, sizeLimit)) {
+      decoder.write(in);
+      return decoder.toByteArray();
     }
   }
 
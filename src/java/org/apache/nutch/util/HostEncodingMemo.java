@@ -0,0 +1,163 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nutch.util;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import org.apache.hadoop.conf.Configuration;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Remembers the character encoding of every host, almost all pages of a host share one encoding.
+ *
+ * Every page with a known encoding votes for its host, the votes of the same encoding add up to the weight
+ * of the memo, and a different encoding takes votes away, so the memo follows a host which changes its
+ * encoding. The memo of a host is used only if its weight reaches the min weight. The memo is shared by all
+ * the detectors in the same JVM, and is bounded.
+ * */
+public class HostEncodingMemo {
+
+  public static final Logger LOG = LoggerFactory.getLogger(HostEncodingMemo.class);
+
+  public static final String MEMO_SIZE = "encodingdetector.memo.size";
+  public static final String MIN_WEIGHT = "encodingdetector.memo.min.weight";
+
+  /** A memo never weighs more, so a host which changes its encoding is followed after a few pages */
+  public static final int MAX_WEIGHT = 16;
+
+  private static HostEncodingMemo instance;
+
+  private static class Entry {
+    String encoding;
+    int weight;
+
+    Entry(String encoding, int weight) {
+      this.encoding = encoding;
+      this.weight = weight;
+    }
+  }
+
+  private final int minWeight;
+  private final Cache<String, Entry> hosts;
+
+  private final AtomicLong hits = new AtomicLong(0);
+  private final AtomicLong misses = new AtomicLong(0);
+  private final AtomicLong mismatches = new AtomicLong(0);
+  private final AtomicLong changes = new AtomicLong(0);
+
+  public static synchronized HostEncodingMemo getInstance(Configuration conf) {
+    if (instance == null) {
+      instance = new HostEncodingMemo(conf);
+    }
+
+    return instance;
+  }
+
+  public HostEncodingMemo(Configuration conf) {
+    this.minWeight = Math.max(1, conf.getInt(MIN_WEIGHT, 3));
+    int size = conf.getInt(MEMO_SIZE, 10000);
+    this.hosts = CacheBuilder.newBuilder().maximumSize(Math.max(0, size)).build();
+
+    LOG.info(Params.formatAsLine(
+        "className", getClass().getSimpleName(),
+        "size", size,
+        "minWeight", minWeight
+    ));
+  }
+
+  /**
+   * @return the encoding of the host, or null if it's not known well enough
+   * */
+  public String get(String host) {
+    Entry entry = host == null ? null : hosts.getIfPresent(host);
+    if (entry != null) {
+      synchronized (entry) {
+        if (entry.weight >= minWeight) {
+          hits.incrementAndGet();
+          return entry.encoding;
+        }
+      }
+    }
+
+    misses.incrementAndGet();
+    return null;
+  }
+
+  /**
+   * A page of the host is found to be in the encoding
+   *
+   * @param weight how much the encoding of the page is trusted
+   * */
+  public void vote(String host, String encoding, int weight) {
+    if (host == null || encoding == null) {
+      return;
+    }
+
+    Entry entry = hosts.getIfPresent(host);
+    if (entry == null) {
+      entry = hosts.asMap().putIfAbsent(host, new Entry(encoding, Math.min(weight, MAX_WEIGHT)));
+      if (entry == null) {
+        return;
+      }
+    }
+
+    synchronized (entry) {
+      if (entry.encoding.equals(encoding)) {
+        entry.weight = Math.min(entry.weight + weight, MAX_WEIGHT);
+        return;
+      }
+
+      mismatches.incrementAndGet();
+      entry.weight -= weight;
+      if (entry.weight <= 0) {
+        entry.encoding = encoding;
+        entry.weight = Math.min(-entry.weight + 1, MAX_WEIGHT);
+        changes.incrementAndGet();
+      }
+    }
+  }
+
+  /**
+   * The encoding of the host does not fit a page, the memo is trusted less
+   * */
+  public void reject(String host) {
+    Entry entry = host == null ? null : hosts.getIfPresent(host);
+    if (entry == null) {
+      return;
+    }
+
+    mismatches.incrementAndGet();
+    synchronized (entry) {
+      entry.weight /= 2;
+    }
+  }
+
+  public Params getParams() {
+    long total = hits.get() + misses.get();
+    return Params.of(
+        "hits", hits.get(),
+        "misses", misses.get(),
+        "hitRate", total == 0 ? 0 : hits.get() * 100 / total + "%",
+        "mismatches", mismatches.get(),
+        "changes", changes.get(),
+        "hosts", hosts.size()
+    );
+  }
+}
@@ -0,0 +1,125 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nutch.util;
+
+import java.net.MalformedURLException;
+import java.net.URL;
+
+/**
+ * A url parsed once, the host, the domain and the reversed url are computed on the first use and kept,
+ * so the url can be passed through the fetcher, the parser and the scoring filters without parsing it again.
+ *
+ * The derived fields are immutable strings, so they are safe to be computed by any thread, at worst twice.
+ * */
+public final class NutchUrl {
+
+  private final String url;
+  private final URL u;
+
+  private String host;
+  private String domain;
+  private String reversedUrl;
+
+  private NutchUrl(String url, URL u) {
+    this.url = url;
+    this.u = u;
+  }
+
+  public static NutchUrl parse(String url) throws MalformedURLException {
+    return new NutchUrl(url, new URL(url));
+  }
+
+  /**
+   * @return the parsed url, or null if the url is malformed
+   * */
+  public static NutchUrl of(String url) {
+    URL u = URLUtil.getUrl(url);
+    return u == null ? null : new NutchUrl(url, u);
+  }
+
+  /**
+   * @param url the url string u is parsed from
+   * */
+  public static NutchUrl of(String url, URL u) {
+    return new NutchUrl(url, u);
+  }
+
+  public String getUrl() {
+    return url;
+  }
+
+  public URL getURL() {
+    return u;
+  }
+
+  public String getProtocol() {
+    return u.getProtocol();
+  }
+
+  public int getPort() {
+    return u.getPort();
+  }
+
+  /**
+   * The host in lower case
+   * */
+  public String getHost() {
+    if (host == null) {
+      host = u.getHost().toLowerCase();
+    }
+    return host;
+  }
+
+  /**
+   * @see URLUtil#getDomainName(URL)
+   * */
+  public String getDomain() {
+    if (domain == null) {
+      domain = URLUtil.getDomainName(u);
+    }
+    return domain;
+  }
+
+  /**
+   * @see TableUtil#reverseUrl(URL)
+   * */
+  public String getReversedUrl() {
+    if (reversedUrl == null) {
+      reversedUrl = TableUtil.reverseUrl(u);
+    }
+    return reversedUrl;
+  }
+
+  public boolean isSameHost(NutchUrl other) {
+    return getHost().equals(other.getHost());
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    return o instanceof NutchUrl && url.equals(((NutchUrl) o).url);
+  }
+
+  @Override
+  public int hashCode() {
+    return url.hashCode();
+  }
+
+  @Override
+  public String toString() {
+    return url;
+  }
+}
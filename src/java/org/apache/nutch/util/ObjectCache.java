@@ -16,26 +16,31 @@
  */
 package org.apache.nutch.util;
 
-import java.util.HashMap;
+import java.util.Map;
 import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.apache.hadoop.conf.Configuration;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+/**
+ * Per configuration object cache, plugin instances are cached here and looked up by
+ * parse/fetch threads concurrently, so both the registry and the cache are thread safe
+ * */
 public class ObjectCache {
 
   private static final Logger LOG = LoggerFactory.getLogger(ObjectCache.class);
 
   private static final WeakHashMap<Configuration, ObjectCache> CACHE = new WeakHashMap<Configuration, ObjectCache>();
 
-  private final HashMap<String, Object> objectMap;
+  private final Map<String, Object> objectMap;
 
   private ObjectCache() {
-    objectMap = new HashMap<String, Object>();
+    objectMap = new ConcurrentHashMap<>();
   }
 
-  public static ObjectCache get(Configuration conf) {
+  public static synchronized ObjectCache get(Configuration conf) {
     ObjectCache objectCache = CACHE.get(conf);
     if (objectCache == null) {
 //      LOG.debug("No object cache found for conf=" + conf
@@ -52,6 +57,10 @@ public class ObjectCache {
   }
 
   public void setObject(String key, Object value) {
-    objectMap.put(key, value);
+    if (value == null) {
+      objectMap.remove(key);
+    } else {
+      objectMap.put(key, value);
+    }
   }
 }
@@ -0,0 +1,261 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.apache.nutch.util;
+
+import org.apache.avro.util.Utf8;
+import org.apache.nutch.storage.WebPage;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.apache.nutch.metadata.Metadata.*;
+
+/**
+ * Typed accessors of the WebPage metadata with interned keys.
+ *
+ * Numbers are stored in a compact binary form, a type tag followed by the big endian value, instead of
+ * decimal strings. A tag is a control char, so a value written by the former string accessors is told apart
+ * by its first byte and is still decoded, the next write of the value converts it to the binary form.
+ * Floats are stored as the raw 4 bytes without a tag, the form the cash has always been stored in.
+ * */
+public final class PageMetadata {
+
+  public static final byte TAG_INT = 1;
+  public static final byte TAG_LONG = 2;
+  public static final byte TAG_LONGS = 3;
+
+  /** The type of each well known key, used to show the values as strings */
+  public enum Type {
+    STRING, INT, LONG, TIME, TIME_HISTORY, FLOAT
+  }
+
+  private static final Map<String, Utf8> KEYS = new ConcurrentHashMap<>();
+  private static final Map<CharSequence, Type> TYPES = new ConcurrentHashMap<>();
+
+  public static final Utf8 FETCH_TIME_HISTORY = register(META_FETCH_TIME_HISTORY, Type.TIME_HISTORY);
+  public static final Utf8 INDEX_TIME_HISTORY = register(META_INDEX_TIME_HISTORY, Type.TIME_HISTORY);
+  public static final Utf8 PUBLISH_TIME = register(META_PUBLISH_TIME, Type.TIME);
+  public static final Utf8 LATEST_REFERRED_ARTICLE_PUBLISH_TIME = register(META_LATEST_REFERRED_ARTICLE_PUBLISH_TIME, Type.TIME);
+  public static final Utf8 REFERRED_PAGES = register(META_REFERRED_PAGES, Type.LONG);
+  public static final Utf8 FETCH_PRIORITY = register(META_FETCH_PRIORITY, Type.INT);
+  public static final Utf8 IS_NAVIGATOR = register(META_IS_NAVIGATOR, Type.STRING);
+  public static final Utf8 IS_SEED = register(META_IS_SEED, Type.STRING);
+  public static final Utf8 FROM_SEED = register(META_FROM_SEED, Type.STRING);
+  public static final Utf8 GENERATE_TIME = register(META_GENERATE_TIME, Type.LONG);
+  public static final Utf8 CASH = register(META_CASH_KEY, Type.FLOAT);
+  public static final Utf8 NEAR_DUPLICATE_OF = register(META_NEAR_DUPLICATE_OF, Type.STRING);
+  public static final Utf8 NEAR_DUPLICATE_FINGERPRINT = register(META_NEAR_DUPLICATE_FINGERPRINT, Type.LONG);
+
+  private PageMetadata() {}
+
+  /**
+   * The shared Utf8 key of the name, the keys must never be modified
+   * */
+  public static Utf8 key(String name) {
+    Utf8 key = KEYS.get(name);
+    if (key == null) {
+      // Keys of page specific names, such as meta tags, are not kept
+      return new Utf8(name);
+    }
+    return key;
+  }
+
+  private static Utf8 register(String name, Type type) {
+    Utf8 key = new Utf8(name);
+    KEYS.put(name, key);
+    TYPES.put(key, type);
+    return key;
+  }
+
+  public static Type getType(CharSequence key) {
+    Type type = TYPES.get(key instanceof Utf8 ? key : new Utf8(key.toString()));
+    return type == null ? Type.STRING : type;
+  }
+
+  public static boolean has(WebPage page, Utf8 key) {
+    return page.getMetadata().get(key) != null;
+  }
+
+  public static String getString(WebPage page, Utf8 key) {
+    ByteBuffer value = page.getMetadata().get(key);
+    return value == null ? null : toString(value);
+  }
+
+  public static void putString(WebPage page, Utf8 key, String value) {
+    page.getMetadata().put(key, value == null ? null : ByteBuffer.wrap(value.getBytes()));
+  }
+
+  public static int getInt(WebPage page, Utf8 key, int defaultValue) {
+    ByteBuffer value = page.getMetadata().get(key);
+    if (value == null) {
+      return defaultValue;
+    }
+
+    if (getTag(value) == TAG_INT && value.remaining() == 5) {
+      return value.getInt(value.position() + 1);
+    }
+    return StringUtil.tryParseInt(toString(value), defaultValue);
+  }
+
+  public static void putInt(WebPage page, Utf8 key, int value) {
+    ByteBuffer buffer = ByteBuffer.allocate(5);
+    buffer.put(TAG_INT).putInt(value).flip();
+    page.getMetadata().put(key, buffer);
+  }
+
+  public static long getLong(WebPage page, Utf8 key, long defaultValue) {
+    ByteBuffer value = page.getMetadata().get(key);
+    if (value == null) {
+      return defaultValue;
+    }
+
+    if (getTag(value) == TAG_LONG && value.remaining() == 9) {
+      return value.getLong(value.position() + 1);
+    }
+    return StringUtil.tryParseLong(toString(value), defaultValue);
+  }
+
+  public static void putLong(WebPage page, Utf8 key, long value) {
+    ByteBuffer buffer = ByteBuffer.allocate(9);
+    buffer.put(TAG_LONG).putLong(value).flip();
+    page.getMetadata().put(key, buffer);
+  }
+
+  /**
+   * A time in milliseconds, the former values are date strings
+   * */
+  public static long getTime(WebPage page, Utf8 key) {
+    ByteBuffer value = page.getMetadata().get(key);
+    if (value == null) {
+      return -1;
+    }
+
+    if (getTag(value) == TAG_LONG && value.remaining() == 9) {
+      return value.getLong(value.position() + 1);
+    }
+    return DateTimeUtil.parseTime(toString(value));
+  }
+
+  public static float getFloat(WebPage page, Utf8 key, float defaultValue) {
+    ByteBuffer value = page.getMetadata().get(key);
+    if (value == null || value.remaining() < 4) {
+      return defaultValue;
+    }
+    return value.getFloat(value.position());
+  }
+
+  public static void putFloat(WebPage page, Utf8 key, float value) {
+    ByteBuffer buffer = ByteBuffer.allocate(4);
+    buffer.putFloat(value).flip();
+    page.getMetadata().put(key, buffer);
+  }
+
+  /**
+   * A time history, the former values are comma separated date strings
+   *
+   * @return the times in the order they are added, or an empty array if there is no history
+   * */
+  public static long[] getTimeHistory(WebPage page, Utf8 key) {
+    ByteBuffer value = page.getMetadata().get(key);
+    if (value == null) {
+      return new long[0];
+    }
+
+    if (getTag(value) == TAG_LONGS && (value.remaining() - 1) % 8 == 0) {
+      long[] times = new long[(value.remaining() - 1) / 8];
+      for (int i = 0; i < times.length; ++i) {
+        times[i] = value.getLong(value.position() + 1 + 8 * i);
+      }
+      return times;
+    }
+
+    String history = toString(value);
+    if (history.isEmpty()) {
+      return new long[0];
+    }
+    return Arrays.stream(history.split(",")).mapToLong(DateTimeUtil::parseTime).toArray();
+  }
+
+  /**
+   * Add a time to the history, the first time and the latest maxRecords times are kept
+   * */
+  public static void addTimeHistory(WebPage page, Utf8 key, long time, int maxRecords) {
+    long[] times = getTimeHistory(page, key);
+
+    int kept = Math.min(times.length, maxRecords);
+    boolean keepFirst = times.length > maxRecords;
+    int count = kept + 1 + (keepFirst ? 1 : 0);
+
+    ByteBuffer buffer = ByteBuffer.allocate(1 + 8 * count);
+    buffer.put(TAG_LONGS);
+    if (keepFirst) {
+      buffer.putLong(times[0]);
+    }
+    for (int i = times.length - kept; i < times.length; ++i) {
+      buffer.putLong(times[i]);
+    }
+    buffer.putLong(time).flip();
+
+    page.getMetadata().put(key, buffer);
+  }
+
+  /**
+   * @return the value in a human readable form, numbers and times are decoded by the type of the key
+   * */
+  public static String format(CharSequence key, ByteBuffer value) {
+    if (value == null) {
+      return null;
+    }
+
+    byte tag = getTag(value);
+    switch (getType(key)) {
+      case INT:
+        return tag == TAG_INT ? String.valueOf(value.getInt(value.position() + 1)) : toString(value);
+      case LONG:
+        return tag == TAG_LONG ? String.valueOf(value.getLong(value.position() + 1)) : toString(value);
+      case TIME:
+        return tag == TAG_LONG ? DateTimeUtil.solrCompatibleFormat(value.getLong(value.position() + 1)) : toString(value);
+      case TIME_HISTORY:
+        if (tag != TAG_LONGS) {
+          return toString(value);
+        }
+        StringBuilder sb = new StringBuilder();
+        for (int i = value.position() + 1; i + 8 <= value.limit(); i += 8) {
+          if (sb.length() > 0) {
+            sb.append(',');
+          }
+          sb.append(DateTimeUtil.solrCompatibleFormat(value.getLong(i)));
+        }
+        return sb.toString();
+      case FLOAT:
+        return value.remaining() < 4 ? toString(value) : String.valueOf(value.getFloat(value.position()));
+      default:
+        return toString(value);
+    }
+  }
+
+  private static byte getTag(ByteBuffer value) {
+    return value.remaining() == 0 ? 0 : value.get(value.position());
+  }
+
+  private static String toString(ByteBuffer value) {
+    return new String(value.array(), value.arrayOffset() + value.position(), value.remaining(), StandardCharsets.UTF_8);
+  }
+}
@@ -19,10 +19,10 @@ package org.apache.nutch.util;
 import com.google.common.collect.Maps;
 import org.apache.avro.util.Utf8;
 import org.apache.commons.lang3.StringUtils;
-import org.apache.hadoop.hbase.util.Bytes;
 import org.apache.nutch.crawl.filters.CrawlFilters;
 import org.apache.nutch.metadata.Metadata;
 import org.apache.nutch.metadata.Nutch;
+import org.apache.nutch.scoring.ScoreDatum;
 import org.apache.nutch.storage.Mark;
 import org.apache.nutch.storage.WebPage;
 
@@ -93,6 +93,13 @@ public class TableUtil {
     return buf.toString();
   }
 
+  /**
+   * The reversed url is computed only once for a parsed url
+   */
+  public static String reverseUrl(NutchUrl url) {
+    return url.getReversedUrl();
+  }
+
   public static String unreverseUrl(String reversedUrl) {
     StringBuilder buf = new StringBuilder(reversedUrl.length() + 2);
 
@@ -173,15 +180,26 @@ public class TableUtil {
   }
 
   public static boolean isSeed(WebPage page) {
-    return hasMetadata(page, META_IS_SEED);
+    return PageMetadata.has(page, PageMetadata.IS_SEED);
   }
 
   public static boolean isFromSeed(WebPage page) {
-    return hasMetadata(page, META_FROM_SEED);
+    return PageMetadata.has(page, PageMetadata.FROM_SEED);
   }
 
   public static void markFromSeed(WebPage page) {
-    putMetadata(page, META_FROM_SEED, YES_STRING);
+    PageMetadata.putString(page, PageMetadata.FROM_SEED, YES_STRING);
+  }
+
+  /**
+   * An outlink datum of a seed page carries the seed mark to the row of the outlink
+   * */
+  public static boolean isFromSeed(ScoreDatum scoreDatum) {
+    return scoreDatum.getMeta(META_FROM_SEED) != null;
+  }
+
+  public static void markFromSeed(ScoreDatum scoreDatum) {
+    scoreDatum.setMeta(META_FROM_SEED, YES_STRING.getBytes());
   }
 
   public static int getDistance(WebPage page) {
@@ -240,12 +258,11 @@ public class TableUtil {
    * TODO : use a standalone field for page
    * */
   public static void setFetchPriority(WebPage page, int priority) {
-    TableUtil.putMetadata(page, META_FETCH_PRIORITY, String.valueOf(priority));
+    PageMetadata.putInt(page, PageMetadata.FETCH_PRIORITY, priority);
   }
 
   public static void setFetchPriorityIfAbsent(WebPage page, int priority) {
-    String s = TableUtil.getMetadata(page, META_FETCH_PRIORITY);
-    if (s == null) {
+    if (!PageMetadata.has(page, PageMetadata.FETCH_PRIORITY)) {
       setFetchPriority(page, priority);
     }
   }
@@ -255,70 +272,69 @@ public class TableUtil {
   }
 
   public static int getFetchPriority(WebPage page, int defaultPriority) {
-    String s = TableUtil.getMetadata(page, META_FETCH_PRIORITY);
-    return StringUtil.tryParseInt(s, defaultPriority);
+    return PageMetadata.getInt(page, PageMetadata.FETCH_PRIORITY, defaultPriority);
   }
 
   public static void setGenerateTime(WebPage page, long generateTime) {
-    putMetadata(page, META_GENERATE_TIME, String.valueOf(generateTime));
+    PageMetadata.putLong(page, PageMetadata.GENERATE_TIME, generateTime);
   }
 
   public static long getGenerateTime(WebPage page) {
-    String generateTimeStr = getMetadata(page, META_GENERATE_TIME);
-    return StringUtil.tryParseLong(generateTimeStr, -1);
+    return PageMetadata.getLong(page, PageMetadata.GENERATE_TIME, -1);
   }
 
   public static float getCash(WebPage page) {
-    ByteBuffer cashRaw = page.getMetadata().get(new Utf8(META_CASH_KEY));
-    float cash = 0.0f;
-    if (cashRaw != null) {
-      cash = Bytes.toFloat(cashRaw.array(), cashRaw.arrayOffset() + cashRaw.position());
-    }
-    return cash;
+    return PageMetadata.getFloat(page, PageMetadata.CASH, 0.0f);
   }
 
   public static void setCash(WebPage page, float cash) {
-    page.getMetadata().put(new Utf8(META_CASH_KEY), ByteBuffer.wrap(Bytes.toBytes(cash)));
+    PageMetadata.putFloat(page, PageMetadata.CASH, cash);
   }
 
+  /**
+   * The publish time is kept as a string only if it can not be parsed
+   * */
   public static void setPublishTime(WebPage page, String publishTime) {
-    putMetadata(page, META_PUBLISH_TIME, publishTime);
+    long time = DateTimeUtil.parseTime(publishTime);
+    if (time > 0) {
+      PageMetadata.putLong(page, PageMetadata.PUBLISH_TIME, time);
+    }
+    else {
+      PageMetadata.putString(page, PageMetadata.PUBLISH_TIME, publishTime);
+    }
   }
 
   public static void setPublishTime(WebPage page, Date publishTime) {
-    putMetadata(page, META_PUBLISH_TIME, DateTimeUtil.solrCompatibleFormat(publishTime));
+    PageMetadata.putLong(page, PageMetadata.PUBLISH_TIME, publishTime.getTime());
   }
 
   public static String getPublishTimeStr(WebPage page) {
-    return getMetadata(page, META_PUBLISH_TIME);
+    return PageMetadata.format(PageMetadata.PUBLISH_TIME, page.getMetadata().get(PageMetadata.PUBLISH_TIME));
   }
 
   public static long getPublishTime(WebPage page) {
-    String publishTimeStr = getPublishTimeStr(page);
-    return DateTimeUtil.parseTime(publishTimeStr);
+    return PageMetadata.getTime(page, PageMetadata.PUBLISH_TIME);
   }
 
   public static long getReferredPageCount(WebPage page) {
-    String referredPages = getMetadata(page, META_REFERRED_PAGES);
-    return StringUtil.tryParseLong(referredPages, 0);
+    return PageMetadata.getLong(page, PageMetadata.REFERRED_PAGES, 0);
   }
 
   public static void setReferredPageCount(WebPage page, long count) {
-    putMetadata(page, META_PUBLISH_TIME, String.valueOf(count));
+    PageMetadata.putLong(page, PageMetadata.REFERRED_PAGES, count);
   }
 
   public static void increaseReferredPageCount(WebPage page, long count) {
     long oldCount = getReferredPageCount(page);
-    putMetadata(page, META_PUBLISH_TIME, String.valueOf(oldCount + count));
+    setReferredPageCount(page, oldCount + count);
   }
 
   public static long getLatestReferredPublishTime(WebPage page) {
-    String publishTimeStr = getMetadata(page, META_LATEST_REFERRED_ARTICLE_PUBLISH_TIME);
-    return DateTimeUtil.parseTime(publishTimeStr);
+    return PageMetadata.getTime(page, PageMetadata.LATEST_REFERRED_ARTICLE_PUBLISH_TIME);
   }
 
   public static void setLatestReferredPublishTime(WebPage page, long publishTime) {
-    putMetadata(page, META_LATEST_REFERRED_ARTICLE_PUBLISH_TIME, DateTimeUtil.solrCompatibleFormat(publishTime));
+    PageMetadata.putLong(page, PageMetadata.LATEST_REFERRED_ARTICLE_PUBLISH_TIME, publishTime);
   }
 
   public static boolean updateLatestReferredPublishTime(WebPage page, long newPublishTime) {
@@ -332,56 +348,42 @@ public class TableUtil {
     return false;
   }
 
+  /**
+   * @return the comma separated fetch times, or defaultValue if the page is never fetched
+   * */
   public static String getFetchTimeHistory(WebPage page, String defaultValue) {
-    String s = TableUtil.getMetadata(page, Metadata.META_FETCH_TIME_HISTORY);
+    String s = PageMetadata.format(PageMetadata.FETCH_TIME_HISTORY, page.getMetadata().get(PageMetadata.FETCH_TIME_HISTORY));
     return s == null ? defaultValue : s;
   }
 
+  public static long[] getFetchTimes(WebPage page) {
+    return PageMetadata.getTimeHistory(page, PageMetadata.FETCH_TIME_HISTORY);
+  }
+
   public static void putFetchTimeHistory(WebPage page, long fetchTime) {
-    String fetchTimeHistory = TableUtil.getMetadata(page, Metadata.META_FETCH_TIME_HISTORY);
-    fetchTimeHistory = DateTimeUtil.constructTimeHistory(fetchTimeHistory, fetchTime, 10);
-    TableUtil.putMetadata(page, Metadata.META_FETCH_TIME_HISTORY, fetchTimeHistory);
+    PageMetadata.addTimeHistory(page, PageMetadata.FETCH_TIME_HISTORY, fetchTime, 10);
   }
 
   public static Date getFirstCrawlTime(WebPage page, Date defaultValue) {
-    Date firstCrawlTime = null;
-
-    String fetchTimeHistory = TableUtil.getFetchTimeHistory(page, "");
-    if (!fetchTimeHistory.isEmpty()) {
-      String[] times = fetchTimeHistory.split(",");
-      long time = DateTimeUtil.parseTime(times[0]);
-      if (time > 0) {
-        firstCrawlTime = new Date(time);
-      }
-    }
-
-    return firstCrawlTime == null ? defaultValue : firstCrawlTime;
+    long[] fetchTimes = getFetchTimes(page);
+    return fetchTimes.length > 0 && fetchTimes[0] > 0 ? new Date(fetchTimes[0]) : defaultValue;
   }
 
+  /**
+   * @return the comma separated index times, or defaultValue if the page is never indexed
+   * */
   public static String getIndexTimeHistory(WebPage page, String defaultValue) {
-    String s = TableUtil.getMetadata(page, Metadata.META_INDEX_TIME_HISTORY);
+    String s = PageMetadata.format(PageMetadata.INDEX_TIME_HISTORY, page.getMetadata().get(PageMetadata.INDEX_TIME_HISTORY));
     return s == null ? defaultValue : s;
   }
 
   public static void putIndexTimeHistory(WebPage page, long indexTime) {
-    String indexTimeHistory = TableUtil.getMetadata(page, Metadata.META_INDEX_TIME_HISTORY);
-    indexTimeHistory = DateTimeUtil.constructTimeHistory(indexTimeHistory, indexTime, 10);
-    TableUtil.putMetadata(page, Metadata.META_INDEX_TIME_HISTORY, indexTimeHistory);
+    PageMetadata.addTimeHistory(page, PageMetadata.INDEX_TIME_HISTORY, indexTime, 10);
   }
 
   public static Date getFirstIndexTime(WebPage page, Date defaultValue) {
-    Date firstIndexTime = null;
-
-    String indexTimeHistory = TableUtil.getIndexTimeHistory(page, "");
-    if (!indexTimeHistory.isEmpty()) {
-      String[] times = indexTimeHistory.split(",");
-      long time = DateTimeUtil.parseTime(times[0]);
-      if (time > 0) {
-        firstIndexTime = new Date(time);
-      }
-    }
-
-    return firstIndexTime == null ? defaultValue : firstIndexTime;
+    long[] indexTimes = PageMetadata.getTimeHistory(page, PageMetadata.INDEX_TIME_HISTORY);
+    return indexTimes.length > 0 && indexTimes[0] > 0 ? new Date(indexTimes[0]) : defaultValue;
   }
 
   public static void putMark(WebPage page, CharSequence key, CharSequence value) {
@@ -409,15 +411,12 @@ public class TableUtil {
   }
 
   public static void putMetadata(WebPage page, String key, String value) {
-    page.getMetadata().put(new Utf8(key), value == null ? null : ByteBuffer.wrap(value.getBytes()));
+    PageMetadata.putString(page, PageMetadata.key(key), value);
   }
 
   public static String getMetadata(WebPage page, String key) {
-    ByteBuffer bvalue = page.getMetadata().get(new Utf8(key));
-    if (bvalue == null) {
-      return null;
-    }
-    return Bytes.toString(bvalue.array());
+    Utf8 k = PageMetadata.key(key);
+    return PageMetadata.format(k, page.getMetadata().get(k));
   }
 
   public static String getMetadata(WebPage page, String key, String defaultValue) {
@@ -426,8 +425,7 @@ public class TableUtil {
   }
 
   public static boolean hasMetadata(WebPage page, String key) {
-    ByteBuffer bvalue = page.getMetadata().get(new Utf8(key));
-    return bvalue != null;
+    return PageMetadata.has(page, PageMetadata.key(key));
   }
 
   // But only delete when they exist. This is much faster for the underlying store
@@ -458,7 +456,7 @@ public class TableUtil {
     for (CharSequence key : page.getMetadata().keySet()) {
       ByteBuffer bvalues = page.getMetadata().get(key);
       if (bvalues != null) {
-        String value = Bytes.toString(bvalues.array());
+        String value = PageMetadata.format(key, bvalues);
         result.put(key.toString(), value);
 
         // String[] values = value.split("\t");
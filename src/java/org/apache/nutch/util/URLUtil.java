@@ -17,6 +17,7 @@
 
 package org.apache.nutch.util;
 
+import org.apache.nutch.net.CachingHostResolver;
 import org.apache.nutch.util.domain.DomainSuffix;
 import org.apache.nutch.util.domain.DomainSuffixes;
 import org.slf4j.Logger;
@@ -92,6 +93,28 @@ public class URLUtil {
 
   private static Pattern IP_PATTERN = Pattern.compile("(\\d{1,3}\\.){3}(\\d{1,3})");
 
+  /**
+   * Same as IP_PATTERN on host[0, end), without a matcher
+   * */
+  private static boolean isIPv4(String host, int end) {
+    int groups = 0;
+    int digits = 0;
+    for (int i = 0; i < end; ++i) {
+      char c = host.charAt(i);
+      if (c >= '0' && c <= '9') {
+        if (++digits > 3) {
+          return false;
+        }
+      } else if (c == '.' && digits > 0 && groups < 3) {
+        ++groups;
+        digits = 0;
+      } else {
+        return false;
+      }
+    }
+    return groups == 3 && digits > 0;
+  }
+
   public static URL getUrl(String url) {
     URL u = null;
 
@@ -124,6 +147,21 @@ public class URLUtil {
     return host == null ? defaultHost : host;
   }
 
+  /**
+   * The domain of the parsed url is computed only once
+   * */
+  public static String getHost(NutchUrl url, HostGroupMode hostGroupMode) {
+    if (url == null) {
+      return null;
+    }
+
+    if (hostGroupMode == HostGroupMode.BY_DOMAIN) {
+      return url.getDomain();
+    }
+
+    return getHost(url.getURL(), hostGroupMode);
+  }
+
   public static String getHost(URL url, HostGroupMode hostGroupMode) {
     if (url == null) {
       return null;
@@ -132,7 +170,7 @@ public class URLUtil {
     String host;
     if (hostGroupMode == HostGroupMode.BY_IP) {
       try {
-        final InetAddress addr = InetAddress.getByName(url.getHost());
+        final InetAddress addr = CachingHostResolver.getInstance().resolve(url.getHost());
         host = addr.getHostAddress();
       } catch (final UnknownHostException e) {
         // unable to resolve it, so don't fall back to host name
@@ -168,25 +206,13 @@ public class URLUtil {
    * <code> apache.org</code>
    * */
   public static String getDomainName(URL url) {
-    DomainSuffixes tlds = DomainSuffixes.getInstance();
     String host = url.getHost();
     // it seems that java returns hostnames ending with .
-    if (host.endsWith("."))
-      host = host.substring(0, host.length() - 1);
-    if (IP_PATTERN.matcher(host).matches())
-      return host;
-
-    int index = 0;
-    String candidate = host;
-    for (; index >= 0;) {
-      index = candidate.indexOf('.');
-      String subCandidate = candidate.substring(index + 1);
-      if (tlds.isDomainSuffix(subCandidate)) {
-        return candidate;
-      }
-      candidate = subCandidate;
-    }
-    return candidate;
+    int end = host.endsWith(".") ? host.length() - 1 : host.length();
+    if (isIPv4(host, end))
+      return host.substring(0, end);
+
+    return DomainSuffixes.getInstance().getDomainName(host, end);
   }
 
   /**
@@ -207,6 +233,10 @@ public class URLUtil {
     return getDomainName(new URL(url));
   }
 
+  public static String getDomainName(NutchUrl url) {
+    return url.getDomain();
+  }
+
   public static String getDomainName(String url, String defaultDomain) {
     String host = null;
 
@@ -248,23 +278,11 @@ public class URLUtil {
    * the hostname
    */
   public static DomainSuffix getDomainSuffix(URL url) {
-    DomainSuffixes tlds = DomainSuffixes.getInstance();
     String host = url.getHost();
-    if (IP_PATTERN.matcher(host).matches())
+    if (isIPv4(host, host.length()))
       return null;
 
-    int index = 0;
-    String candidate = host;
-    for (; index >= 0;) {
-      index = candidate.indexOf('.');
-      String subCandidate = candidate.substring(index + 1);
-      DomainSuffix d = tlds.get(subCandidate);
-      if (d != null) {
-        return d;
-      }
-      candidate = subCandidate;
-    }
-    return null;
+    return DomainSuffixes.getInstance().getLongestSuffix(host);
   }
 
   /**
@@ -18,6 +18,7 @@
 package org.apache.nutch.util.domain;
 
 import java.io.InputStream;
+import java.util.Arrays;
 import java.util.HashMap;
 
 import org.apache.hadoop.util.StringUtils;
@@ -36,6 +37,9 @@ public class DomainSuffixes {
 
   private HashMap<String, DomainSuffix> domains = new HashMap<String, DomainSuffix>();
 
+  /** The suffixes in a trie of their reversed characters, so a host is matched from right to left */
+  private final Node root = new Node();
+
   private static DomainSuffixes instance;
 
   /** private ctor */
@@ -64,6 +68,13 @@ public class DomainSuffixes {
 
   void addDomainSuffix(DomainSuffix tld) {
     domains.put(tld.getDomain(), tld);
+
+    String domain = tld.getDomain();
+    Node node = root;
+    for (int i = domain.length() - 1; i >= 0; --i) {
+      node = node.getOrAddChild(domain.charAt(i));
+    }
+    node.suffix = tld;
   }
 
   /** return whether the extension is a registered domain entry */
@@ -83,4 +94,92 @@ public class DomainSuffixes {
     return domains.get(extension);
   }
 
+  /**
+   * Returns the domain name of the host, which is the longest registered suffix following a dot,
+   * with one more label. If no such suffix is registered, the last label is returned.
+   * The host is scanned once from right to left, only the result is allocated.
+   *
+   * @param host
+   *          the host name
+   * @param end
+   *          the end of the host name, exclusive, so a trailing dot can be skipped
+   */
+  public String getDomainName(String host, int end) {
+    int suffixStart = -1;
+    Node node = root;
+    for (int i = end - 1; i >= 0 && node != null; --i) {
+      char c = host.charAt(i);
+      if (c == '.' && node.suffix != null) {
+        suffixStart = i + 1;
+      }
+      node = node.getChild(c);
+    }
+
+    int begin;
+    if (suffixStart > 0) {
+      // suffixStart - 1 is the dot before the suffix
+      begin = suffixStart >= 2 ? host.lastIndexOf('.', suffixStart - 2) + 1 : 0;
+    } else {
+      begin = host.lastIndexOf('.', end - 1) + 1;
+    }
+
+    return host.substring(begin, end);
+  }
+
+  /**
+   * Return the longest registered suffix of the host following a dot, a host without any dot
+   * is a suffix candidate itself
+   *
+   * @return the suffix, or null if no suffix is registered
+   */
+  public DomainSuffix getLongestSuffix(String host) {
+    DomainSuffix longest = null;
+    Node node = root;
+    int i = host.length() - 1;
+    for (; i >= 0 && node != null; --i) {
+      char c = host.charAt(i);
+      if (c == '.' && node.suffix != null) {
+        longest = node.suffix;
+      }
+      node = node.getChild(c);
+    }
+
+    if (i < 0 && node != null && node.suffix != null && host.indexOf('.') < 0) {
+      longest = node.suffix;
+    }
+
+    return longest;
+  }
+
+  private static class Node {
+    private static final char[] NO_KEYS = new char[0];
+    private static final Node[] NO_CHILDREN = new Node[0];
+
+    /** Few characters follow each other in domain suffixes, so the children are scanned linearly */
+    char[] keys = NO_KEYS;
+    Node[] children = NO_CHILDREN;
+    DomainSuffix suffix;
+
+    Node getChild(char c) {
+      for (int i = 0; i < keys.length; ++i) {
+        if (keys[i] == c) {
+          return children[i];
+        }
+      }
+      return null;
+    }
+
+    Node getOrAddChild(char c) {
+      Node child = getChild(c);
+      if (child == null) {
+        child = new Node();
+        keys = Arrays.copyOf(keys, keys.length + 1);
+        children = Arrays.copyOf(children, children.length + 1);
+        keys[keys.length - 1] = c;
+        children[children.length - 1] = child;
+      }
+      return child;
+    }
+  }
+
 }
@@ -0,0 +1,245 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nutch.indexwriter.elastic;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.apache.nutch.util.Params;
+import org.elasticsearch.ExceptionsHelper;
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.action.bulk.BulkItemResponse;
+import org.elasticsearch.action.bulk.BulkRequest;
+import org.elasticsearch.action.bulk.BulkResponse;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.common.util.concurrent.EsRejectedExecutionException;
+import org.elasticsearch.rest.RestStatus;
+import org.slf4j.Logger;
+
+import java.io.IOException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Executes bulk requests in background.
+ *
+ * At most maxInFlight bulks are executed at the same time, {@link #send(BulkRequest, String)} blocks
+ * until a bulk finishes if there are already maxInFlight ones, so the index threads slow down to the speed
+ * elasticsearch accepts the documents.
+ *
+ * Items rejected because the bulk queue of the cluster is full are sent again after a backoff, doubled
+ * on every retry, other items are not retried. A failed item does not fail the caller immediately,
+ * the failure is thrown by the next call of {@link #send(BulkRequest, String)} or {@link #flush()}.
+ * */
+public class ElasticBulkPipeline implements AutoCloseable {
+
+  public static final Logger LOG = ElasticIndexWriter.LOG;
+
+  private final Client client;
+  private final int maxInFlight;
+  private final int maxRetries;
+  private final long backoffMillis;
+  private final Semaphore inFlightBulks;
+  private final ScheduledExecutorService retryExecutor;
+
+  private final AtomicReference<Throwable> failure = new AtomicReference<>();
+
+  private final AtomicLong bulks = new AtomicLong(0);
+  private final AtomicLong docs = new AtomicLong(0);
+  private final AtomicLong bytes = new AtomicLong(0);
+  private final AtomicLong retries = new AtomicLong(0);
+  private final AtomicLong failedItems = new AtomicLong(0);
+  private final AtomicLong totalLatency = new AtomicLong(0);
+  private final AtomicLong maxLatency = new AtomicLong(0);
+  /** Bulks being executed or waiting for a retry, and bulks waiting to be sent */
+  private final AtomicInteger queueDepth = new AtomicInteger(0);
+  private final AtomicInteger maxQueueDepth = new AtomicInteger(0);
+
+  /**
+   * @param maxInFlight the max number of bulks executed at the same time
+   * @param maxRetries the max number of times a rejected item is sent again
+   * @param backoffMillis the delay before the first retry
+   * */
+  public ElasticBulkPipeline(Client client, int maxInFlight, int maxRetries, long backoffMillis) {
+    this.client = client;
+    this.maxInFlight = Math.max(1, maxInFlight);
+    this.maxRetries = Math.max(0, maxRetries);
+    this.backoffMillis = Math.max(0, backoffMillis);
+    this.inFlightBulks = new Semaphore(this.maxInFlight);
+    this.retryExecutor = Executors.newSingleThreadScheduledExecutor(
+        new ThreadFactoryBuilder().setNameFormat("elastic-bulk-retry-%d").setDaemon(true).build());
+  }
+
+  /**
+   * Execute the bulk in background, blocks if there are too many bulks in flight.
+   * The bulk must not be modified after sent
+   *
+   * @param message the message logged when the bulk is done
+   * */
+  public void send(BulkRequest bulk, String message) throws IOException {
+    checkFailure();
+
+    if (bulk.numberOfActions() == 0) {
+      return;
+    }
+
+    maxQueueDepth.accumulateAndGet(queueDepth.incrementAndGet(), Math::max);
+    try {
+      inFlightBulks.acquire();
+    } catch (InterruptedException e) {
+      queueDepth.decrementAndGet();
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted when waiting to send a bulk", e);
+    }
+
+    docs.addAndGet(bulk.numberOfActions());
+    bytes.addAndGet(bulk.estimatedSizeInBytes());
+    execute(bulk, message, 0, System.currentTimeMillis());
+  }
+
+  /**
+   * Wait for all the bulks sent, including the retries
+   * */
+  public void flush() throws IOException {
+    try {
+      inFlightBulks.acquire(maxInFlight);
+      inFlightBulks.release(maxInFlight);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted when waiting for bulks", e);
+    }
+
+    checkFailure();
+  }
+
+  public Params getParams() {
+    long count = bulks.get();
+    return Params.of(
+        "bulks", count,
+        "docs", docs.get(),
+        "bytes", bytes.get(),
+        "retries", retries.get(),
+        "failedItems", failedItems.get(),
+        "avgLatency(ms)", count == 0 ? 0 : totalLatency.get() / count,
+        "maxLatency(ms)", maxLatency.get(),
+        "queueDepth", queueDepth.get(),
+        "maxQueueDepth", maxQueueDepth.get(),
+        "maxInFlight", maxInFlight
+    );
+  }
+
+  @Override
+  public void close() throws IOException {
+    try {
+      flush();
+    } finally {
+      retryExecutor.shutdownNow();
+    }
+  }
+
+  private void execute(BulkRequest bulk, String message, int attempt, long startTime) {
+    try {
+      client.bulk(bulk, new ActionListener<BulkResponse>() {
+        @Override
+        public void onResponse(BulkResponse response) {
+          onBulkResponse(bulk, response, message, attempt, startTime);
+        }
+
+        @Override
+        public void onFailure(Throwable e) {
+          onBulkFailure(bulk, e, message, attempt, startTime);
+        }
+      });
+    } catch (RuntimeException e) {
+      onBulkFailure(bulk, e, message, attempt, startTime);
+    }
+  }
+
+  private void onBulkResponse(BulkRequest bulk, BulkResponse response, String message, int attempt, long startTime) {
+    if (!response.hasFailures()) {
+      onBulkFinished(message, startTime);
+      return;
+    }
+
+    BulkRequest rejected = new BulkRequest();
+    for (BulkItemResponse item : response) {
+      if (!item.isFailed()) {
+        continue;
+      }
+
+      if (attempt < maxRetries && item.getFailure().getStatus() == RestStatus.TOO_MANY_REQUESTS) {
+        rejected.add(bulk.requests().get(item.getItemId()));
+      } else {
+        failedItems.incrementAndGet();
+        failure.compareAndSet(null, new IOException("Failed to index " + item.getId() + " : " + item.getFailureMessage()));
+      }
+    }
+
+    if (rejected.numberOfActions() > 0) {
+      retry(rejected, message, attempt, startTime);
+    } else {
+      LOG.error(message + ", " + response.buildFailureMessage());
+      onBulkFinished(message, startTime);
+    }
+  }
+
+  private void onBulkFailure(BulkRequest bulk, Throwable e, String message, int attempt, long startTime) {
+    if (attempt < maxRetries && ExceptionsHelper.unwrapCause(e) instanceof EsRejectedExecutionException) {
+      retry(bulk, message, attempt, startTime);
+      return;
+    }
+
+    failedItems.addAndGet(bulk.numberOfActions());
+    failure.compareAndSet(null, e);
+    LOG.error("Failed to execute bulk, " + message + ", " + e.toString());
+    onBulkFinished(message, startTime);
+  }
+
+  private void retry(BulkRequest bulk, String message, int attempt, long startTime) {
+    long delay = backoffMillis << Math.min(attempt, 16);
+    retries.incrementAndGet();
+    LOG.info(String.format("%d items are rejected, retry in %dms, attempt %d, %s",
+        bulk.numberOfActions(), delay, attempt + 1, message));
+
+    try {
+      retryExecutor.schedule(() -> execute(bulk, message, attempt + 1, startTime), delay, TimeUnit.MILLISECONDS);
+    } catch (RuntimeException e) {
+      onBulkFailure(bulk, e, message, maxRetries, startTime);
+    }
+  }
+
+  private void onBulkFinished(String message, long startTime) {
+    long latency = System.currentTimeMillis() - startTime;
+    bulks.incrementAndGet();
+    totalLatency.addAndGet(latency);
+    maxLatency.accumulateAndGet(latency, Math::max);
+    LOG.info(message + " in " + latency + "ms");
+
+    queueDepth.decrementAndGet();
+    inFlightBulks.release();
+  }
+
+  private void checkFailure() throws IOException {
+    Throwable e = failure.getAndSet(null);
+    if (e != null) {
+      throw e instanceof IOException ? (IOException) e : new IOException(e);
+    }
+  }
+}
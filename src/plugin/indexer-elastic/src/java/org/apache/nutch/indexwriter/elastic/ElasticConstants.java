@@ -25,4 +25,7 @@ public interface ElasticConstants {
   public static final String INDEX = ELASTIC_PREFIX + "index";
   public static final String MAX_BULK_DOCS = ELASTIC_PREFIX + "max.bulk.docs";
   public static final String MAX_BULK_LENGTH = ELASTIC_PREFIX + "max.bulk.size";
+  public static final String MAX_BULK_INFLIGHT = ELASTIC_PREFIX + "max.bulk.inflight";
+  public static final String MAX_BULK_RETRIES = ELASTIC_PREFIX + "max.bulk.retries";
+  public static final String BULK_RETRY_BACKOFF = ELASTIC_PREFIX + "bulk.retry.backoff";
 }
\ No newline at end of file
@@ -30,12 +30,9 @@ import org.apache.hadoop.mapred.JobConf;
 import org.apache.nutch.indexer.IndexWriter;
 import org.apache.nutch.indexer.IndexDocument;
 import org.elasticsearch.ElasticsearchException;
-import org.elasticsearch.action.ListenableActionFuture;
-import org.elasticsearch.action.bulk.BulkItemResponse;
-import org.elasticsearch.action.bulk.BulkRequestBuilder;
-import org.elasticsearch.action.bulk.BulkResponse;
-import org.elasticsearch.action.delete.DeleteRequestBuilder;
-import org.elasticsearch.action.index.IndexRequestBuilder;
+import org.elasticsearch.action.bulk.BulkRequest;
+import org.elasticsearch.action.delete.DeleteRequest;
+import org.elasticsearch.action.index.IndexRequest;
 import org.elasticsearch.client.Client;
 import org.elasticsearch.client.transport.TransportClient;
 import org.elasticsearch.common.settings.ImmutableSettings;
@@ -53,6 +50,9 @@ public class ElasticIndexWriter implements IndexWriter {
 
   private static final int DEFAULT_MAX_BULK_DOCS = 250;
   private static final int DEFAULT_MAX_BULK_LENGTH = 2500500;
+  private static final int DEFAULT_MAX_BULK_INFLIGHT = 2;
+  private static final int DEFAULT_MAX_BULK_RETRIES = 3;
+  private static final long DEFAULT_BULK_RETRY_BACKOFF = 500;
 
   private Client client;
   private Node node;
@@ -60,17 +60,14 @@ public class ElasticIndexWriter implements IndexWriter {
 
   private Configuration config;
 
-  private BulkRequestBuilder bulk;
-  private ListenableActionFuture<BulkResponse> execute;
+  private BulkRequest bulk;
+  private ElasticBulkPipeline pipeline;
   private int port = -1;
   private String host = null;
   private String clusterName = null;
   private int maxBulkDocs;
   private int maxBulkLength;
   private long indexedDocs = 0;
-  private int bulkDocs = 0;
-  private int bulkLength = 0;
-  private boolean createNewBulk = false;
 
   @Override
   public void open(JobConf job, String name) throws IOException {
@@ -113,12 +110,16 @@ public class ElasticIndexWriter implements IndexWriter {
       client = node.client();
     }
 
-    bulk = client.prepareBulk();
+    bulk = new BulkRequest();
     defaultIndex = job.get(ElasticConstants.INDEX, "nutch");
     maxBulkDocs = job.getInt(ElasticConstants.MAX_BULK_DOCS,
         DEFAULT_MAX_BULK_DOCS);
     maxBulkLength = job.getInt(ElasticConstants.MAX_BULK_LENGTH,
         DEFAULT_MAX_BULK_LENGTH);
+    pipeline = new ElasticBulkPipeline(client,
+        job.getInt(ElasticConstants.MAX_BULK_INFLIGHT, DEFAULT_MAX_BULK_INFLIGHT),
+        job.getInt(ElasticConstants.MAX_BULK_RETRIES, DEFAULT_MAX_BULK_RETRIES),
+        job.getLong(ElasticConstants.BULK_RETRY_BACKOFF, DEFAULT_BULK_RETRY_BACKOFF));
   }
 
   @Override
@@ -127,51 +128,30 @@ public class ElasticIndexWriter implements IndexWriter {
     String type = doc.getDocumentMeta().get("type");
     if (type == null)
       type = "doc";
-    IndexRequestBuilder request = client.prepareIndex(defaultIndex, type, id);
 
     Map<String, Object> source = new HashMap<String, Object>();
-
-    // Loop through all fields of this doc
     for (String fieldName : doc.getFieldNames()) {
-      if (doc.getField(fieldName).getValues().size() > 1) {
-        source.put(fieldName, doc.getFieldValue(fieldName));
-        // Loop through the values to keep track of the size of this
-        // document
-        for (Object value : doc.getField(fieldName).getValues()) {
-          bulkLength += value.toString().length();
-        }
-      } else {
-        source.put(fieldName, doc.getFieldValue(fieldName));
-        bulkLength += doc.getFieldValue(fieldName).toString().length();
-      }
+      source.put(fieldName, doc.getFieldValue(fieldName));
     }
-    request.setSource(source);
-
-    // Add this indexing request to a bulk request
-    bulk.add(request);
-    indexedDocs++;
-    bulkDocs++;
-
-    if (bulkDocs >= maxBulkDocs || bulkLength >= maxBulkLength) {
-      LOG.info("Processing bulk request [docs = " + bulkDocs + ", length = "
-          + bulkLength + ", total docs = " + indexedDocs
-          + ", last doc in bulk = '" + id + "']");
-      // Flush the bulk of indexing requests
-      createNewBulk = true;
-      commit();
+
+    // The source is serialized here, the bulk size is the exact length of the serialized sources
+    IndexRequest request = new IndexRequest(defaultIndex, type, id).source(source);
+
+    synchronized (this) {
+      bulk.add(request);
+      indexedDocs++;
+
+      if (bulk.numberOfActions() >= maxBulkDocs || bulk.estimatedSizeInBytes() >= maxBulkLength) {
+        push("last doc in bulk = '" + id + "'");
+      }
     }
   }
 
   @Override
-  public void delete(String key) throws IOException {
-    try {
-      DeleteRequestBuilder builder = client.prepareDelete();
-      builder.setIndex(defaultIndex);
-      builder.setType("doc");
-      builder.setId(key);
-      builder.execute().actionGet();
-    } catch (ElasticsearchException e) {
-      throw makeIOException(e);
+  public synchronized void delete(String key) throws IOException {
+    bulk.add(new DeleteRequest(defaultIndex, "doc", key));
+    if (bulk.numberOfActions() >= maxBulkDocs) {
+      push("last delete in bulk = '" + key + "'");
     }
   }
 
@@ -186,56 +166,42 @@ public class ElasticIndexWriter implements IndexWriter {
     write(doc);
   }
 
-  @Override
-  public void commit() throws IOException {
-    if (execute != null) {
-      // wait for previous to finish
-      long beforeWait = System.currentTimeMillis();
-      BulkResponse actionGet = execute.actionGet();
-      if (actionGet.hasFailures()) {
-        for (BulkItemResponse item : actionGet) {
-          if (item.isFailed()) {
-            throw new RuntimeException("First failure in bulk: "
-                + item.getFailureMessage());
-          }
-        }
-      }
-      long msWaited = System.currentTimeMillis() - beforeWait;
-      LOG.info("Previous took in ms " + actionGet.getTookInMillis()
-          + ", including wait " + msWaited);
-      execute = null;
-    }
-    if (bulk != null) {
-      if (bulkDocs > 0) {
-        // start a flush, note that this is an asynchronous call
-        execute = bulk.execute();
-      }
-      bulk = null;
-    }
-    if (createNewBulk) {
-      // Prepare a new bulk request
-      bulk = client.prepareBulk();
-      bulkDocs = 0;
-      bulkLength = 0;
+  /**
+   * Send the current bulk in background and start a new one
+   * */
+  private void push(String message) throws IOException {
+    if (bulk.numberOfActions() == 0) {
+      return;
     }
+
+    String bulkMessage = "Processed bulk request [docs = " + bulk.numberOfActions()
+        + ", length = " + bulk.estimatedSizeInBytes() + ", total docs = " + indexedDocs + ", " + message + "]";
+    BulkRequest sending = bulk;
+    bulk = new BulkRequest();
+    pipeline.send(sending, bulkMessage);
+  }
+
+  @Override
+  public synchronized void commit() throws IOException {
+    push("commit");
+    // Wait for all bulks in flight
+    pipeline.flush();
   }
 
   @Override
   public void close() throws IOException {
-    // Flush pending requests
-    LOG.info("Processing remaining requests [docs = " + bulkDocs
-        + ", length = " + bulkLength + ", total docs = " + indexedDocs + "]");
-    createNewBulk = false;
-    commit();
-    // flush one more time to finalize the last bulk
-    LOG.info("Processing to finalize last execute");
-    createNewBulk = false;
-    commit();
-
-    // Close
-    client.close();
-    if (node != null) {
-      node.close();
+    try {
+      // Flush pending requests
+      commit();
+    } finally {
+      pipeline.close();
+      LOG.info("Elastic bulks : " + pipeline.getParams().formatAsLine());
+
+      // Close
+      client.close();
+      if (node != null) {
+        node.close();
+      }
     }
   }
 
@@ -252,6 +218,12 @@ public class ElasticIndexWriter implements IndexWriter {
         .append(" : elastic bulk index doc counts. (default 250) \n");
     sb.append("\t").append(ElasticConstants.MAX_BULK_LENGTH)
         .append(" : elastic bulk index length. (default 2500500 ~2.5MB)\n");
+    sb.append("\t").append(ElasticConstants.MAX_BULK_INFLIGHT)
+        .append(" : elastic bulks executed at the same time. (default 2) \n");
+    sb.append("\t").append(ElasticConstants.MAX_BULK_RETRIES)
+        .append(" : retries of the items rejected by elastic. (default 3) \n");
+    sb.append("\t").append(ElasticConstants.BULK_RETRY_BACKOFF)
+        .append(" : delay in ms before the first retry, doubled on every retry. (default 500) \n");
     return sb.toString();
   }
 
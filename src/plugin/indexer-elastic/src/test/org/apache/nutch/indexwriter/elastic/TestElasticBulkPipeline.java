@@ -0,0 +1,165 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nutch.indexwriter.elastic;
+
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.action.ActionRequest;
+import org.elasticsearch.action.bulk.BulkItemResponse;
+import org.elasticsearch.action.bulk.BulkRequest;
+import org.elasticsearch.action.bulk.BulkResponse;
+import org.elasticsearch.action.index.IndexRequest;
+import org.elasticsearch.action.index.IndexResponse;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.rest.RestStatus;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.lang.reflect.Proxy;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests ElasticBulkPipeline with a fake client which executes bulks slowly in background
+ */
+public class TestElasticBulkPipeline {
+
+  private final AtomicInteger inFlight = new AtomicInteger();
+  private final AtomicInteger maxInFlight = new AtomicInteger();
+  private final AtomicInteger executedBulks = new AtomicInteger();
+  private final Map<String, AtomicInteger> attempts = new ConcurrentHashMap<>();
+
+  /**
+   * @param status the status of an item by its id and the number of times it is sent, null if it is indexed
+   * */
+  private Client newClient(Function<String, RestStatus> status) {
+    return (Client) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] {Client.class},
+        (proxy, method, args) -> {
+          if (!method.getName().equals("bulk")) {
+            return null;
+          }
+
+          BulkRequest bulk = (BulkRequest) args[0];
+          @SuppressWarnings("unchecked")
+          ActionListener<BulkResponse> listener = (ActionListener<BulkResponse>) args[1];
+          new Thread(() -> {
+            maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+            try {
+              Thread.sleep(50);
+            } catch (InterruptedException ignored) {
+            }
+            inFlight.decrementAndGet();
+            executedBulks.incrementAndGet();
+            listener.onResponse(execute(bulk, status));
+          }).start();
+          return null;
+        });
+  }
+
+  private BulkResponse execute(BulkRequest bulk, Function<String, RestStatus> status) {
+    BulkItemResponse[] items = new BulkItemResponse[bulk.numberOfActions()];
+    for (int i = 0; i < items.length; ++i) {
+      ActionRequest<?> request = bulk.requests().get(i);
+      String id = ((IndexRequest) request).id();
+      int attempt = attempts.computeIfAbsent(id, k -> new AtomicInteger()).incrementAndGet();
+      RestStatus s = status.apply(id + "#" + attempt);
+      if (s == null) {
+        items[i] = new BulkItemResponse(i, "index", new IndexResponse("nutch", "doc", id, 1, true));
+      } else {
+        items[i] = new BulkItemResponse(i, "index",
+            new BulkItemResponse.Failure("nutch", "doc", id, s.name(), s));
+      }
+    }
+    return new BulkResponse(items, 50);
+  }
+
+  private BulkRequest newBulk(String... ids) {
+    BulkRequest bulk = new BulkRequest();
+    for (String id : ids) {
+      bulk.add(new IndexRequest("nutch", "doc", id).source(Collections.singletonMap("id", id)));
+    }
+    return bulk;
+  }
+
+  @Test
+  public void testConcurrentBulks() throws Exception {
+    Client client = newClient(attempt -> null);
+
+    long startTime = System.currentTimeMillis();
+    try (ElasticBulkPipeline pipeline = new ElasticBulkPipeline(client, 3, 3, 10)) {
+      for (int i = 0; i < 9; ++i) {
+        pipeline.send(newBulk("a" + i, "b" + i), "Bulk " + i);
+      }
+      pipeline.flush();
+
+      assertEquals(9, executedBulks.get());
+      assertEquals(3, maxInFlight.get());
+      assertEquals("9", pipeline.getParams().get("bulks"));
+      assertEquals("18", pipeline.getParams().get("docs"));
+      assertEquals("0", pipeline.getParams().get("queueDepth"));
+    }
+    // 9 bulks of 50ms, 3 at a time
+    assertTrue(System.currentTimeMillis() - startTime < 9 * 50);
+  }
+
+  @Test
+  public void testRetryRejectedItems() throws Exception {
+    // "b" is rejected twice, "c" fails for a reason retries do not help
+    Client client = newClient(attempt -> {
+      if (attempt.equals("b#1") || attempt.equals("b#2")) {
+        return RestStatus.TOO_MANY_REQUESTS;
+      }
+      return attempt.startsWith("c#") ? RestStatus.BAD_REQUEST : null;
+    });
+
+    ElasticBulkPipeline pipeline = new ElasticBulkPipeline(client, 2, 3, 10);
+    pipeline.send(newBulk("a", "b", "c"), "Bulk");
+    try {
+      pipeline.flush();
+      fail("The failure is thrown by flush");
+    } catch (IOException e) {
+      assertTrue(e.getMessage().contains("c"));
+    }
+
+    // Only the rejected item is sent again
+    assertEquals(1, attempts.get("a").get());
+    assertEquals(3, attempts.get("b").get());
+    assertEquals(1, attempts.get("c").get());
+    assertEquals("2", pipeline.getParams().get("retries"));
+    assertEquals("1", pipeline.getParams().get("failedItems"));
+
+    pipeline.close();
+  }
+
+  @Test
+  public void testRetriesExhausted() throws Exception {
+    Client client = newClient(attempt -> RestStatus.TOO_MANY_REQUESTS);
+
+    ElasticBulkPipeline pipeline = new ElasticBulkPipeline(client, 1, 2, 1);
+    pipeline.send(newBulk("a"), "Bulk");
+    try {
+      pipeline.close();
+      fail("The failure is thrown by close");
+    } catch (IOException ignored) {
+    }
+    assertEquals(3, attempts.get("a").get());
+  }
+}
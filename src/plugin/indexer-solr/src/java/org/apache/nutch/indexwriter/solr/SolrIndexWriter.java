@@ -68,6 +68,10 @@ public class SolrIndexWriter implements IndexWriter {
   private ModifiableSolrParams params;
 
   private int batchSize;
+  private int maxInFlight;
+  private int queueSize;
+  private SolrUpdatePipeline pipeline;
+  private boolean uncommitted = false;
   private int numDeletes = 0;
   private int totalAdds = 0;
   private int totalDeletes = 0;
@@ -87,14 +91,17 @@ public class SolrIndexWriter implements IndexWriter {
   }
 
   public void open(JobConf jobConf, String name) {
-    solrClients = SolrUtils.getSolrClients(solrUrls, zkHosts, collection);
+    open(jobConf);
   }
 
   public void open(Configuration jobConf) {
     solrClients = SolrUtils.getSolrClients(solrUrls, zkHosts, collection);
+    pipeline = new SolrUpdatePipeline(solrClients, maxInFlight, queueSize);
   }
 
-  public void deleteByQuery(String query) throws IOException {
+  public synchronized void deleteByQuery(String query) throws IOException {
+    pipeline.flush();
+
     try {
       LOG.info("SolrWriter: deleting " + query);
       for (SolrClient solrClient : solrClients) {
@@ -107,7 +114,7 @@ public class SolrIndexWriter implements IndexWriter {
   }
 
   @Override
-  public void delete(String key) throws IOException {
+  public synchronized void delete(String key) throws IOException {
     try {
       key = URLDecoder.decode(key, "UTF8");
     } catch (UnsupportedEncodingException e) {
@@ -167,11 +174,14 @@ public class SolrIndexWriter implements IndexWriter {
     } // for
 
     inputDoc.setDocumentBoost(doc.getWeight());
-    inputDocs.add(inputDoc);
-    totalAdds++;
 
-    if (inputDocs.size() + numDeletes >= batchSize) {
-      push();
+    synchronized (this) {
+      inputDocs.add(inputDoc);
+      totalAdds++;
+
+      if (inputDocs.size() + numDeletes >= batchSize) {
+        push();
+      }
     }
 
     debugIndexDocTime(doc);
@@ -185,74 +195,71 @@ public class SolrIndexWriter implements IndexWriter {
   }
 
   @Override
-  public void close() throws IOException {
-    commit();
+  public synchronized void close() throws IOException {
+    try {
+      commit();
+    } finally {
+      pipeline.close();
+      LOG.info("Solr update batches : " + pipeline.getParams().formatAsLine());
 
-    for (SolrClient solrClient : solrClients) {
-      solrClient.close();
+      for (SolrClient solrClient : solrClients) {
+        solrClient.close();
+      }
     }
   }
 
   @Override
-  public void commit() throws IOException {
-    if (inputDocs.isEmpty()) {
+  public synchronized void commit() throws IOException {
+    push();
+    pipeline.flush();
+
+    if (!uncommitted) {
       return;
     }
 
-    push();
-
     try {
       for (SolrClient solrClient : solrClients) {
         solrClient.commit();
       }
+      uncommitted = false;
     } catch (SolrServerException e) {
       throw makeIOException(e);
     }
   }
 
-  public void push() throws IOException {
-    if (inputDocs.size() > 0) {
-      try {
-        String message = "Indexing " + inputDocs.size() + "/" + totalAdds + " documents";
-        if (numDeletes > 0) {
-          message += ", deleting " + numDeletes + " ones";
-        }
-        LOG.info(message);
-
-        numDeletes = 0;
+  /**
+   * Send the buffered documents and deletes in background, blocks if too many batches are not sent yet
+   * */
+  public synchronized void push() throws IOException {
+    if (inputDocs.isEmpty() && deleteIds.isEmpty()) {
+      return;
+    }
 
-        UpdateRequest req = new UpdateRequest();
-        req.add(inputDocs);
-        req.setAction(AbstractUpdateRequest.ACTION.OPTIMIZE, false, false);
-        req.setParams(params);
+    UpdateRequest req = new UpdateRequest();
+    String message = "Indexed " + inputDocs.size() + "/" + totalAdds + " documents";
 
-        for (SolrClient solrClient : solrClients) {
-          solrClient.request(req);
-        }
-      }
-      catch (SolrServerException e) {
-        LOG.error("Failed to write to solr " + e.toString());
-        throw makeIOException(e);
+    if (!inputDocs.isEmpty()) {
+      if (numDeletes > 0) {
+        message += ", deleting " + numDeletes + " ones";
       }
+      numDeletes = 0;
 
-      inputDocs.clear();
+      req.add(inputDocs);
+      req.setAction(AbstractUpdateRequest.ACTION.OPTIMIZE, false, false);
     }
 
-    if (deleteIds.size() > 0) {
-      try {
-        LOG.info("SolrIndexer: deleting "
-            + String.valueOf(deleteIds.size()) + "/" + String.valueOf(totalDeletes) + " documents");
+    if (!deleteIds.isEmpty()) {
+      message += ", deleted " + deleteIds.size() + "/" + totalDeletes + " documents";
+      req.deleteById(deleteIds);
+    }
+    req.setParams(params);
 
-        for (SolrClient solrClient : solrClients) {
-          solrClient.deleteById(deleteIds);
-        }
-      } catch (final SolrServerException e) {
-        LOG.error("Error deleting: " + deleteIds);
-        throw makeIOException(e);
-      }
+    // The request keeps its own copies of the documents and the ids
+    pipeline.send(req, message);
+    uncommitted = true;
 
-      deleteIds.clear();
-    }
+    inputDocs.clear();
+    deleteIds.clear();
   }
 
   public static IOException makeIOException(SolrServerException e) {
@@ -317,6 +324,8 @@ public class SolrIndexWriter implements IndexWriter {
     }
 
     batchSize = conf.getInt(SolrConstants.COMMIT_SIZE, 250);
+    maxInFlight = conf.getInt(SolrConstants.UPDATE_MAX_INFLIGHT, 2);
+    queueSize = conf.getInt(SolrConstants.UPDATE_QUEUE_SIZE, 4);
     delete = conf.getBoolean(IndexJob.INDEXER_DELETE, false);
     String paramString = conf.get(IndexJob.INDEXER_PARAMS);
 
@@ -340,6 +349,8 @@ public class SolrIndexWriter implements IndexWriter {
     LOG.info(Params.format(
         "className", this.getClass().getSimpleName(),
         "batchSize", batchSize,
+        "maxInFlight", maxInFlight,
+        "queueSize", queueSize,
         "delete", delete,
         "params", params,
         "solrUrls", Stream.of(solrUrls).collect(Collectors.joining(",")),
@@ -354,6 +365,8 @@ public class SolrIndexWriter implements IndexWriter {
     sb.append("\t").append(Nutch.PARAM_SOLR_ZK).append(" : URL of the Zookeeper quorum\n");
     sb.append("\t").append(Nutch.PARAM_SOLR_COLLECTION).append(" : SOLR collection\n");
     sb.append("\t").append(SolrConstants.COMMIT_SIZE).append(" : buffer size when sending to SOLR (default 1000)\n");
+    sb.append("\t").append(SolrConstants.UPDATE_MAX_INFLIGHT).append(" : max number of concurrent update requests (default 2)\n");
+    sb.append("\t").append(SolrConstants.UPDATE_QUEUE_SIZE).append(" : max number of batches waiting to be sent (default 4)\n");
     sb.append("\t").append(SolrConstants.MAPPING_FILE)
         .append(" : name of the mapping file for fields (default solrindex-mapping.xml)\n");
     sb.append("\t").append(SolrConstants.USE_AUTH).append(" : use authentication (default false)\n");
@@ -0,0 +1,173 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nutch.indexwriter.solr;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.apache.nutch.util.Params;
+import org.apache.solr.client.solrj.SolrClient;
+import org.apache.solr.client.solrj.SolrServerException;
+import org.apache.solr.client.solrj.request.UpdateRequest;
+import org.slf4j.Logger;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Sends update batches to all solr clients in background.
+ *
+ * A batch is sent to every client concurrently, at most maxInFlight requests are sent at the same time,
+ * and at most queueSize batches are waiting or being sent. {@link #send(UpdateRequest, String)} blocks
+ * when the queue is full, so the index threads slow down to the speed solr accepts the documents.
+ *
+ * A failed request does not fail the caller immediately, the failure is thrown by the next call
+ * of {@link #send(UpdateRequest, String)} or {@link #flush()}.
+ * */
+public class SolrUpdatePipeline implements AutoCloseable {
+
+  public static final Logger LOG = SolrIndexWriter.LOG;
+
+  private final List<SolrClient> solrClients;
+  private final int maxInFlight;
+  private final int queueSize;
+  private final ExecutorService executor;
+  private final Semaphore queuedBatches;
+
+  private final AtomicReference<Throwable> failure = new AtomicReference<>();
+
+  private final AtomicLong batches = new AtomicLong(0);
+  private final AtomicLong failedRequests = new AtomicLong(0);
+  private final AtomicLong totalLatency = new AtomicLong(0);
+  private final AtomicLong maxLatency = new AtomicLong(0);
+
+  /**
+   * @param maxInFlight the max number of requests sent at the same time
+   * @param queueSize the max number of batches waiting or being sent
+   * */
+  public SolrUpdatePipeline(List<SolrClient> solrClients, int maxInFlight, int queueSize) {
+    this.solrClients = solrClients;
+    this.maxInFlight = Math.max(1, maxInFlight);
+    this.queueSize = Math.max(1, queueSize);
+    this.executor = Executors.newFixedThreadPool(this.maxInFlight,
+        new ThreadFactoryBuilder().setNameFormat("solr-update-%d").setDaemon(true).build());
+    this.queuedBatches = new Semaphore(this.queueSize);
+  }
+
+  /**
+   * Send the batch to all solr clients in background, blocks if there are too many batches in the queue.
+   * The request must not be modified after sent
+   *
+   * @param message the message logged when the batch is sent
+   * */
+  public void send(UpdateRequest request, String message) throws IOException {
+    checkFailure();
+
+    try {
+      queuedBatches.acquire();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted when waiting to send a batch", e);
+    }
+
+    if (solrClients.isEmpty()) {
+      queuedBatches.release();
+      return;
+    }
+
+    long startTime = System.currentTimeMillis();
+    AtomicInteger pendingClients = new AtomicInteger(solrClients.size());
+
+    for (SolrClient solrClient : solrClients) {
+      executor.execute(() -> {
+        try {
+          solrClient.request(request);
+        } catch (SolrServerException | IOException | RuntimeException e) {
+          failedRequests.incrementAndGet();
+          failure.compareAndSet(null, e);
+          LOG.error("Failed to write to solr " + e.toString());
+        } finally {
+          if (pendingClients.decrementAndGet() == 0) {
+            onBatchFinished(message, System.currentTimeMillis() - startTime);
+          }
+        }
+      });
+    }
+  }
+
+  /**
+   * Wait for all the batches sent
+   * */
+  public void flush() throws IOException {
+    try {
+      queuedBatches.acquire(queueSize);
+      queuedBatches.release(queueSize);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted when waiting for batches", e);
+    }
+
+    checkFailure();
+  }
+
+  public Params getParams() {
+    long count = batches.get();
+    return Params.of(
+        "batches", count,
+        "failedRequests", failedRequests.get(),
+        "avgLatency(ms)", count == 0 ? 0 : totalLatency.get() / count,
+        "maxLatency(ms)", maxLatency.get(),
+        "maxInFlight", maxInFlight,
+        "queueSize", queueSize
+    );
+  }
+
+  @Override
+  public void close() throws IOException {
+    try {
+      flush();
+    } finally {
+      executor.shutdown();
+      try {
+        executor.awaitTermination(1, TimeUnit.MINUTES);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
+
+  private void onBatchFinished(String message, long latency) {
+    batches.incrementAndGet();
+    totalLatency.addAndGet(latency);
+    maxLatency.accumulateAndGet(latency, Math::max);
+    LOG.info(message + " in " + latency + "ms");
+
+    queuedBatches.release();
+  }
+
+  private void checkFailure() throws IOException {
+    Throwable e = failure.getAndSet(null);
+    if (e != null) {
+      throw e instanceof IOException ? (IOException) e : new IOException(e);
+    }
+  }
+}
@@ -22,6 +22,10 @@ public interface SolrConstants {
 
   String COMMIT_SIZE = SOLR_PREFIX + "commit.size";
 
+  String UPDATE_MAX_INFLIGHT = SOLR_PREFIX + "update.max.inflight";
+
+  String UPDATE_QUEUE_SIZE = SOLR_PREFIX + "update.queue.size";
+
   String MAPPING_FILE = SOLR_PREFIX + "mapping.file";
 
   String USE_AUTH = SOLR_PREFIX + "auth";
@@ -0,0 +1,112 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nutch.indexwriter.solr;
+
+import org.apache.solr.client.solrj.SolrClient;
+import org.apache.solr.client.solrj.SolrRequest;
+import org.apache.solr.client.solrj.SolrServerException;
+import org.apache.solr.client.solrj.request.UpdateRequest;
+import org.apache.solr.common.util.NamedList;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests SolrUpdatePipeline with slow solr clients
+ */
+public class TestSolrUpdatePipeline {
+
+  private static class SlowSolrClient extends SolrClient {
+    private final AtomicInteger inFlight;
+    private final AtomicInteger maxInFlight;
+    private final AtomicInteger requests = new AtomicInteger();
+    private volatile boolean fail = false;
+
+    SlowSolrClient(AtomicInteger inFlight, AtomicInteger maxInFlight) {
+      this.inFlight = inFlight;
+      this.maxInFlight = maxInFlight;
+    }
+
+    /** SolrClient declares the raw type, an override can not add the type argument */
+    @SuppressWarnings("rawtypes")
+    @Override
+    public NamedList<Object> request(SolrRequest request, String collection) throws SolrServerException, IOException {
+      maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+      try {
+        Thread.sleep(50);
+      } catch (InterruptedException ignored) {
+      } finally {
+        inFlight.decrementAndGet();
+      }
+
+      requests.incrementAndGet();
+      if (fail) {
+        throw new SolrServerException("Server is down");
+      }
+      return new NamedList<>();
+    }
+
+    @Override
+    public void close() {
+    }
+  }
+
+  @Test
+  public void testConcurrentSend() throws Exception {
+    AtomicInteger inFlight = new AtomicInteger();
+    AtomicInteger maxInFlight = new AtomicInteger();
+    SlowSolrClient client1 = new SlowSolrClient(inFlight, maxInFlight);
+    SlowSolrClient client2 = new SlowSolrClient(inFlight, maxInFlight);
+
+    try (SolrUpdatePipeline pipeline = new SolrUpdatePipeline(Arrays.asList(client1, client2), 4, 4)) {
+      for (int i = 0; i < 8; ++i) {
+        pipeline.send(new UpdateRequest(), "Batch " + i);
+      }
+      pipeline.flush();
+
+      assertEquals(8, client1.requests.get());
+      assertEquals(8, client2.requests.get());
+      // The requests overlap, but never more than the pipeline allows
+      assertTrue("Max in flight " + maxInFlight.get(), maxInFlight.get() > 1 && maxInFlight.get() <= 4);
+      assertEquals("8", pipeline.getParams().get("batches"));
+    }
+  }
+
+  @Test
+  public void testFailure() throws Exception {
+    SlowSolrClient client = new SlowSolrClient(new AtomicInteger(), new AtomicInteger());
+    client.fail = true;
+
+    SolrUpdatePipeline pipeline = new SolrUpdatePipeline(Arrays.asList(client), 1, 2);
+    pipeline.send(new UpdateRequest(), "Batch");
+    try {
+      pipeline.flush();
+      fail("The failure is thrown by flush");
+    } catch (IOException e) {
+      assertTrue(e.getCause() instanceof SolrServerException);
+    }
+
+    // The failure is thrown only once
+    client.fail = false;
+    pipeline.send(new UpdateRequest(), "Batch");
+    pipeline.close();
+  }
+}
@@ -33,6 +33,7 @@ import org.apache.nutch.net.proxy.ProxyPoolFactory;
 import org.apache.nutch.protocol.*;
 import org.apache.nutch.storage.ProtocolStatus;
 import org.apache.nutch.storage.WebPage;
+import org.apache.nutch.util.ContentDecoder;
 import org.apache.nutch.util.DeflateUtils;
 import org.apache.nutch.util.GZIPUtils;
 import org.apache.nutch.util.MimeUtil;
@@ -497,6 +498,31 @@ public abstract class HttpBase implements Protocol {
     return content;
   }
 
+  /**
+   * The content decoded by the decoder while the body is read
+   *
+   * @throws IOException if the body is not in the format of its content encoding
+   * */
+  public byte[] processDecoded(ContentDecoder decoder, URL url)
+      throws IOException {
+
+    byte[] content = decoder.toByteArray();
+
+    if (content == null)
+      throw new IOException("Failed to decode " + decoder.getEncoding() + " content");
+
+    if (LOGGER.isTraceEnabled()) {
+      if (decoder.getEncoding() == ContentDecoder.Encoding.IDENTITY) {
+        LOGGER.trace("fetched " + content.length + " bytes from " + url);
+      } else {
+        LOGGER.trace("fetched " + decoder.getEncodedLength()
+            + " bytes of compressed content (expanded to " + content.length
+            + " bytes) from " + url);
+      }
+    }
+    return content;
+  }
+
   protected static void main(HttpBase http, String[] args) throws Exception {
     @SuppressWarnings("unused")
     boolean verbose = false;
@@ -18,16 +18,19 @@
 package org.apache.nutch.protocol.http.api;
 
 import crawlercommons.robots.BaseRobotRules;
-import crawlercommons.robots.SimpleRobotRules;
 import org.apache.hadoop.conf.Configuration;
+import org.apache.nutch.net.protocols.HttpDateFormat;
 import org.apache.nutch.net.protocols.Response;
 import org.apache.nutch.protocol.Protocol;
+import org.apache.nutch.protocol.RobotRulesCache;
 import org.apache.nutch.protocol.RobotRulesParser;
 import org.apache.nutch.storage.WebPage;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.net.URL;
+import java.text.ParseException;
+import java.util.concurrent.TimeUnit;
 
 /**
  * This class is used for parsing robots for urls belonging to HTTP protocol. It
@@ -45,24 +48,17 @@ public class HttpRobotRulesParser extends RobotRulesParser {
 
   public HttpRobotRulesParser(Configuration conf) {
     super(conf);
+  }
+
+  @Override
+  public void setConf(Configuration conf) {
+    super.setConf(conf);
     allowForbidden = conf.getBoolean("http.robots.403.allow", false);
   }
 
   /** Compose unique key to store and access robot rules in cache for given URL */
   protected static String getCacheKey(URL url) {
-    String protocol = url.getProtocol().toLowerCase(); // normalize to lower
-                                                       // case
-    String host = url.getHost().toLowerCase(); // normalize to lower case
-    int port = url.getPort();
-    if (port == -1) {
-      port = url.getDefaultPort();
-    }
-    /*
-     * Robot rules apply only to host, protocol, and port where robots.txt is
-     * hosted (cf. NUTCH-1752). Consequently
-     */
-    String cacheKey = protocol + ":" + host + ":" + port;
-    return cacheKey;
+    return RobotRulesCache.getCacheKey(url);
   }
 
   /**
@@ -71,6 +67,10 @@ public class HttpRobotRulesParser extends RobotRulesParser {
    * port. If no rules are found in the cache, a HTTP request is send to fetch
    * {{protocol://host:port/robots.txt}}. The robots.txt is then parsed and the
    * rules are cached to avoid re-fetching and re-parsing it again.
+   *
+   * The rules are cached as long as the Cache-Control or Expires header of robots.txt tells, or for
+   * the default time if there is no such header. Failures, including 4xx and 5xx responses, are cached
+   * for the negative time to live, so a host which is down is not asked for robots.txt for every url.
    * 
    * @param http
    *          The {@link Protocol} object
@@ -82,12 +82,11 @@ public class HttpRobotRulesParser extends RobotRulesParser {
   public BaseRobotRules getRobotRulesSet(Protocol http, URL url) {
 
     String cacheKey = getCacheKey(url);
-    BaseRobotRules robotRules = (SimpleRobotRules) CACHE.get(cacheKey);
-
-    boolean cacheRule = true;
+    BaseRobotRules robotRules = cache.get(cacheKey);
 
     if (robotRules == null) { // cache miss
       URL redir = null;
+      long ttl = cache.getNegativeTtl();
       if (LOG.isTraceEnabled()) {
         LOG.trace("cache miss " + url);
       }
@@ -114,33 +113,67 @@ public class HttpRobotRulesParser extends RobotRulesParser {
           }
         }
 
-        if (response.getCode() == 200) // found rules: parse them
+        if (response.getCode() == 200) { // found rules: parse them
           robotRules = parseRules(url.toString(), response.getContent(),
               response.getHeader("Content-Type"), agentNames);
-
+          ttl = Math.max(RobotRulesCache.MIN_TTL, getTtl(response, cache.getTtl()));
+        }
         else if ((response.getCode() == 403) && (!allowForbidden))
           robotRules = FORBID_ALL_RULES; // use forbid all
-        else if (response.getCode() >= 500) {
-          cacheRule = false;
-          robotRules = EMPTY_RULES;
-        } else
+        else if (response.getCode() >= 400)
+          robotRules = EMPTY_RULES; // 4xx and 5xx, try again after the negative ttl
+        else {
           robotRules = EMPTY_RULES; // use default rules
+          ttl = cache.getTtl();
+        }
       } catch (Throwable t) {
         if (LOG.isInfoEnabled()) {
           LOG.info("Couldn't get robots.txt for " + url + ": " + t.toString());
         }
-        cacheRule = false;
         robotRules = EMPTY_RULES;
       }
 
-      if (cacheRule) {
-        CACHE.put(cacheKey, robotRules); // cache rules for host
-        if (redir != null && !redir.getHost().equalsIgnoreCase(url.getHost())) {
-          // cache also for the redirected host
-          CACHE.put(getCacheKey(redir), robotRules);
-        }
+      cache.put(cacheKey, robotRules, ttl); // cache rules for host
+      if (redir != null && !redir.getHost().equalsIgnoreCase(url.getHost())) {
+        // cache also for the redirected host
+        cache.put(getCacheKey(redir), robotRules, ttl);
       }
     }
     return robotRules;
   }
+
+  /**
+   * The time to live in milliseconds told by the Cache-Control or Expires header
+   *
+   * @return defaultTtl if there is no such header
+   * */
+  static long getTtl(Response response, long defaultTtl) {
+    String cacheControl = response.getHeader("Cache-Control");
+    if (cacheControl != null) {
+      for (String directive : cacheControl.split(",")) {
+        directive = directive.trim().toLowerCase();
+        if (directive.equals("no-cache") || directive.equals("no-store")) {
+          return 0;
+        }
+        if (directive.startsWith("max-age=")) {
+          try {
+            return TimeUnit.SECONDS.toMillis(Long.parseLong(directive.substring("max-age=".length()).trim()));
+          } catch (NumberFormatException ignored) {
+          }
+        }
+      }
+    }
+
+    String expires = response.getHeader("Expires");
+    if (expires != null) {
+      try {
+        return HttpDateFormat.toLong(expires) - System.currentTimeMillis();
+      } catch (ParseException e) {
+        // An invalid date means already expired
+        return 0;
+      }
+    }
+
+    return defaultTtl;
+  }
 }
@@ -17,11 +17,16 @@
 
 package org.apache.nutch.protocol.http.api;
 
+import org.apache.nutch.metadata.Metadata;
+import org.apache.nutch.net.protocols.HttpDateFormat;
+import org.apache.nutch.net.protocols.Response;
 import org.junit.Before;
 import org.junit.Test;
 
 import crawlercommons.robots.BaseRobotRules;
 
+import java.net.URL;
+
 import static org.junit.Assert.*;
 
 /**
@@ -123,4 +128,40 @@ public class TestRobotRulesParser {
     assertTrue("testing crawl delay for agent " + UNKNOWN_AGENT + " : ",
         (rules.getCrawlDelay() == Long.MIN_VALUE));
   }
+
+  /**
+   * Test that the time to live of the rules is told by the Cache-Control or
+   * Expires header, or is the default one
+   */
+  @Test
+  public void testTtl() {
+    long defaultTtl = 3600 * 1000L;
+
+    assertEquals(defaultTtl, HttpRobotRulesParser.getTtl(response(null, null), defaultTtl));
+    assertEquals(600 * 1000L, HttpRobotRulesParser.getTtl(response("public, max-age=600", null), defaultTtl));
+    assertEquals(0, HttpRobotRulesParser.getTtl(response("no-cache", null), defaultTtl));
+    assertEquals(0, HttpRobotRulesParser.getTtl(response(null, "invalid date"), defaultTtl));
+
+    long ttl = HttpRobotRulesParser.getTtl(
+        response(null, HttpDateFormat.toString(System.currentTimeMillis() + 7200 * 1000L)), defaultTtl);
+    assertTrue(ttl > 7100 * 1000L && ttl <= 7200 * 1000L);
+  }
+
+  private Response response(String cacheControl, String expires) {
+    Metadata headers = new Metadata();
+    if (cacheControl != null) {
+      headers.set("Cache-Control", cacheControl);
+    }
+    if (expires != null) {
+      headers.set("Expires", expires);
+    }
+
+    return new Response() {
+      public URL getUrl() { return null; }
+      public int getCode() { return 200; }
+      public String getHeader(String name) { return headers.get(name); }
+      public Metadata getHeaders() { return headers; }
+      public byte[] getContent() { return ROBOTS_STRING.getBytes(); }
+    };
+  }
 }
@@ -37,8 +37,9 @@ import org.w3c.dom.DOMException;
 import org.w3c.dom.DocumentFragment;
 import org.warps.scent.document.TextDocument;
 import org.warps.scent.extractors.ChineseNewsExtractor;
-import org.warps.scent.sax.SAXInput;
+import org.warps.scent.sax.HTMLContentHandler;
 import org.warps.scent.util.ProcessingException;
+import org.xml.sax.ContentHandler;
 import org.xml.sax.InputSource;
 import org.xml.sax.SAXException;
 
@@ -56,6 +57,15 @@ import java.util.HashSet;
 import static org.apache.nutch.crawl.filters.CrawlFilter.sniffPageCategoryByTextDensity;
 import static org.apache.nutch.metadata.Nutch.*;
 
+/**
+ * Html parser.
+ *
+ * A page is tokenized only once, the SAX events are delivered to both the DOM builder, which is used for
+ * meta tags and outlinks, and the boilerpipe text document builder, which is used by the content extractor.
+ *
+ * All per-document state, the DOM tree, meta tags and outlinks, lives on the stack of {@link #getParse},
+ * so a single instance can be shared by any number of parse threads.
+ */
 public class HtmlParser implements Parser {
 
   public static final Logger LOG = LoggerFactory.getLogger("org.apache.nutch.parse.html");
@@ -71,16 +81,12 @@ public class HtmlParser implements Parser {
   private String defaultCharEncoding;
   private Configuration conf;
   private RegexExtractor regexExtractor;
-  private EncodingDetector encodingDetector;
 
   private DOMContentUtils domContentUtils;
   private ParseFilters htmlParseFilters;
   private String cachingPolicy;
-
-  private DocumentFragment docRoot;
-
-  private HTMLMetaTags metaTags = new HTMLMetaTags();
-  private ArrayList<Outlink> outlinks = new ArrayList<>();
+  /** EncodingDetector collects clues for a single document, so every parse thread reuses its own one */
+  private ThreadLocal<EncodingDetector> encodingDetectors;
 
   public void setConf(Configuration conf) {
     this.conf = conf;
@@ -91,7 +97,7 @@ public class HtmlParser implements Parser {
     this.cachingPolicy = getConf().get("parser.caching.forbidden.policy", CACHING_FORBIDDEN_CONTENT);
     this.crawlFilters = CrawlFilters.create(conf);
     this.regexExtractor = new RegexExtractor(conf);
-    this.encodingDetector = new EncodingDetector(conf);
+    this.encodingDetectors = ThreadLocal.withInitial(() -> new EncodingDetector(conf));
 
     LOG.info(Params.formatAsLine(
         "className", this.getClass().getSimpleName(),
@@ -110,10 +116,11 @@ public class HtmlParser implements Parser {
     }
 
     InputSource input = getContentAsInputSource(page);
-    String encoding = encodingDetector.sniffEncoding(page);
+    String encoding = encodingDetectors.get().sniffEncoding(page);
     setEncoding(page, encoding);
     input.setEncoding(encoding);
-    docRoot = doParse(input);
+    HTMLContentHandler textHandler = new HTMLContentHandler();
+    DocumentFragment docRoot = doParse(input, textHandler);
 
     if (docRoot == null) {
       LOG.warn("Failed to parse document with encoding " + encoding + ", url : " + url);
@@ -121,20 +128,20 @@ public class HtmlParser implements Parser {
     }
 
     // Get meta directives
+    HTMLMetaTags metaTags = new HTMLMetaTags();
     HTMLMetaProcessor.getMetaTags(metaTags, docRoot, baseURL);
     setMetadata(page, metaTags);
 
     // Check meta directives
     if (!metaTags.getNoIndex()) { // okay to index
-      // Get input source, again. It's not reusable
-      InputSource input2 = getContentAsInputSource(page, encoding);
-      extractByScent(page, input2);
+      extractByScent(page, textHandler.toTextDocument());
     }
 
     String pageTitle = page.getTitle() != null ? page.getTitle().toString() : "";
     String textContent = page.getTemporaryVariableAsString(DOC_FIELD_TEXT_CONTENT, "");
 
-    tryGetValidOutlinks(page, url, baseURL, textContent);
+    ArrayList<Outlink> outlinks = new ArrayList<>();
+    tryGetValidOutlinks(page, url, baseURL, textContent, docRoot, metaTags, outlinks);
 
     ParseStatus status = getStatus(metaTags);
     Parse parse = new Parse(textContent, pageTitle, outlinks.toArray(new Outlink[0]), status);
@@ -151,9 +158,9 @@ public class HtmlParser implements Parser {
     return parse;
   }
 
-  private DocumentFragment doParse(InputSource input) {
+  private DocumentFragment doParse(InputSource input, HTMLContentHandler textHandler) {
     try {
-      return parse(input);
+      return parse(input, textHandler);
     } catch (SAXException|DOMException|IOException e) {
       LOG.error("Failed to parse, message : {}", e);
     } catch (Throwable e) {
@@ -163,12 +170,6 @@ public class HtmlParser implements Parser {
     return null;
   }
 
-  private InputSource getContentAsInputSource(WebPage page, String encoding) {
-    InputSource input = getContentAsInputSource(page);
-    input.setEncoding(encoding);
-    return input;
-  }
-
   private InputSource getContentAsInputSource(WebPage page) {
     ByteBuffer contentInOctets = page.getContent();
 
@@ -191,7 +192,8 @@ public class HtmlParser implements Parser {
     return status;
   }
 
-  private void tryGetValidOutlinks(WebPage page, String url, URL base, String text) {
+  private void tryGetValidOutlinks(WebPage page, String url, URL base, String text,
+                                   DocumentFragment docRoot, HTMLMetaTags metaTags, ArrayList<Outlink> outlinks) {
     // TODO : do it during iterate the nodes
     if (text == null || text.isEmpty() || !crawlFilters.testTextSatisfied(text)) {
       LOG.debug("Filtered by text content");
@@ -207,8 +209,6 @@ public class HtmlParser implements Parser {
     }
 
     if (!metaTags.getNoFollow()) { // okay to follow links
-      outlinks.clear();
-
       URL baseTag = domContentUtils.getBase(docRoot);
 
       domContentUtils.getOutlinks(baseTag != null ? baseTag : base, outlinks, docRoot, crawlFilters);
@@ -251,16 +251,10 @@ public class HtmlParser implements Parser {
     }
   }
 
-  private void extractByScent(WebPage page, InputSource input) {
+  private void extractByScent(WebPage page, TextDocument doc) {
     LOG.trace("Try extract by Scent");
 
-    if (page.getContent() == null) {
-      LOG.warn("Can not extract content, page content is null");
-      return;
-    }
-
     try {
-      TextDocument doc = new SAXInput(input).getTextDocument();
       doc.setBaseUrl(page.getBaseUrl().toString());
 
       ChineseNewsExtractor extractor = new ChineseNewsExtractor();
@@ -284,7 +278,7 @@ public class HtmlParser implements Parser {
         TableUtil.setPublishTime(page, publishTime);
       }
 
-    } catch (ProcessingException |SAXException e) {
+    } catch (ProcessingException e) {
       LOG.warn("Failed to extract text content by boilerpipe, " + e.getMessage());
     }
   }
@@ -298,63 +292,49 @@ public class HtmlParser implements Parser {
     return FIELDS;
   }
 
-  private DocumentFragment parse(InputSource input) throws Exception {
+  /**
+   * Parse the input into a DOM tree, and feed the same SAX events to textHandler if it's not null
+   * */
+  DocumentFragment parse(InputSource input, ContentHandler textHandler) throws Exception {
+    HTMLDocumentImpl doc = new HTMLDocumentImpl();
+    doc.setErrorChecking(false);
+    DocumentFragment frag = doc.createDocumentFragment();
+    DOMBuilder builder = new DOMBuilder(doc, frag);
+    TeeContentHandler handler = textHandler == null ? new TeeContentHandler(builder) : new TeeContentHandler(builder, textHandler);
+
     if (parserImpl.equalsIgnoreCase("tagsoup"))
-      return parseTagSoup(input);
+      parseTagSoup(input, handler);
     else
-      return parseNeko(input);
+      parseNeko(input, handler);
+
+    return frag;
   }
 
-  private DocumentFragment parseTagSoup(InputSource input) throws Exception {
-    HTMLDocumentImpl doc = new HTMLDocumentImpl();
-    DocumentFragment frag = doc.createDocumentFragment();
-    DOMBuilder builder = new DOMBuilder(doc, frag);
+  private void parseTagSoup(InputSource input, TeeContentHandler handler) throws Exception {
     org.ccil.cowan.tagsoup.Parser reader = new org.ccil.cowan.tagsoup.Parser();
-    reader.setContentHandler(builder);
+    reader.setContentHandler(handler);
     reader.setFeature(org.ccil.cowan.tagsoup.Parser.ignoreBogonsFeature, true);
     reader.setFeature(org.ccil.cowan.tagsoup.Parser.bogonsEmptyFeature, false);
-    reader.setProperty("http://xml.org/sax/properties/lexical-handler", builder);
+    reader.setProperty("http://xml.org/sax/properties/lexical-handler", handler);
     reader.parse(input);
-    return frag;
   }
 
-  private DocumentFragment parseNeko(InputSource input) throws Exception {
-    org.cyberneko.html.parsers.DOMFragmentParser parser = new org.cyberneko.html.parsers.DOMFragmentParser();
+  private void parseNeko(InputSource input, TeeContentHandler handler) throws Exception {
+    org.cyberneko.html.parsers.SAXParser parser = new org.cyberneko.html.parsers.SAXParser();
     try {
       parser.setFeature("http://cyberneko.org/html/features/scanner/allow-selfclosing-iframe", true);
-      parser.setFeature("http://cyberneko.org/html/features/augmentations", true);
       parser.setProperty("http://cyberneko.org/html/properties/default-encoding", defaultCharEncoding);
       parser.setFeature("http://cyberneko.org/html/features/scanner/ignore-specified-charset", true);
       parser.setFeature("http://cyberneko.org/html/features/balance-tags/ignore-outside-content", false);
-      parser.setFeature("http://cyberneko.org/html/features/balance-tags/document-fragment", true);
+      // The implied HTML and BODY elements are required by the text document builder
+      parser.setFeature("http://cyberneko.org/html/features/balance-tags/document-fragment", false);
       parser.setFeature("http://cyberneko.org/html/features/report-errors", LOG.isTraceEnabled());
     } catch (SAXException e) {
     }
 
-    // convert Document to DocumentFragment
-    HTMLDocumentImpl doc = new HTMLDocumentImpl();
-    doc.setErrorChecking(false);
-    DocumentFragment res = doc.createDocumentFragment();
-    DocumentFragment frag = doc.createDocumentFragment();
-    parser.parse(input, frag);
-    res.appendChild(frag);
-
-    try {
-      while (true) {
-        frag = doc.createDocumentFragment();
-        parser.parse(input, frag);
-        if (!frag.hasChildNodes())
-          break;
-        if (LOG.isInfoEnabled()) {
-          LOG.info(" - new frag, " + frag.getChildNodes().getLength() + " nodes.");
-        }
-        res.appendChild(frag);
-      }
-    } catch (Exception x) {
-      LOG.error("Failed with the following Exception: ", x);
-    }
-
-    return res;
+    parser.setContentHandler(handler);
+    parser.setProperty("http://xml.org/sax/properties/lexical-handler", handler);
+    parser.parse(input);
   }
 
   public static void main(String[] args) throws Exception {
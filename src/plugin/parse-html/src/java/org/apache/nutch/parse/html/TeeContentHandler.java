@@ -0,0 +1,177 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.nutch.parse.html;
+
+import org.xml.sax.Attributes;
+import org.xml.sax.ContentHandler;
+import org.xml.sax.Locator;
+import org.xml.sax.SAXException;
+import org.xml.sax.ext.LexicalHandler;
+
+import java.util.Arrays;
+
+/**
+ * Fans a single SAX event stream out to several handlers, so a document is tokenized once for all of them.
+ *
+ * Events are delivered to the handlers in the given order, lexical events are delivered only to the handlers
+ * which are also {@link LexicalHandler}s.
+ */
+public class TeeContentHandler implements ContentHandler, LexicalHandler {
+
+  private final ContentHandler[] handlers;
+  private final LexicalHandler[] lexicalHandlers;
+
+  public TeeContentHandler(ContentHandler... handlers) {
+    this.handlers = handlers;
+
+    int count = 0;
+    LexicalHandler[] lexical = new LexicalHandler[handlers.length];
+    for (ContentHandler handler : handlers) {
+      if (handler instanceof LexicalHandler) {
+        lexical[count++] = (LexicalHandler) handler;
+      }
+    }
+    this.lexicalHandlers = Arrays.copyOf(lexical, count);
+  }
+
+  @Override
+  public void setDocumentLocator(Locator locator) {
+    for (ContentHandler handler : handlers) {
+      handler.setDocumentLocator(locator);
+    }
+  }
+
+  @Override
+  public void startDocument() throws SAXException {
+    for (ContentHandler handler : handlers) {
+      handler.startDocument();
+    }
+  }
+
+  @Override
+  public void endDocument() throws SAXException {
+    for (ContentHandler handler : handlers) {
+      handler.endDocument();
+    }
+  }
+
+  @Override
+  public void startPrefixMapping(String prefix, String uri) throws SAXException {
+    for (ContentHandler handler : handlers) {
+      handler.startPrefixMapping(prefix, uri);
+    }
+  }
+
+  @Override
+  public void endPrefixMapping(String prefix) throws SAXException {
+    for (ContentHandler handler : handlers) {
+      handler.endPrefixMapping(prefix);
+    }
+  }
+
+  @Override
+  public void startElement(String uri, String localName, String qName, Attributes atts) throws SAXException {
+    for (ContentHandler handler : handlers) {
+      handler.startElement(uri, localName, qName, atts);
+    }
+  }
+
+  @Override
+  public void endElement(String uri, String localName, String qName) throws SAXException {
+    for (ContentHandler handler : handlers) {
+      handler.endElement(uri, localName, qName);
+    }
+  }
+
+  @Override
+  public void characters(char[] ch, int start, int length) throws SAXException {
+    for (ContentHandler handler : handlers) {
+      handler.characters(ch, start, length);
+    }
+  }
+
+  @Override
+  public void ignorableWhitespace(char[] ch, int start, int length) throws SAXException {
+    for (ContentHandler handler : handlers) {
+      handler.ignorableWhitespace(ch, start, length);
+    }
+  }
+
+  @Override
+  public void processingInstruction(String target, String data) throws SAXException {
+    for (ContentHandler handler : handlers) {
+      handler.processingInstruction(target, data);
+    }
+  }
+
+  @Override
+  public void skippedEntity(String name) throws SAXException {
+    for (ContentHandler handler : handlers) {
+      handler.skippedEntity(name);
+    }
+  }
+
+  @Override
+  public void startDTD(String name, String publicId, String systemId) throws SAXException {
+    for (LexicalHandler handler : lexicalHandlers) {
+      handler.startDTD(name, publicId, systemId);
+    }
+  }
+
+  @Override
+  public void endDTD() throws SAXException {
+    for (LexicalHandler handler : lexicalHandlers) {
+      handler.endDTD();
+    }
+  }
+
+  @Override
+  public void startEntity(String name) throws SAXException {
+    for (LexicalHandler handler : lexicalHandlers) {
+      handler.startEntity(name);
+    }
+  }
+
+  @Override
+  public void endEntity(String name) throws SAXException {
+    for (LexicalHandler handler : lexicalHandlers) {
+      handler.endEntity(name);
+    }
+  }
+
+  @Override
+  public void startCDATA() throws SAXException {
+    for (LexicalHandler handler : lexicalHandlers) {
+      handler.startCDATA();
+    }
+  }
+
+  @Override
+  public void endCDATA() throws SAXException {
+    for (LexicalHandler handler : lexicalHandlers) {
+      handler.endCDATA();
+    }
+  }
+
+  @Override
+  public void comment(char[] ch, int start, int length) throws SAXException {
+    for (LexicalHandler handler : lexicalHandlers) {
+      handler.comment(ch, start, length);
+    }
+  }
+}
@@ -28,11 +28,27 @@ import org.junit.Before;
 import org.junit.Test;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.w3c.dom.DocumentFragment;
+import org.warps.scent.document.TextDocument;
+import org.warps.scent.sax.HTMLContentHandler;
+import org.warps.scent.sax.SAXInput;
+import org.xml.sax.InputSource;
 
+import java.io.ByteArrayInputStream;
+import java.io.File;
 import java.nio.ByteBuffer;
 import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
 
 public class TestHtmlParser {
@@ -133,4 +149,129 @@ public class TestHtmlParser {
       }
     }
   }
+
+  /**
+   * A shared parser instance must produce the same result for every thread, and the throughput should
+   * grow with the number of threads since there is no lock on the parse path
+   * */
+  @Test
+  public void testConcurrentParse() throws Exception {
+    final int rounds = 200;
+    final byte[] contentBytes = encodingTestPages[0][2].getBytes(Charset.forName(encodingTestPages[0][1]));
+
+    long singleThreadNanos = parseRounds(1, rounds, contentBytes);
+    int threads = Math.max(2, Runtime.getRuntime().availableProcessors());
+    long multiThreadNanos = parseRounds(threads, rounds, contentBytes);
+
+    LOG.info(String.format("Parsed %d pages with 1 thread in %dms, %d pages with %d threads in %dms",
+        rounds, TimeUnit.NANOSECONDS.toMillis(singleThreadNanos),
+        rounds * threads, threads, TimeUnit.NANOSECONDS.toMillis(multiThreadNanos)));
+  }
+
+  private long parseRounds(int threads, final int rounds, final byte[] contentBytes) throws Exception {
+    ExecutorService executor = Executors.newFixedThreadPool(threads);
+    List<Future<?>> futures = new ArrayList<>();
+
+    long start = System.nanoTime();
+    for (int i = 0; i < threads; ++i) {
+      futures.add(executor.submit(() -> {
+        for (int j = 0; j < rounds; ++j) {
+          Parse parse = parse(page(contentBytes));
+          assertEquals(encodingTestKeywords, parse.getTitle());
+        }
+        return null;
+      }));
+    }
+
+    for (Future<?> future : futures) {
+      // rethrow assertion failures from worker threads
+      future.get();
+    }
+    long elapsed = System.nanoTime() - start;
+
+    executor.shutdown();
+    return elapsed;
+  }
+
+  /**
+   * The DOM tree and the text document are built from a single SAX event stream, compare it with
+   * parsing the page once for the DOM tree and once more for the text document.
+   * The corpus is the html files in the directory of "test.input" and some generated pages
+   * */
+  @Test
+  public void testSinglePassThroughput() throws Exception {
+    HtmlParser htmlParser = (HtmlParser) parser;
+    List<byte[]> corpus = loadCorpus();
+    final int rounds = 20;
+
+    for (byte[] content : corpus) {
+      HTMLContentHandler textHandler = new HTMLContentHandler();
+      DocumentFragment docRoot = htmlParser.parse(input(content), textHandler);
+      TextDocument singlePass = textHandler.toTextDocument();
+      TextDocument secondPass = new SAXInput(input(content)).getTextDocument();
+
+      assertNotNull(docRoot);
+      assertEquals(secondPass.getTextBlocks().size(), singlePass.getTextBlocks().size());
+      assertEquals(secondPass.getTextContent(), singlePass.getTextContent());
+    }
+
+    long twoPassNanos = 0;
+    long singlePassNanos = 0;
+    for (int i = 0; i < rounds; ++i) {
+      long start = System.nanoTime();
+      for (byte[] content : corpus) {
+        htmlParser.parse(input(content), null);
+        new SAXInput(input(content)).getTextDocument();
+      }
+      twoPassNanos += System.nanoTime() - start;
+
+      start = System.nanoTime();
+      for (byte[] content : corpus) {
+        HTMLContentHandler textHandler = new HTMLContentHandler();
+        htmlParser.parse(input(content), textHandler);
+        textHandler.toTextDocument();
+      }
+      singlePassNanos += System.nanoTime() - start;
+    }
+
+    long bytes = corpus.stream().mapToLong(content -> content.length).sum() * rounds;
+    LOG.info(String.format("Parsed %d pages, %d KB, two passes in %dms, single pass in %dms",
+        corpus.size() * rounds, bytes / 1024,
+        TimeUnit.NANOSECONDS.toMillis(twoPassNanos), TimeUnit.NANOSECONDS.toMillis(singlePassNanos)));
+  }
+
+  private InputSource input(byte[] content) {
+    InputSource input = new InputSource(new ByteArrayInputStream(content));
+    input.setEncoding("utf-8");
+    return input;
+  }
+
+  private List<byte[]> loadCorpus() throws Exception {
+    List<byte[]> corpus = new ArrayList<>();
+
+    File[] files = new File(System.getProperty("test.input", ".")).listFiles((dir, name) -> name.endsWith(".html"));
+    if (files != null) {
+      for (File file : files) {
+        corpus.add(Files.readAllBytes(file.toPath()));
+      }
+    }
+
+    for (int i = 0; i < 50; ++i) {
+      StringBuilder sb = new StringBuilder("<!DOCTYPE html>\n<html>\n<head><title>Page " + i + "</title>");
+      sb.append("<meta name=\"keywords\" content=\"").append(encodingTestKeywords).append("\"></head>\n<body>\n");
+      sb.append("<div class=\"nav\"><ul>");
+      for (int j = 0; j < 30; ++j) {
+        sb.append("<li><a href=\"/list/").append(j).append("\">Category ").append(j).append("</a></li>");
+      }
+      sb.append("</ul></div>\n<div class=\"article\"><h1>Article ").append(i).append("</h1>");
+      for (int j = 0; j < 20; ++j) {
+        sb.append("<p>Paragraph ").append(j).append(" of article ").append(i).append(", ").append(encodingTestKeywords)
+            .append(", <a href=\"/detail/").append(i * 100 + j).append(".html\">more</a></p>\n");
+      }
+      sb.append("</div>\n<script>var x = 1;</script></body>\n</html>");
+      corpus.add(sb.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    return corpus;
+  }
 }
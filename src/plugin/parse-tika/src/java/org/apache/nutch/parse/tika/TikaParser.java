@@ -176,7 +176,9 @@ public class TikaParser implements org.apache.nutch.parse.Parser {
       outlinks = OutlinkExtractor.getOutlinks(text, getConf());
     }
 
-    ParseStatus status = ParseStatusUtils.STATUS_SUCCESS;
+    // ParseStatusUtils.STATUS_SUCCESS is shared by all threads, never modify it
+    ParseStatus status = ParseStatus.newBuilder().build();
+    status.setMajorCode((int) ParseStatusCodes.SUCCESS);
     if (metaTags.getRefresh()) {
       status.setMinorCode((int) ParseStatusCodes.SUCCESS_REDIRECT);
       status.getArgs().add(new Utf8(metaTags.getRefreshHref().toString()));
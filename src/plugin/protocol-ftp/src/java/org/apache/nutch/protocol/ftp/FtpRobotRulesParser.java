@@ -18,11 +18,11 @@
 package org.apache.nutch.protocol.ftp;
 
 import crawlercommons.robots.BaseRobotRules;
-import crawlercommons.robots.SimpleRobotRules;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.nutch.protocol.Protocol;
 import org.apache.nutch.protocol.ProtocolOutput;
 import org.apache.nutch.protocol.ProtocolStatusCodes;
+import org.apache.nutch.protocol.RobotRulesCache;
 import org.apache.nutch.protocol.RobotRulesParser;
 import org.apache.nutch.storage.WebPage;
 import org.slf4j.Logger;
@@ -63,14 +63,10 @@ public class FtpRobotRulesParser extends RobotRulesParser {
    */
   public BaseRobotRules getRobotRulesSet(Protocol ftp, URL url) {
 
-    String protocol = url.getProtocol().toLowerCase(); // normalize to lower
-                                                       // case
-    String host = url.getHost().toLowerCase(); // normalize to lower case
+    String cacheKey = RobotRulesCache.getCacheKey(url);
+    BaseRobotRules robotRules = cache.get(cacheKey);
 
-    BaseRobotRules robotRules = (SimpleRobotRules) CACHE.get(protocol + ":"
-        + host);
-
-    boolean cacheRule = true;
+    long ttl = cache.getTtl();
 
     if (robotRules == null) { // cache miss
 
@@ -88,17 +84,17 @@ public class FtpRobotRulesParser extends RobotRulesParser {
               .getContent(), CONTENT_TYPE, agentNames);
         } else {
           robotRules = EMPTY_RULES; // use default rules
+          ttl = cache.getNegativeTtl();
         }
       } catch (Throwable t) {
         if (LOG.isInfoEnabled()) {
           LOG.info("Couldn't get robots.txt for " + url + ": " + t.toString());
         }
-        cacheRule = false;
         robotRules = EMPTY_RULES;
+        ttl = cache.getNegativeTtl();
       }
 
-      if (cacheRule)
-        CACHE.put(protocol + ":" + host, robotRules); // cache rules for host
+      cache.put(cacheKey, robotRules, ttl); // cache rules for host
     }
     return robotRules;
   }
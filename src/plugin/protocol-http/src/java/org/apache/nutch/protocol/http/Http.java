@@ -25,6 +25,8 @@ import java.util.HashSet;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.apache.hadoop.conf.Configuration;
+import org.apache.nutch.metadata.Nutch;
+import org.apache.nutch.net.CachingHostResolver;
 import org.apache.nutch.net.protocols.Response;
 import org.apache.nutch.net.proxy.NoProxyException;
 import org.apache.nutch.protocol.ProtocolException;
@@ -43,6 +45,11 @@ public class Http extends HttpBase {
     FIELDS.add(WebPage.Field.HEADERS);
   }
 
+  /** Idle persistent connections, only used when http.useHttp11 is enabled */
+  private HttpConnectionPool connectionPool = null;
+  /** Addresses are cached for dns.cache.ttl, instead of relying on the JVM dns cache */
+  private CachingHostResolver hostResolver = null;
+
   public Http() {
     super(LOG);
   }
@@ -50,6 +57,19 @@ public class Http extends HttpBase {
   @Override
   public void setConf(Configuration conf) {
     super.setConf(conf);
+
+    hostResolver = CachingHostResolver.getInstance(conf);
+
+    if (getUseHttp11()) {
+      // A fetch queue never runs more requests to one host than fetcher.threads.per.queue,
+      // so there is no need to keep more idle connections than that
+      int maxIdlePerHost = conf.getInt(Nutch.PARAM_FETCH_MAX_THREADS_PER_QUEUE, 1);
+      long idleTimeout = conf.getLong("http.keep.alive.timeout", 15000);
+      if (connectionPool != null) {
+        connectionPool.close();
+      }
+      connectionPool = new HttpConnectionPool(maxIdlePerHost, idleTimeout);
+    }
     // Level logLevel = Level.WARNING;
     // if (conf.getBoolean("http.verbose", false)) {
     // logLevel = Level.FINE;
@@ -75,6 +95,14 @@ public class Http extends HttpBase {
       return r;
   }
 
+  public HttpConnectionPool getConnectionPool() {
+    return connectionPool;
+  }
+
+  public CachingHostResolver getHostResolver() {
+    return hostResolver;
+  }
+
   public Collection<WebPage.Field> getFields() {
     return FIELDS;
   }
@@ -0,0 +1,184 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nutch.protocol.http;
+
+import java.io.IOException;
+import java.net.Socket;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps idle persistent connections, keyed by scheme, host and port, so that consecutive
+ * requests to the same host reuse the TCP connection and the TLS session.
+ *
+ * Idle connections are evicted lazily, there is no background thread.
+ */
+public class HttpConnectionPool {
+
+  private static class IdleConnection {
+    private final Socket socket;
+    private final long idleSince;
+
+    IdleConnection(Socket socket, long idleSince) {
+      this.socket = socket;
+      this.idleSince = idleSince;
+    }
+  }
+
+  private final Map<String, Deque<IdleConnection>> idleConnections = new ConcurrentHashMap<>();
+
+  /** At most so many idle connections are kept for each host */
+  private final int maxIdlePerHost;
+  /** Idle connections older than this are closed, in milliseconds */
+  private final long idleTimeout;
+
+  private final AtomicLong lastEvictTime = new AtomicLong(System.currentTimeMillis());
+
+  private final AtomicInteger reusedConnections = new AtomicInteger(0);
+  private final AtomicInteger evictedConnections = new AtomicInteger(0);
+
+  public HttpConnectionPool(int maxIdlePerHost, long idleTimeout) {
+    this.maxIdlePerHost = Math.max(1, maxIdlePerHost);
+    this.idleTimeout = idleTimeout;
+  }
+
+  public static String getKey(String scheme, String host, int port) {
+    return scheme + "://" + host + ":" + port;
+  }
+
+  /**
+   * Take an idle connection to the given host
+   * @return a connected socket, or null if there is no usable idle connection
+   * */
+  public Socket poll(String key) {
+    Deque<IdleConnection> connections = idleConnections.get(key);
+    if (connections == null) {
+      return null;
+    }
+
+    long now = System.currentTimeMillis();
+    while (true) {
+      IdleConnection connection;
+      synchronized (connections) {
+        // The most recently used connection is the most likely to be still alive
+        connection = connections.pollFirst();
+      }
+
+      if (connection == null) {
+        return null;
+      }
+
+      if (isUsable(connection, now)) {
+        reusedConnections.incrementAndGet();
+        return connection.socket;
+      }
+
+      close(connection.socket);
+      evictedConnections.incrementAndGet();
+    }
+  }
+
+  /**
+   * Return a connection whose last response was completely consumed
+   * */
+  public void offer(String key, Socket socket) {
+    long now = System.currentTimeMillis();
+
+    Deque<IdleConnection> connections = idleConnections.computeIfAbsent(key, k -> new ArrayDeque<>());
+    Socket overflow = null;
+    synchronized (connections) {
+      connections.addFirst(new IdleConnection(socket, now));
+      if (connections.size() > maxIdlePerHost) {
+        overflow = connections.pollLast().socket;
+      }
+    }
+
+    if (overflow != null) {
+      close(overflow);
+      evictedConnections.incrementAndGet();
+    }
+
+    long lastEvict = lastEvictTime.get();
+    if (now - lastEvict > idleTimeout && lastEvictTime.compareAndSet(lastEvict, now)) {
+      evictIdle(now);
+    }
+  }
+
+  /**
+   * Close all idle connections older than idleTimeout
+   * */
+  public void evictIdle(long now) {
+    for (Deque<IdleConnection> connections : idleConnections.values()) {
+      synchronized (connections) {
+        Iterator<IdleConnection> it = connections.iterator();
+        while (it.hasNext()) {
+          IdleConnection connection = it.next();
+          if (!isUsable(connection, now)) {
+            it.remove();
+            close(connection.socket);
+            evictedConnections.incrementAndGet();
+          }
+        }
+      }
+    }
+  }
+
+  public void close() {
+    for (Deque<IdleConnection> connections : idleConnections.values()) {
+      synchronized (connections) {
+        connections.forEach(c -> close(c.socket));
+        connections.clear();
+      }
+    }
+  }
+
+  public int getIdleCount() {
+    int count = 0;
+    for (Deque<IdleConnection> connections : idleConnections.values()) {
+      synchronized (connections) {
+        count += connections.size();
+      }
+    }
+    return count;
+  }
+
+  public int getReusedCount() {
+    return reusedConnections.get();
+  }
+
+  public int getEvictedCount() {
+    return evictedConnections.get();
+  }
+
+  private boolean isUsable(IdleConnection connection, long now) {
+    Socket socket = connection.socket;
+    return now - connection.idleSince < idleTimeout
+        && socket.isConnected() && !socket.isClosed() && !socket.isInputShutdown() && !socket.isOutputShutdown();
+  }
+
+  private void close(Socket socket) {
+    try {
+      socket.close();
+    } catch (IOException ignored) {
+    }
+  }
+}
@@ -27,15 +27,16 @@ import org.apache.nutch.net.protocols.Response;
 import org.apache.nutch.net.proxy.NoProxyException;
 import org.apache.nutch.net.proxy.ProxyEntry;
 import org.apache.nutch.protocol.ProtocolException;
-import org.apache.nutch.protocol.http.api.HttpBase;
 import org.apache.nutch.protocol.http.api.HttpException;
 import org.apache.nutch.storage.WebPage;
+import org.apache.nutch.util.ContentDecoder;
 
 import javax.net.ssl.SSLSocket;
 import javax.net.ssl.SSLSocketFactory;
 import java.io.*;
 import java.net.InetSocketAddress;
 import java.net.Socket;
+import java.net.SocketTimeoutException;
 import java.net.URL;
 import java.nio.ByteBuffer;
 import java.util.Arrays;
@@ -46,18 +47,22 @@ import java.util.Set;
 public class HttpResponse implements Response {
 
   private Configuration conf;
-  private final HttpBase http;
+  private final Http http;
   private final URL url;
   private ProxyEntry proxy = null;
   private byte[] content;
   private int code;
   private final Metadata headers = new SpellCheckedMetadata();
+  /** The status line says HTTP/1.1 */
+  private boolean http11Response = false;
+  /** The message body is read to its end, no bytes left on the wire */
+  private boolean bodyComplete = false;
 
   protected enum Scheme {
     HTTP, HTTPS,
   }
 
-  public HttpResponse(HttpBase http, URL url, WebPage page)
+  public HttpResponse(Http http, URL url, WebPage page)
       throws ProtocolException, IOException, InterruptedException, NoProxyException {
 
     this.http = http;
@@ -97,32 +102,87 @@ public class HttpResponse implements Response {
       port = url.getPort();
       portString = ":" + port;
     }
+    conf = http.getConf();
+
+    // connect
+    String sockHost = http.useProxy() ? http.getProxyHost() : host;
+    int sockPort = http.useProxy() ? http.getProxyPort() : port;
+    if (http.useProxyPool()) {
+      proxy = http.proxyPool().poll();
+      if (proxy == null) {
+        throw new NoProxyException("proxy pool exhausted");
+      }
+
+      sockHost = proxy.host();
+      sockPort = proxy.port();
+
+      String message = String.format("proxy : %s, available : %d, retired : %d, url : %s",
+          proxy.ipPort(), http.proxyPool().size(), http.proxyPool().retiredSize(), url);
+
+      Http.LOG.debug(message);
+    }
+
+    // Persistent connections are not used with the proxy pool, proxies are rotated per request
+    HttpConnectionPool connectionPool = http.useProxyPool() ? null : http.getConnectionPool();
+    String poolKey = HttpConnectionPool.getKey(url.getProtocol(), sockHost, sockPort);
+
     Socket socket = null;
     boolean fetchSuccess = false;
+    boolean keepAlive = false;
 
     try {
-      socket = new Socket(); // create the socket
-      socket.setSoTimeout(http.getTimeout());
+      socket = connectionPool != null ? connectionPool.poll(poolKey) : null;
+      if (socket != null) {
+        try {
+          keepAlive = request(socket, scheme, host, portString, path, page);
+        } catch (SocketTimeoutException e) {
+          throw e;
+        } catch (IOException e) {
+          // The server closed the idle connection, it's safe to send a GET again on a new connection
+          Http.LOG.debug("Stale persistent connection to {}, reconnect", poolKey);
+          closeQuietly(socket);
+          socket = null;
+          resetResponse();
+        }
+      }
+
+      if (socket == null) {
+        socket = connect(scheme, sockHost, sockPort);
+        keepAlive = request(socket, scheme, host, portString, path, page);
+      }
 
-      // connect
-      String sockHost = http.useProxy() ? http.getProxyHost() : host;
-      int sockPort = http.useProxy() ? http.getProxyPort() : port;
-      if (http.useProxyPool()) {
-        proxy = http.proxyPool().poll();
-        if (proxy == null) {
-          throw new NoProxyException("proxy pool exhausted");
+      fetchSuccess = true;
+    } finally {
+      if (socket != null) {
+        if (fetchSuccess && keepAlive && connectionPool != null) {
+          connectionPool.offer(poolKey, socket);
+        } else {
+          socket.close();
         }
+      }
 
-        sockHost = proxy.host();
-        sockPort = proxy.port();
+      if (http.useProxyPool() && proxy != null) {
+        // put back the proxy resource, this is essential important!
+        if (fetchSuccess) {
+          Http.LOG.debug("put back proxy {}", proxy.ipPort());
 
-        String message = String.format("proxy : %s, available : %d, retired : %d, url : %s",
-            proxy.ipPort(), http.proxyPool().size(), http.proxyPool().retiredSize(), url);
+          http.proxyPool().put(proxy);
+        } else {
+          Http.LOG.debug("retire proxy {}", proxy.ipPort());
 
-        Http.LOG.debug(message);
+          // the proxy may be usable later
+          http.proxyPool().retire(proxy);
+        }
       }
+    }
+  }
+
+  private Socket connect(Scheme scheme, String sockHost, int sockPort) throws IOException {
+    Socket socket = new Socket(); // create the socket
+    try {
+      socket.setSoTimeout(http.getTimeout());
 
-      InetSocketAddress sockAddr = new InetSocketAddress(sockHost, sockPort);
+      InetSocketAddress sockAddr = new InetSocketAddress(http.getHostResolver().resolve(sockHost), sockPort);
       // API notes : Connects this socket to the server with a specified timeout
       // value.
       // A timeout of zero is interpreted as an infinite timeout.
@@ -132,6 +192,8 @@ public class HttpResponse implements Response {
       socket.connect(sockAddr, http.getTimeout());
 
       if (scheme == Scheme.HTTPS) {
+        // The default SSLContext caches client sessions by peer host and port, so a new connection
+        // to a host we talked to recently resumes the TLS session instead of a full handshake
         SSLSocketFactory factory = (SSLSocketFactory) SSLSocketFactory.getDefault();
         SSLSocket sslsocket = (SSLSocket) factory.createSocket(socket, sockHost, sockPort, true);
         sslsocket.setUseClientMode(true);
@@ -150,126 +212,167 @@ public class HttpResponse implements Response {
         sslsocket.startHandshake();
         socket = sslsocket;
       }
+    } catch (IOException e) {
+      closeQuietly(socket);
+      throw e;
+    }
+
+    return socket;
+  }
 
-      conf = http.getConf();
-      if (conf.getBoolean("store.ip.address", false)) {
-        String ipString = sockAddr.getAddress().getHostAddress(); // get the ip
+  /**
+   * Send the request and read the response
+   * @return true if the connection can be reused for the next request to the same host
+   * */
+  private boolean request(Socket socket, Scheme scheme, String host, String portString, String path, WebPage page)
+      throws IOException, HttpException {
+    if (conf.getBoolean("store.ip.address", false)) {
+      String ipString = socket.getInetAddress().getHostAddress(); // get the ip
                                                                   // address
-        page.getMetadata().put(new Utf8("_ip_"), ByteBuffer.wrap(ipString.getBytes()));
-      }
+      page.getMetadata().put(new Utf8("_ip_"), ByteBuffer.wrap(ipString.getBytes()));
+    }
 
-      // make request
-      OutputStream req = socket.getOutputStream();
+    // make request
+    OutputStream req = socket.getOutputStream();
 
-      StringBuffer reqStr = new StringBuffer("GET ");
-      if (http.useProxy()) {
-        reqStr.append(url.getProtocol() + "://" + host + portString + path);
-      } else {
-        reqStr.append(path);
-      }
+    StringBuffer reqStr = new StringBuffer("GET ");
+    if (http.useProxy()) {
+      reqStr.append(url.getProtocol() + "://" + host + portString + path);
+    } else {
+      reqStr.append(path);
+    }
 
+    if (http.getUseHttp11()) {
+      reqStr.append(" HTTP/1.1\r\n");
+    } else {
       reqStr.append(" HTTP/1.0\r\n");
+    }
 
-      reqStr.append("Host: ");
-      reqStr.append(host);
-      reqStr.append(portString);
-      reqStr.append("\r\n");
+    reqStr.append("Host: ");
+    reqStr.append(host);
+    reqStr.append(portString);
+    reqStr.append("\r\n");
 
-      reqStr.append("Accept-Encoding: x-gzip, gzip\r\n");
+    if (http.getUseHttp11()) {
+      reqStr.append("Connection: keep-alive\r\n");
+    }
 
-      reqStr.append("Accept: ");
-      reqStr.append(this.http.getAccept());
-      reqStr.append("\r\n");
+    reqStr.append("Accept-Encoding: x-gzip, gzip\r\n");
 
-      String userAgent = http.getUserAgent();
-      if ((userAgent == null) || (userAgent.length() == 0)) {
-        if (Http.LOG.isErrorEnabled()) {
-          Http.LOG.error("User-agent is not set!");
-        }
-      } else {
-        reqStr.append("User-Agent: ");
-        reqStr.append(userAgent);
-        reqStr.append("\r\n");
-      }
+    reqStr.append("Accept: ");
+    reqStr.append(this.http.getAccept());
+    reqStr.append("\r\n");
 
-      // if (page.isReadable(WebPage.Field.MODIFIED_TIME.getIndex())) {
-      reqStr.append("If-Modified-Since: "
-          + HttpDateFormat.toString(page.getModifiedTime()));
-      reqStr.append("\r\n");
-      // }
+    String userAgent = http.getUserAgent();
+    if ((userAgent == null) || (userAgent.length() == 0)) {
+      if (Http.LOG.isErrorEnabled()) {
+        Http.LOG.error("User-agent is not set!");
+      }
+    } else {
+      reqStr.append("User-Agent: ");
+      reqStr.append(userAgent);
       reqStr.append("\r\n");
+    }
 
-      byte[] reqBytes = reqStr.toString().getBytes();
+    // if (page.isReadable(WebPage.Field.MODIFIED_TIME.getIndex())) {
+    reqStr.append("If-Modified-Since: "
+        + HttpDateFormat.toString(page.getModifiedTime()));
+    reqStr.append("\r\n");
+    // }
+    reqStr.append("\r\n");
 
-      req.write(reqBytes);
-      req.flush();
+    byte[] reqBytes = reqStr.toString().getBytes();
 
-      // blocking for reading the response
+    req.write(reqBytes);
+    req.flush();
 
-      // IOException - if an I/O error occurs when creating the input stream,
-      // the socket is closed,
-      // the socket is not connected, or the socket input has been shutdown
-      // using shutdownInput()
+    // blocking for reading the response
 
-      PushbackInputStream in =
-          new PushbackInputStream(new BufferedInputStream(socket.getInputStream(), Http.BUFFER_SIZE), Http.BUFFER_SIZE);
+    // IOException - if an I/O error occurs when creating the input stream,
+    // the socket is closed,
+    // the socket is not connected, or the socket input has been shutdown
+    // using shutdownInput()
 
-      StringBuffer line = new StringBuffer();
+    PushbackInputStream in =
+        new PushbackInputStream(new BufferedInputStream(socket.getInputStream(), Http.BUFFER_SIZE), Http.BUFFER_SIZE);
 
-      boolean haveSeenNonContinueStatus = false;
-      while (!haveSeenNonContinueStatus) {
-        // parse status code line
-        this.code = parseStatusLine(in, line);
-        // parse headers
-        parseHeaders(in, line);
-        haveSeenNonContinueStatus = code != 100; // 100 is "Continue"
-      }
+    StringBuffer line = new StringBuffer();
 
-      String transferEncoding = getHeader(Response.TRANSFER_ENCODING);
-      if (transferEncoding != null
-          && "chunked".equalsIgnoreCase(transferEncoding.trim())) {
-        readChunkedContent(in, line);
-      } else {
-        readPlainContent(in);
-      }
+    boolean haveSeenNonContinueStatus = false;
+    while (!haveSeenNonContinueStatus) {
+      // parse status code line
+      this.code = parseStatusLine(in, line);
+      // parse headers
+      parseHeaders(in, line);
+      haveSeenNonContinueStatus = code != 100; // 100 is "Continue"
+    }
 
-      String contentEncoding = getHeader(Response.CONTENT_ENCODING);
-      if ("gzip".equals(contentEncoding) || "x-gzip".equals(contentEncoding)) {
-        content = http.processGzipEncoded(content, url);
-      } else {
-        if (Http.LOG.isTraceEnabled()) {
-          Http.LOG.trace("fetched " + content.length + " bytes from " + url);
+    String transferEncoding = getHeader(Response.TRANSFER_ENCODING);
+    if (code == 204 || code == 304) {
+      // No message body, a keep-alive server will not close the connection, so do not wait for EOF
+      content = new byte[0];
+      bodyComplete = true;
+    } else {
+      // The body is decoded while it is read from the socket, into a buffer reused by this thread
+      ContentDecoder.Encoding encoding = ContentDecoder.Encoding.of(getHeader(Response.CONTENT_ENCODING));
+      try (ContentDecoder decoder = new ContentDecoder(encoding, http.getMaxContent())) {
+        if (transferEncoding != null
+            && "chunked".equalsIgnoreCase(transferEncoding.trim())) {
+          readChunkedContent(in, line, decoder);
+        } else {
+          readPlainContent(in, decoder);
         }
-      }
 
-      // add headers in metadata to row
-      if (page.getHeaders() != null) {
-        page.getHeaders().clear();
+        content = http.processDecoded(decoder, url);
       }
+    }
 
-      for (String key : headers.names()) {
-        page.getHeaders().put(new Utf8(key), new Utf8(headers.get(key)));
-      }
+    // add headers in metadata to row
+    if (page.getHeaders() != null) {
+      page.getHeaders().clear();
+    }
 
-      fetchSuccess = true;
-    } finally {
-      if (socket != null) {
-        socket.close();
-      }
+    for (String key : headers.names()) {
+      page.getHeaders().put(new Utf8(key), new Utf8(headers.get(key)));
+    }
 
-      if (http.useProxyPool() && proxy != null) {
-        // put back the proxy resource, this is essential important!
-        if (fetchSuccess) {
-          Http.LOG.debug("put back proxy {}", proxy.ipPort());
+    return isPersistent(in);
+  }
 
-          http.proxyPool().put(proxy);
-        } else {
-          Http.LOG.debug("retire proxy {}", proxy.ipPort());
+  /**
+   * A connection can be reused if both sides agree to keep it alive, and the response body is exactly consumed
+   * */
+  private boolean isPersistent(InputStream in) throws IOException {
+    if (!http.getUseHttp11() || !bodyComplete) {
+      return false;
+    }
 
-          // the proxy may be usable later
-          http.proxyPool().retire(proxy);
-        }
-      }
+    // Bytes left in our buffers belong to nobody, the framing is broken
+    if (in.available() > 0) {
+      return false;
+    }
+
+    String connection = getHeader(Response.CONNECTION);
+    if (connection != null && "close".equalsIgnoreCase(connection.trim())) {
+      return false;
+    }
+
+    // HTTP/1.1 connections are persistent by default, HTTP/1.0 ones only if the server says so
+    return http11Response || (connection != null && "keep-alive".equalsIgnoreCase(connection.trim()));
+  }
+
+  private void resetResponse() {
+    code = 0;
+    content = null;
+    bodyComplete = false;
+    http11Response = false;
+    headers.clear();
+  }
+
+  private static void closeQuietly(Socket socket) {
+    try {
+      socket.close();
+    } catch (IOException ignored) {
     }
   }
 
@@ -303,8 +406,8 @@ public class HttpResponse implements Response {
    * -------------------------
    */
 
-  private void readPlainContent(InputStream in) throws HttpException,
-      IOException {
+  private void readPlainContent(InputStream in, ContentDecoder out)
+      throws HttpException, IOException {
 
     int contentLength = Integer.MAX_VALUE; // get content length
     String contentLengthString = headers.get(Response.CONTENT_LENGTH);
@@ -317,16 +420,17 @@ public class HttpResponse implements Response {
         throw new HttpException("bad content length: " + contentLengthString);
       }
     }
+    int declaredLength = contentLength;
     if (http.getMaxContent() >= 0 && contentLength > http.getMaxContent()) // limit
                                                                            // download
                                                                            // size
       contentLength = http.getMaxContent();
 
-    ByteArrayOutputStream out = new ByteArrayOutputStream(Http.BUFFER_SIZE);
     byte[] bytes = new byte[Http.BUFFER_SIZE];
     int length = 0;
-    // read content
-    int i = in.read(bytes);
+    // read content, never read past the declared length, on a persistent connection
+    // the server sends nothing more and the read would block until timeout
+    int i = contentLength > 0 ? in.read(bytes, 0, Math.min(Http.BUFFER_SIZE, contentLength)) : -1;
     while (i != -1) {
       out.write(bytes, 0, i);
       length += i;
@@ -341,22 +445,25 @@ public class HttpResponse implements Response {
         i = in.read(bytes);
       }
     }
-    content = out.toByteArray();
+
+    // Without a Content-Length the body ends when the server closes the connection
+    bodyComplete = declaredLength != Integer.MAX_VALUE && length == declaredLength;
   }
 
   /**
    * 
    * @param in
    * @param line
+   * @param out
+   *          the decoder the chunks are written to
    * @throws HttpException
    * @throws IOException
    */
-  private void readChunkedContent(PushbackInputStream in, StringBuffer line)
-      throws HttpException, IOException {
+  private void readChunkedContent(PushbackInputStream in, StringBuffer line,
+      ContentDecoder out) throws HttpException, IOException {
     boolean doneChunks = false;
     int contentBytesRead = 0;
     byte[] bytes = new byte[Http.BUFFER_SIZE];
-    ByteArrayOutputStream out = new ByteArrayOutputStream(Http.BUFFER_SIZE);
 
     while (!doneChunks) {
       if (Http.LOG.isTraceEnabled()) {
@@ -390,9 +497,12 @@ public class HttpResponse implements Response {
         break;
       }
 
+      boolean truncated = false;
       if (http.getMaxContent() >= 0
-          && (contentBytesRead + chunkLen) > http.getMaxContent())
+          && (contentBytesRead + chunkLen) > http.getMaxContent()) {
         chunkLen = http.getMaxContent() - contentBytesRead;
+        truncated = true;
+      }
 
       // read one chunk
       int chunkBytesRead = 0;
@@ -415,6 +525,12 @@ public class HttpResponse implements Response {
         out.write(bytes, 0, len);
         chunkBytesRead += len;
       }
+      contentBytesRead += chunkBytesRead;
+
+      if (truncated) {
+        // the rest of the body is left on the wire, the connection can not be reused
+        break;
+      }
 
       readLine(in, line, false);
     }
@@ -425,8 +541,8 @@ public class HttpResponse implements Response {
       return;
     }
 
-    content = out.toByteArray();
     parseHeaders(in, line);
+    bodyComplete = true;
 
   }
 
@@ -434,6 +550,8 @@ public class HttpResponse implements Response {
       throws IOException, HttpException {
     readLine(in, line, false);
 
+    http11Response = line.indexOf("HTTP/1.1") == 0;
+
     int codeStart = line.indexOf(" ");
     int codeEnd = line.indexOf(" ", codeStart + 1);
 
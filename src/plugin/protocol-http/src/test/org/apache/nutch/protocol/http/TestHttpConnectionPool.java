@@ -0,0 +1,100 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nutch.protocol.http;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+
+import static org.junit.Assert.*;
+
+/**
+ * Test cases for HttpConnectionPool
+ */
+public class TestHttpConnectionPool {
+
+  private ServerSocket server;
+  private String key;
+
+  @Before
+  public void setUp() throws Exception {
+    server = new ServerSocket(0);
+    key = HttpConnectionPool.getKey("http", "localhost", server.getLocalPort());
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    server.close();
+  }
+
+  private Socket connect() throws Exception {
+    Socket socket = new Socket();
+    socket.connect(new InetSocketAddress("localhost", server.getLocalPort()));
+    return socket;
+  }
+
+  @Test
+  public void testReuse() throws Exception {
+    HttpConnectionPool pool = new HttpConnectionPool(2, 60 * 1000);
+    assertNull(pool.poll(key));
+
+    Socket socket = connect();
+    pool.offer(key, socket);
+    assertSame(socket, pool.poll(key));
+    assertNull(pool.poll(key));
+    assertEquals(1, pool.getReusedCount());
+
+    socket.close();
+    pool.offer(key, socket);
+    assertNull("Closed connections must not be reused", pool.poll(key));
+  }
+
+  @Test
+  public void testMaxIdlePerHost() throws Exception {
+    HttpConnectionPool pool = new HttpConnectionPool(2, 60 * 1000);
+
+    Socket s1 = connect(), s2 = connect(), s3 = connect();
+    pool.offer(key, s1);
+    pool.offer(key, s2);
+    pool.offer(key, s3);
+
+    assertEquals(2, pool.getIdleCount());
+    assertTrue("The least recently used connection is closed", s1.isClosed());
+    assertSame(s3, pool.poll(key));
+
+    pool.close();
+    assertEquals(0, pool.getIdleCount());
+    assertTrue(s2.isClosed());
+  }
+
+  @Test
+  public void testIdleTimeout() throws Exception {
+    HttpConnectionPool pool = new HttpConnectionPool(2, 50);
+
+    Socket socket = connect();
+    pool.offer(key, socket);
+    Thread.sleep(100);
+
+    assertNull(pool.poll(key));
+    assertTrue(socket.isClosed());
+    assertEquals(1, pool.getEvictedCount());
+  }
+}
@@ -0,0 +1,216 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nutch.protocol.http;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.nutch.storage.WebPage;
+import org.apache.nutch.util.NutchConfiguration;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URL;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests the message framing of HttpResponse on persistent connections, against a local socket server
+ * which sends scripted responses
+ */
+public class TestHttpResponse {
+
+  private static final int CONTENT_LIMIT = 10;
+
+  private ScriptedServer server;
+  private Http http;
+
+  /**
+   * Sends the next scripted response for every request, a response is sent as it is, so the framing is up to the test
+   * */
+  private static class ScriptedServer extends Thread {
+    private final ServerSocket serverSocket;
+    private final Queue<String> responses = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger connections = new AtomicInteger();
+    private final AtomicInteger requests = new AtomicInteger();
+    /** Close the connection after the response, without telling the client */
+    private volatile boolean closeAfterResponse = false;
+
+    ScriptedServer() throws IOException {
+      serverSocket = new ServerSocket(0);
+      setDaemon(true);
+    }
+
+    int getPort() {
+      return serverSocket.getLocalPort();
+    }
+
+    @Override
+    public void run() {
+      while (!serverSocket.isClosed()) {
+        try {
+          Socket socket = serverSocket.accept();
+          connections.incrementAndGet();
+          Thread handler = new Thread(() -> serve(socket));
+          handler.setDaemon(true);
+          handler.start();
+        } catch (IOException e) {
+          return;
+        }
+      }
+    }
+
+    private void serve(Socket socket) {
+      try (Socket s = socket) {
+        InputStream in = s.getInputStream();
+        OutputStream out = s.getOutputStream();
+        while (readRequest(in)) {
+          requests.incrementAndGet();
+          String response = responses.poll();
+          if (response == null) {
+            return;
+          }
+          out.write(response.getBytes("ISO-8859-1"));
+          out.flush();
+          if (closeAfterResponse) {
+            return;
+          }
+        }
+      } catch (IOException ignored) {
+      }
+    }
+
+    /** Read the request head, a GET has no body */
+    private static boolean readRequest(InputStream in) throws IOException {
+      int matched = 0;
+      int c;
+      while ((c = in.read()) != -1) {
+        matched = (c == '\r' || c == '\n') ? matched + 1 : 0;
+        if (matched == 4) {
+          return true;
+        }
+      }
+      return false;
+    }
+
+    void close() throws IOException {
+      serverSocket.close();
+    }
+  }
+
+  @Before
+  public void setUp() throws Exception {
+    server = new ScriptedServer();
+    server.start();
+
+    Configuration conf = NutchConfiguration.create();
+    conf.setBoolean("http.useHttp11", true);
+    conf.set("http.agent.name", "test");
+    conf.setInt("http.timeout", 5000);
+    conf.setInt("http.content.limit", CONTENT_LIMIT);
+    http = new Http();
+    http.setConf(conf);
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    http.getConnectionPool().close();
+    server.close();
+  }
+
+  private HttpResponse fetch(String path) throws Exception {
+    URL url = new URL("http", "127.0.0.1", server.getPort(), path);
+    return new HttpResponse(http, url, WebPage.newBuilder().build());
+  }
+
+  private static String response(String status, String headers, String body) {
+    return "HTTP/1.1 " + status + "\r\n" + headers + "\r\n" + body;
+  }
+
+  @Test
+  public void testNoBody() throws Exception {
+    // The server keeps the connection open, the client must not wait for the end of the stream
+    server.responses.add(response("204 No Content", "", ""));
+    server.responses.add(response("304 Not Modified", "ETag: \"1\"\r\n", ""));
+    server.responses.add(response("200 OK", "Content-Length: 2\r\n", "ok"));
+
+    HttpResponse response = fetch("/204");
+    assertEquals(204, response.getCode());
+    assertEquals(0, response.getContent().length);
+
+    response = fetch("/304");
+    assertEquals(304, response.getCode());
+    assertEquals(0, response.getContent().length);
+
+    response = fetch("/200");
+    assertEquals(200, response.getCode());
+    assertEquals("ok", new String(response.getContent()));
+
+    assertEquals("All the requests go through one connection", 1, server.connections.get());
+    assertEquals(3, server.requests.get());
+  }
+
+  @Test
+  public void testContentLength() throws Exception {
+    // The next response is sent right after the body, a read past Content-Length would take it as the body
+    server.responses.add(response("200 OK", "Content-Length: 5\r\n", "hello"));
+    server.responses.add(response("200 OK", "Content-Length: 5\r\n", "world"));
+
+    assertEquals("hello", new String(fetch("/1").getContent()));
+    assertEquals("world", new String(fetch("/2").getContent()));
+    assertEquals(1, server.connections.get());
+  }
+
+  @Test
+  public void testTruncatedChunkedBody() throws Exception {
+    String chunks = "8\r\n12345678\r\n8\r\nabcdefgh\r\n0\r\n\r\n";
+    server.responses.add(response("200 OK", "Transfer-Encoding: chunked\r\n", chunks));
+    server.responses.add(response("200 OK", "Transfer-Encoding: chunked\r\n", "2\r\nok\r\n0\r\n\r\n"));
+
+    HttpResponse response = fetch("/large");
+    assertEquals(200, response.getCode());
+    assertEquals("12345678ab", new String(response.getContent()));
+
+    // The rest of the body is left on the wire, so the connection is not reused
+    assertEquals("ok", new String(fetch("/small").getContent()));
+    assertEquals(2, server.connections.get());
+  }
+
+  @Test
+  public void testStaleConnectionRetry() throws Exception {
+    // The server closes the connection after every response, but says nothing about it
+    server.closeAfterResponse = true;
+    server.responses.add(response("200 OK", "Content-Length: 5\r\n", "first"));
+    server.responses.add(response("200 OK", "Content-Length: 6\r\n", "second"));
+
+    assertEquals("first", new String(fetch("/1").getContent()));
+
+    // The pooled connection is stale, the request is sent again on a new connection
+    HttpResponse response = fetch("/2");
+    assertEquals(200, response.getCode());
+    assertEquals("second", new String(response.getContent()));
+    assertEquals(2, server.connections.get());
+    assertEquals(2, server.requests.get());
+  }
+}
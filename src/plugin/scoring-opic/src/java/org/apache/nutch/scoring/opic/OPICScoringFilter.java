@@ -26,12 +26,9 @@ import org.apache.nutch.scoring.ScoreDatum;
 import org.apache.nutch.scoring.ScoringFilter;
 import org.apache.nutch.scoring.ScoringFilterException;
 import org.apache.nutch.storage.WebPage;
+import org.apache.nutch.util.NutchUrl;
 import org.apache.nutch.util.TableUtil;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
 
-import java.net.MalformedURLException;
-import java.net.URL;
 import java.nio.ByteBuffer;
 import java.util.Collection;
 import java.util.HashSet;
@@ -49,8 +46,6 @@ import java.util.Set;
  */
 public class OPICScoringFilter implements ScoringFilter {
 
-  private final static Logger LOG = LoggerFactory.getLogger(OPICScoringFilter.class);
-
   private final static Set<WebPage.Field> FIELDS = new HashSet<>();
 
   static {
@@ -158,20 +153,15 @@ public class OPICScoringFilter implements ScoringFilter {
     // internal and external score factor
     float internalScore = scoreUnit * internalScoreFactor;
     float externalScore = scoreUnit * externalScoreFactor;
+    // Parse the source url once for all outlinks
+    NutchUrl from = NutchUrl.of(fromUrl);
     for (ScoreDatum scoreDatum : scoreData) {
       float score = scoreDatum.getScore();
 
-      try {
-        String toHost = new URL(scoreDatum.getUrl()).getHost();
-        String fromHost = new URL(fromUrl).getHost();
-
-        if (toHost.equalsIgnoreCase(fromHost)) {
-          scoreDatum.setScore(score + internalScore);
-        } else {
-          scoreDatum.setScore(score + externalScore);
-        }
-      } catch (MalformedURLException e) {
-        LOG.error("Failed with the following MalformedURLException: ", e);
+      NutchUrl to = NutchUrl.of(scoreDatum.getUrl());
+      if (from != null && to != null && to.isSameHost(from)) {
+        scoreDatum.setScore(score + internalScore);
+      } else {
         scoreDatum.setScore(score + externalScore);
       }
     }
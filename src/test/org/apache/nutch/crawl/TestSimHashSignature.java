@@ -0,0 +1,245 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nutch.crawl;
+
+import org.apache.avro.util.Utf8;
+import org.apache.nutch.mapreduce.SolrDeleteDuplicates;
+import org.apache.nutch.mapreduce.SolrDeleteDuplicates.SolrRecord;
+import org.apache.nutch.storage.WebPage;
+import org.apache.nutch.util.NutchConfiguration;
+import org.apache.nutch.util.Params;
+import org.apache.nutch.util.StringUtil;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests and a precision/recall benchmark for SimHashSignature and SimHashIndex
+ */
+public class TestSimHashSignature {
+
+  private static final int MAX_DISTANCE = 3;
+
+  private static final String[] WORDS = { "crawler", "fetch", "parse", "index", "solr", "hadoop", "page", "link",
+      "score", "host", "domain", "market", "price", "stock", "report", "weather", "city", "football", "match",
+      "season", "music", "movie", "review", "travel", "hotel", "flight", "science", "energy", "climate", "health" };
+
+  /** An article of random words, different seeds give different articles */
+  private static String newArticle(Random random, int words) {
+    StringBuilder sb = new StringBuilder();
+    for (int i = 0; i < words; i++) {
+      sb.append(WORDS[random.nextInt(WORDS.length)]).append(random.nextInt(100)).append(' ');
+    }
+    return sb.toString();
+  }
+
+  /** The article in the template of a site, with a timestamp and an ad block which change on every fetch */
+  private static String render(String article, Random random) {
+    return "Home News Sports About Contact Login " + article
+        + " Updated at 2016-10-" + (1 + random.nextInt(28)) + " " + random.nextInt(24) + ":" + random.nextInt(60)
+        + " Sponsored " + WORDS[random.nextInt(WORDS.length)] + random.nextInt(1000000)
+        + " Copyright all rights reserved";
+  }
+
+  private static long fingerprint(String text) {
+    return SimHashSignature.fingerprint(text, 2, 2);
+  }
+
+  @Test
+  public void testFingerprint() {
+    String text = "The quick brown fox jumps over the lazy dog";
+    assertEquals(fingerprint(text), fingerprint("the QUICK brown fox, jumps over the lazy dog!"));
+    assertNotEquals(fingerprint(text), fingerprint("The lazy dog jumps over the quick brown fox"));
+    assertEquals(0, fingerprint(""));
+
+    // Every CJK ideograph is a token
+    assertNotEquals(0, fingerprint("近似重复网页检测"));
+    assertTrue(SimHashIndex.distance(fingerprint("近似重复网页检测"), fingerprint("近似重复网页检查")) < 32);
+
+    byte[] signature = ByteBuffer.allocate(SimHashSignature.SIZE).putLong(fingerprint(text)).array();
+    assertTrue(SimHashSignature.isSimHash(ByteBuffer.wrap(signature)));
+    assertEquals(fingerprint(text), SimHashSignature.toLong(ByteBuffer.wrap(signature)));
+    assertFalse(SimHashSignature.isSimHash(ByteBuffer.wrap(new byte[16])));
+    assertEquals(Long.valueOf(fingerprint(text)), SolrDeleteDuplicates.parseSimHash(StringUtil.toHexString(signature)));
+    assertNull(SolrDeleteDuplicates.parseSimHash(StringUtil.toHexString(new byte[16])));
+  }
+
+  @Test
+  public void testFallback() {
+    SimHashSignature signature = new SimHashSignature();
+    signature.setConf(NutchConfiguration.create());
+
+    WebPage page = WebPage.newBuilder().build();
+    page.setBaseUrl(new Utf8("http://www.example.com/"));
+    page.setText(new Utf8("The quick brown fox jumps over the lazy dog"));
+    assertEquals(SimHashSignature.SIZE, signature.calculate(page).length);
+
+    // No token longer than the min token length, the fingerprint would be 0 for all such pages
+    page.setText(new Utf8("OK 12 !!"));
+    assertEquals(0, fingerprint("OK 12 !!"));
+    byte[] fallback = signature.calculate(page);
+    assertEquals(16, fallback.length);
+    assertFalse(SimHashSignature.isSimHash(ByteBuffer.wrap(fallback)));
+
+    page.setText(new Utf8(""));
+    assertEquals(16, signature.calculate(page).length);
+  }
+
+  @Test
+  public void testIndexAgainstBruteForce() {
+    Random random = new Random(0);
+    for (int maxDistance : new int[] { 0, 1, 3, 7 }) {
+      SimHashIndex<Integer> index = new SimHashIndex<>(maxDistance, 1000);
+      List<Long> fingerprints = new ArrayList<>();
+      long base = random.nextLong();
+      for (int i = 0; i < 1000; i++) {
+        // Many fingerprints close to each other
+        long fingerprint = base;
+        for (int flips = random.nextInt(2 * maxDistance + 2); flips > 0; flips--) {
+          fingerprint ^= 1L << random.nextInt(64);
+        }
+
+        Integer near = index.findNear(fingerprint);
+        int expected = -1;
+        for (int j = 0; j < fingerprints.size(); j++) {
+          int d = SimHashIndex.distance(fingerprint, fingerprints.get(j));
+          if (d <= maxDistance && (expected < 0 || d < SimHashIndex.distance(fingerprint, fingerprints.get(expected)))) {
+            expected = j;
+          }
+        }
+        assertEquals(expected < 0 ? null : expected, near);
+
+        assertTrue(index.add(fingerprint, i));
+        fingerprints.add(fingerprint);
+      }
+
+      assertFalse(index.add(base, -1));
+      index.clear();
+      assertEquals(0, index.size());
+      assertNull(index.findNear(base));
+    }
+  }
+
+  @Test
+  public void testFindNearDuplicates() {
+    long fingerprint = fingerprint("a page of a site");
+    String digest = String.format("%016x", fingerprint);
+    String nearDigest = String.format("%016x", fingerprint ^ 1L);
+    String farDigest = String.format("%016x", ~fingerprint);
+
+    List<SolrRecord> records = new ArrayList<>();
+    records.add(new SolrRecord("b", 1.0f, 100, nearDigest));
+    records.add(new SolrRecord("a", 2.0f, 100, digest));
+    records.add(new SolrRecord("c", 1.0f, 100, farDigest));
+
+    List<SolrRecord> duplicates = SolrDeleteDuplicates.findNearDuplicates(records, MAX_DISTANCE);
+    assertEquals(1, duplicates.size());
+    assertEquals("b", duplicates.get(0).getId());
+  }
+
+  /**
+   * A is better than B, and B is better than C. B is near both A and C, but C is not near A.
+   * B is deleted for A, and C is kept since B is deleted
+   * */
+  @Test
+  public void testFindNearDuplicatesChain() {
+    long a = fingerprint("a page of a site");
+    long b = a ^ 0x7L;
+    long c = b ^ 0x70L;
+    assertTrue(SimHashIndex.distance(a, b) <= MAX_DISTANCE);
+    assertTrue(SimHashIndex.distance(b, c) <= MAX_DISTANCE);
+    assertTrue(SimHashIndex.distance(a, c) > MAX_DISTANCE);
+
+    List<SolrRecord> records = new ArrayList<>();
+    records.add(new SolrRecord("c", 1.0f, 100, String.format("%016x", c)));
+    records.add(new SolrRecord("b", 2.0f, 100, String.format("%016x", b)));
+    records.add(new SolrRecord("a", 3.0f, 100, String.format("%016x", a)));
+
+    // The same result in any order
+    for (int i = 0; i < records.size(); i++) {
+      Collections.rotate(records, 1);
+      List<SolrRecord> duplicates = SolrDeleteDuplicates.findNearDuplicates(records, MAX_DISTANCE);
+      assertEquals(1, duplicates.size());
+      assertEquals("b", duplicates.get(0).getId());
+    }
+  }
+
+  /**
+   * Pages of many articles are fetched several times, the timestamp and the ad block change on every fetch.
+   * Fetches of the same article are to be found as near duplicates, and different articles are not
+   * */
+  @Test
+  public void testPrecisionAndRecall() {
+    Random random = new Random(0);
+    int articles = 2000;
+    int fetches = 3;
+
+    SimHashIndex<Integer> index = new SimHashIndex<>(MAX_DISTANCE, articles * fetches);
+    int truePositives = 0;
+    int falsePositives = 0;
+    int falseNegatives = 0;
+
+    long start = System.nanoTime();
+    long bytes = 0;
+    for (int article = 0; article < articles; article++) {
+      String text = newArticle(random, 200 + random.nextInt(300));
+      for (int fetch = 0; fetch < fetches; fetch++) {
+        String page = render(text, random);
+        bytes += page.length();
+        long fingerprint = fingerprint(page);
+
+        Integer near = index.findNear(fingerprint);
+        if (fetch == 0) {
+          if (near != null) {
+            falsePositives++;
+          }
+        } else if (near == null) {
+          falseNegatives++;
+        } else if (near == article) {
+          truePositives++;
+        } else {
+          falsePositives++;
+        }
+
+        index.add(fingerprint, article);
+      }
+    }
+    long elapsed = System.nanoTime() - start;
+
+    double precision = truePositives / (double) Math.max(1, truePositives + falsePositives);
+    double recall = truePositives / (double) (articles * (fetches - 1));
+    System.out.println(Params.formatAsLine(
+        "pages", articles * fetches,
+        "maxDistance", MAX_DISTANCE,
+        "truePositives", truePositives,
+        "falsePositives", falsePositives,
+        "falseNegatives", falseNegatives,
+        "precision", String.format("%.4f", precision),
+        "recall", String.format("%.4f", recall),
+        "MB/s", String.format("%.1f", bytes / 1e6 / (elapsed / 1e9))
+    ));
+
+    assertTrue(precision >= 0.99);
+    assertTrue(recall >= 0.85);
+  }
+}
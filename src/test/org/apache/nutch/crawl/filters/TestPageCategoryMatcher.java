@@ -0,0 +1,128 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.apache.nutch.crawl.filters;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.nutch.crawl.filters.CrawlFilter.PageCategory;
+import org.apache.nutch.util.NutchConfiguration;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests the page category automaton against the url regexes it replaces
+ */
+public class TestPageCategoryMatcher {
+
+  private static final Logger LOG = LoggerFactory.getLogger(TestPageCategoryMatcher.class);
+
+  private static final String[] PARTS = {
+      "index", "List", "tags", "search", "Query", "select", "detail", "item", "article", "product", "thread",
+      "pic", "photo", "Video", "2016", "2016/08", "2016-8-01", "12", "12345", "1234567", "p", "a.html", "?q=1", ""
+  };
+
+  private static final String[] HOSTS = {
+      "http://www.example.com", "https://tieba.baidu.com", "http://news.Example.co.uk", "http://t.tt"
+  };
+
+  @Test
+  public void testSameAsRegex() {
+    for (String url : createUrls(100000)) {
+      assertEquals(url, CrawlFilter.sniffPageCategoryByUrlRegex(url), CrawlFilter.sniffPageCategoryByUrlPattern(url));
+    }
+
+    assertEquals(PageCategory.DETAIL, CrawlFilter.sniffPageCategoryByUrlPattern("http://tieba.baidu.com/p/4567"));
+    assertEquals(PageCategory.INDEX, CrawlFilter.sniffPageCategoryByUrlPattern("http://t.tt/12345678"));
+    assertEquals(PageCategory.MEDIA, CrawlFilter.sniffPageCategoryByUrlPattern("http://a.com/b/c/Photo/1.jpg"));
+    // Non ascii urls are matched by the regexes
+    assertEquals(PageCategory.SEARCH, CrawlFilter.sniffPageCategoryByUrlPattern("http://a.com/b/搜索/search/1"));
+  }
+
+  @Test
+  public void testCrawlFilters() {
+    Configuration conf = NutchConfiguration.create();
+    conf.set(CrawlFilters.CRAWL_FILTER_RULES, "{\"crawlFilters\" : [" +
+        "{\"pageCategory\" : \"DETAIL\", \"urlRegexRule\" : \"+^http://www.yhd.com/sku/(.+)$\"}," +
+        "{\"pageCategory\" : \"MEDIA\", \"urlRegexRule\" : \"+^http://img.yhd.com/\"}" +
+        "]}");
+    CrawlFilters crawlFilters = CrawlFilters.create(conf);
+
+    for (int i = 0; i < 2; ++i) {
+      String url = "http://www.yhd.com/sku/a/b/search/1";
+      assertTrue(crawlFilters.isDetailUrl(url));
+      assertTrue(crawlFilters.isSearchUrl(url));
+      assertFalse(crawlFilters.isIndexUrl(url));
+      assertFalse(crawlFilters.isMediaUrl(url));
+
+      url = "http://img.yhd.com/";
+      assertTrue(crawlFilters.isIndexUrl(url));
+      assertTrue(crawlFilters.isMediaUrl(url));
+      assertFalse(crawlFilters.isDetailUrl(url));
+      assertFalse(crawlFilters.isSearchUrl(null));
+    }
+  }
+
+  @Test
+  public void testBenchmark() {
+    String[] urls = createUrls(200000);
+
+    int count = 0;
+    for (String url : urls) {
+      count += CrawlFilter.sniffPageCategoryByUrlRegex(url).ordinal();
+      count += CrawlFilter.sniffPageCategoryByUrlPattern(url).ordinal();
+    }
+
+    long startTime = System.nanoTime();
+    for (String url : urls) {
+      count += CrawlFilter.sniffPageCategoryByUrlRegex(url).ordinal();
+    }
+    long regexTime = System.nanoTime() - startTime;
+
+    startTime = System.nanoTime();
+    for (String url : urls) {
+      count += CrawlFilter.sniffPageCategoryByUrlPattern(url).ordinal();
+    }
+    long automatonTime = System.nanoTime() - startTime;
+
+    LOG.info(String.format("Page categories of %d urls, regex %dms, automaton %dms (%d)",
+        urls.length, regexTime / 1000000, automatonTime / 1000000, count));
+  }
+
+  private String[] createUrls(int count) {
+    Random random = new Random(0);
+    String[] urls = new String[count];
+    for (int i = 0; i < count; ++i) {
+      StringBuilder sb = new StringBuilder(HOSTS[random.nextInt(HOSTS.length)]);
+      int parts = random.nextInt(6);
+      for (int j = 0; j < parts; ++j) {
+        sb.append('/').append(PARTS[random.nextInt(PARTS.length)]);
+        if (random.nextInt(4) == 0) {
+          sb.append(random.nextInt(100));
+        }
+      }
+      if (random.nextInt(5) == 0) {
+        sb.append('/');
+      }
+      urls[i] = sb.toString();
+    }
+    return urls;
+  }
+}
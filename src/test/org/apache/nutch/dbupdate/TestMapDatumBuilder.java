@@ -0,0 +1,131 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nutch.dbupdate;
+
+import org.apache.commons.lang3.tuple.Pair;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.DataInputBuffer;
+import org.apache.hadoop.io.DataOutputBuffer;
+import org.apache.hadoop.mapreduce.TaskInputOutputContext;
+import org.apache.nutch.crawl.NutchWritable;
+import org.apache.nutch.crawl.UrlWithScore;
+import org.apache.nutch.mapreduce.DbUpdateReducer;
+import org.apache.nutch.mapreduce.NutchCounter;
+import org.apache.nutch.scoring.ScoreDatum;
+import org.apache.nutch.storage.WebPage;
+import org.apache.nutch.util.NutchConfiguration;
+import org.apache.nutch.util.TableUtil;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.reflect.Proxy;
+import java.util.Collections;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests the outlink datum built by MapDatumBuilder, and the row ReduceDatumBuilder creates from it
+ */
+public class TestMapDatumBuilder {
+
+  private static final String SOURCE_URL = "http://www.example.com/";
+  private static final String OUTLINK_URL = "http://www.example.com/news/1.html";
+
+  private Configuration conf;
+  private NutchCounter counter;
+
+  @Before
+  public void setUp() {
+    conf = NutchConfiguration.create();
+    conf.setBoolean(MapDatumBuilder.URL_FILTERING, false);
+    conf.setBoolean(MapDatumBuilder.URL_NORMALIZING, false);
+
+    TaskInputOutputContext<?, ?, ?, ?> context = (TaskInputOutputContext<?, ?, ?, ?>) Proxy.newProxyInstance(
+        getClass().getClassLoader(), new Class<?>[] { TaskInputOutputContext.class },
+        (proxy, method, args) -> {
+          switch (method.getName()) {
+            case "getConfiguration":
+              return conf;
+            case "getJobName":
+              return "dbupdate";
+            default:
+              return null;
+          }
+        });
+    counter = new NutchCounter(context);
+    counter.register(DbUpdateReducer.Counter.class);
+  }
+
+  /** The datum goes through the shuffle */
+  private static NutchWritable shuffle(NutchWritable writable) throws Exception {
+    DataOutputBuffer out = new DataOutputBuffer();
+    writable.write(out);
+    DataInputBuffer in = new DataInputBuffer();
+    in.reset(out.getData(), out.getLength());
+
+    NutchWritable result = new NutchWritable();
+    result.readFields(in);
+    return result;
+  }
+
+  @Test
+  public void testCreateNewDatum() throws Exception {
+    MapDatumBuilder builder = new MapDatumBuilder(counter, conf);
+
+    ScoreDatum scoreDatum = new ScoreDatum(2.0f, OUTLINK_URL, "news", 1);
+    Pair<UrlWithScore, NutchWritable> datum = builder.createNewDatum(SOURCE_URL, scoreDatum);
+
+    assertEquals(TableUtil.reverseUrl(OUTLINK_URL), datum.getKey().getReversedUrl());
+    assertEquals(2.0f, datum.getKey().getScore().get(), 0.0f);
+
+    ScoreDatum inlink = (ScoreDatum) shuffle(datum.getValue()).get();
+    assertEquals(SOURCE_URL, inlink.getUrl());
+    assertEquals("news", inlink.getAnchor());
+    assertEquals(1, inlink.getDistance());
+    assertFalse(TableUtil.isFromSeed(inlink));
+
+    assertNull(builder.createNewDatum(SOURCE_URL, new ScoreDatum(1.0f, "not a url", "", 1)));
+  }
+
+  @Test
+  public void testSeedMarkSurvives() throws Exception {
+    MapDatumBuilder builder = new MapDatumBuilder(counter, conf);
+
+    ScoreDatum scoreDatum = new ScoreDatum(1.0f, OUTLINK_URL, "news", 0);
+    TableUtil.markFromSeed(scoreDatum);
+    Pair<UrlWithScore, NutchWritable> datum = builder.createNewDatum(SOURCE_URL, scoreDatum);
+
+    NutchWritable shuffled = shuffle(datum.getValue());
+    assertTrue(TableUtil.isFromSeed((ScoreDatum) shuffled.get()));
+
+    // The new row of the outlink is marked, even though updating a row clears the temporary marks
+    ReduceDatumBuilder reduceDatumBuilder = new ReduceDatumBuilder(counter, conf);
+    WebPage page = reduceDatumBuilder.calculateInlinks(OUTLINK_URL, Collections.singletonList(shuffled));
+    assertNull(page);
+    page = reduceDatumBuilder.process(OUTLINK_URL, null, null, true);
+    assertNotNull(page);
+    assertTrue(TableUtil.isFromSeed(page));
+
+    // Not marked if no inlink is from a seed
+    ScoreDatum other = new ScoreDatum(1.0f, OUTLINK_URL, "news", 3);
+    NutchWritable otherWritable = shuffle(builder.createNewDatum(SOURCE_URL, other).getValue());
+    reduceDatumBuilder.calculateInlinks(OUTLINK_URL, Collections.singletonList(otherWritable));
+    assertFalse(TableUtil.isFromSeed(reduceDatumBuilder.process(OUTLINK_URL, null, null, true)));
+
+    assertNull(reduceDatumBuilder.process(OUTLINK_URL, null, null, false));
+  }
+}
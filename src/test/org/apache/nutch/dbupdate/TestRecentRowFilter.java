@@ -0,0 +1,76 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.apache.nutch.dbupdate;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests RecentRowFilter
+ */
+public class TestRecentRowFilter {
+
+  private static String key(int i) {
+    return "com.example.www:http/" + i;
+  }
+
+  @Test
+  public void testPublishTimeCache() {
+    RecentRowFilter filter = new RecentRowFilter(100, 0.01, 2, 10);
+
+    filter.put(key(1), 1000L);
+    assertEquals(Long.valueOf(1000L), filter.getPublishTime(key(1)));
+    assertNull(filter.getPublishTime(key(2)));
+
+    filter.put(key(2), 0);
+    assertNull("Rows without publish time are not cached", filter.getPublishTime(key(2)));
+    assertTrue(filter.mightContain(key(2)));
+  }
+
+  @Test
+  public void testScalableFilter() {
+    RecentRowFilter filter = new RecentRowFilter(100, 0.01, 3, 10);
+
+    for (int i = 0; i < 300; ++i) {
+      filter.put(key(i), 0);
+    }
+    for (int i = 0; i < 300; ++i) {
+      assertTrue(key(i), filter.mightContain(key(i)));
+    }
+
+    int falsePositives = 0;
+    for (int i = 1000; i < 2000; ++i) {
+      if (filter.mightContain(key(i))) {
+        ++falsePositives;
+      }
+    }
+    assertTrue("Too many false positives : " + falsePositives, falsePositives < 50);
+
+    // The oldest filter is dropped
+    for (int i = 300; i < 600; ++i) {
+      filter.put(key(i), 0);
+    }
+    int forgotten = 0;
+    for (int i = 0; i < 100; ++i) {
+      if (!filter.mightContain(key(i))) {
+        ++forgotten;
+      }
+    }
+    assertTrue(forgotten > 90);
+  }
+}
@@ -0,0 +1,201 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nutch.fetch;
+
+import org.apache.avro.util.Utf8;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.nutch.fetch.AsyncFetchThread.FetchExchange;
+import org.apache.nutch.fetch.data.FetchTask;
+import org.apache.nutch.protocol.ProtocolOutput;
+import org.apache.nutch.protocol.ProtocolStatusCodes;
+import org.apache.nutch.storage.WebPage;
+import org.apache.nutch.util.MimeUtil;
+import org.apache.nutch.util.NutchConfiguration;
+import org.junit.Before;
+import org.junit.Test;
+import org.mortbay.io.ByteArrayBuffer;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.URL;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests how AsyncFetchThread turns the responses, timeouts and failures of exchanges into protocol outputs
+ */
+public class TestAsyncFetchThread {
+
+  private static final int MAX_CONTENT = 1024;
+  private static final int TIMEOUT = 1000;
+
+  private MimeUtil mimeTypes;
+  private AtomicInteger doneCount;
+
+  @Before
+  public void setUp() {
+    Configuration conf = NutchConfiguration.create();
+    mimeTypes = new MimeUtil(conf);
+    doneCount = new AtomicInteger();
+  }
+
+  private FetchExchange newExchange(String url) throws Exception {
+    FetchTask task = new FetchTask(0, url, WebPage.newBuilder().build(), new URL(url), new URL(url).getHost());
+    return new FetchExchange(task, MAX_CONTENT, TIMEOUT, exchange -> doneCount.incrementAndGet());
+  }
+
+  private static void respond(FetchExchange exchange, int code, String location, String body) throws IOException {
+    exchange.onResponseStatus(new ByteArrayBuffer("HTTP/1.1"), code, new ByteArrayBuffer("reason"));
+    exchange.onResponseHeader(new ByteArrayBuffer("Content-Type"), new ByteArrayBuffer("text/html"));
+    if (location != null) {
+      exchange.onResponseHeader(new ByteArrayBuffer("Location"), new ByteArrayBuffer(location));
+    }
+    if (body != null) {
+      exchange.onResponseContent(new ByteArrayBuffer(body.getBytes()));
+    }
+    exchange.onResponseComplete();
+  }
+
+  private ProtocolOutput getProtocolOutput(FetchExchange exchange) {
+    return AsyncFetchThread.getProtocolOutput(exchange, mimeTypes, true);
+  }
+
+  @Test
+  public void testSuccess() throws Exception {
+    String url = "http://www.example.com/index.html";
+    FetchExchange exchange = newExchange(url);
+    respond(exchange, 200, null, "<html><body>hello</body></html>");
+    assertEquals(1, doneCount.get());
+
+    ProtocolOutput output = getProtocolOutput(exchange);
+    assertEquals(ProtocolStatusCodes.SUCCESS, (int) output.getStatus().getCode());
+    assertEquals("<html><body>hello</body></html>", new String(output.getContent().getContent()));
+    assertEquals("text/html", output.getContent().getContentType());
+
+    WebPage page = exchange.getTask().getPage();
+    assertEquals(new Utf8("text/html"), page.getHeaders().get(new Utf8("Content-Type")));
+    assertNotNull(page.getMetadata().get(new Utf8("_rs_")));
+  }
+
+  @Test
+  public void testContentLimit() throws Exception {
+    FetchExchange exchange = newExchange("http://www.example.com/large.html");
+    StringBuilder body = new StringBuilder();
+    while (body.length() < 3 * MAX_CONTENT) {
+      body.append("<p>large page</p>");
+    }
+    exchange.onResponseStatus(new ByteArrayBuffer("HTTP/1.1"), 200, new ByteArrayBuffer("OK"));
+    for (int i = 0; i < body.length(); i += 100) {
+      exchange.onResponseContent(new ByteArrayBuffer(body.substring(i, Math.min(i + 100, body.length())).getBytes()));
+    }
+    exchange.onResponseComplete();
+
+    assertEquals(MAX_CONTENT, getProtocolOutput(exchange).getContent().getContent().length);
+  }
+
+  @Test
+  public void testHttpCodes() throws Exception {
+    FetchExchange exchange = newExchange("http://www.example.com/a.html");
+    respond(exchange, 301, "/b.html", null);
+    ProtocolOutput output = getProtocolOutput(exchange);
+    assertEquals(ProtocolStatusCodes.MOVED, (int) output.getStatus().getCode());
+    assertEquals("http://www.example.com/b.html", output.getStatus().getArgs().get(0).toString());
+
+    exchange = newExchange("http://www.example.com/a.html");
+    respond(exchange, 302, "http://www.example.com/c.html", null);
+    assertEquals(ProtocolStatusCodes.TEMP_MOVED, (int) getProtocolOutput(exchange).getStatus().getCode());
+
+    exchange = newExchange("http://www.example.com/missing.html");
+    respond(exchange, 404, null, "not found");
+    assertEquals(ProtocolStatusCodes.NOTFOUND, (int) getProtocolOutput(exchange).getStatus().getCode());
+
+    exchange = newExchange("http://www.example.com/error.html");
+    respond(exchange, 500, null, null);
+    assertEquals(ProtocolStatusCodes.EXCEPTION, (int) getProtocolOutput(exchange).getStatus().getCode());
+  }
+
+  @Test
+  public void testTimeout() throws Exception {
+    FetchExchange exchange = newExchange("http://www.example.com/slow.html");
+    exchange.onExpire();
+    // A late response after the timeout does not complete the task again
+    respond(exchange, 200, null, "too late");
+    assertEquals(1, doneCount.get());
+
+    ProtocolOutput output = getProtocolOutput(exchange);
+    assertNull(output.getContent());
+    assertEquals(ProtocolStatusCodes.CONNECTION_TIMED_OUT, (int) output.getStatus().getCode());
+  }
+
+  @Test
+  public void testFailures() throws Exception {
+    FetchExchange exchange = newExchange("http://www.example.com/a.html");
+    exchange.onConnectionFailed(new ConnectException("Connection refused"));
+    exchange.onException(new IOException("Broken pipe"));
+    assertEquals(1, doneCount.get());
+    assertEquals(ProtocolStatusCodes.CONNECTION_TIMED_OUT, (int) getProtocolOutput(exchange).getStatus().getCode());
+
+    exchange = newExchange("http://unknown.example.com/a.html");
+    exchange.onConnectionFailed(new UnknownHostException("unknown.example.com"));
+    assertEquals(ProtocolStatusCodes.UNKNOWN_HOST, (int) getProtocolOutput(exchange).getStatus().getCode());
+
+    exchange = newExchange("http://www.example.com/b.html");
+    exchange.onException(new IOException("Connection reset"));
+    ProtocolOutput output = getProtocolOutput(exchange);
+    assertNull(output.getContent());
+    assertEquals(ProtocolStatusCodes.EXCEPTION, (int) output.getStatus().getCode());
+    assertEquals(3, doneCount.get());
+  }
+
+  /**
+   * The completions share no state, every output carries the content of its own response
+   * */
+  @Test
+  public void testConcurrentCompletions() throws Exception {
+    int count = 2000;
+    List<FetchExchange> exchanges = new ArrayList<>();
+    for (int i = 0; i < count; i++) {
+      FetchExchange exchange = newExchange("http://www.host" + (i % 20) + ".com/" + i + ".html");
+      respond(exchange, 200, null, "<html><body>page " + i + "</body></html>");
+      exchanges.add(exchange);
+    }
+
+    ExecutorService executor = Executors.newFixedThreadPool(8);
+    try {
+      List<Future<ProtocolOutput>> outputs = new ArrayList<>();
+      for (FetchExchange exchange : exchanges) {
+        outputs.add(executor.submit(() -> getProtocolOutput(exchange)));
+      }
+
+      for (int i = 0; i < count; i++) {
+        ProtocolOutput output = outputs.get(i).get();
+        assertEquals(ProtocolStatusCodes.SUCCESS, (int) output.getStatus().getCode());
+        assertEquals("<html><body>page " + i + "</body></html>", new String(output.getContent().getContent()));
+        assertEquals(exchanges.get(i).getTask().getUrl(), output.getContent().getUrl());
+      }
+    } finally {
+      executor.shutdown();
+    }
+  }
+}
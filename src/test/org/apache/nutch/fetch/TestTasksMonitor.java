@@ -0,0 +1,137 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.apache.nutch.fetch;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.nutch.fetch.data.FetchTask;
+import org.apache.nutch.storage.WebPage;
+import org.apache.nutch.util.NutchConfiguration;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.apache.nutch.metadata.Nutch.PARAM_FETCH_MAX_THREADS_PER_QUEUE;
+import static org.apache.nutch.metadata.Nutch.PARAM_FETCH_MODE;
+import static org.junit.Assert.*;
+
+/**
+ * Tests TasksMonitor under contention, the feeder and many fetch threads work on it at the same time
+ */
+public class TestTasksMonitor {
+
+  private static final int HOSTS = 50;
+  private static final int URLS_PER_HOST = 400;
+  private static final int FETCH_THREADS = 32;
+
+  private Configuration conf;
+
+  @Before
+  public void setUp() throws Exception {
+    conf = NutchConfiguration.create();
+    conf.setEnum(PARAM_FETCH_MODE, FetchMode.NATIVE);
+    conf.setFloat("fetcher.server.delay", 0.0f);
+    conf.setFloat("fetcher.server.min.delay", 0.0f);
+    conf.setInt(PARAM_FETCH_MAX_THREADS_PER_QUEUE, 4);
+  }
+
+  @Test
+  public void testConcurrentProduceConsumeFinish() throws Exception {
+    final TasksMonitor tasksMonitor = new TasksMonitor(conf);
+    final int total = HOSTS * URLS_PER_HOST;
+    final AtomicInteger consumed = new AtomicInteger();
+    final CountDownLatch feederDone = new CountDownLatch(1);
+
+    Thread feeder = new Thread(() -> {
+      for (int i = 0; i < URLS_PER_HOST; ++i) {
+        for (int h = 0; h < HOSTS; ++h) {
+          String url = "http://www.host" + h + ".com/detail/" + i + ".html";
+          tasksMonitor.produce(0, url, WebPage.newBuilder().build());
+        }
+      }
+      feederDone.countDown();
+    }, "FeederThread-0");
+
+    List<Thread> fetchThreads = new ArrayList<>();
+    for (int i = 0; i < FETCH_THREADS; ++i) {
+      // TasksMonitor records the thread sequence from the thread name
+      fetchThreads.add(new Thread(() -> {
+        while (consumed.get() < total) {
+          FetchTask task = tasksMonitor.consume(null);
+          if (task == null) {
+            Thread.yield();
+            continue;
+          }
+
+          consumed.incrementAndGet();
+          tasksMonitor.statHost(task.getUrl(), task.getPage());
+          tasksMonitor.finish(task);
+        }
+      }, "FetchThread-" + i));
+    }
+
+    long startTime = System.currentTimeMillis();
+    feeder.start();
+    fetchThreads.forEach(Thread::start);
+
+    feederDone.await();
+    for (Thread thread : fetchThreads) {
+      thread.join(60 * 1000);
+    }
+    long elapsed = Math.max(1, System.currentTimeMillis() - startTime);
+
+    TasksMonitor.LOG.info(String.format("Consumed and finished %d tasks with %d threads in %dms, %d tasks/s",
+        total, FETCH_THREADS, elapsed, total * 1000 / elapsed));
+
+    assertEquals(total, consumed.get());
+    assertEquals(total, tasksMonitor.getFinishedItemCount());
+    assertEquals(0, tasksMonitor.readyItemCount());
+    assertEquals(0, tasksMonitor.pendingItemCount());
+    assertEquals(HOSTS, tasksMonitor.getQueueCount());
+  }
+
+  @Test
+  public void testAwaitReadyQueue() throws Exception {
+    conf.setFloat("fetcher.server.delay", 0.3f);
+    conf.setInt(PARAM_FETCH_MAX_THREADS_PER_QUEUE, 1);
+    TasksMonitor tasksMonitor = new TasksMonitor(conf);
+
+    assertFalse("No queue at all", tasksMonitor.awaitReadyQueue(50));
+
+    tasksMonitor.produce(0, "http://www.example.com/1.html", WebPage.newBuilder().build());
+    tasksMonitor.produce(0, "http://www.example.com/2.html", WebPage.newBuilder().build());
+    assertTrue(tasksMonitor.awaitReadyQueue(0));
+
+    FetchTask task = tasksMonitor.consume(null);
+    assertNotNull(task);
+    assertNull("The only thread slot of the queue is taken", tasksMonitor.consume(null));
+    tasksMonitor.finish(task);
+
+    // The queue is not fetchable until the crawl delay elapsed
+    assertNull(tasksMonitor.consume(null));
+    long startTime = System.currentTimeMillis();
+    assertTrue(tasksMonitor.awaitReadyQueue(2000));
+    long elapsed = System.currentTimeMillis() - startTime;
+    assertTrue("Woken up too early : " + elapsed, elapsed >= 200);
+    assertTrue("Woken up too late : " + elapsed, elapsed < 1500);
+
+    assertNotNull(tasksMonitor.consume(null));
+  }
+}
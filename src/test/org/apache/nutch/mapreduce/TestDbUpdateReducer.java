@@ -0,0 +1,84 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nutch.mapreduce;
+
+import org.apache.nutch.crawl.SimHashIndex;
+import org.apache.nutch.crawl.SimHashSignature;
+import org.apache.nutch.mapreduce.DbUpdateReducer.NearDuplicateOriginal;
+import org.apache.nutch.storage.WebPage;
+import org.apache.nutch.util.PageMetadata;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests marking near duplicates in the update
+ */
+public class TestDbUpdateReducer {
+
+  private static final int MAX_DISTANCE = 3;
+
+  private static final String ORIGINAL_URL = "http://www.example.com/news/1.html";
+  private static final String DUPLICATE_URL = "http://www.example.com/news/1.html?from=home";
+
+  private static WebPage newPage(long fingerprint) {
+    WebPage page = WebPage.newBuilder().build();
+    page.setSignature(ByteBuffer.wrap(ByteBuffer.allocate(SimHashSignature.SIZE).putLong(fingerprint).array()));
+    return page;
+  }
+
+  private static boolean mark(String url, WebPage page) {
+    return DbUpdateReducer.markNearDuplicate(new SimHashIndex<NearDuplicateOriginal>(MAX_DISTANCE, 100), url, page);
+  }
+
+  @Test
+  public void testMarkNearDuplicate() {
+    long fingerprint = 0x0123456789abcdefL;
+    SimHashIndex<NearDuplicateOriginal> index = new SimHashIndex<>(MAX_DISTANCE, 100);
+
+    WebPage original = newPage(fingerprint);
+    assertFalse(DbUpdateReducer.markNearDuplicate(index, ORIGINAL_URL, original));
+    assertFalse(PageMetadata.has(original, PageMetadata.NEAR_DUPLICATE_OF));
+
+    WebPage duplicate = newPage(fingerprint ^ 0x3L);
+    assertTrue(DbUpdateReducer.markNearDuplicate(index, DUPLICATE_URL, duplicate));
+    assertEquals(ORIGINAL_URL, PageMetadata.getString(duplicate, PageMetadata.NEAR_DUPLICATE_OF));
+    assertEquals(fingerprint, PageMetadata.getLong(duplicate, PageMetadata.NEAR_DUPLICATE_FINGERPRINT, 0));
+
+    // Refetched in an update without the original, the page is still a near duplicate of it
+    duplicate.setSignature(newPage(fingerprint ^ 0x5L).getSignature());
+    assertTrue(mark(DUPLICATE_URL, duplicate));
+    assertEquals(ORIGINAL_URL, PageMetadata.getString(duplicate, PageMetadata.NEAR_DUPLICATE_OF));
+
+    // The page has changed beyond the distance from the original
+    duplicate.setSignature(newPage(fingerprint ^ 0xf0L).getSignature());
+    assertFalse(mark(DUPLICATE_URL, duplicate));
+    assertFalse(PageMetadata.has(duplicate, PageMetadata.NEAR_DUPLICATE_OF));
+    assertFalse(PageMetadata.has(duplicate, PageMetadata.NEAR_DUPLICATE_FINGERPRINT));
+  }
+
+  @Test
+  public void testMarkWithoutFingerprint() {
+    // A mark without the fingerprint of the original can not be checked, it is cleared
+    WebPage page = newPage(0x0123456789abcdefL);
+    PageMetadata.putString(page, PageMetadata.NEAR_DUPLICATE_OF, ORIGINAL_URL);
+    assertFalse(mark(DUPLICATE_URL, page));
+    assertFalse(PageMetadata.has(page, PageMetadata.NEAR_DUPLICATE_OF));
+  }
+}
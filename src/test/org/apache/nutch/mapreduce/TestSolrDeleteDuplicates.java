@@ -0,0 +1,68 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nutch.mapreduce;
+
+import org.apache.nutch.mapreduce.SolrDeleteDuplicates.SolrRecord;
+import org.apache.nutch.util.WritableTestUtils;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests merging the records of a digest in the combiner and the reducer
+ */
+public class TestSolrDeleteDuplicates {
+
+  @Test
+  public void testMerge() {
+    SolrRecord a = new SolrRecord("a", 1.0f, 100);
+    SolrRecord b = new SolrRecord("b", 2.0f, 100);
+    SolrRecord c = new SolrRecord("c", 2.0f, 200);
+    SolrRecord d = new SolrRecord("d", 2.0f, 200);
+
+    SolrRecord recordToKeep = SolrDeleteDuplicates.merge(Arrays.asList(a, b, c, d));
+    assertEquals("c", recordToKeep.getId());
+    assertEquals(new HashSet<>(Arrays.asList("a", "b", "d")), new HashSet<>(recordToKeep.getDuplicateIds()));
+
+    // Combined in any order and any groups, the same record is kept
+    SolrRecord combined1 = SolrDeleteDuplicates.merge(Arrays.asList(d, a));
+    SolrRecord combined2 = SolrDeleteDuplicates.merge(Arrays.asList(b, c));
+    recordToKeep = SolrDeleteDuplicates.merge(Arrays.asList(combined1, combined2));
+    assertEquals("c", recordToKeep.getId());
+    assertEquals(new HashSet<>(Arrays.asList("a", "b", "d")), new HashSet<>(recordToKeep.getDuplicateIds()));
+
+    recordToKeep = SolrDeleteDuplicates.merge(Collections.singletonList(a));
+    assertEquals("a", recordToKeep.getId());
+    assertTrue(recordToKeep.getDuplicateIds().isEmpty());
+  }
+
+  @Test
+  public void testWritable() throws Exception {
+    SolrRecord record = SolrDeleteDuplicates.merge(Arrays.asList(
+        new SolrRecord("a", 1.0f, 100), new SolrRecord("b", 2.0f, 100)));
+
+    SolrRecord copy = (SolrRecord) WritableTestUtils.writeRead(record, null);
+    assertEquals("b", copy.getId());
+    assertEquals(2.0f, copy.getBoost(), 0.0f);
+    assertEquals(100, copy.getTstamp());
+    assertEquals(Collections.singletonList("a"), copy.getDuplicateIds());
+  }
+}
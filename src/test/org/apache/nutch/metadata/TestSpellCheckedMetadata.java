@@ -259,6 +259,54 @@ public class TestSpellCheckedMetadata {
     assertEquals("text/html", result.get(Metadata.CONTENT_TYPE));
   }
 
+  /** Header names of real responses, well-known, misspelled and unknown ones. */
+  private static final String[] RESPONSE_HEADERS = { "Content-Type",
+      "content-type", "Content-Length", "Last-Modified", "Date", "Server",
+      "Connection", "Transfer-Encoding", "Content-Encoding", "ETag", "Expires",
+      "Cache-Control", "Pragma", "Vary", "Set-Cookie", "Accept-Ranges",
+      "Location", "X-Powered-By", "X-Cache", "X-Frame-Options", "Via", "Age",
+      "Strict-Transport-Security", "CF-RAY", "P3P", "X-AspNet-Version",
+      "ContentType", "contntype", "Content_Language", "X-Varnish", "Keep-Alive" };
+
+  /** Test the memoized normalization against the spell checking. */
+  @Test
+  public void testNormalizedNameSameAsSpellCheck() {
+    for (int i = 0; i < 3; i++) {
+      for (String name : RESPONSE_HEADERS) {
+        assertEquals(name, SpellCheckedMetadata.spellCheck(name),
+            SpellCheckedMetadata.getNormalizedName(name));
+      }
+    }
+    assertEquals("", SpellCheckedMetadata.getNormalizedName(""));
+    assertEquals("123", SpellCheckedMetadata.getNormalizedName("123"));
+  }
+
+  /**
+   * Benchmark of the name normalization on real response headers.
+   */
+  @Test
+  public final void testNormalizationSpeed() {
+    int length = 0;
+    long start = System.currentTimeMillis();
+    for (int i = 0; i < NUM_ITERATIONS; i++) {
+      for (String name : RESPONSE_HEADERS) {
+        length += SpellCheckedMetadata.spellCheck(name).length();
+      }
+    }
+    long spellCheckTime = System.currentTimeMillis() - start;
+
+    start = System.currentTimeMillis();
+    for (int i = 0; i < NUM_ITERATIONS; i++) {
+      for (String name : RESPONSE_HEADERS) {
+        length += SpellCheckedMetadata.getNormalizedName(name).length();
+      }
+    }
+    System.out.println(NUM_ITERATIONS * RESPONSE_HEADERS.length
+        + " header names normalization time, spell check:" + spellCheckTime
+        + "ms, memoized:" + (System.currentTimeMillis() - start) + "ms ("
+        + length + ")");
+  }
+
   /**
    * IO Test method, usable only when you plan to do changes in metadata to
    * measure relative performance impact.
@@ -0,0 +1,99 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nutch.net;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.nutch.util.NutchConfiguration;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * Test cases for CachingHostResolver
+ */
+public class TestCachingHostResolver {
+
+  /** Knows only hosts starting with "www", counts the lookups */
+  public static class CountingResolver implements HostResolver {
+    static final AtomicInteger lookups = new AtomicInteger();
+
+    @Override
+    public InetAddress resolve(String host) throws UnknownHostException {
+      lookups.incrementAndGet();
+      if (!host.startsWith("www")) {
+        throw new UnknownHostException(host);
+      }
+      return InetAddress.getByAddress(host, new byte[] {10, 0, 0, (byte) host.length()});
+    }
+  }
+
+  private Configuration conf;
+
+  @Before
+  public void setUp() {
+    conf = NutchConfiguration.create();
+    conf.set(CachingHostResolver.RESOLVER_CLASS, CountingResolver.class.getName());
+    CountingResolver.lookups.set(0);
+  }
+
+  @Test
+  public void testCache() throws Exception {
+    CachingHostResolver resolver = new CachingHostResolver(conf);
+
+    InetAddress address = resolver.resolve("www.example.com");
+    assertSame(address, resolver.resolve("www.example.com"));
+    assertEquals(1, CountingResolver.lookups.get());
+
+    for (int i = 0; i < 2; ++i) {
+      try {
+        resolver.resolve("unknown.example.com");
+        fail("Unknown host should not be resolved");
+      } catch (UnknownHostException ignored) {
+      }
+    }
+    assertEquals("Unknown hosts are cached too", 2, CountingResolver.lookups.get());
+  }
+
+  @Test
+  public void testExpire() throws Exception {
+    conf.setLong(CachingHostResolver.CACHE_TTL, 0);
+    CachingHostResolver resolver = new CachingHostResolver(conf);
+
+    resolver.resolve("www.example.com");
+    resolver.resolve("www.example.com");
+    assertEquals(2, CountingResolver.lookups.get());
+  }
+
+  @Test
+  public void testPrefetch() throws Exception {
+    CachingHostResolver resolver = new CachingHostResolver(conf);
+
+    resolver.prefetch("www.example.com");
+    for (int i = 0; i < 100 && CountingResolver.lookups.get() == 0; ++i) {
+      Thread.sleep(10);
+    }
+    Thread.sleep(50);
+
+    resolver.resolve("www.example.com");
+    assertEquals("The host should be resolved by the prefetcher", 1, CountingResolver.lookups.get());
+  }
+}
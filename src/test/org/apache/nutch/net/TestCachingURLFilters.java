@@ -0,0 +1,93 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nutch.net;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.nutch.util.NutchConfiguration;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import static org.junit.Assert.*;
+
+/**
+ * Test cases for CachingURLFilters
+ */
+public class TestCachingURLFilters {
+
+  private File rulesDir;
+  private File rulesFile;
+  private Configuration conf;
+
+  @Before
+  public void setUp() throws Exception {
+    rulesDir = Files.createTempDirectory("url-filter-rules").toFile();
+    rulesFile = new File(rulesDir, "test-regex-urlfilter.txt");
+    writeRules("-\\.gif$\n+^http://\n-.");
+
+    conf = NutchConfiguration.create();
+    conf.setClassLoader(new URLClassLoader(new URL[] {rulesDir.toURI().toURL()}, conf.getClassLoader()));
+    conf.set(URLFilters.URLFILTER_ORDER, RegexURLFilter.class.getName());
+    conf.set(RegexURLFilter.URLFILTER_REGEX_FILE, rulesFile.getName());
+    conf.unset(RegexURLFilter.URLFILTER_REGEX_RULES);
+    conf.setInt(CachingURLFilters.CACHE_CHECK_INTERVAL, 0);
+  }
+
+  @After
+  public void tearDown() {
+    rulesFile.delete();
+    rulesDir.delete();
+  }
+
+  @Test
+  public void testCache() throws Exception {
+    CachingURLFilters urlFilters = CachingURLFilters.get(conf);
+    assertSame(urlFilters, CachingURLFilters.get(conf));
+
+    for (int i = 0; i < 3; ++i) {
+      assertEquals("http://www.example.com/", urlFilters.filter("http://www.example.com/"));
+      assertNull(urlFilters.filter("http://www.example.com/logo.gif"));
+      assertNull(urlFilters.normalizeAndFilter("ftp://ftp.example.com/", URLNormalizers.SCOPE_OUTLINK));
+    }
+
+    assertEquals(4, urlFilters.getMisses());
+    assertEquals(8, urlFilters.getHits());
+  }
+
+  @Test
+  public void testReload() throws Exception {
+    CachingURLFilters urlFilters = new CachingURLFilters(conf);
+    assertEquals("http://www.example.com/", urlFilters.filter("http://www.example.com/"));
+
+    writeRules("-^http://www\\.example\\.com/\n+.");
+    // Make sure the modification time is changed on file systems with low time resolution
+    rulesFile.setLastModified(rulesFile.lastModified() + 2000);
+
+    assertNull(urlFilters.filter("http://www.example.com/"));
+    assertEquals("Rules are reloaded, so the url is not hit", 2, urlFilters.getMisses());
+  }
+
+  private void writeRules(String rules) throws Exception {
+    Files.write(rulesFile.toPath(), rules.getBytes(StandardCharsets.UTF_8));
+  }
+}
@@ -0,0 +1,176 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nutch.net;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.nutch.util.NutchConfiguration;
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests CompiledRegexRules gives the same result as matching the java regex rules one by one
+ */
+public class TestCompiledRegexRules {
+
+  private static final String SAMPLES = System.getProperty("test.src.dir", "src/test")
+      + "/org/apache/nutch/net/sample";
+
+  private static final List<String> URLS = Arrays.asList(
+      "http://www.example.com/",
+      "http://www.example.com/index.html",
+      "https://www.example.com/a/b/c/a/b/c/a/b/c/d.html",
+      "http://www.example.com/img/logo.GIF",
+      "http://www.example.com/img/logo.gif",
+      "http://www.example.com/search?q=nutch&page=2",
+      "http://www.example.com/detail/12345.html",
+      "http://www.example.com/detail/abc.html",
+      "ftp://ftp.example.com/pub/file.zip",
+      "mailto:nobody@example.com",
+      "file:///etc/passwd",
+      "http://www.example.com/path\n",
+      "http://www.example.com/line\nbreak",
+      "http://sh.lianjia.com/ershoufang/pg12",
+      "http://sh.lianjia.com/ershoufang/SH0001/",
+      "http://www.example.com/~user/[1]",
+      ""
+  );
+
+  private static final List<String> REGEXES = Arrays.asList(
+      "^(file|ftp|mailto):",
+      "\\.(gif|GIF|jpg|JPG|png|PNG|ico|ICO|css|zip)$",
+      "[?*!@=]",
+      "(/[^/]+)/[^/]+\\1/[^/]+\\1/",
+      "^https?://([a-z0-9]*\\.)*example\\.com/",
+      "^http://sh.lianjia.com/ershoufang/pg(.*)$",
+      "^http://sh.lianjia.com/ershoufang/SH(.+)/{0,1}$",
+      "/detail/\\d+\\.html$",
+      "/detail/\\w+?\\.html",
+      "(?:/[a-c]){3,}",
+      "[\\w-]+",
+      "[a-z-9]",
+      "[^a-zA-Z0-9:/.]",
+      "\\[\\d\\]",
+      "~user",
+      "(?i)logo\\.gif",
+      "path$",
+      "\\bexample\\b",
+      "^http|ftp$",
+      "^$",
+      ".",
+      "-.",
+      ""
+  );
+
+  @Test
+  public void testTranslate() {
+    for (String regex : REGEXES) {
+      Pattern pattern = Pattern.compile(regex);
+      List<RegexRule> rules = Arrays.asList(createRule(true, regex));
+      CompiledRegexRules compiledRules = new CompiledRegexRules(rules, 10000);
+      for (String url : URLS) {
+        boolean expected = pattern.matcher(url).find();
+        assertEquals(regex + " on " + url, expected, compiledRules.match(url) != null);
+      }
+    }
+
+    assertNotNull(CompiledRegexRules.translate("^(file|ftp|mailto):"));
+    assertNull("Back references are not supported", CompiledRegexRules.translate("(a)\\1"));
+    assertNull("Embedded flags are not supported", CompiledRegexRules.translate("(?i)a"));
+    assertNull("Possessive quantifiers are not supported", CompiledRegexRules.translate("a++"));
+  }
+
+  @Test
+  public void testFirstMatchWins() {
+    List<RegexRule> rules = new ArrayList<>();
+    rules.add(createRule(false, "\\.gif$"));
+    rules.add(createRule(true, "^http://www\\.example\\.com/img/"));
+    rules.add(createRule(false, "(/[^/]+)/[^/]+\\1/[^/]+\\1/"));
+    rules.add(createRule(true, "^https?://"));
+    rules.add(createRule(false, "."));
+    CompiledRegexRules compiledRules = new CompiledRegexRules(rules, 10000);
+
+    assertEquals(Boolean.FALSE, compiledRules.match("http://www.example.com/img/logo.gif"));
+    assertEquals(Boolean.TRUE, compiledRules.match("http://www.example.com/img/logo.png"));
+    assertEquals(Boolean.FALSE, compiledRules.match("https://www.example.com/a/b/a/b/a/d.html"));
+    assertEquals(Boolean.TRUE, compiledRules.match("https://www.example.com/a/b/c/d.html"));
+    assertEquals(Boolean.FALSE, compiledRules.match("ftp://ftp.example.com/"));
+    assertNull(compiledRules.match(""));
+  }
+
+  @Test
+  public void testSamples() throws Exception {
+    for (String sample : Arrays.asList("Benchmarks", "Bigbit", "Ccc", "IntranetCrawling", "Tmail", "WholeWebCrawling")) {
+      String rules = new String(Files.readAllBytes(new File(SAMPLES, sample + ".rules").toPath()), StandardCharsets.UTF_8);
+      List<String> urls = new ArrayList<>();
+      for (String line : Files.readAllLines(new File(SAMPLES, sample + ".urls").toPath(), StandardCharsets.UTF_8)) {
+        if (!line.isEmpty()) {
+          urls.add(line.substring(1));
+        }
+      }
+
+      RegexURLFilter filter = createFilter(rules, false);
+      RegexURLFilter compiledFilter = createFilter(rules, true);
+      for (String url : urls) {
+        assertEquals(sample + " : " + url, filter.filter(url), compiledFilter.filter(url));
+      }
+
+      int loops = 200;
+      long regexTime = time(filter, urls, loops);
+      long compiledTime = time(compiledFilter, urls, loops);
+      RegexURLFilterBase.LOG.info(String.format("%s : %d urls x %d loops, regex %dms, compiled %dms",
+          sample, urls.size(), loops, regexTime, compiledTime));
+    }
+  }
+
+  private RegexURLFilter createFilter(String rules, boolean compile) {
+    Configuration conf = NutchConfiguration.create();
+    conf.set(RegexURLFilter.URLFILTER_REGEX_RULES, rules);
+    conf.setBoolean(RegexURLFilter.URLFILTER_REGEX_COMPILE, compile);
+    RegexURLFilter filter = new RegexURLFilter();
+    filter.setConf(conf);
+    return filter;
+  }
+
+  private long time(URLFilter filter, List<String> urls, int loops) {
+    long startTime = System.currentTimeMillis();
+    for (int i = 0; i < loops; ++i) {
+      for (String url : urls) {
+        filter.filter(url);
+      }
+    }
+    return System.currentTimeMillis() - startTime;
+  }
+
+  private RegexRule createRule(boolean sign, String regex) {
+    final Pattern pattern = Pattern.compile(regex);
+    return new RegexRule(sign, regex) {
+      @Override
+      protected boolean match(String url) {
+        return pattern.matcher(url).find();
+      }
+    };
+  }
+}
@@ -0,0 +1,180 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nutch.protocol;
+
+import crawlercommons.robots.SimpleRobotRules;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.nutch.util.NutchConfiguration;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.reflect.Proxy;
+import java.net.URL;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * Test cases for RobotRulesCache
+ */
+public class TestRobotRulesCache {
+
+  private Configuration conf;
+
+  @Before
+  public void setUp() {
+    conf = NutchConfiguration.create();
+  }
+
+  @Test
+  public void testCacheKey() throws Exception {
+    assertEquals("http:www.example.com:80", RobotRulesCache.getCacheKey(new URL("http://WWW.Example.com/a/b.html")));
+    assertEquals("https:www.example.com:8443", RobotRulesCache.getCacheKey(new URL("https://www.example.com:8443/")));
+  }
+
+  @Test
+  public void testTtl() throws Exception {
+    RobotRulesCache cache = new RobotRulesCache(conf);
+
+    cache.put("http:a.com:80", RobotRulesParser.FORBID_ALL_RULES, cache.getTtl());
+    cache.put("http:b.com:80", RobotRulesParser.EMPTY_RULES, 0);
+    // No longer than the default ttl
+    cache.put("http:c.com:80", RobotRulesParser.EMPTY_RULES, Long.MAX_VALUE);
+    Thread.sleep(5);
+
+    assertSame(RobotRulesParser.FORBID_ALL_RULES, cache.get("http:a.com:80"));
+    assertNull("Expired by its own ttl", cache.get("http:b.com:80"));
+    assertSame(RobotRulesParser.EMPTY_RULES, cache.get("http:c.com:80"));
+    assertNull(cache.get("http:d.com:80"));
+
+    assertEquals("2", cache.getParams().get("hits"));
+    assertEquals("2", cache.getParams().get("misses"));
+    assertEquals("1", cache.getParams().get("expired"));
+  }
+
+  @Test
+  public void testBounded() throws Exception {
+    conf.setInt(RobotRulesCache.CACHE_SIZE, 10);
+    RobotRulesCache cache = new RobotRulesCache(conf);
+
+    for (int i = 0; i < 100; ++i) {
+      cache.put("http:" + i + ".com:80", RobotRulesParser.EMPTY_RULES, cache.getTtl());
+    }
+    assertTrue(Long.parseLong(cache.getParams().get("rules")) <= 10);
+  }
+
+  @Test
+  public void testPrefetch() throws Exception {
+    RobotRulesCache cache = new RobotRulesCache(conf);
+    AtomicInteger requests = new AtomicInteger();
+    CountDownLatch done = new CountDownLatch(1);
+
+    Protocol protocol = (Protocol) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] {Protocol.class},
+        (proxy, method, args) -> {
+          if (!method.getName().equals("getRobotRules")) {
+            return null;
+          }
+
+          Thread.sleep(50);
+          requests.incrementAndGet();
+          String url = (String) args[0];
+          cache.put(RobotRulesCache.getCacheKey(new URL(url)), RobotRulesParser.EMPTY_RULES, cache.getTtl());
+          done.countDown();
+          return RobotRulesParser.EMPTY_RULES;
+        });
+
+    // The same host is fetched only once
+    cache.prefetch(protocol, "http://www.example.com/1.html");
+    cache.prefetch(protocol, "http://www.example.com/2.html");
+    assertTrue(done.await(5, TimeUnit.SECONDS));
+    cache.prefetch(protocol, "http://www.example.com/3.html");
+
+    Thread.sleep(100);
+    assertEquals(1, requests.get());
+    assertSame(RobotRulesParser.EMPTY_RULES, cache.get("http:www.example.com:80"));
+  }
+
+  @Test
+  public void testCheck() throws Exception {
+    RobotRulesCache cache = new RobotRulesCache(conf);
+    AtomicInteger requests = new AtomicInteger();
+    CountDownLatch done = new CountDownLatch(1);
+
+    SimpleRobotRules robotRules = new SimpleRobotRules();
+    robotRules.addRule("/private/", false);
+
+    Protocol protocol = (Protocol) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] {Protocol.class},
+        (proxy, method, args) -> {
+          if (!method.getName().equals("getRobotRules")) {
+            return null;
+          }
+
+          requests.incrementAndGet();
+          String url = (String) args[0];
+          cache.put(RobotRulesCache.getCacheKey(new URL(url)), robotRules, cache.getTtl());
+          done.countDown();
+          return robotRules;
+        });
+
+    // The rules are not ready, the fetch is deferred instead of waiting for robots.txt
+    assertSame(ProtocolStatusUtils.STATUS_WOULDBLOCK, cache.check(protocol, "http://www.example.com/private/1.html"));
+    assertTrue(done.await(5, TimeUnit.SECONDS));
+
+    assertSame(ProtocolStatusUtils.STATUS_ROBOTS_DENIED, cache.check(protocol, "http://www.example.com/private/1.html"));
+    assertNull(cache.check(protocol, "http://www.example.com/public/1.html"));
+    assertEquals(1, requests.get());
+
+    // Without prefetchers, the rules are fetched at once
+    conf.setInt(RobotRulesCache.PREFETCH_THREADS, 0);
+    RobotRulesCache blockingCache = new RobotRulesCache(conf);
+    assertNull(blockingCache.get("http:www.example.com:80"));
+    assertSame(ProtocolStatusUtils.STATUS_ROBOTS_DENIED,
+        blockingCache.check(protocol, "http://www.example.com/private/2.html"));
+    assertEquals(2, requests.get());
+  }
+
+  @Test
+  public void testCheckWithoutCachingProtocol() throws Exception {
+    RobotRulesCache cache = new RobotRulesCache(conf);
+    CountDownLatch done = new CountDownLatch(1);
+
+    // Like File and Sftp, the rules are returned but never put into the cache
+    Protocol protocol = (Protocol) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] {Protocol.class},
+        (proxy, method, args) -> {
+          if (!method.getName().equals("getRobotRules")) {
+            return null;
+          }
+
+          done.countDown();
+          return RobotRulesParser.EMPTY_RULES;
+        });
+
+    String url = "file:///data/pages/1.html";
+    assertSame(ProtocolStatusUtils.STATUS_WOULDBLOCK, cache.check(protocol, url));
+    assertTrue(done.await(5, TimeUnit.SECONDS));
+
+    // The task is deferred only once
+    long deadline = System.currentTimeMillis() + 5000;
+    while (cache.check(protocol, url) == ProtocolStatusUtils.STATUS_WOULDBLOCK) {
+      assertTrue("The rules are never cached", System.currentTimeMillis() < deadline);
+      Thread.sleep(10);
+    }
+    assertNull(cache.check(protocol, url));
+  }
+}
@@ -0,0 +1,182 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.apache.nutch.storage;
+
+import org.apache.avro.util.Utf8;
+import org.apache.gora.query.Query;
+import org.apache.gora.query.Result;
+import org.apache.gora.store.DataStore;
+import org.apache.nutch.util.AbstractNutchTest;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.reflect.Proxy;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeMap;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests BatchedRowReader against an in-memory store.
+ */
+public class TestBatchedRowReader extends AbstractNutchTest {
+
+  @Override
+  @Before
+  public void setUp() throws Exception {
+    super.setUp();
+
+    // Only even keys exist
+    for (int i = 0; i < 100; i += 2) {
+      WebPage page = WebPage.newBuilder().build();
+      page.setTitle(new Utf8("title" + i));
+      webPageStore.put(key(i), page);
+    }
+    webPageStore.flush();
+  }
+
+  @Override
+  @After
+  public void tearDown() throws Exception {
+    super.tearDown();
+  }
+
+  private static String key(int i) {
+    return String.format("com.example.www:http/%03d", i);
+  }
+
+  @Test
+  public void testSortedKeys() throws Exception {
+    BatchedRowReader<WebPage> reader = new BatchedRowReader<>(webPageStore, 10, null);
+
+    for (int i = 0; i < 99; i++) {
+      WebPage page = reader.get(key(i));
+      if (i % 2 == 0) {
+        assertNotNull(key(i), page);
+        assertEquals("title" + i, page.getTitle().toString());
+      } else {
+        assertNull(key(i), page);
+      }
+    }
+
+    assertEquals(50, reader.getHits());
+    assertEquals(49, reader.getMisses());
+    assertTrue("Rows should be prefetched in blocks", reader.getBlocks() <= 50 / 10 + 1);
+  }
+
+  @Test
+  public void testUnorderedKeys() throws Exception {
+    BatchedRowReader<WebPage> reader = new BatchedRowReader<>(webPageStore, 10, null);
+
+    for (int i : new int[] {50, 51, 10, 98, 0, 52}) {
+      WebPage page = reader.get(key(i));
+      assertEquals(key(i), i % 2 == 0, page != null);
+    }
+
+    reader.reset();
+    assertNotNull(reader.get(key(50)));
+  }
+
+  @Test
+  public void testSingleGet() throws Exception {
+    BatchedRowReader<WebPage> reader = new BatchedRowReader<>(webPageStore, 1, null);
+
+    assertNotNull(reader.get(key(2)));
+    assertNull(reader.get(key(3)));
+    assertEquals(0, reader.getBlocks());
+  }
+
+  /**
+   * Gora's ResultBase reuses the row object, and clears the row returned last when next() is called
+   * */
+  @SuppressWarnings("unchecked")
+  private static DataStore<String, WebPage> newReusingStore(TreeMap<String, String> titles) {
+    ClassLoader classLoader = TestBatchedRowReader.class.getClassLoader();
+    return (DataStore<String, WebPage>) Proxy.newProxyInstance(classLoader, new Class<?>[] { DataStore.class },
+        (store, storeMethod, storeArgs) -> {
+          if (!storeMethod.getName().equals("newQuery")) {
+            return null;
+          }
+
+          String[] startKey = new String[1];
+          int[] limit = { -1 };
+          return Proxy.newProxyInstance(classLoader, new Class<?>[] { Query.class }, (query, method, args) -> {
+            switch (method.getName()) {
+              case "setStartKey":
+                startKey[0] = (String) args[0];
+                return null;
+              case "setLimit":
+                limit[0] = ((Number) args[0]).intValue();
+                return null;
+              case "execute":
+                return newReusingResult(titles.tailMap(startKey[0], true), limit[0]);
+              default:
+                return null;
+            }
+          });
+        });
+  }
+
+  private static Result<String, WebPage> newReusingResult(Map<String, String> titles, int limit) {
+    WebPage row = WebPage.newBuilder().build();
+    Iterator<Map.Entry<String, String>> it = titles.entrySet().iterator();
+    String[] key = new String[1];
+    int[] count = { 0 };
+
+    @SuppressWarnings("unchecked")
+    Result<String, WebPage> result = (Result<String, WebPage>) Proxy.newProxyInstance(
+        TestBatchedRowReader.class.getClassLoader(), new Class<?>[] { Result.class }, (proxy, method, args) -> {
+          switch (method.getName()) {
+            case "next":
+              row.clear();
+              if (!it.hasNext() || (limit > 0 && count[0] >= limit)) {
+                return false;
+              }
+              Map.Entry<String, String> entry = it.next();
+              key[0] = entry.getKey();
+              row.setTitle(new Utf8(entry.getValue()));
+              count[0]++;
+              return true;
+            case "getKey":
+              return key[0];
+            case "get":
+              return row;
+            default:
+              return null;
+          }
+        });
+    return result;
+  }
+
+  @Test
+  public void testRowsAreCopied() throws Exception {
+    TreeMap<String, String> titles = new TreeMap<>(BatchedRowReader.KEY_COMPARATOR);
+    for (int i = 0; i < 100; i += 2) {
+      titles.put(key(i), "title" + i);
+    }
+    BatchedRowReader<WebPage> reader = new BatchedRowReader<>(newReusingStore(titles), 10, null);
+
+    for (int i = 0; i < 100; i += 2) {
+      WebPage page = reader.get(key(i));
+      assertNotNull(key(i), page);
+      assertEquals("title" + i, page.getTitle().toString());
+    }
+    assertTrue(reader.getBlocks() < 50);
+  }
+}
@@ -0,0 +1,165 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nutch.tools;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.nutch.util.NutchConfiguration;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.apache.nutch.metadata.Nutch.PARAM_NUTCH_REPORT_DIR;
+import static org.junit.Assert.*;
+
+/**
+ * Tests the report queue, flushing and rotation of NutchMetrics
+ */
+public class TestNutchMetrics {
+
+  private static final String REPORT_FILE = "test-report.txt";
+
+  private Path tmpDir;
+  private Configuration conf;
+
+  @Before
+  public void setUp() throws Exception {
+    tmpDir = Files.createTempDirectory("nutch-metrics-");
+    conf = NutchConfiguration.create();
+    conf.set(PARAM_NUTCH_REPORT_DIR, tmpDir.resolve("report").toString());
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    FileUtils.deleteDirectory(tmpDir.toFile());
+  }
+
+  private static String line(int i) {
+    return "http://www.example.com/" + i + ".html\n";
+  }
+
+  private static List<String> readLines(Path path) throws Exception {
+    return Files.exists(path) ? Files.readAllLines(path) : new ArrayList<>();
+  }
+
+  /** All the lines of the report file and its rotated files */
+  private static List<String> readAllLines(NutchMetrics metrics) throws Exception {
+    List<String> lines = new ArrayList<>();
+    for (Path path : listReportFiles(metrics)) {
+      lines.addAll(readLines(path));
+    }
+    return lines;
+  }
+
+  private static List<Path> listReportFiles(NutchMetrics metrics) throws Exception {
+    try (Stream<Path> paths = Files.list(metrics.getReportDir())) {
+      return paths.filter(p -> p.getFileName().toString().startsWith(REPORT_FILE)).sorted().collect(Collectors.toList());
+    }
+  }
+
+  @Test
+  public void testQueueOverflowDrops() throws Exception {
+    conf.setInt(NutchMetrics.PARAM_REPORT_BUFFER_CAPACITY, 100);
+    NutchMetrics metrics = new NutchMetrics(conf, false);
+
+    for (int i = 0; i < 150; ++i) {
+      metrics.writeReport(line(i), REPORT_FILE);
+    }
+    assertEquals(100, metrics.getPendingReportCount());
+    assertEquals(50, metrics.getDroppedReportCount());
+    assertTrue("Nothing is written before a flush", readLines(metrics.getReportDir().resolve(REPORT_FILE)).isEmpty());
+
+    // The first reports are kept, the latest are dropped
+    metrics.flush();
+    List<String> lines = readLines(metrics.getReportDir().resolve(REPORT_FILE));
+    assertEquals(100, lines.size());
+    assertEquals(line(0).trim(), lines.get(0));
+    assertEquals(line(99).trim(), lines.get(99));
+    assertEquals(0, metrics.getPendingReportCount());
+
+    // There is room again once the queue is drained
+    metrics.writeReport(line(200), REPORT_FILE);
+    assertEquals(50, metrics.getDroppedReportCount());
+    metrics.close();
+  }
+
+  @Test
+  public void testFlushOnCleanup() throws Exception {
+    // The writer thread would not flush the file by itself during the test
+    conf.setLong(NutchMetrics.PARAM_REPORT_FLUSH_INTERVAL, 3600 * 1000L);
+    NutchMetrics metrics = new NutchMetrics(conf, true);
+    Path reportFile = metrics.getReportDir().resolve(REPORT_FILE);
+
+    for (int i = 0; i < 1000; ++i) {
+      metrics.writeReport(line(i), REPORT_FILE);
+    }
+
+    metrics.flush();
+    List<String> lines = readLines(reportFile);
+    assertEquals(1000, lines.size());
+    for (int i = 0; i < 1000; ++i) {
+      assertEquals(line(i).trim(), lines.get(i));
+    }
+
+    // Reports queued right before close are written by close
+    for (int i = 1000; i < 1100; ++i) {
+      metrics.writeReport(line(i), REPORT_FILE);
+    }
+    metrics.close();
+    assertEquals(1100, readLines(reportFile).size());
+    assertEquals(0, metrics.getDroppedReportCount());
+
+    // Reports after close are written at once
+    metrics.writeReport(line(1100), REPORT_FILE);
+    assertEquals(1101, readLines(reportFile).size());
+  }
+
+  @Test
+  public void testRotationAtSizeLimit() throws Exception {
+    int maxFileSize = 1000;
+    conf.setLong(NutchMetrics.PARAM_REPORT_MAX_FILE_SIZE, maxFileSize);
+    NutchMetrics metrics = new NutchMetrics(conf, false);
+
+    int count = 200;
+    int totalSize = 0;
+    for (int i = 0; i < count; ++i) {
+      metrics.writeReport(line(i), REPORT_FILE);
+      totalSize += line(i).length();
+    }
+    metrics.close();
+
+    List<Path> files = listReportFiles(metrics);
+    assertTrue("Expect rotated files, but got " + files, files.size() >= totalSize / maxFileSize);
+    for (Path file : files) {
+      assertTrue(file + " is too large", Files.size(file) <= maxFileSize);
+    }
+
+    // Nothing is lost by the rotation
+    List<String> lines = readAllLines(metrics);
+    assertEquals(count, lines.size());
+    for (int i = 0; i < count; ++i) {
+      assertTrue(lines.contains(line(i).trim()));
+    }
+  }
+}
@@ -0,0 +1,262 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nutch.util;
+
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests and an allocation benchmark for ContentDecoder
+ */
+public class TestContentDecoder {
+
+  private static final int PAGE_SIZE = 200 * 1024;
+  private static final int READ_BUFFER_SIZE = 8 * 1024;
+
+  /** A page of html-like text, compressible but not trivially */
+  private static byte[] newPage(int size) {
+    Random random = new Random(0);
+    String[] words = { "<div class=\"item\">", "</div>", "<a href=\"/page/", "\">", "</a>", "nutch", "crawl",
+        "fetch", "parse", "index", "the", "web", "\n" };
+    StringBuilder sb = new StringBuilder(size);
+    while (sb.length() < size) {
+      sb.append(words[random.nextInt(words.length)]).append(random.nextInt(1000)).append(' ');
+    }
+    return sb.substring(0, size).getBytes();
+  }
+
+  private static byte[] gzip(byte[] bytes) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    try (GZIPOutputStream gzip = new GZIPOutputStream(out)) {
+      gzip.write(bytes);
+    }
+    return out.toByteArray();
+  }
+
+  private static byte[] deflate(byte[] bytes, boolean nowrap) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    try (DeflaterOutputStream deflate = new DeflaterOutputStream(out, new Deflater(Deflater.DEFAULT_COMPRESSION, nowrap))) {
+      deflate.write(bytes);
+    }
+    return out.toByteArray();
+  }
+
+  /** Write the bytes in small pieces, as they are read from a socket */
+  private static byte[] decode(ContentDecoder.Encoding encoding, byte[] encoded, int sizeLimit, int pieceSize) {
+    try (ContentDecoder decoder = new ContentDecoder(encoding, sizeLimit)) {
+      for (int off = 0; off < encoded.length; off += pieceSize) {
+        decoder.write(encoded, off, Math.min(pieceSize, encoded.length - off));
+      }
+      return decoder.toByteArray();
+    }
+  }
+
+  @Test
+  public void testGzip() throws Exception {
+    byte[] page = newPage(PAGE_SIZE);
+    byte[] encoded = gzip(page);
+
+    for (int pieceSize : new int[] { 1, 7, READ_BUFFER_SIZE, encoded.length }) {
+      assertArrayEquals(page, decode(ContentDecoder.Encoding.GZIP, encoded, -1, pieceSize));
+    }
+  }
+
+  @Test
+  public void testGzipHeaderFields() throws Exception {
+    byte[] page = newPage(1000);
+    byte[] encoded = gzip(page);
+
+    // Set FEXTRA, FNAME and FCOMMENT
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    out.write(encoded, 0, 3);
+    out.write(4 | 8 | 16);
+    out.write(encoded, 4, 6);
+    out.write(new byte[] { 3, 0, 'a', 'b', 'c' });
+    out.write("page.html\0".getBytes());
+    out.write("comment\0".getBytes());
+    out.write(encoded, 10, encoded.length - 10);
+
+    assertArrayEquals(page, decode(ContentDecoder.Encoding.GZIP, out.toByteArray(), -1, 3));
+  }
+
+  @Test
+  public void testConcatenatedGzipMembers() throws Exception {
+    byte[] page = newPage(1000);
+    byte[] member = gzip(page);
+    byte[] encoded = Arrays.copyOf(member, member.length * 2);
+    System.arraycopy(member, 0, encoded, member.length, member.length);
+
+    byte[] expected = Arrays.copyOf(page, page.length * 2);
+    System.arraycopy(page, 0, expected, page.length, page.length);
+    assertArrayEquals(expected, decode(ContentDecoder.Encoding.GZIP, encoded, -1, 100));
+  }
+
+  @Test
+  public void testDeflate() throws Exception {
+    byte[] page = newPage(PAGE_SIZE);
+    // Zlib wrapped and raw deflate data are both accepted
+    assertArrayEquals(page, decode(ContentDecoder.Encoding.DEFLATE, deflate(page, false), -1, 1));
+    assertArrayEquals(page, decode(ContentDecoder.Encoding.DEFLATE, deflate(page, true), -1, READ_BUFFER_SIZE));
+    assertArrayEquals(page, DeflateUtils.inflateBestEffort(DeflateUtils.deflate(page)));
+  }
+
+  @Test
+  public void testSizeLimit() throws Exception {
+    byte[] page = newPage(PAGE_SIZE);
+    byte[] encoded = gzip(page);
+
+    for (int limit : new int[] { 0, 1, 1000, READ_BUFFER_SIZE, PAGE_SIZE - 1 }) {
+      try (ContentDecoder decoder = new ContentDecoder(ContentDecoder.Encoding.GZIP, limit)) {
+        decoder.write(encoded);
+        assertArrayEquals(Arrays.copyOf(page, limit), decoder.toByteArray());
+        assertTrue(decoder.isTruncated());
+        assertEquals(encoded.length, decoder.getEncodedLength());
+      }
+    }
+
+    assertArrayEquals(Arrays.copyOf(page, 1000), decode(ContentDecoder.Encoding.IDENTITY, page, 1000, 7));
+  }
+
+  @Test
+  public void testBestEffort() throws Exception {
+    byte[] page = newPage(PAGE_SIZE);
+    byte[] encoded = gzip(page);
+
+    // A truncated body is decoded as far as possible
+    byte[] decoded = decode(ContentDecoder.Encoding.GZIP, Arrays.copyOf(encoded, encoded.length / 2), -1, 100);
+    assertTrue(decoded.length > 0 && decoded.length < page.length);
+    assertArrayEquals(Arrays.copyOf(page, decoded.length), decoded);
+
+    // A body which is not gzip at all
+    assertNull(decode(ContentDecoder.Encoding.GZIP, page, -1, 100));
+    assertNull(GZIPUtils.unzipBestEffort(page));
+  }
+
+  @Test
+  public void testPooling() throws Exception {
+    byte[] encoded = gzip(newPage(PAGE_SIZE));
+    decode(ContentDecoder.Encoding.GZIP, encoded, -1, READ_BUFFER_SIZE);
+
+    String buffers = ContentDecoder.getParams().get("createdBuffers");
+    String inflaters = ContentDecoder.getParams().get("createdRawInflaters");
+    for (int i = 0; i < 10; ++i) {
+      decode(ContentDecoder.Encoding.GZIP, encoded, -1, READ_BUFFER_SIZE);
+    }
+    assertEquals(buffers, ContentDecoder.getParams().get("createdBuffers"));
+    assertEquals(inflaters, ContentDecoder.getParams().get("createdRawInflaters"));
+  }
+
+  /**
+   * The former path : the body is read into a ByteArrayOutputStream, then unzipped by a GZIPInputStream
+   * into another ByteArrayOutputStream
+   * */
+  private static byte[] readThenUnzip(InputStream in, int sizeLimit) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream(READ_BUFFER_SIZE);
+    byte[] bytes = new byte[READ_BUFFER_SIZE];
+    for (int i = in.read(bytes); i != -1; i = in.read(bytes)) {
+      out.write(bytes, 0, i);
+    }
+    byte[] compressed = out.toByteArray();
+
+    ByteArrayOutputStream outStream = new ByteArrayOutputStream(5 * compressed.length);
+    GZIPInputStream inStream = new GZIPInputStream(new ByteArrayInputStream(compressed));
+    byte[] buf = new byte[4096];
+    int written = 0;
+    for (int size = inStream.read(buf); size > 0; size = inStream.read(buf)) {
+      int len = Math.min(size, sizeLimit - written);
+      outStream.write(buf, 0, len);
+      written += len;
+      if (written >= sizeLimit) {
+        break;
+      }
+    }
+    inStream.close();
+    return outStream.toByteArray();
+  }
+
+  private static byte[] readDecoding(InputStream in, int sizeLimit) throws IOException {
+    byte[] bytes = new byte[READ_BUFFER_SIZE];
+    try (ContentDecoder decoder = new ContentDecoder(ContentDecoder.Encoding.GZIP, sizeLimit)) {
+      for (int i = in.read(bytes); i != -1; i = in.read(bytes)) {
+        decoder.write(bytes, 0, i);
+      }
+      return decoder.toByteArray();
+    }
+  }
+
+  private interface Decode {
+    byte[] apply(InputStream in, int sizeLimit) throws IOException;
+  }
+
+  /** The bytes allocated by the current thread per decoded page */
+  private static long allocatedBytesPerPage(com.sun.management.ThreadMXBean threads, byte[] encoded, int rounds,
+      Decode decode) throws IOException {
+    long id = Thread.currentThread().getId();
+    long start = threads.getThreadAllocatedBytes(id);
+    long decoded = 0;
+    for (int i = 0; i < rounds; ++i) {
+      decoded += decode.apply(new ByteArrayInputStream(encoded), Integer.MAX_VALUE).length;
+    }
+    assertEquals((long) PAGE_SIZE * rounds, decoded);
+    return (threads.getThreadAllocatedBytes(id) - start) / rounds;
+  }
+
+  @Test
+  public void testAllocationBenchmark() throws Exception {
+    Assume.assumeTrue(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean);
+    com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+    Assume.assumeTrue(threads.isThreadAllocatedMemorySupported() && threads.isThreadAllocatedMemoryEnabled());
+
+    byte[] page = newPage(PAGE_SIZE);
+    byte[] encoded = gzip(page);
+    int rounds = 200;
+
+    // Warm up, and check both paths decode the same bytes
+    for (int i = 0; i < 20; ++i) {
+      assertArrayEquals(page, readThenUnzip(new ByteArrayInputStream(encoded), Integer.MAX_VALUE));
+      assertArrayEquals(page, readDecoding(new ByteArrayInputStream(encoded), Integer.MAX_VALUE));
+    }
+
+    long former = allocatedBytesPerPage(threads, encoded, rounds, TestContentDecoder::readThenUnzip);
+    long streaming = allocatedBytesPerPage(threads, encoded, rounds, TestContentDecoder::readDecoding);
+
+    System.out.println(Params.formatAsLine(
+        "page", PAGE_SIZE,
+        "compressed", encoded.length,
+        "readThenUnzip(bytes/page)", former,
+        "streamingDecoder(bytes/page)", streaming
+    ));
+
+    // The pooled decoder allocates about the returned copy only
+    assertTrue(streaming < former / 2);
+    assertTrue(streaming < 2 * PAGE_SIZE);
+  }
+}
@@ -24,8 +24,14 @@ import org.junit.Test;
 
 import java.io.UnsupportedEncodingException;
 import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 
 public class TestEncodingDetector {
   private static Configuration conf = NutchConfiguration.create();
@@ -100,4 +106,147 @@ public class TestEncodingDetector {
     assertEquals("utf-8", encoding.toLowerCase());
   }
 
+  private static String sniff(String content) {
+    return EncodingDetector.sniffCharacterEncoding(content.getBytes(StandardCharsets.ISO_8859_1), 0, content.length());
+  }
+
+  @Test
+  public void testSniffCharacterEncoding() {
+    assertEquals("gbk", sniff("<html><head><meta http-equiv=\"Content-Type\" content=\"text/html; charset=gbk\"></head>"));
+    assertEquals("GB2312", sniff("<html><HEAD><META HTTP-EQUIV='content-type' CONTENT='text/html; Charset = GB2312'>"));
+    assertEquals("utf-8", sniff("<html><head><meta charset=\"utf-8\" /><title>t</title>"));
+    assertEquals("Shift_JIS", sniff("<meta name=\"description\" content=\"a charset page\"><meta charset=Shift_JIS>"));
+    assertEquals("ISO-8859-1", sniff("<?xml version=\"1.0\" encoding=\"ISO-8859-1\"?><rss></rss>"));
+    // The BOM comes first
+    assertEquals("UTF-8", sniff("\u00EF\u00BB\u00BF<meta charset=\"gbk\">"));
+    assertEquals("UTF-16LE", sniff("\u00FF\u00FE<\u0000h\u0000"));
+
+    assertNull(sniff("<html><head><title>charset=gbk</title></head>"));
+    assertNull(sniff("<meta charset=>"));
+    assertNull(sniff(""));
+
+    // Only the first bytes are scanned
+    StringBuilder sb = new StringBuilder();
+    for (int i = 0; i < 300; ++i) {
+      sb.append("<p>text</p>");
+    }
+    assertNull(sniff(sb + "<meta charset=\"gbk\">"));
+  }
+
+  @Test
+  public void testHostEncodingMemo() {
+    Configuration conf = NutchConfiguration.create();
+    HostEncodingMemo memo = new HostEncodingMemo(conf);
+
+    memo.vote("a.com", "GBK", 1);
+    memo.vote("a.com", "GBK", 1);
+    assertNull("Not known well enough", memo.get("a.com"));
+    memo.vote("a.com", "GBK", 1);
+    assertEquals("GBK", memo.get("a.com"));
+
+    memo.vote("a.com", "GBK", 2);
+
+    // The host changes its encoding, a few pages are not enough
+    memo.vote("a.com", "UTF-8", 1);
+    assertEquals("GBK", memo.get("a.com"));
+    for (int i = 0; i < 6; ++i) {
+      memo.vote("a.com", "UTF-8", 1);
+    }
+    assertEquals("UTF-8", memo.get("a.com"));
+    assertEquals("1", memo.getParams().get("changes"));
+
+    memo.reject("a.com");
+    assertNull(memo.get("a.com"));
+    assertNull(memo.get("b.com"));
+  }
+
+  private static final String CHINESE = "\u4e2d\u6587\u7f51\u9875\u7684\u5b57\u7b26\u7f16\u7801\u68c0\u6d4b"
+      + "\u65b0\u95fb\u4f53\u80b2\u8d22\u7ecf\u79d1\u6280\u5a31\u4e50\u6c7d\u8f66\u623f\u4ea7\u6559\u80b2"
+      + "\u5065\u5eb7\u65c5\u6e38\u6587\u5316\u5386\u53f2\u519b\u4e8b\u56fd\u9645\u793e\u4f1a\u5929\u6c14";
+
+  private static WebPage newPage(String host, int index, String encoding, boolean withMeta, Random random) {
+    StringBuilder sb = new StringBuilder("<html><head>");
+    if (withMeta) {
+      sb.append("<meta http-equiv=\"Content-Type\" content=\"text/html; charset=").append(encoding).append("\">");
+    }
+    sb.append("<title>").append(index).append("</title></head><body>");
+    for (int i = 0; i < 60; ++i) {
+      sb.append("<p><a href=\"/").append(random.nextInt(10000)).append(".html\">");
+      for (int k = 0; k < 12; ++k) {
+        sb.append(CHINESE.charAt(random.nextInt(CHINESE.length())));
+      }
+      sb.append("</a></p>\n");
+    }
+    sb.append("</body></html>");
+
+    WebPage page = WebPage.newBuilder().build();
+    page.setBaseUrl(new Utf8("http://" + host + "/" + index + ".html"));
+    page.setContentType(new Utf8("text/html"));
+    page.setContent(ByteBuffer.wrap(sb.toString().getBytes(java.nio.charset.Charset.forName(encoding))));
+    return page;
+  }
+
+  /** GB18030 is a superset of GBK */
+  private static boolean isRight(String expected, String encoding) {
+    return expected.equals(encoding) || (expected.equals("gbk") && encoding.equals("gb18030"));
+  }
+
+  /**
+   * A mixed GBK/UTF-8 corpus, one encoding per host, the first pages of a host tell their encoding
+   * and the others do not, compared with detecting every page on its own
+   * */
+  @Test
+  public void testMixedCorpusBenchmark() {
+    Configuration conf = NutchConfiguration.create();
+    conf.setInt(EncodingDetector.MIN_CONFIDENCE_KEY, 10);
+
+    Random random = new Random(0);
+    List<WebPage> pages = new ArrayList<>();
+    List<String> expected = new ArrayList<>();
+    for (int index = 0; index < 25; ++index) {
+      for (int h = 0; h < 40; ++h) {
+        String encoding = h % 2 == 0 ? "gbk" : "utf-8";
+        pages.add(newPage("www.host" + h + ".com", index, encoding, index < 3, random));
+        expected.add(encoding);
+      }
+    }
+
+    HostEncodingMemo memo = new HostEncodingMemo(conf);
+    for (int round = 0; round < 3; ++round) {
+      long startTime = System.nanoTime();
+      int detectedRight = 0;
+      for (int i = 0; i < pages.size(); ++i) {
+        if (isRight(expected.get(i), new EncodingDetector(conf, null).sniffEncoding(pages.get(i)))) {
+          ++detectedRight;
+        }
+      }
+      long detectTime = System.nanoTime() - startTime;
+
+      memo = new HostEncodingMemo(conf);
+      startTime = System.nanoTime();
+      int memoRight = 0;
+      for (int i = 0; i < pages.size(); ++i) {
+        if (isRight(expected.get(i), new EncodingDetector(conf, memo).sniffEncoding(pages.get(i)))) {
+          ++memoRight;
+        }
+      }
+      long memoTime = System.nanoTime() - startTime;
+
+      System.out.println(Params.formatAsLine(
+          "round", round,
+          "pages", pages.size(),
+          "detectRight", detectedRight,
+          "detect(ms)", detectTime / 1000000,
+          "memoRight", memoRight,
+          "memo(ms)", memoTime / 1000000
+      ));
+
+      if (round == 2) {
+        assertEquals(pages.size(), memoRight);
+        assertTrue(memoRight >= detectedRight);
+        assertTrue(memoTime < detectTime);
+      }
+    }
+    System.out.println("Encoding memo : " + memo.getParams().formatAsLine());
+  }
 }
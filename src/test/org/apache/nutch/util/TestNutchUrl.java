@@ -0,0 +1,73 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.apache.nutch.util;
+
+import static org.junit.Assert.*;
+
+import java.net.MalformedURLException;
+import java.net.URL;
+
+import org.junit.Test;
+
+public class TestNutchUrl {
+
+  private static final String[] URLS = {
+      "http://foo.com/",
+      "http://foo.com:8900/",
+      "ftp://bar.baz.com/",
+      "http://Bar.Baz.com:8983/to/index.html?a=b&c=d",
+      "http://www.example.co.uk/news/1.html",
+      "http://140.211.11.130/foundation/contributing.html",
+      "file:///var/www/index.html"
+  };
+
+  @Test
+  public void testSameAsUtils() throws Exception {
+    for (String url : URLS) {
+      NutchUrl nutchUrl = NutchUrl.parse(url);
+      URL u = new URL(url);
+
+      assertEquals(url, nutchUrl.getUrl());
+      assertEquals(u.getProtocol(), nutchUrl.getProtocol());
+      assertEquals(u.getPort(), nutchUrl.getPort());
+      assertEquals(u.getHost().toLowerCase(), nutchUrl.getHost());
+      assertEquals(URLUtil.getDomainName(u), nutchUrl.getDomain());
+      assertEquals(TableUtil.reverseUrl(u), TableUtil.reverseUrl(nutchUrl));
+      for (URLUtil.HostGroupMode mode : new URLUtil.HostGroupMode[] {
+          URLUtil.HostGroupMode.BY_HOST, URLUtil.HostGroupMode.BY_DOMAIN}) {
+        assertEquals(URLUtil.getHost(u, mode), URLUtil.getHost(nutchUrl, mode));
+      }
+    }
+  }
+
+  @Test
+  public void testMalformed() {
+    assertNull(NutchUrl.of("foo://bar"));
+    try {
+      NutchUrl.parse("foo://bar");
+      fail("Unknown protocol");
+    } catch (MalformedURLException ignored) {
+    }
+  }
+
+  @Test
+  public void testSameHost() {
+    assertTrue(NutchUrl.of("http://Foo.com/a").isSameHost(NutchUrl.of("https://foo.com/b")));
+    assertFalse(NutchUrl.of("http://www.foo.com/").isSameHost(NutchUrl.of("http://foo.com/")));
+    assertEquals(NutchUrl.of("http://foo.com/"), NutchUrl.of("http://foo.com/"));
+  }
+}
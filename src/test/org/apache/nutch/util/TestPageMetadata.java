@@ -0,0 +1,117 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.apache.nutch.util;
+
+import static org.apache.nutch.metadata.Metadata.*;
+import static org.junit.Assert.*;
+
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.Date;
+import java.util.Map;
+
+import org.apache.avro.util.Utf8;
+import org.apache.nutch.metadata.Nutch;
+import org.apache.nutch.storage.WebPage;
+import org.junit.Test;
+
+public class TestPageMetadata {
+
+  @Test
+  public void testTypedValues() {
+    WebPage page = WebPage.newBuilder().build();
+
+    assertSame(PageMetadata.FETCH_PRIORITY, PageMetadata.key(META_FETCH_PRIORITY));
+    assertEquals(-1, TableUtil.getGenerateTime(page));
+
+    TableUtil.setFetchPriority(page, 1200);
+    TableUtil.setGenerateTime(page, 1470000000000L);
+    TableUtil.setCash(page, 1.5f);
+    TableUtil.increaseReferredPageCount(page, 2);
+    TableUtil.increaseReferredPageCount(page, 3);
+
+    assertEquals(5, page.getMetadata().get(PageMetadata.FETCH_PRIORITY).remaining());
+    assertEquals(1200, TableUtil.getFetchPriority(page));
+    assertEquals(1470000000000L, TableUtil.getGenerateTime(page));
+    assertEquals(1.5f, TableUtil.getCash(page), 0.0f);
+    assertEquals(5, TableUtil.getReferredPageCount(page));
+    assertEquals(-1, TableUtil.getPublishTime(page));
+    assertEquals("1200", TableUtil.getMetadata(page, META_FETCH_PRIORITY));
+    assertEquals("1200", TableUtil.getMetadata(page).get(META_FETCH_PRIORITY));
+  }
+
+  @Test
+  public void testReadableDump() {
+    WebPage page = WebPage.newBuilder().build();
+    TableUtil.setFetchPriority(page, 1200);
+    TableUtil.setGenerateTime(page, 1470000000000L);
+    TableUtil.increaseReferredPageCount(page, 5);
+    TableUtil.markFromSeed(page);
+
+    @SuppressWarnings("unchecked")
+    Map<String, String> metadata = (Map<String, String>) DbPageConverter
+        .convertPage(page, Collections.singleton("metadata")).get("metadata");
+    assertEquals("1200", metadata.get(META_FETCH_PRIORITY));
+    assertEquals("1470000000000", metadata.get(META_GENERATE_TIME));
+    assertEquals("5", metadata.get(META_REFERRED_PAGES));
+    assertEquals(Nutch.YES_STRING, metadata.get(META_FROM_SEED));
+  }
+
+  @Test
+  public void testFormerStringValues() {
+    WebPage page = WebPage.newBuilder().build();
+    String time1 = DateTimeUtil.solrCompatibleFormat(1470000000000L);
+    String time2 = DateTimeUtil.solrCompatibleFormat(1470000060000L);
+
+    putString(page, META_FETCH_PRIORITY, "1200");
+    putString(page, META_GENERATE_TIME, "1470000000000");
+    putString(page, META_PUBLISH_TIME, time1);
+    putString(page, META_FETCH_TIME_HISTORY, time1 + "," + time2);
+
+    assertEquals(1200, TableUtil.getFetchPriority(page));
+    assertEquals(1470000000000L, TableUtil.getGenerateTime(page));
+    assertEquals(1470000000000L, TableUtil.getPublishTime(page));
+    assertArrayEquals(new long[] {1470000000000L, 1470000060000L}, TableUtil.getFetchTimes(page));
+    assertEquals(new Date(1470000000000L), TableUtil.getFirstCrawlTime(page, null));
+
+    TableUtil.putFetchTimeHistory(page, 1470000120000L);
+    assertEquals(time1 + "," + time2 + "," + DateTimeUtil.solrCompatibleFormat(1470000120000L),
+        TableUtil.getFetchTimeHistory(page, ""));
+  }
+
+  @Test
+  public void testTimeHistory() {
+    WebPage page = WebPage.newBuilder().build();
+    assertEquals("", TableUtil.getFetchTimeHistory(page, ""));
+    assertNull(TableUtil.getFirstCrawlTime(page, null));
+
+    for (long i = 1; i <= 20; ++i) {
+      TableUtil.putFetchTimeHistory(page, i * 1000);
+    }
+
+    // The first time and the latest times are kept
+    long[] times = TableUtil.getFetchTimes(page);
+    assertEquals(12, times.length);
+    assertEquals(1000, times[0]);
+    assertEquals(10000, times[1]);
+    assertEquals(20000, times[11]);
+  }
+
+  private void putString(WebPage page, String key, String value) {
+    page.getMetadata().put(new Utf8(key), ByteBuffer.wrap(value.getBytes()));
+  }
+}
@@ -0,0 +1,137 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nutch.util.domain;
+
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests the suffix trie of DomainSuffixes against the label by label lookup it replaces
+ */
+public class TestDomainSuffixes {
+
+  private static final Logger LOG = LoggerFactory.getLogger(TestDomainSuffixes.class);
+
+  private static final String[] LABELS = {
+      "www", "news", "bbs", "a", "foo-bar", "m", "static1", "co", "com", "uk", "blog", ""
+  };
+
+  private static final String[] SUFFIXES = {
+      "com", "org", "net", "co.uk", "uk", "com.cn", "gov.cn", "cn", "de", "jp", "ne.jp", "info",
+      "unknowntld", "COM", "localhost"
+  };
+
+  private static final int HOSTS = 1000000;
+
+  @Test
+  public void testSameAsLabelLookup() {
+    DomainSuffixes tlds = DomainSuffixes.getInstance();
+    String[] hosts = createHosts(HOSTS);
+
+    for (String host : hosts) {
+      assertEquals(host, getDomainNameByLabels(tlds, host), tlds.getDomainName(host, host.length()));
+      assertSame(host, getLongestSuffixByLabels(tlds, host), tlds.getLongestSuffix(host));
+    }
+
+    for (String host : new String[] {"", ".", "com", "co.uk", ".com", "a..com", "www.example.co.uk"}) {
+      assertEquals(host, getDomainNameByLabels(tlds, host), tlds.getDomainName(host, host.length()));
+      assertSame(host, getLongestSuffixByLabels(tlds, host), tlds.getLongestSuffix(host));
+    }
+    assertEquals("example.co.uk", tlds.getDomainName("www.example.co.uk", "www.example.co.uk".length()));
+  }
+
+  @Test
+  public void testBenchmark() {
+    DomainSuffixes tlds = DomainSuffixes.getInstance();
+    String[] hosts = createHosts(HOSTS);
+
+    // Warm up both
+    int length = 0;
+    for (int i = 0; i < hosts.length / 10; ++i) {
+      length += getDomainNameByLabels(tlds, hosts[i]).length();
+      length += tlds.getDomainName(hosts[i], hosts[i].length()).length();
+    }
+
+    long startTime = System.nanoTime();
+    for (String host : hosts) {
+      length += getDomainNameByLabels(tlds, host).length();
+    }
+    long labelTime = System.nanoTime() - startTime;
+
+    startTime = System.nanoTime();
+    for (String host : hosts) {
+      length += tlds.getDomainName(host, host.length()).length();
+    }
+    long trieTime = System.nanoTime() - startTime;
+
+    LOG.info(String.format("Domain names of %d hosts, label lookup %dms, trie %dms (%d)",
+        hosts.length, labelTime / 1000000, trieTime / 1000000, length));
+  }
+
+  private String[] createHosts(int count) {
+    Random random = new Random(0);
+    String[] hosts = new String[count];
+    for (int i = 0; i < count; ++i) {
+      StringBuilder sb = new StringBuilder();
+      int labels = random.nextInt(4);
+      for (int j = 0; j < labels; ++j) {
+        sb.append(LABELS[random.nextInt(LABELS.length)]).append('.');
+      }
+      sb.append("site").append(random.nextInt(1000)).append('.');
+      sb.append(SUFFIXES[random.nextInt(SUFFIXES.length)]);
+      hosts[i] = sb.toString();
+    }
+    return hosts;
+  }
+
+  /**
+   * The former lookup, a substring for each label
+   * */
+  private String getDomainNameByLabels(DomainSuffixes tlds, String host) {
+    int index = 0;
+    String candidate = host;
+    for (; index >= 0;) {
+      index = candidate.indexOf('.');
+      String subCandidate = candidate.substring(index + 1);
+      if (tlds.isDomainSuffix(subCandidate)) {
+        return candidate;
+      }
+      candidate = subCandidate;
+    }
+    return candidate;
+  }
+
+  private DomainSuffix getLongestSuffixByLabels(DomainSuffixes tlds, String host) {
+    int index = 0;
+    String candidate = host;
+    for (; index >= 0;) {
+      index = candidate.indexOf('.');
+      String subCandidate = candidate.substring(index + 1);
+      DomainSuffix d = tlds.get(subCandidate);
+      if (d != null) {
+        return d;
+      }
+      candidate = subCandidate;
+    }
+    return null;
+  }
+}